@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount;
+
+import com.graphaware.module.relcount.cache.DegreeDeltas;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * What a transaction has written with respect to cached degrees, passed by {@link RelationshipCountModule} from
+ * before to after the commit of the transaction.
+ */
+public final class DegreeWrites {
+
+    private final Set<Long> flushedNodeIds;
+    private final Set<Long> deletedNodeIds;
+    private final DegreeDeltas queuedDeltas;
+
+    /**
+     * Create a record of cached degrees having been written by the transaction.
+     *
+     * @param flushedNodeIds IDs of nodes whose cached degrees have been written.
+     * @param deletedNodeIds IDs of nodes deleted by the transaction.
+     * @return record.
+     */
+    public static DegreeWrites flushed(Set<Long> flushedNodeIds, Set<Long> deletedNodeIds) {
+        return new DegreeWrites(flushedNodeIds, deletedNodeIds, null);
+    }
+
+    /**
+     * Create a record of degree changes having been queued by the transaction, to be applied to cached degrees later.
+     *
+     * @param queuedDeltas   queued degree changes.
+     * @param deletedNodeIds IDs of nodes deleted by the transaction.
+     * @return record.
+     */
+    public static DegreeWrites queued(DegreeDeltas queuedDeltas, Set<Long> deletedNodeIds) {
+        return new DegreeWrites(Collections.<Long>emptySet(), deletedNodeIds, queuedDeltas);
+    }
+
+    private DegreeWrites(Set<Long> flushedNodeIds, Set<Long> deletedNodeIds, DegreeDeltas queuedDeltas) {
+        this.flushedNodeIds = flushedNodeIds;
+        this.deletedNodeIds = deletedNodeIds;
+        this.queuedDeltas = queuedDeltas;
+    }
+
+    /**
+     * @return IDs of nodes whose cached degrees have been written by the transaction.
+     */
+    public Set<Long> getFlushedNodeIds() {
+        return flushedNodeIds;
+    }
+
+    /**
+     * @return IDs of nodes deleted by the transaction. Neo4j reuses them, so whatever is known about them must be forgotten.
+     */
+    public Set<Long> getDeletedNodeIds() {
+        return deletedNodeIds;
+    }
+
+    /**
+     * @return degree changes queued by the transaction, null if cached degrees have been written synchronously.
+     */
+    public DegreeDeltas getQueuedDeltas() {
+        return queuedDeltas;
+    }
+}
@@ -41,4 +41,33 @@ public interface RelationshipCountConfiguration extends TxDrivenModuleConfigurat
      * @return contained relationship weighing strategy.
      */
     WeighingStrategy getWeighingStrategy();
+
+    /**
+     * @return maximum total weight of decoded cached degrees kept in memory by the module and shared by all
+     * transactions, see {@link com.graphaware.module.relcount.cache.DecodedDegreeCache}. 0 means no caching in memory.
+     */
+    long getDecodedDegreeCacheCapacity();
+
+    /**
+     * @return number of threads (re-)initializing the module concurrently, see {@link com.graphaware.module.relcount.init.PartitionedNodeProcessor}.
+     */
+    int getInitializationThreads();
+
+    /**
+     * @return number of nodes (re-)initialized in a single transaction.
+     */
+    int getInitializationBatchSize();
+
+    /**
+     * @return true iff cached counts should be re-built under a shadow prefix in the background when the module needs
+     * re-initializing, while the current ones keep being used for counting, false for clearing and re-building them in place.
+     */
+    boolean isShadowReinitialization();
+
+    /**
+     * @return interval in ms between runs of the background writer applying degree changes queued by transactions,
+     * see {@link com.graphaware.module.relcount.writebehind.WriteBehindDegreeWriter}. 0 means cached counts are
+     * maintained synchronously, within transactions.
+     */
+    long getWriteBehindInterval();
 }
@@ -17,14 +17,21 @@
 package com.graphaware.module.relcount;
 
 import com.graphaware.common.policy.InclusionPolicies;
+import com.graphaware.common.policy.RelationshipInclusionPolicy;
+import com.graphaware.common.policy.RelationshipPropertyInclusionPolicy;
 import com.graphaware.common.policy.none.IncludeNoNodeProperties;
 import com.graphaware.common.policy.none.IncludeNoNodes;
 import com.graphaware.module.relcount.cache.DegreeCachingStrategy;
 import com.graphaware.module.relcount.cache.SingleNodePropertyDegreeCachingStrategy;
+import com.graphaware.module.relcount.compact.CompactionBudget;
 import com.graphaware.module.relcount.compact.CompactionStrategy;
+import com.graphaware.module.relcount.compact.NoCompactionStrategy;
+import com.graphaware.module.relcount.compact.PreserveCountedProperties;
 import com.graphaware.module.relcount.compact.ThresholdBasedCompactionStrategy;
 import com.graphaware.module.relcount.count.OneForEach;
 import com.graphaware.module.relcount.count.WeighingStrategy;
+import com.graphaware.module.relcount.view.CountView;
+import com.graphaware.module.relcount.view.CountViews;
 import com.graphaware.runtime.config.BaseTxDrivenModuleConfiguration;
 import com.graphaware.runtime.policy.all.IncludeAllBusinessRelationshipProperties;
 import com.graphaware.runtime.policy.all.IncludeAllBusinessRelationships;
@@ -36,10 +43,17 @@ import com.graphaware.runtime.policy.all.IncludeAllBusinessRelationships;
 public class RelationshipCountConfigurationImpl extends BaseTxDrivenModuleConfiguration<RelationshipCountConfigurationImpl> implements RelationshipCountConfiguration {
 
     private static final int DEFAULT_COMPACTION_THRESHOLD = 20;
+    private static final long DEFAULT_DECODED_DEGREE_CACHE_CAPACITY = 100_000;
+    private static final int DEFAULT_INITIALIZATION_BATCH_SIZE = 1000;
 
     private final DegreeCachingStrategy degreeCachingStrategy;
     private final CompactionStrategy compactionStrategy;
     private final WeighingStrategy weighingStrategy;
+    private final long decodedDegreeCacheCapacity;
+    private final int initializationThreads;
+    private final int initializationBatchSize;
+    private final boolean shadowReinitialization;
+    private final long writeBehindInterval;
 
     /**
      * Create default strategies.
@@ -56,6 +70,11 @@ public class RelationshipCountConfigurationImpl extends BaseTxDrivenModuleConfig
                 new SingleNodePropertyDegreeCachingStrategy(),
                 new ThresholdBasedCompactionStrategy(DEFAULT_COMPACTION_THRESHOLD),
                 OneForEach.getInstance(),
+                DEFAULT_DECODED_DEGREE_CACHE_CAPACITY,
+                Runtime.getRuntime().availableProcessors(),
+                DEFAULT_INITIALIZATION_BATCH_SIZE,
+                false,
+                0,
                 ALWAYS
         );
     }
@@ -67,15 +86,25 @@ public class RelationshipCountConfigurationImpl extends BaseTxDrivenModuleConfig
      * @param degreeCachingStrategy strategy for caching degrees.
      * @param compactionStrategy    strategy for compacting cached counts.
      * @param weighingStrategy      strategy for weighing relationships.
+     * @param decodedDegreeCacheCapacity maximum total weight of decoded cached degrees kept in memory, 0 for none.
+     * @param initializationThreads   number of threads (re-)initializing the module concurrently.
+     * @param initializationBatchSize number of nodes (re-)initialized in a single transaction.
+     * @param shadowReinitialization  true for re-building cached counts under a shadow prefix in the background.
+     * @param writeBehindInterval     interval in ms between runs of the background writer applying queued degree changes, 0 for synchronous maintenance.
      * @param initializeUntil       until what time in ms since epoch it is ok to re(initialize) the entire module in case the configuration
      *                              has changed since the last time the module was started, or if it is the first time the module was registered.
      *                              {@link #NEVER} for never, {@link #ALWAYS} for always.
      */
-    protected RelationshipCountConfigurationImpl(InclusionPolicies inclusionPolicies, DegreeCachingStrategy degreeCachingStrategy, CompactionStrategy compactionStrategy, WeighingStrategy weighingStrategy, long initializeUntil) {
+    protected RelationshipCountConfigurationImpl(InclusionPolicies inclusionPolicies, DegreeCachingStrategy degreeCachingStrategy, CompactionStrategy compactionStrategy, WeighingStrategy weighingStrategy, long decodedDegreeCacheCapacity, int initializationThreads, int initializationBatchSize, boolean shadowReinitialization, long writeBehindInterval, long initializeUntil) {
         super(inclusionPolicies, initializeUntil);
         this.degreeCachingStrategy = degreeCachingStrategy;
         this.compactionStrategy = compactionStrategy;
         this.weighingStrategy = weighingStrategy;
+        this.decodedDegreeCacheCapacity = decodedDegreeCacheCapacity;
+        this.initializationThreads = initializationThreads;
+        this.initializationBatchSize = initializationBatchSize;
+        this.shadowReinitialization = shadowReinitialization;
+        this.writeBehindInterval = writeBehindInterval;
     }
 
     /**
@@ -83,7 +112,7 @@ public class RelationshipCountConfigurationImpl extends BaseTxDrivenModuleConfig
      */
     @Override
     protected RelationshipCountConfigurationImpl newInstance(InclusionPolicies inclusionPolicies, long initializeUntil) {
-        return new RelationshipCountConfigurationImpl(inclusionPolicies, getDegreeCachingStrategy(), getCompactionStrategy(), getWeighingStrategy(), initializeUntil);
+        return new RelationshipCountConfigurationImpl(inclusionPolicies, getDegreeCachingStrategy(), getCompactionStrategy(), getWeighingStrategy(), getDecodedDegreeCacheCapacity(), getInitializationThreads(), getInitializationBatchSize(), isShadowReinitialization(), getWriteBehindInterval(), initializeUntil);
     }
 
     /**
@@ -93,7 +122,7 @@ public class RelationshipCountConfigurationImpl extends BaseTxDrivenModuleConfig
      * @return reconfigured strategies.
      */
     public RelationshipCountConfigurationImpl with(DegreeCachingStrategy degreeCachingStrategy) {
-        return new RelationshipCountConfigurationImpl(getInclusionPolicies(), degreeCachingStrategy, getCompactionStrategy(), getWeighingStrategy(), initializeUntil());
+        return new RelationshipCountConfigurationImpl(getInclusionPolicies(), degreeCachingStrategy, getCompactionStrategy(), getWeighingStrategy(), getDecodedDegreeCacheCapacity(), getInitializationThreads(), getInitializationBatchSize(), isShadowReinitialization(), getWriteBehindInterval(), initializeUntil());
     }
 
     /**
@@ -103,17 +132,88 @@ public class RelationshipCountConfigurationImpl extends BaseTxDrivenModuleConfig
      * @return reconfigured strategies.
      */
     public RelationshipCountConfigurationImpl with(CompactionStrategy compactionStrategy) {
-        return new RelationshipCountConfigurationImpl(getInclusionPolicies(), getDegreeCachingStrategy(), compactionStrategy, getWeighingStrategy(), initializeUntil());
+        return new RelationshipCountConfigurationImpl(getInclusionPolicies(), getDegreeCachingStrategy(), compactionStrategy, getWeighingStrategy(), getDecodedDegreeCacheCapacity(), getInitializationThreads(), getInitializationBatchSize(), isShadowReinitialization(), getWriteBehindInterval(), initializeUntil());
     }
 
     /**
-     * Reconfigure this instance to use a {@link ThresholdBasedCompactionStrategy} with a different threshold.
+     * Reconfigure this instance to use a {@link ThresholdBasedCompactionStrategy} with a different threshold. If one is
+     * already configured, its generalization strategy and compaction budgets are kept.
      *
      * @param threshold to use.
      * @return reconfigured strategies.
      */
     public RelationshipCountConfigurationImpl withThreshold(int threshold) {
-        return new RelationshipCountConfigurationImpl(getInclusionPolicies(), getDegreeCachingStrategy(), new ThresholdBasedCompactionStrategy(threshold), getWeighingStrategy(), initializeUntil());
+        return withThreshold(threshold, threshold);
+    }
+
+    /**
+     * Reconfigure this instance to use a {@link ThresholdBasedCompactionStrategy} with a soft threshold, i.e. one that
+     * nodes can temporarily exceed up to the hard threshold, and are compacted just before their cached degrees are written.
+     * If one is already configured, its generalization strategy and compaction budgets are kept.
+     *
+     * @param threshold     soft compaction threshold to use.
+     * @param hardThreshold hard threshold to use, not lower than the compaction threshold.
+     * @return reconfigured strategies.
+     */
+    public RelationshipCountConfigurationImpl withThreshold(int threshold, int hardThreshold) {
+        CompactionStrategy compactionStrategy = getCompactionStrategy();
+        if (compactionStrategy instanceof ThresholdBasedCompactionStrategy) {
+            return with(((ThresholdBasedCompactionStrategy) compactionStrategy).withThresholds(threshold, hardThreshold));
+        }
+
+        return with(new ThresholdBasedCompactionStrategy(threshold, hardThreshold));
+    }
+
+    /**
+     * Reconfigure this instance to limit the number of cached degrees per node with respect to specific relationship
+     * types and directions, so that they are compacted independently of the other cached degrees. The configured
+     * compaction strategy must be a {@link ThresholdBasedCompactionStrategy}; its thresholds, which then act as a global
+     * per-node cap, are kept.
+     *
+     * @param budgets per relationship type and direction.
+     * @return reconfigured strategies.
+     * @throws IllegalStateException if the configured compaction strategy is not a {@link ThresholdBasedCompactionStrategy}.
+     */
+    public RelationshipCountConfigurationImpl withCompactionBudgets(CompactionBudget... budgets) {
+        if (!(getCompactionStrategy() instanceof ThresholdBasedCompactionStrategy)) {
+            throw new IllegalStateException("Compaction budgets can only be used with a " + ThresholdBasedCompactionStrategy.class.getSimpleName());
+        }
+
+        return with(((ThresholdBasedCompactionStrategy) getCompactionStrategy()).withBudgets(budgets));
+    }
+
+    /**
+     * Reconfigure this instance to preserve granularity of cached degrees with respect to properties which relationships
+     * are being counted by, using a {@link PreserveCountedProperties} generalization strategy. The configured
+     * compaction strategy must be a {@link ThresholdBasedCompactionStrategy}; its thresholds are kept.
+     *
+     * @param sampleRate one in how many counted relationship descriptions is sampled on average.
+     * @return reconfigured strategies.
+     * @throws IllegalStateException if the configured compaction strategy is not a {@link ThresholdBasedCompactionStrategy}.
+     */
+    public RelationshipCountConfigurationImpl withCountedPropertiesPreserved(int sampleRate) {
+        if (!(getCompactionStrategy() instanceof ThresholdBasedCompactionStrategy)) {
+            throw new IllegalStateException("Counted properties can only be preserved with a " + ThresholdBasedCompactionStrategy.class.getSimpleName());
+        }
+
+        return with(((ThresholdBasedCompactionStrategy) getCompactionStrategy()).with(new PreserveCountedProperties(sampleRate)));
+    }
+
+    /**
+     * Reconfigure this instance to maintain exactly the declared count views, rather than degrees with respect to all
+     * combinations of included relationship property values. The given views replace the relationship and relationship
+     * property inclusion policies, and compaction is turned off, since the views bound the number of cached degrees.
+     *
+     * @param views declared count views, at least one.
+     * @return reconfigured strategies.
+     * @see CountViews
+     */
+    public RelationshipCountConfigurationImpl withCountViews(CountView... views) {
+        CountViews countViews = new CountViews(views);
+
+        return with((RelationshipInclusionPolicy) countViews)
+                .with((RelationshipPropertyInclusionPolicy) countViews)
+                .with(NoCompactionStrategy.getInstance());
     }
 
     /**
@@ -123,7 +223,62 @@ public class RelationshipCountConfigurationImpl extends BaseTxDrivenModuleConfig
      * @return reconfigured strategies.
      */
     public RelationshipCountConfigurationImpl with(WeighingStrategy weighingStrategy) {
-        return new RelationshipCountConfigurationImpl(getInclusionPolicies(), getDegreeCachingStrategy(), getCompactionStrategy(), weighingStrategy, initializeUntil());
+        return new RelationshipCountConfigurationImpl(getInclusionPolicies(), getDegreeCachingStrategy(), getCompactionStrategy(), weighingStrategy, getDecodedDegreeCacheCapacity(), getInitializationThreads(), getInitializationBatchSize(), isShadowReinitialization(), getWriteBehindInterval(), initializeUntil());
+    }
+
+    /**
+     * Reconfigure this instance to keep a different amount of decoded cached degrees in memory.
+     *
+     * @param decodedDegreeCacheCapacity maximum total weight of decoded cached degrees kept in memory, 0 for none.
+     * @return reconfigured strategies.
+     */
+    public RelationshipCountConfigurationImpl withDecodedDegreeCacheCapacity(long decodedDegreeCacheCapacity) {
+        return new RelationshipCountConfigurationImpl(getInclusionPolicies(), getDegreeCachingStrategy(), getCompactionStrategy(), getWeighingStrategy(), decodedDegreeCacheCapacity, getInitializationThreads(), getInitializationBatchSize(), isShadowReinitialization(), getWriteBehindInterval(), initializeUntil());
+    }
+
+    /**
+     * Reconfigure this instance to (re-)initialize the module using a different number of threads.
+     *
+     * @param initializationThreads number of threads (re-)initializing the module concurrently. Must be positive.
+     * @return reconfigured strategies.
+     */
+    public RelationshipCountConfigurationImpl withInitializationThreads(int initializationThreads) {
+        return new RelationshipCountConfigurationImpl(getInclusionPolicies(), getDegreeCachingStrategy(), getCompactionStrategy(), getWeighingStrategy(), getDecodedDegreeCacheCapacity(), initializationThreads, getInitializationBatchSize(), isShadowReinitialization(), getWriteBehindInterval(), initializeUntil());
+    }
+
+    /**
+     * Reconfigure this instance to (re-)initialize the module using a different batch size.
+     *
+     * @param initializationBatchSize number of nodes (re-)initialized in a single transaction. Must be positive.
+     * @return reconfigured strategies.
+     */
+    public RelationshipCountConfigurationImpl withInitializationBatchSize(int initializationBatchSize) {
+        return new RelationshipCountConfigurationImpl(getInclusionPolicies(), getDegreeCachingStrategy(), getCompactionStrategy(), getWeighingStrategy(), getDecodedDegreeCacheCapacity(), getInitializationThreads(), initializationBatchSize, isShadowReinitialization(), getWriteBehindInterval(), initializeUntil());
+    }
+
+    /**
+     * Reconfigure this instance to re-build cached counts under a shadow prefix in the background when the module
+     * needs re-initializing, rather than clearing and re-building them in place during startup. Since transactions
+     * keep running meanwhile, the background re-build processes every node in a transaction of its own, regardless of
+     * the initialization batch size, so that it never deadlocks with them.
+     *
+     * @param shadowReinitialization true for shadow re-initialization.
+     * @return reconfigured strategies.
+     */
+    public RelationshipCountConfigurationImpl withShadowReinitialization(boolean shadowReinitialization) {
+        return new RelationshipCountConfigurationImpl(getInclusionPolicies(), getDegreeCachingStrategy(), getCompactionStrategy(), getWeighingStrategy(), getDecodedDegreeCacheCapacity(), getInitializationThreads(), getInitializationBatchSize(), shadowReinitialization, getWriteBehindInterval(), initializeUntil());
+    }
+
+    /**
+     * Reconfigure this instance to take the maintenance of cached counts out of transactions. Transactions then only
+     * queue their degree changes, which are applied by a background writer periodically.
+     *
+     * @param writeBehindInterval interval in ms between runs of the background writer, 0 for maintaining cached counts
+     *                            synchronously, within transactions.
+     * @return reconfigured strategies.
+     */
+    public RelationshipCountConfigurationImpl withWriteBehindInterval(long writeBehindInterval) {
+        return new RelationshipCountConfigurationImpl(getInclusionPolicies(), getDegreeCachingStrategy(), getCompactionStrategy(), getWeighingStrategy(), getDecodedDegreeCacheCapacity(), getInitializationThreads(), getInitializationBatchSize(), isShadowReinitialization(), writeBehindInterval, initializeUntil());
     }
 
     /**
@@ -150,6 +305,46 @@ public class RelationshipCountConfigurationImpl extends BaseTxDrivenModuleConfig
         return weighingStrategy;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getDecodedDegreeCacheCapacity() {
+        return decodedDegreeCacheCapacity;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getInitializationThreads() {
+        return initializationThreads;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getInitializationBatchSize() {
+        return initializationBatchSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isShadowReinitialization() {
+        return shadowReinitialization;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getWriteBehindInterval() {
+        return writeBehindInterval;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -177,6 +372,9 @@ public class RelationshipCountConfigurationImpl extends BaseTxDrivenModuleConfig
             return false;
         }
 
+        //decoded degree cache capacity, initialization and write-behind settings deliberately ignored, they do not affect what is stored in the database,
+        //so changing it must not cause the module to be re-initialized
+
         return true;
     }
 
@@ -16,23 +16,53 @@
 
 package com.graphaware.module.relcount;
 
+import com.graphaware.common.description.property.LiteralPropertiesDescription;
 import com.graphaware.common.util.Change;
+import com.graphaware.module.relcount.bulk.BulkBuildMarker;
+import com.graphaware.module.relcount.bulk.BulkDegreeBuilder;
+import com.graphaware.module.relcount.cache.DecodedDegreeCache;
+import com.graphaware.module.relcount.cache.DegreeDeltas;
 import com.graphaware.module.relcount.cache.NodeBasedDegreeCache;
+import com.graphaware.module.relcount.cache.PrefixResolver;
+import com.graphaware.module.relcount.cache.ShardedDegreeCachingStrategy;
+import com.graphaware.module.relcount.count.WeighingStrategy;
+import com.graphaware.module.relcount.cache.DegreeCachingNode;
+import com.graphaware.module.relcount.init.ActivePrefixStore;
+import com.graphaware.module.relcount.init.ConfigurationDiff;
+import com.graphaware.module.relcount.init.InitializationCheckpoint;
+import com.graphaware.module.relcount.init.PartitionedNodeProcessor;
+import com.graphaware.module.relcount.writebehind.DegreeDeltaJournal;
+import com.graphaware.module.relcount.writebehind.WriteBehindDegreeWriter;
 import com.graphaware.runtime.RuntimeRegistry;
 import com.graphaware.runtime.metadata.TxDrivenModuleMetadata;
 import com.graphaware.runtime.module.TxDrivenModule;
 import com.graphaware.tx.event.improved.api.ImprovedTransactionData;
 import com.graphaware.tx.event.improved.propertycontainer.filtered.FilteredNode;
-import com.graphaware.tx.executor.batch.IterableInputBatchTransactionExecutor;
 import com.graphaware.tx.executor.batch.UnitOfWork;
-import com.graphaware.tx.executor.input.AllNodes;
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
 import java.util.Collection;
-
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.graphaware.module.relcount.init.InitializationCheckpoint.Phase.BUILDING;
+import static com.graphaware.module.relcount.init.InitializationCheckpoint.Phase.CLEANING_UP;
+import static com.graphaware.module.relcount.init.InitializationCheckpoint.Phase.CLEARING;
+import static com.graphaware.module.relcount.init.InitializationCheckpoint.Phase.UPDATING;
 import static org.neo4j.graphdb.Direction.INCOMING;
 import static org.neo4j.graphdb.Direction.OUTGOING;
 
@@ -44,17 +74,53 @@ import static org.neo4j.graphdb.Direction.OUTGOING;
  * Once registered with {@link com.graphaware.runtime.GraphAwareRuntime}, relationship
  * counts will be cached on nodes properties. {@link com.graphaware.module.relcount.count.CachedRelationshipCounter} or {@link com.graphaware.module.relcount.count.LegacyFallbackRelationshipCounter} can then be used to
  * count relationships by querying these cached counts.
+ * <p/>
+ * If configured to do so ({@link RelationshipCountConfiguration#isShadowReinitialization()}), the module re-builds cached
+ * counts under a shadow prefix in the background when it needs re-initializing. Until the shadow counts are complete,
+ * the existing ones keep being used for counting and transactions keep both up to date. Then the shadow prefix atomically
+ * becomes the active one and the previously active counts are cleaned up.
+ * <p/>
+ * If configured to do so ({@link RelationshipCountConfiguration#getWriteBehindInterval()}), transactions do not write
+ * cached counts, they only queue their net degree changes, which a {@link WriteBehindDegreeWriter} applies in the
+ * background. Counting takes changes that are queued but not yet applied into account. While cached counts are being
+ * re-built under a shadow prefix, they are maintained synchronously.
  */
-public class RelationshipCountModule implements TxDrivenModule<Void> {
+public class RelationshipCountModule implements TxDrivenModule<DegreeWrites> {
 
     /**
      * Default ID of this module used to identify metadata written by this module.
      */
     public static final String FULL_RELCOUNT_DEFAULT_ID = "FRC";
 
+    private static final Logger LOG = LoggerFactory.getLogger(RelationshipCountModule.class);
+
+    private static final String SHADOW_ID_PREFIX = "SHADOW_";
+    private static final String PENDING_ID_PREFIX = "PENDING_";
+
     private final String id;
     private final RelationshipCountConfiguration relationshipCountConfiguration;
     private final NodeBasedDegreeCache relationshipCountCache;
+    private final DecodedDegreeCache decodedDegreeCache;
+
+    //prefix of the cached counts currently used for counting, null until loaded
+    private volatile String activePrefix;
+
+    //checkpoint of a shadow re-build in progress or failed, null if there is none. Transactions also write to its target prefix.
+    private volatile InitializationCheckpoint shadowCheckpoint;
+    private volatile String shadowPrefix;
+    private boolean shadowReinitializationRunning;
+
+    //transactions write cached counts under the read lock, the active prefix is switched under the write lock
+    private final ReadWriteLock prefixLock = new ReentrantReadWriteLock();
+
+    //counters read cached counts and add pending degree changes under the read lock, the background writer commits
+    //applied changes and stops treating them as pending under the write lock
+    private final ReadWriteLock pendingDeltasLock = new ReentrantReadWriteLock();
+
+    private ExecutorService shadowExecutor;
+
+    //created when the module is initialized or started, applies queued degree changes even if write-behind is off
+    private volatile WriteBehindDegreeWriter writeBehindWriter;
 
     /**
      * Create a module with default ID and configuration. Use this constructor when you wish to register a single
@@ -87,23 +153,58 @@ public class RelationshipCountModule implements TxDrivenModule<Void> {
     public RelationshipCountModule(String id, RelationshipCountConfiguration relationshipCountConfiguration) {
         this.id = id;
         this.relationshipCountConfiguration = relationshipCountConfiguration;
-        this.relationshipCountCache = new NodeBasedDegreeCache(id, relationshipCountConfiguration);
+        this.relationshipCountCache = new NodeBasedDegreeCache(relationshipCountConfiguration, new PrefixResolver() {
+            @Override
+            public List<String> resolvePrefixes(Node node) {
+                return RelationshipCountModule.this.resolvePrefixes(node);
+            }
+
+            @Override
+            public boolean isLenient() {
+                return isShadowBuilding(shadowCheckpoint);
+            }
+        });
+        this.decodedDegreeCache = new DecodedDegreeCache(relationshipCountConfiguration.getDecodedDegreeCacheCapacity());
     }
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * Resumes a shadow re-initialization in the background, if it has been interrupted.
      */
     @Override
     public void start(GraphDatabaseService database) {
-        //do nothing
+        WriteBehindDegreeWriter writer = writeBehindWriter(database);
+        if (relationshipCountConfiguration.getWriteBehindInterval() > 0) {
+            writer.start(relationshipCountConfiguration.getWriteBehindInterval());
+        } else {
+            //changes queued while write-behind was configured
+            writer.flush();
+        }
+
+        InitializationCheckpoint checkpoint = new InitializationCheckpoint(database, prefix(database));
+
+        if (checkpoint.isShadow() && checkpoint.isResumableFor(relationshipCountConfiguration)) {
+            LOG.info("Resuming interrupted shadow re-initialization of " + id + " in the background...");
+            startShadowReinitialization(database, checkpoint, true);
+        }
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void shutdown() {
-        //do nothing
+    public synchronized void shutdown() {
+        if (writeBehindWriter != null) {
+            //queued degree changes are persistent, they will be applied next time the module is started
+            writeBehindWriter.shutdown();
+        }
+
+        if (shadowExecutor != null) {
+            //progress is checkpointed, so the re-initialization will be resumed next time the module is started
+            shadowExecutor.shutdownNow();
+            shadowExecutor = null;
+        }
     }
 
     /**
@@ -122,28 +223,384 @@ public class RelationshipCountModule implements TxDrivenModule<Void> {
         return relationshipCountConfiguration;
     }
 
+    /**
+     * Get the in-memory cache of decoded cached degrees, shared by all transactions and kept coherent with committed
+     * data by this module.
+     *
+     * @return decoded degree cache.
+     */
+    public DecodedDegreeCache getDecodedDegreeCache() {
+        return decodedDegreeCache;
+    }
+
+    /**
+     * Get the prefix under which the cached counts currently used for counting are stored. It only changes when cached
+     * counts rebuilt under a shadow prefix are switched to, in which case the {@link #getDecodedDegreeCache()} is invalidated.
+     *
+     * @param database the module is running on.
+     * @return active prefix.
+     */
+    public String getActivePrefix(GraphDatabaseService database) {
+        String result = activePrefix;
+
+        if (result == null) {
+            synchronized (this) {
+                if (activePrefix == null) {
+                    activePrefix = new ActivePrefixStore(database, prefix(database)).load();
+                }
+                result = activePrefix;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Check whether cached counts are being re-built under a shadow prefix in the background.
+     *
+     * @return true iff a shadow re-initialization is running.
+     */
+    public synchronized boolean isShadowReinitializationRunning() {
+        return shadowReinitializationRunning;
+    }
+
+    /**
+     * Get degree changes that have been committed, but not yet applied to cached counts by the background writer.
+     *
+     * @return pending degree changes, empty if there are none or the module hasn't been started.
+     */
+    public DegreeDeltas getPendingDegreeDeltas() {
+        WriteBehindDegreeWriter writer = writeBehindWriter;
+        return writer == null ? new DegreeDeltas() : writer.getPendingDeltas();
+    }
+
+    /**
+     * Get the lock to hold while reading cached counts and adding pending degree changes to them, so that changes
+     * being applied by the background writer are seen either as pending or as applied, never both and never neither.
+     *
+     * @return lock.
+     */
+    public Lock getPendingDegreeDeltasLock() {
+        return pendingDeltasLock.readLock();
+    }
+
+    /**
+     * Apply all committed degree changes that have been queued for the background writer in the calling thread.
+     *
+     * @param database the module is running on.
+     */
+    public void flushPendingDegreeDeltas(GraphDatabaseService database) {
+        writeBehindWriter(database).flush();
+    }
+
+    /**
+     * Recount cached degrees of a node from its relationships, e.g. when they have been found out of sync. Must be called
+     * within a transaction, which should hold a write lock on the node. Once the transaction has committed, the node must
+     * be invalidated in the {@link #getDecodedDegreeCache()}.
+     *
+     * @param node to recount cached degrees of.
+     * @return true iff anything has been written.
+     */
+    public boolean recount(Node node) {
+        prefixLock.readLock().lock();
+        try {
+            boolean result = false;
+            for (String prefix : resolvePrefixes(node)) {
+                result |= relationshipCountCache.recount(node, prefix);
+            }
+            return result;
+        } finally {
+            prefixLock.readLock().unlock();
+        }
+    }
+
     /**
      * {@inheritDoc}
+     * <p/>
+     * Resumes a previous initialization with the same configuration, if it has been interrupted. Cached counts built
+     * offline by a {@link BulkDegreeBuilder} with the same configuration are used as they are.
      */
     @Override
     public void initialize(GraphDatabaseService database) {
-        buildCachedCounts(database);
+        flushPendingDegreeDeltas(database);
+
+        BulkBuildMarker marker = new BulkBuildMarker(database, prefix(database));
+
+        if (!marker.exists()) {
+            initialize(database, false);
+            return;
+        }
+
+        if (marker.consume(relationshipCountConfiguration)) {
+            LOG.info("Cached counts of " + id + " have been built offline, there is no need to initialize them.");
+            return;
+        }
+
+        LOG.warn("Cached counts of " + id + " have been built offline with a different configuration, re-building them...");
+        initialize(database, true);
     }
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * Resumes a previous re-initialization with the same configuration, if it has been interrupted. When only
+     * relationship (property) inclusion policies have changed and cached counts have not been flagged as needing
+     * initialization, only cached counts of affected relationship types are updated, see {@link ConfigurationDiff}.
+     * Otherwise, when configured for shadow re-initialization, returns immediately and re-builds cached counts in
+     * the background.
      */
     @Override
     public void reinitialize(GraphDatabaseService database, TxDrivenModuleMetadata oldMetadata) {
-        clearCachedCounts(database);
-        initialize(database);
+        flushPendingDegreeDeltas(database);
+
+        //counts flagged as needing initialization may be corrupted anywhere, so they can not be updated incrementally
+        if (oldMetadata != null && !oldMetadata.needsInitialization()) {
+            ConfigurationDiff diff = new ConfigurationDiff(oldMetadata.getConfig(), relationshipCountConfiguration);
+            if (diff.isConfinedToRelationshipPolicies()) {
+                updateCachedCounts(database, diff);
+                return;
+            }
+        }
+
+        if (!relationshipCountConfiguration.isShadowReinitialization()) {
+            initialize(database, true);
+            return;
+        }
+
+        InitializationCheckpoint checkpoint = new InitializationCheckpoint(database, prefix(database));
+
+        if (checkpoint.exists() && !checkpoint.isShadow()) {
+            //an interrupted synchronous initialization has left partially built counts behind, they can not be served
+            initialize(database, true);
+            return;
+        }
+
+        //counts left behind by an abandoned shadow re-build are replaced node by node, so there is no need to clear them
+        startShadowReinitialization(database, checkpoint, checkpoint.isResumableFor(relationshipCountConfiguration));
+    }
+
+    /**
+     * (Re-)initialize the module, recording progress in an {@link InitializationCheckpoint}.
+     *
+     * @param database   to initialize the module for.
+     * @param clearFirst true iff existing cached counts must be cleared before they are built.
+     */
+    private void initialize(GraphDatabaseService database, boolean clearFirst) {
+        InitializationCheckpoint checkpoint = new InitializationCheckpoint(database, prefix(database));
+
+        if (!checkpoint.isShadow() && checkpoint.isResumableFor(relationshipCountConfiguration) && !UPDATING.equals(checkpoint.getPhase())) {
+            LOG.info("Resuming interrupted initialization of " + id + "...");
+        } else {
+            //an interrupted initialization with a different configuration could have left partially built counts behind
+            boolean clear = clearFirst || checkpoint.exists();
+            checkpoint.start(relationshipCountConfiguration, clear ? CLEARING : BUILDING, getActivePrefix(database), false);
+        }
+
+        if (CLEARING.equals(checkpoint.getPhase())) {
+            //nothing is using the inactive prefix at this point, clear it too in case a shadow re-build has been abandoned
+            clearCachedCounts(database, checkpoint, "Clearing cached counts of " + id, false, prefix(database), shadowPrefix(database));
+            checkpoint.startPhase(BUILDING);
+        }
+
+        buildCachedCounts(database, checkpoint, relationshipCountCache, getActivePrefix(database), false);
+
+        checkpoint.delete();
+        decodedDegreeCache.invalidateAll();
+    }
+
+    /**
+     * Update cached counts of relationship types affected by a change of relationship (property) inclusion policies,
+     * on nodes that have relationships of those types, recording progress in an {@link InitializationCheckpoint}.
+     *
+     * @param database to update cached counts in.
+     * @param diff     between the configuration the cached counts have been built with and the current one.
+     */
+    private void updateCachedCounts(GraphDatabaseService database, final ConfigurationDiff diff) {
+        InitializationCheckpoint checkpoint = new InitializationCheckpoint(database, prefix(database));
+
+        if (!checkpoint.isShadow() && checkpoint.isResumableFor(relationshipCountConfiguration) && UPDATING.equals(checkpoint.getPhase())) {
+            LOG.info("Resuming interrupted update of cached counts of " + id + "...");
+        } else if (checkpoint.exists()) {
+            //another kind of (re-)initialization has been interrupted, cached counts can not be updated incrementally
+            initialize(database, true);
+            return;
+        } else {
+            checkpoint.start(relationshipCountConfiguration, UPDATING, getActivePrefix(database), false);
+        }
+
+        final String prefix = getActivePrefix(database);
+
+        nodeProcessor(database, "Updating cached counts of " + id, false).process(new UnitOfWork<Node>() {
+            @Override
+            public void execute(GraphDatabaseService database, Node node, int batchNumber, int stepNumber) {
+                Set<String> affectedTypes = diff.getAffectedTypes(node);
+
+                if (affectedTypes.isEmpty()) {
+                    return;
+                }
+
+                DegreeCachingNode cachingNode = new DegreeCachingNode(node, prefix, relationshipCountConfiguration);
+                for (String type : affectedTypes) {
+                    cachingNode.deleteDegrees(type);
+                }
+                cachingNode.flush();
+
+                Node filteredNode = new FilteredNode(node, getConfiguration().getInclusionPolicies());
+
+                buildCachedCounts(filteredNode, relationshipCountCache, affectedTypes);
+            }
+        }, checkpoint);
+
+        checkpoint.delete();
+        decodedDegreeCache.invalidateAll();
+    }
+
+    /**
+     * Start re-building cached counts under the inactive prefix in the background, unless it has already been started.
+     * Should the re-build fail, transactions keep writing to the inactive prefix for nodes that have already been re-built,
+     * so that it can safely be resumed from the checkpoint.
+     *
+     * @param database   to re-initialize the module for.
+     * @param checkpoint to record progress in.
+     * @param resume     true iff the re-initialization recorded in the checkpoint should be resumed.
+     */
+    private synchronized void startShadowReinitialization(final GraphDatabaseService database, final InitializationCheckpoint checkpoint, boolean resume) {
+        if (shadowReinitializationRunning) {
+            LOG.info("Shadow re-initialization of " + id + " is already in progress.");
+            return;
+        }
+
+        if (!resume) {
+            checkpoint.start(relationshipCountConfiguration, BUILDING, inactivePrefix(database), true);
+        }
+
+        shadowPrefix = checkpoint.getTargetPrefix();
+        //load the phase before publishing the checkpoint, transactions decide by it whether to write to the target prefix
+        LOG.info("Shadow re-initialization of " + id + " into " + shadowPrefix + " is in phase " + checkpoint.getPhase());
+        shadowCheckpoint = checkpoint;
+        shadowReinitializationRunning = true;
+
+        if (shadowExecutor == null) {
+            shadowExecutor = Executors.newSingleThreadExecutor();
+        }
+
+        shadowExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reinitializeInShadow(database, checkpoint);
+                    shadowCheckpoint = null;
+                } catch (RuntimeException e) {
+                    //keep mirroring writes to nodes already re-built, the checkpoint can only be trusted if none are missed
+                    LOG.error("Shadow re-initialization of " + id + " has failed, it will be resumed next time the module is started", e);
+                } finally {
+                    synchronized (RelationshipCountModule.this) {
+                        shadowReinitializationRunning = false;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Re-build cached counts under the target prefix of a checkpoint, switch to them, and clean up the previously active ones.
+     *
+     * @param database   to re-initialize the module for.
+     * @param checkpoint to resume from and record progress in.
+     */
+    private void reinitializeInShadow(GraphDatabaseService database, InitializationCheckpoint checkpoint) {
+        final String targetPrefix = checkpoint.getTargetPrefix();
+
+        if (BUILDING.equals(checkpoint.getPhase())) {
+            NodeBasedDegreeCache shadowCache = new NodeBasedDegreeCache(relationshipCountConfiguration, new PrefixResolver() {
+                @Override
+                public List<String> resolvePrefixes(Node node) {
+                    return Collections.singletonList(targetPrefix);
+                }
+
+                @Override
+                public boolean isLenient() {
+                    return false;
+                }
+            });
+
+            buildCachedCounts(database, checkpoint, shadowCache, targetPrefix, true);
+
+            //changes queued before the re-build started have only been applied to the active prefix
+            flushPendingDegreeDeltas(database);
+
+            switchActivePrefix(database, targetPrefix);
+            checkpoint.startPhase(CLEANING_UP);
+        }
+
+        clearCachedCounts(database, checkpoint, "Cleaning up previous cached counts of " + id, true, other(database, targetPrefix));
+
+        checkpoint.delete();
+        LOG.info("Shadow re-initialization of " + id + " has finished.");
+    }
+
+    /**
+     * Atomically make the cached counts under the given prefix the ones used for counting.
+     *
+     * @param database     the module is running on.
+     * @param targetPrefix the new active prefix.
+     */
+    private void switchActivePrefix(GraphDatabaseService database, String targetPrefix) {
+        prefixLock.writeLock().lock();
+        try {
+            new ActivePrefixStore(database, prefix(database)).save(targetPrefix);
+            activePrefix = targetPrefix;
+            shadowCheckpoint = null;
+            decodedDegreeCache.invalidateAll();
+        } finally {
+            prefixLock.writeLock().unlock();
+        }
+
+        LOG.info("Cached counts of " + id + " are now served from " + targetPrefix);
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public Void beforeCommit(ImprovedTransactionData transactionData) {
+    public DegreeWrites beforeCommit(ImprovedTransactionData transactionData) {
+        WriteBehindDegreeWriter writer = writeBehindWriter;
+        if (writer != null && relationshipCountConfiguration.getWriteBehindInterval() > 0 && !isShadowBuilding(shadowCheckpoint)) {
+            return queueDegreeChanges(transactionData, writer);
+        }
+
+        Set<Long> flushedNodeIds;
+
+        //prevent the active prefix from being switched while cached counts are being written
+        prefixLock.readLock().lock();
+        try {
+            relationshipCountCache.startCaching();
+
+            try {
+                handleCreatedRelationships(transactionData);
+                handleDeletedRelationships(transactionData);
+                handleChangedRelationships(transactionData);
+            } finally {
+                flushedNodeIds = relationshipCountCache.endCaching();
+            }
+        } finally {
+            prefixLock.readLock().unlock();
+        }
+
+        return DegreeWrites.flushed(flushedNodeIds, deletedNodeIds(transactionData));
+    }
+
+    /**
+     * Collect net degree changes of a transaction and queue them for the background writer, without writing any
+     * cached counts.
+     *
+     * @param transactionData data of the transaction.
+     * @param writer          to queue the changes for.
+     * @return queued changes.
+     */
+    private DegreeWrites queueDegreeChanges(ImprovedTransactionData transactionData, WriteBehindDegreeWriter writer) {
+        DegreeDeltas queuedDeltas;
+
         relationshipCountCache.startCaching();
 
         try {
@@ -151,26 +608,43 @@ public class RelationshipCountModule implements TxDrivenModule<Void> {
             handleDeletedRelationships(transactionData);
             handleChangedRelationships(transactionData);
         } finally {
-            relationshipCountCache.endCaching();
+            queuedDeltas = relationshipCountCache.endCachingDeferred();
         }
 
-        return null;
+        return DegreeWrites.queued(writer.enqueue(queuedDeltas, transactionData.getAllDeletedNodes()), deletedNodeIds(transactionData));
+    }
+
+    private Set<Long> deletedNodeIds(ImprovedTransactionData transactionData) {
+        Set<Long> result = new HashSet<>();
+        for (Node deleted : transactionData.getAllDeletedNodes()) {
+            result.add(deleted.getId());
+        }
+        return result;
     }
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * Invalidates decoded cached degrees of the nodes whose cached degrees have been written by the transaction, or
+     * makes the degree changes queued by the transaction pending. Decoded cached degrees of deleted nodes are
+     * invalidated, too, since their IDs can be reused by new nodes.
      */
     @Override
-    public void afterCommit(Void state) {
-        //do nothing
+    public void afterCommit(DegreeWrites writes) {
+        decodedDegreeCache.invalidate(writes.getFlushedNodeIds());
+        decodedDegreeCache.invalidate(writes.getDeletedNodeIds());
+
+        if (writes.getQueuedDeltas() != null) {
+            writeBehindWriter.committed(writes.getQueuedDeltas());
+        }
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void afterRollback(Void state) {
-        //do nothing
+    public void afterRollback(DegreeWrites writes) {
+        //do nothing, nothing has been committed and decoded cached degrees are only populated with committed data
     }
 
     private void handleCreatedRelationships(ImprovedTransactionData data) {
@@ -205,6 +679,10 @@ public class RelationshipCountModule implements TxDrivenModule<Void> {
             Relationship current = changedRelationship.getCurrent();
             Relationship previous = changedRelationship.getPrevious();
 
+            if (!affectsCachedDegrees(previous, current)) {
+                continue;
+            }
+
             relationshipCountCache.handleDeletedRelationship(previous, previous.getStartNode(), Direction.INCOMING);
             relationshipCountCache.handleDeletedRelationship(previous, previous.getEndNode(), Direction.OUTGOING);
             relationshipCountCache.handleCreatedRelationship(current, current.getStartNode(), Direction.INCOMING);
@@ -213,67 +691,215 @@ public class RelationshipCountModule implements TxDrivenModule<Void> {
     }
 
     /**
-     * Clear all cached counts. NOTE: This is a potentially very expensive operation as it traverses the
+     * Find out whether a change of a relationship's properties affects cached degrees. It does not if none of the
+     * properties included by the {@link com.graphaware.common.policy.RelationshipPropertyInclusionPolicy} have changed
+     * and the relationship's weight hasn't changed from the point of view of either node, which is the case when,
+     * for instance, only an excluded timestamp has been updated.
+     *
+     * @param previous relationship before the change, filtered by inclusion policies.
+     * @param current  relationship after the change, filtered by inclusion policies.
+     * @return false iff the change can be ignored.
+     */
+    private boolean affectsCachedDegrees(Relationship previous, Relationship current) {
+        if (!new LiteralPropertiesDescription(previous).equals(new LiteralPropertiesDescription(current))) {
+            return true;
+        }
+
+        WeighingStrategy weighingStrategy = relationshipCountConfiguration.getWeighingStrategy();
+
+        return weighingStrategy.getRelationshipWeight(previous, previous.getStartNode()) != weighingStrategy.getRelationshipWeight(current, current.getStartNode())
+                || weighingStrategy.getRelationshipWeight(previous, previous.getEndNode()) != weighingStrategy.getRelationshipWeight(current, current.getEndNode());
+    }
+
+    /**
+     * Clear all cached counts under the given prefixes. NOTE: This is a potentially very expensive operation as it traverses the
      * entire graph! Use with care.
      *
-     * @param database to perform the operation on.
+     * @param database   to perform the operation on.
+     * @param checkpoint to resume from and record progress in.
+     * @param name       of the operation, for progress reporting.
+     * @param concurrent true iff transactions write cached counts while they are being cleared.
+     * @param prefixes   of the cached counts to clear.
      */
-    private void clearCachedCounts(GraphDatabaseService database) {
-        new IterableInputBatchTransactionExecutor<>(
-                database,
-                500,
-                new AllNodes(database, 500),
-                new UnitOfWork<Node>() {
-                    @Override
-                    public void execute(GraphDatabaseService database, Node node, int batchNumber, int stepNumber) {
-                        for (String key : node.getPropertyKeys()) {
-                            if (key.startsWith(RuntimeRegistry.getRuntime(database).getConfiguration().createPrefix(id))) {
-                                node.removeProperty(key);
-                            }
-                        }
+    private void clearCachedCounts(GraphDatabaseService database, InitializationCheckpoint checkpoint, String name, boolean concurrent, final String... prefixes) {
+        nodeProcessor(database, name, concurrent).process(new UnitOfWork<Node>() {
+            @Override
+            public void execute(GraphDatabaseService database, Node node, int batchNumber, int stepNumber) {
+                removeCachedCounts(node, prefixes);
+            }
+        }, checkpoint);
+    }
+
+    /**
+     * Build all cached counts. NOTE: This is a potentially very expensive operation as it traverses the
+     * entire graph! Use with care.
+     *
+     * @param database   to perform the operation on.
+     * @param checkpoint to resume from and record progress in.
+     * @param cache      to build the cached counts with.
+     * @param prefix     of the cached counts the cache writes. Existing ones are replaced rather than added to, because
+     *                   transactions could have written to them concurrently, or the node could have been processed
+     *                   before the initialization was interrupted.
+     * @param concurrent true iff transactions write cached counts while they are being built.
+     */
+    private void buildCachedCounts(GraphDatabaseService database, InitializationCheckpoint checkpoint, final NodeBasedDegreeCache cache, final String prefix, final boolean concurrent) {
+        nodeProcessor(database, "Building cached counts of " + id, concurrent).process(new UnitOfWork<Node>() {
+            @Override
+            public void execute(GraphDatabaseService database, Node node, int batchNumber, int stepNumber) {
+                if (concurrent) {
+                    //serialize with transactions changing the node's relationships, so that none are missed or counted twice
+                    try (Transaction tx = database.beginTx()) {
+                        tx.acquireWriteLock(node);
+                        tx.success();
                     }
                 }
-        ).execute();
+
+                removeCachedCounts(node, prefix);
+
+                Node filteredNode = new FilteredNode(node, getConfiguration().getInclusionPolicies());
+
+                buildCachedCounts(filteredNode, cache, null);
+            }
+        }, checkpoint);
+    }
+
+    private void removeCachedCounts(Node node, String... prefixes) {
+        for (String prefix : prefixes) {
+            ShardedDegreeCachingStrategy.deleteShards(node, prefix);
+        }
+
+        for (String key : node.getPropertyKeys()) {
+            for (String prefix : prefixes) {
+                if (key.startsWith(prefix)) {
+                    node.removeProperty(key);
+                    break;
+                }
+            }
+        }
     }
 
     /**
-     * Clear and rebuild all cached counts. NOTE: This is a potentially very expensive operation as it traverses the
-     * entire graph! Use with care.
+     * Resolve prefixes under which transactions write cached counts of a node. These are the active prefix and, while
+     * a shadow re-build is in progress, the prefix being built, unless the node hasn't been reached by the re-build yet.
      *
-     * @param database to perform the operation on.
+     * @param node whose cached counts are about to be written.
+     * @return prefixes, active first.
      */
-    private void buildCachedCounts(GraphDatabaseService database) {
-        new IterableInputBatchTransactionExecutor<>(
-                database,
-                100,
-                new AllNodes(database, 100),
-                new UnitOfWork<Node>() {
-                    @Override
-                    public void execute(GraphDatabaseService database, Node node, int batchNumber, int stepNumber) {
-                        Node filteredNode = new FilteredNode(node, getConfiguration().getInclusionPolicies());
+    private List<String> resolvePrefixes(Node node) {
+        GraphDatabaseService database = node.getGraphDatabase();
+        String active = getActivePrefix(database);
+
+        InitializationCheckpoint checkpoint = shadowCheckpoint;
+        String target = shadowPrefix;
+        if (!isShadowBuilding(checkpoint) || active.equals(target)) {
+            return Collections.singletonList(active);
+        }
+
+        //the re-build holds the same lock while processing the node, so its progress can be relied upon
+        try (Transaction tx = database.beginTx()) {
+            tx.acquireWriteLock(database.getNodeById(node.getId()));
+            tx.success();
+        }
 
-                        buildCachedCounts(filteredNode);
+        if (!checkpoint.isProcessed(node.getId())) {
+            //the re-build will count the relationships once this transaction has committed
+            return Collections.singletonList(active);
+        }
 
-                    }
-                }).execute();
+        return Arrays.asList(active, target);
+    }
+
+    /**
+     * Get the writer applying queued degree changes, creating it if it doesn't exist yet.
+     *
+     * @param database the module is running on.
+     * @return writer.
+     */
+    private synchronized WriteBehindDegreeWriter writeBehindWriter(final GraphDatabaseService database) {
+        if (writeBehindWriter == null) {
+            //queued changes are applied to the active prefix only, see reinitializeInShadow
+            NodeBasedDegreeCache cache = new NodeBasedDegreeCache(relationshipCountConfiguration, new PrefixResolver() {
+                @Override
+                public List<String> resolvePrefixes(Node node) {
+                    return Collections.singletonList(getActivePrefix(database));
+                }
+
+                @Override
+                public boolean isLenient() {
+                    return false;
+                }
+            });
+
+            writeBehindWriter = new WriteBehindDegreeWriter(database, new DegreeDeltaJournal(database, journalPrefix(database)), cache, decodedDegreeCache, prefixLock.readLock(), pendingDeltasLock.writeLock());
+        }
+
+        return writeBehindWriter;
+    }
+
+    private boolean isShadowBuilding(InitializationCheckpoint checkpoint) {
+        return checkpoint != null && BUILDING.equals(checkpoint.getLastKnownPhase());
+    }
+
+    private String prefix(GraphDatabaseService database) {
+        return RuntimeRegistry.getRuntime(database).getConfiguration().createPrefix(id);
+    }
+
+    private String shadowPrefix(GraphDatabaseService database) {
+        return RuntimeRegistry.getRuntime(database).getConfiguration().createPrefix(SHADOW_ID_PREFIX + id);
+    }
+
+    private String journalPrefix(GraphDatabaseService database) {
+        return RuntimeRegistry.getRuntime(database).getConfiguration().createPrefix(PENDING_ID_PREFIX + id);
+    }
+
+    private String inactivePrefix(GraphDatabaseService database) {
+        return other(database, getActivePrefix(database));
+    }
+
+    private String other(GraphDatabaseService database, String prefix) {
+        return prefix(database).equals(prefix) ? shadowPrefix(database) : prefix(database);
+    }
+
+    /**
+     * Create a processor for visiting all nodes in the database in parallel, as configured.
+     *
+     * @param database   to visit nodes of.
+     * @param name       of the processing.
+     * @param concurrent true iff transactions write cached counts while the nodes are being processed. Every node is
+     *                   then processed in a transaction of its own, since transactions lock nodes in no particular
+     *                   order, so a batch transaction holding locks on many nodes could deadlock with them.
+     * @return processor.
+     */
+    private PartitionedNodeProcessor nodeProcessor(GraphDatabaseService database, String name, boolean concurrent) {
+        return new PartitionedNodeProcessor(
+                database,
+                relationshipCountConfiguration.getInitializationThreads(),
+                concurrent ? 1 : relationshipCountConfiguration.getInitializationBatchSize(),
+                name);
     }
 
     /**
      * Build cached counts for a node.
      *
      * @param filteredNode filtered node.
+     * @param cache        to build the cached counts with.
+     * @param types        names of relationship types to build cached counts for, null for all.
      */
-    private void buildCachedCounts(Node filteredNode) {
-        relationshipCountCache.startCaching();
+    private void buildCachedCounts(Node filteredNode, NodeBasedDegreeCache cache, Set<String> types) {
+        cache.startCaching();
 
         for (Relationship relationship : filteredNode.getRelationships()) {
-            relationshipCountCache.handleCreatedRelationship(relationship, filteredNode, Direction.OUTGOING);
+            if (types != null && !types.contains(relationship.getType().name())) {
+                continue;
+            }
+
+            cache.handleCreatedRelationship(relationship, filteredNode, Direction.OUTGOING);
 
             if (relationship.getStartNode().getId() == relationship.getEndNode().getId()) {
-                relationshipCountCache.handleCreatedRelationship(relationship, filteredNode, Direction.INCOMING);
+                cache.handleCreatedRelationship(relationship, filteredNode, Direction.INCOMING);
             }
         }
 
-        relationshipCountCache.endCaching();
+        cache.endCaching();
     }
 }
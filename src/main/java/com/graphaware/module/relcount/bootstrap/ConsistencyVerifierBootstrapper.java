@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.bootstrap;
+
+import com.graphaware.module.relcount.RelationshipCountModule;
+import com.graphaware.module.relcount.verify.ConsistencyVerifierModule;
+import com.graphaware.runtime.module.RuntimeModule;
+import com.graphaware.runtime.module.RuntimeModuleBootstrapper;
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import java.util.Map;
+
+/**
+ * {@link RuntimeModuleBootstrapper} for {@link ConsistencyVerifierModule}.
+ */
+public class ConsistencyVerifierBootstrapper implements RuntimeModuleBootstrapper {
+
+    private static final String RELCOUNT_MODULE = "relcountModule";
+    private static final String NODES_PER_CALL = "nodesPerCall";
+    private static final String DELAY = "delay";
+    private static final String REPAIR = "repair";
+
+    private static final int DEFAULT_NODES_PER_CALL = 100;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public RuntimeModule bootstrapModule(String moduleId, Map<String, String> config, GraphDatabaseService database) {
+        String relcountModuleId = RelationshipCountModule.FULL_RELCOUNT_DEFAULT_ID;
+        int nodesPerCall = DEFAULT_NODES_PER_CALL;
+        long delay = 0;
+        boolean repair = false;
+
+        if (config.get(RELCOUNT_MODULE) != null) {
+            relcountModuleId = config.get(RELCOUNT_MODULE);
+        }
+
+        if (config.get(NODES_PER_CALL) != null) {
+            nodesPerCall = Integer.valueOf(config.get(NODES_PER_CALL));
+        }
+
+        if (config.get(DELAY) != null) {
+            delay = Long.valueOf(config.get(DELAY));
+        }
+
+        if (config.get(REPAIR) != null) {
+            repair = Boolean.valueOf(config.get(REPAIR));
+        }
+
+        return new ConsistencyVerifierModule(moduleId, relcountModuleId, nodesPerCall, delay, repair);
+    }
+}
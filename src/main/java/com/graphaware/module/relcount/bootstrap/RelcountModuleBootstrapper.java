@@ -18,12 +18,15 @@ package com.graphaware.module.relcount.bootstrap;
 
 import com.graphaware.module.relcount.RelationshipCountConfigurationImpl;
 import com.graphaware.module.relcount.RelationshipCountModule;
-import com.graphaware.module.relcount.compact.ThresholdBasedCompactionStrategy;
+import com.graphaware.module.relcount.compact.CompactionBudget;
+import com.graphaware.module.relcount.view.CountView;
 import com.graphaware.runtime.module.BaseRuntimeModuleBootstrapper;
 import com.graphaware.runtime.module.RuntimeModule;
 import com.graphaware.runtime.module.RuntimeModuleBootstrapper;
 import org.neo4j.graphdb.GraphDatabaseService;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -32,6 +35,15 @@ import java.util.Map;
 public class RelcountModuleBootstrapper extends BaseRuntimeModuleBootstrapper<RelationshipCountConfigurationImpl> {
 
     private static final String THRESHOLD = "threshold";
+    private static final String HARD_THRESHOLD = "hardThreshold";
+    private static final String COMPACTION_BUDGETS = "compactionBudgets";
+    private static final String COUNTED_PROPERTIES_SAMPLE_RATE = "countedPropertiesSampleRate";
+    private static final String COUNT_VIEWS = "countViews";
+    private static final String DECODED_DEGREE_CACHE_CAPACITY = "decodedDegreeCacheCapacity";
+    private static final String INITIALIZATION_THREADS = "initializationThreads";
+    private static final String INITIALIZATION_BATCH_SIZE = "initializationBatchSize";
+    private static final String SHADOW_REINITIALIZATION = "shadowReinitialization";
+    private static final String WRITE_BEHIND_INTERVAL = "writeBehindInterval";
 
     /**
      * {@inheritDoc}
@@ -47,7 +59,60 @@ public class RelcountModuleBootstrapper extends BaseRuntimeModuleBootstrapper<Re
     @Override
     protected RuntimeModule doBootstrapModule(String moduleId, Map<String, String> config, GraphDatabaseService database, RelationshipCountConfigurationImpl configuration) {
         if (configExists(config, THRESHOLD)) {
-            configuration = configuration.with(new ThresholdBasedCompactionStrategy(Integer.valueOf(config.get(THRESHOLD))));
+            int threshold = Integer.valueOf(config.get(THRESHOLD));
+            int hardThreshold = configExists(config, HARD_THRESHOLD) ? Integer.valueOf(config.get(HARD_THRESHOLD)) : threshold;
+            configuration = configuration.withThreshold(threshold, hardThreshold);
+        }
+
+        if (configExists(config, COMPACTION_BUDGETS)) {
+            List<CompactionBudget> budgets = new ArrayList<>();
+            for (String budget : config.get(COMPACTION_BUDGETS).split(";")) {
+                if (!budget.trim().isEmpty()) {
+                    budgets.add(CompactionBudget.parse(budget));
+                }
+            }
+            configuration = configuration.withCompactionBudgets(budgets.toArray(new CompactionBudget[budgets.size()]));
+        }
+
+        if (configExists(config, COUNTED_PROPERTIES_SAMPLE_RATE)) {
+            configuration = configuration.withCountedPropertiesPreserved(Integer.valueOf(config.get(COUNTED_PROPERTIES_SAMPLE_RATE)));
+        }
+
+        if (configExists(config, COUNT_VIEWS)) {
+            //count views switch compaction off, which would silently discard compaction settings
+            for (String compactionSetting : new String[]{COMPACTION_BUDGETS, COUNTED_PROPERTIES_SAMPLE_RATE}) {
+                if (configExists(config, compactionSetting)) {
+                    throw new IllegalArgumentException(COUNT_VIEWS + " can not be combined with " + compactionSetting);
+                }
+            }
+
+            List<CountView> views = new ArrayList<>();
+            for (String view : config.get(COUNT_VIEWS).split(";")) {
+                if (!view.trim().isEmpty()) {
+                    views.add(CountView.parse(view));
+                }
+            }
+            configuration = configuration.withCountViews(views.toArray(new CountView[views.size()]));
+        }
+
+        if (configExists(config, DECODED_DEGREE_CACHE_CAPACITY)) {
+            configuration = configuration.withDecodedDegreeCacheCapacity(Long.valueOf(config.get(DECODED_DEGREE_CACHE_CAPACITY)));
+        }
+
+        if (configExists(config, INITIALIZATION_THREADS)) {
+            configuration = configuration.withInitializationThreads(Integer.valueOf(config.get(INITIALIZATION_THREADS)));
+        }
+
+        if (configExists(config, INITIALIZATION_BATCH_SIZE)) {
+            configuration = configuration.withInitializationBatchSize(Integer.valueOf(config.get(INITIALIZATION_BATCH_SIZE)));
+        }
+
+        if (configExists(config, SHADOW_REINITIALIZATION)) {
+            configuration = configuration.withShadowReinitialization(Boolean.valueOf(config.get(SHADOW_REINITIALIZATION)));
+        }
+
+        if (configExists(config, WRITE_BEHIND_INTERVAL)) {
+            configuration = configuration.withWriteBehindInterval(Long.valueOf(config.get(WRITE_BEHIND_INTERVAL)));
         }
 
         return new RelationshipCountModule(moduleId, configuration);
@@ -0,0 +1,440 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.bulk;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchRelationship;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link Node} stored in a {@link BatchInserter}, so that inclusion policies, weighing strategies and
+ * {@link com.graphaware.module.relcount.cache.DegreeCachingStrategy}s written against the Neo4j API can be used
+ * offline. Properties are read lazily and cached, writes go straight through to the inserter.
+ * <p/>
+ * Deleting the node is not supported, neither is {@link #getGraphDatabase()}. Relationships are read from the
+ * inserter every time they are asked for, which is expensive, so it is best avoided.
+ */
+public class BatchInserterNode implements Node {
+
+    private final BatchInserter inserter;
+    private final long id;
+
+    private Map<String, Object> properties;
+
+    /**
+     * Construct a new node.
+     *
+     * @param inserter in which the node is stored.
+     * @param id       of the node.
+     */
+    public BatchInserterNode(BatchInserter inserter, long id) {
+        this.inserter = inserter;
+        this.id = id;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void delete() {
+        throw new UnsupportedOperationException("Nodes can not be deleted by a batch inserter");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterable<Relationship> getRelationships() {
+        return relationships(Direction.BOTH);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasRelationship() {
+        return getRelationships().iterator().hasNext();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterable<Relationship> getRelationships(RelationshipType... types) {
+        return relationships(Direction.BOTH, types);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterable<Relationship> getRelationships(Direction direction, RelationshipType... types) {
+        return relationships(direction, types);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasRelationship(RelationshipType... types) {
+        return !relationships(Direction.BOTH, types).isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasRelationship(Direction direction, RelationshipType... types) {
+        return !relationships(direction, types).isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterable<Relationship> getRelationships(Direction direction) {
+        return relationships(direction);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasRelationship(Direction direction) {
+        return !relationships(direction).isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterable<Relationship> getRelationships(RelationshipType type, Direction direction) {
+        return relationships(direction, type);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasRelationship(RelationshipType type, Direction direction) {
+        return !relationships(direction, type).isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Relationship getSingleRelationship(RelationshipType type, Direction direction) {
+        List<Relationship> relationships = relationships(direction, type);
+
+        if (relationships.isEmpty()) {
+            return null;
+        }
+
+        if (relationships.size() > 1) {
+            throw new NotFoundException("More than one relationship[" + type + ", " + direction + "] found for node " + id);
+        }
+
+        return relationships.get(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Relationship createRelationshipTo(Node otherNode, RelationshipType type) {
+        long relationshipId = inserter.createRelationship(id, otherNode.getId(), type, Collections.<String, Object>emptyMap());
+        return new BatchInserterRelationship(inserter, relationshipId, id, otherNode.getId(), type);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterable<RelationshipType> getRelationshipTypes() {
+        Map<String, RelationshipType> result = new LinkedHashMap<>();
+        for (Relationship relationship : relationships(Direction.BOTH)) {
+            result.put(relationship.getType().name(), relationship.getType());
+        }
+        return result.values();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getDegree() {
+        return getDegree(Direction.BOTH);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getDegree(RelationshipType type) {
+        return getDegree(type, Direction.BOTH);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getDegree(Direction direction) {
+        return relationships(direction).size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getDegree(RelationshipType type, Direction direction) {
+        return relationships(direction, type).size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addLabel(Label label) {
+        if (hasLabel(label)) {
+            return;
+        }
+
+        List<Label> labels = labels();
+        labels.add(label);
+        inserter.setNodeLabels(id, labels.toArray(new Label[labels.size()]));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeLabel(Label label) {
+        List<Label> labels = new ArrayList<>();
+        for (Label existing : labels()) {
+            if (!existing.name().equals(label.name())) {
+                labels.add(existing);
+            }
+        }
+        inserter.setNodeLabels(id, labels.toArray(new Label[labels.size()]));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasLabel(Label label) {
+        return inserter.nodeHasLabel(id, label);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterable<Label> getLabels() {
+        return labels();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public GraphDatabaseService getGraphDatabase() {
+        throw new UnsupportedOperationException("There is no database while using a batch inserter");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasProperty(String key) {
+        return properties().containsKey(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getProperty(String key) {
+        Object result = properties().get(key);
+
+        if (result == null) {
+            throw new NotFoundException("Node " + id + " does not have property " + key);
+        }
+
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getProperty(String key, Object defaultValue) {
+        Object result = properties().get(key);
+        return result == null ? defaultValue : result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setProperty(String key, Object value) {
+        inserter.setNodeProperty(id, key, value);
+        properties().put(key, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object removeProperty(String key) {
+        Object result = properties().remove(key);
+        if (result != null) {
+            inserter.removeNodeProperty(id, key);
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterable<String> getPropertyKeys() {
+        return new HashMap<>(properties()).keySet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Object> getProperties(String... keys) {
+        Map<String, Object> result = new HashMap<>();
+        for (String key : keys) {
+            if (properties().containsKey(key)) {
+                result.put(key, properties().get(key));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Object> getAllProperties() {
+        return new HashMap<>(properties());
+    }
+
+    private Map<String, Object> properties() {
+        if (properties == null) {
+            properties = new HashMap<>(inserter.getNodeProperties(id));
+        }
+        return properties;
+    }
+
+    private List<Label> labels() {
+        List<Label> result = new ArrayList<>();
+        for (Label label : inserter.getNodeLabels(id)) {
+            result.add(label);
+        }
+        return result;
+    }
+
+    /**
+     * Read relationships of this node with the given direction and types from the inserter.
+     *
+     * @param direction of the relationships from this node's point of view, {@link Direction#BOTH} for any.
+     * @param types     of the relationships, none for any.
+     * @return relationships, each one only once.
+     */
+    private List<Relationship> relationships(Direction direction, RelationshipType... types) {
+        Map<Long, Relationship> result = new LinkedHashMap<>();
+
+        for (BatchRelationship relationship : inserter.getRelationships(id)) {
+            if (Direction.OUTGOING.equals(direction) && relationship.getStartNode() != id
+                    || Direction.INCOMING.equals(direction) && relationship.getEndNode() != id) {
+                continue;
+            }
+            if (!hasType(relationship, types)) {
+                continue;
+            }
+
+            result.put(relationship.getId(), new BatchInserterRelationship(inserter, relationship));
+        }
+
+        return new ArrayList<>(result.values());
+    }
+
+    private boolean hasType(BatchRelationship relationship, RelationshipType... types) {
+        if (types.length == 0) {
+            return true;
+        }
+
+        for (RelationshipType type : types) {
+            if (type.name().equals(relationship.getType().name())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        return id == ((BatchInserterNode) o).id;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return (int) (id ^ (id >>> 32));
+    }
+}
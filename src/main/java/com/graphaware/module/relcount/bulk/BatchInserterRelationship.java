@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.bulk;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchRelationship;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link Relationship} stored in a {@link BatchInserter}, so that inclusion policies and weighing strategies written
+ * against the Neo4j API can be applied to relationships offline. Properties are read lazily and cached, since the
+ * inserter reads all of them at once.
+ * <p/>
+ * Deleting the relationship is not supported, neither is {@link #getGraphDatabase()}.
+ */
+public class BatchInserterRelationship implements Relationship {
+
+    private final BatchInserter inserter;
+    private final long id;
+    private final long startNodeId;
+    private final long endNodeId;
+    private final RelationshipType type;
+
+    private Map<String, Object> properties;
+
+    /**
+     * Construct a new relationship.
+     *
+     * @param inserter     in which the relationship is stored.
+     * @param relationship as returned by the inserter.
+     */
+    public BatchInserterRelationship(BatchInserter inserter, BatchRelationship relationship) {
+        this(inserter, relationship.getId(), relationship.getStartNode(), relationship.getEndNode(), relationship.getType());
+    }
+
+    /**
+     * Construct a new relationship.
+     *
+     * @param inserter    in which the relationship is stored.
+     * @param id          of the relationship.
+     * @param startNodeId ID of the start node.
+     * @param endNodeId   ID of the end node.
+     * @param type        of the relationship.
+     */
+    public BatchInserterRelationship(BatchInserter inserter, long id, long startNodeId, long endNodeId, RelationshipType type) {
+        this.inserter = inserter;
+        this.id = id;
+        this.startNodeId = startNodeId;
+        this.endNodeId = endNodeId;
+        this.type = type;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void delete() {
+        throw new UnsupportedOperationException("Relationships can not be deleted by a batch inserter");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Node getStartNode() {
+        return new BatchInserterNode(inserter, startNodeId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Node getEndNode() {
+        return new BatchInserterNode(inserter, endNodeId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Node getOtherNode(Node node) {
+        if (node.getId() == startNodeId) {
+            return getEndNode();
+        }
+
+        if (node.getId() == endNodeId) {
+            return getStartNode();
+        }
+
+        throw new IllegalArgumentException("Node " + node.getId() + " does not participate in relationship " + id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Node[] getNodes() {
+        return new Node[]{getStartNode(), getEndNode()};
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public RelationshipType getType() {
+        return type;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isType(RelationshipType type) {
+        return this.type.name().equals(type.name());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public GraphDatabaseService getGraphDatabase() {
+        throw new UnsupportedOperationException("There is no database while using a batch inserter");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasProperty(String key) {
+        return properties().containsKey(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getProperty(String key) {
+        Object result = properties().get(key);
+
+        if (result == null) {
+            throw new NotFoundException("Relationship " + id + " does not have property " + key);
+        }
+
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getProperty(String key, Object defaultValue) {
+        Object result = properties().get(key);
+        return result == null ? defaultValue : result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setProperty(String key, Object value) {
+        inserter.setRelationshipProperty(id, key, value);
+        properties().put(key, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object removeProperty(String key) {
+        Object result = properties().remove(key);
+        if (result != null) {
+            inserter.removeRelationshipProperty(id, key);
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterable<String> getPropertyKeys() {
+        return new HashMap<>(properties()).keySet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Object> getProperties(String... keys) {
+        Map<String, Object> result = new HashMap<>();
+        for (String key : keys) {
+            if (properties().containsKey(key)) {
+                result.put(key, properties().get(key));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Object> getAllProperties() {
+        return new HashMap<>(properties());
+    }
+
+    private Map<String, Object> properties() {
+        if (properties == null) {
+            properties = new HashMap<>(inserter.getRelationshipProperties(id));
+        }
+        return properties;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        return id == ((BatchInserterRelationship) o).id;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return (int) (id ^ (id >>> 32));
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.bulk;
+
+import com.graphaware.common.serialize.Serializer;
+import com.graphaware.runtime.config.TxDrivenModuleConfiguration;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+
+import java.util.Collections;
+
+/**
+ * Persistent record of cached counts having been built offline by a {@link BulkDegreeBuilder}, so that the module
+ * does not traverse the whole graph to build them again when the database is started for the first time.
+ * <p/>
+ * The record is a single node labelled with the module's prefix followed by "BULK_BUILD", holding the module
+ * configuration the counts have been built with. It is consumed by the module's initialization.
+ */
+public class BulkBuildMarker {
+
+    private static final String BULK_BUILD = "BULK_BUILD";
+    private static final String CONFIGURATION = "configuration";
+
+    private final GraphDatabaseService database;
+    private final String prefix;
+    private final Label label;
+
+    /**
+     * Construct a new marker.
+     *
+     * @param database in which the marker is stored.
+     * @param prefix   of the module the marker belongs to.
+     */
+    public BulkBuildMarker(GraphDatabaseService database, String prefix) {
+        this.database = database;
+        this.prefix = prefix;
+        this.label = label(prefix);
+    }
+
+    /**
+     * Record that cached counts have been built offline.
+     *
+     * @param inserter      in which the counts have been built.
+     * @param prefix        of the module the counts have been built for.
+     * @param configuration the counts have been built with.
+     */
+    public static void write(BatchInserter inserter, String prefix, TxDrivenModuleConfiguration configuration) {
+        inserter.createNode(Collections.<String, Object>singletonMap(CONFIGURATION, Serializer.toString(configuration, prefix)), label(prefix));
+    }
+
+    /**
+     * @return true iff there is a record of cached counts having been built offline.
+     */
+    public boolean exists() {
+        try (Transaction tx = database.beginTx()) {
+            boolean result = markerNode() != null;
+            tx.success();
+            return result;
+        }
+    }
+
+    /**
+     * Delete the record of cached counts having been built offline, if there is one, and find out whether they can be
+     * used with the given configuration, i.e. whether they have been built with an equal configuration.
+     *
+     * @param configuration of the module.
+     * @return true iff there has been a record and the counts can be used.
+     */
+    public boolean consume(TxDrivenModuleConfiguration configuration) {
+        try (Transaction tx = database.beginTx()) {
+            Node marker = markerNode();
+            boolean result = marker != null
+                    && configuration.equals(Serializer.<TxDrivenModuleConfiguration>fromString((String) marker.getProperty(CONFIGURATION), prefix));
+            if (marker != null) {
+                marker.delete();
+            }
+            tx.success();
+            return result;
+        }
+    }
+
+    private Node markerNode() {
+        try (ResourceIterator<Node> markers = database.findNodes(label)) {
+            return markers.hasNext() ? markers.next() : null;
+        }
+    }
+
+    private static Label label(String prefix) {
+        return DynamicLabel.label(prefix + BULK_BUILD);
+    }
+}
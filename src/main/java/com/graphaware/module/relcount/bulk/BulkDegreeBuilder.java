@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.bulk;
+
+import com.graphaware.common.description.property.LiteralPropertiesDescription;
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.common.description.relationship.DetachedRelationshipDescriptionImpl;
+import com.graphaware.module.relcount.RelationshipCountConfiguration;
+import com.graphaware.module.relcount.cache.DegreeCachingNode;
+import com.graphaware.module.relcount.view.CountViews;
+import com.graphaware.runtime.config.FluentRuntimeConfiguration;
+import com.graphaware.tx.event.improved.propertycontainer.filtered.FilteredRelationship;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchRelationship;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static com.graphaware.common.util.DirectionUtils.resolveDirection;
+import static com.graphaware.module.relcount.RelationshipCountModule.FULL_RELCOUNT_DEFAULT_ID;
+
+/**
+ * Offline builder of cached counts for stores created by a {@link BatchInserter}, so that
+ * {@link com.graphaware.module.relcount.RelationshipCountModule} does not have to traverse the whole graph when the
+ * database is started for the first time after an import.
+ * <p/>
+ * Relationships are fed to the builder either as they are being created ({@link #addRelationship(long, long, long, RelationshipType)}),
+ * or by reading a finished store ({@link #addAllRelationships(long)}). Either way, every relationship is read once and its
+ * weight is added to the degrees of both its nodes in a {@link DegreeAccumulator}, which spills to disk when it gets
+ * full. {@link #build()} then writes the cached degrees of every node exactly once, in ascending order of node IDs,
+ * compacted and serialized exactly like the module would, and records that the counts have been built in a
+ * {@link BulkBuildMarker}. When the module is initialized with the same configuration, it only consumes the marker.
+ * <p/>
+ * Inclusion policies and the weighing strategy of the configuration are applied to {@link BatchInserterNode}s and
+ * {@link BatchInserterRelationship}s, so they must not use the database or traverse the graph. Like in the module,
+ * relationships with a weight of 0 do not contribute to the cached degrees at all. The counts are written
+ * under the module's base prefix, so the builder is intended for stores that the module has not been running on.
+ */
+public class BulkDegreeBuilder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BulkDegreeBuilder.class);
+
+    /**
+     * Default maximum number of degrees accumulated in memory before they are spilled to disk.
+     */
+    public static final int DEFAULT_CAPACITY = 1000000;
+
+    private final BatchInserter inserter;
+    private final String prefix;
+    private final RelationshipCountConfiguration configuration;
+    private final DegreeAccumulator accumulator;
+
+    private long noRelationships;
+    private boolean built;
+
+    /**
+     * Construct a new builder of cached counts for a {@link com.graphaware.module.relcount.RelationshipCountModule}
+     * with the default ID, running in a runtime with the default configuration.
+     *
+     * @param inserter      of the store to build cached counts in.
+     * @param configuration of the module.
+     */
+    public BulkDegreeBuilder(BatchInserter inserter, RelationshipCountConfiguration configuration) {
+        this(inserter, FluentRuntimeConfiguration.defaultConfiguration().createPrefix(FULL_RELCOUNT_DEFAULT_ID), configuration, DEFAULT_CAPACITY, null);
+    }
+
+    /**
+     * Construct a new builder.
+     *
+     * @param inserter       of the store to build cached counts in.
+     * @param prefix         of the module, as created by the runtime configuration from the module ID.
+     * @param configuration  of the module.
+     * @param capacity       maximum number of degrees accumulated in memory before they are spilled to disk.
+     * @param spillDirectory directory for temporary files, null for the default temporary-file directory.
+     */
+    public BulkDegreeBuilder(BatchInserter inserter, String prefix, RelationshipCountConfiguration configuration, int capacity, File spillDirectory) {
+        this.inserter = inserter;
+        this.prefix = prefix;
+        this.configuration = configuration;
+        this.accumulator = new DegreeAccumulator(capacity, spillDirectory);
+    }
+
+    /**
+     * Add a relationship that has just been created by the inserter.
+     *
+     * @param relationshipId ID of the relationship, as returned by the inserter.
+     * @param startNodeId    ID of the start node.
+     * @param endNodeId      ID of the end node.
+     * @param type           of the relationship.
+     */
+    public void addRelationship(long relationshipId, long startNodeId, long endNodeId, RelationshipType type) {
+        add(new BatchInserterRelationship(inserter, relationshipId, startNodeId, endNodeId, type));
+    }
+
+    /**
+     * Add all relationships stored by the inserter. The highest node ID must be provided, because the inserter does
+     * not expose it, and there can be gaps in node IDs, e.g. where nodes have been deleted before the import or have
+     * been created with explicit IDs.
+     *
+     * @param highestNodeId highest ID of a node in the store. Relationships of nodes with higher IDs are not added.
+     */
+    public void addAllRelationships(long highestNodeId) {
+        for (long nodeId = 0; nodeId <= highestNodeId; nodeId++) {
+            if (inserter.nodeExists(nodeId)) {
+                addRelationshipsStartingAt(nodeId);
+            }
+        }
+    }
+
+    /**
+     * Write cached degrees of all nodes with added relationships and record that the counts have been built. Can
+     * only be called once, after all relationships have been added.
+     *
+     * @return number of nodes whose cached degrees have been written.
+     */
+    public long build() {
+        if (built) {
+            throw new IllegalStateException("Cached counts have already been built");
+        }
+        built = true;
+
+        final long[] noNodes = {0};
+        int noRuns = accumulator.getNumberOfRuns();
+
+        try {
+            accumulator.drain(new DegreeAccumulator.Visitor() {
+                @Override
+                public void visit(long nodeId, Map<DetachedRelationshipDescription, Integer> degrees) {
+                    DegreeCachingNode cachingNode = new DegreeCachingNode(new BatchInserterNode(inserter, nodeId), prefix, configuration);
+                    cachingNode.deleteAllDegrees();
+
+                    for (Map.Entry<DetachedRelationshipDescription, Integer> degree : degrees.entrySet()) {
+                        if (degree.getValue() > 0) {
+                            cachingNode.incrementDegree(degree.getKey(), degree.getValue());
+                        }
+                    }
+
+                    //written as a whole, strategies writing deltas may need the database
+                    if (cachingNode.flushWhole()) {
+                        noNodes[0]++;
+                    }
+                }
+            });
+        } finally {
+            accumulator.close();
+        }
+
+        BulkBuildMarker.write(inserter, prefix, configuration);
+
+        LOG.info("Built cached counts of " + noNodes[0] + " nodes from " + noRelationships + " relationships, using "
+                + noRuns + " runs spilled to disk.");
+
+        return noNodes[0];
+    }
+
+    private void addRelationshipsStartingAt(long nodeId) {
+        Set<Long> loops = new HashSet<>();
+
+        for (BatchRelationship relationship : inserter.getRelationships(nodeId)) {
+            if (relationship.getStartNode() != nodeId) {
+                continue;
+            }
+
+            if (relationship.getEndNode() == nodeId && !loops.add(relationship.getId())) {
+                continue;
+            }
+
+            add(new BatchInserterRelationship(inserter, relationship));
+        }
+    }
+
+    private void add(Relationship relationship) {
+        if (built) {
+            throw new IllegalStateException("Cached counts have already been built");
+        }
+
+        Relationship filtered = new FilteredRelationship(relationship, configuration.getInclusionPolicies());
+
+        add(filtered, filtered.getStartNode(), Direction.INCOMING);
+        add(filtered, filtered.getEndNode(), Direction.OUTGOING);
+
+        noRelationships++;
+    }
+
+    private void add(Relationship relationship, Node pointOfView, Direction defaultDirection) {
+        if (!configuration.getInclusionPolicies().getRelationshipInclusionPolicy().include(relationship, pointOfView)) {
+            return;
+        }
+
+        int weight = configuration.getWeighingStrategy().getRelationshipWeight(relationship, pointOfView);
+
+        if (weight == 0) {
+            //transactions only apply net changes, so relationships weighing 0 never create a cached degree
+            return;
+        }
+
+        accumulator.add(pointOfView.getId(), CountViews.project(configuration, new DetachedRelationshipDescriptionImpl(
+                relationship.getType(),
+                resolveDirection(relationship, pointOfView, defaultDirection),
+                new LiteralPropertiesDescription(relationship))), weight);
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.bulk;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.module.relcount.cache.DegreeCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Per-node accumulator of degrees, fed with relationships in any order. When the number of accumulated degrees exceeds
+ * the configured capacity, all of them are spilled to a temporary file as a run sorted by node ID and the accumulator
+ * starts over, so that graphs whose degrees do not fit in heap can be processed. {@link #drain(Visitor)} merges the
+ * runs with what is left in memory and visits every node exactly once, in ascending order of node IDs.
+ * <p/>
+ * Spilled degrees are encoded using {@link DegreeCodec}. Temporary files are deleted when the accumulator is
+ * {@link #close()}d.
+ */
+public class DegreeAccumulator implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DegreeAccumulator.class);
+
+    /**
+     * Visitor of accumulated degrees.
+     */
+    public interface Visitor {
+
+        /**
+         * Visit all accumulated degrees of a node.
+         *
+         * @param nodeId  ID of the node.
+         * @param degrees accumulated degrees of the node.
+         */
+        void visit(long nodeId, Map<DetachedRelationshipDescription, Integer> degrees);
+    }
+
+    private final int capacity;
+    private final File spillDirectory;
+
+    private Map<Long, Map<DetachedRelationshipDescription, Integer>> degrees = new HashMap<>();
+    private int size;
+    private final List<File> runs = new ArrayList<>();
+
+    /**
+     * Construct a new accumulator.
+     *
+     * @param capacity       maximum number of degrees (distinct node and relationship description pairs) to keep in
+     *                       memory before spilling them to disk.
+     * @param spillDirectory directory for temporary files, null for the default temporary-file directory.
+     */
+    public DegreeAccumulator(int capacity, File spillDirectory) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+
+        this.capacity = capacity;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Add to the degree of a node with respect to a relationship description.
+     *
+     * @param nodeId      ID of the node.
+     * @param description of the relationship.
+     * @param delta       to add.
+     */
+    public void add(long nodeId, DetachedRelationshipDescription description, int delta) {
+        Map<DetachedRelationshipDescription, Integer> nodeDegrees = degrees.get(nodeId);
+        if (nodeDegrees == null) {
+            nodeDegrees = new HashMap<>();
+            degrees.put(nodeId, nodeDegrees);
+        }
+
+        Integer degree = nodeDegrees.get(description);
+        if (degree == null) {
+            nodeDegrees.put(description, delta);
+            if (++size > capacity) {
+                spill();
+            }
+        } else {
+            nodeDegrees.put(description, degree + delta);
+        }
+    }
+
+    /**
+     * @return number of runs spilled to disk so far.
+     */
+    public int getNumberOfRuns() {
+        return runs.size();
+    }
+
+    /**
+     * Visit accumulated degrees of all nodes, in ascending order of node IDs, merging degrees spilled to disk with the
+     * ones held in memory. The accumulator is empty afterwards.
+     *
+     * @param visitor to visit the degrees with.
+     */
+    public void drain(Visitor visitor) {
+        PriorityQueue<Run> queue = new PriorityQueue<>(runs.size() + 1, new Comparator<Run>() {
+            @Override
+            public int compare(Run o1, Run o2) {
+                return Long.compare(o1.nodeId, o2.nodeId);
+            }
+        });
+
+        try {
+            for (File file : runs) {
+                enqueue(queue, new FileRun(file));
+            }
+            enqueue(queue, new MemoryRun(new TreeMap<>(degrees)));
+            degrees = new HashMap<>();
+            size = 0;
+
+            while (!queue.isEmpty()) {
+                Run run = queue.poll();
+                long nodeId = run.nodeId;
+                Map<DetachedRelationshipDescription, Integer> merged = new HashMap<>(run.degrees);
+                enqueue(queue, run);
+
+                while (!queue.isEmpty() && queue.peek().nodeId == nodeId) {
+                    Run other = queue.poll();
+                    for (Map.Entry<DetachedRelationshipDescription, Integer> degree : other.degrees.entrySet()) {
+                        Integer existing = merged.get(degree.getKey());
+                        merged.put(degree.getKey(), existing == null ? degree.getValue() : existing + degree.getValue());
+                    }
+                    enqueue(queue, other);
+                }
+
+                visitor.visit(nodeId, merged);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read spilled degrees", e);
+        } finally {
+            for (Run run : queue) {
+                run.close();
+            }
+        }
+
+        deleteRuns();
+    }
+
+    /**
+     * Delete all temporary files.
+     */
+    @Override
+    public void close() {
+        deleteRuns();
+    }
+
+    private void enqueue(PriorityQueue<Run> queue, Run run) throws IOException {
+        if (run.advance()) {
+            queue.add(run);
+        } else {
+            run.close();
+        }
+    }
+
+    private void spill() {
+        File file;
+        try {
+            file = File.createTempFile("relcount-degrees-", ".run", spillDirectory);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to create a file to spill degrees to", e);
+        }
+        runs.add(file);
+
+        LOG.info("Spilling " + size + " degrees of " + degrees.size() + " nodes to " + file.getAbsolutePath());
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            for (Map.Entry<Long, Map<DetachedRelationshipDescription, Integer>> entry : new TreeMap<>(degrees).entrySet()) {
+                byte[] bytes = DegreeCodec.encode(entry.getValue());
+                out.writeLong(entry.getKey());
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to spill degrees to " + file.getAbsolutePath(), e);
+        }
+
+        degrees = new HashMap<>();
+        size = 0;
+    }
+
+    private void deleteRuns() {
+        for (File file : runs) {
+            if (!file.delete()) {
+                LOG.warn("Unable to delete " + file.getAbsolutePath());
+            }
+        }
+        runs.clear();
+    }
+
+    /**
+     * Source of degrees of nodes sorted by node ID.
+     */
+    private abstract static class Run implements Closeable {
+
+        protected long nodeId;
+        protected Map<DetachedRelationshipDescription, Integer> degrees;
+
+        /**
+         * Move to the next node.
+         *
+         * @return false iff there are no more nodes.
+         */
+        abstract boolean advance() throws IOException;
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class MemoryRun extends Run {
+
+        private final Iterator<Map.Entry<Long, Map<DetachedRelationshipDescription, Integer>>> iterator;
+
+        private MemoryRun(TreeMap<Long, Map<DetachedRelationshipDescription, Integer>> degrees) {
+            this.iterator = degrees.entrySet().iterator();
+        }
+
+        @Override
+        boolean advance() {
+            if (!iterator.hasNext()) {
+                return false;
+            }
+
+            Map.Entry<Long, Map<DetachedRelationshipDescription, Integer>> next = iterator.next();
+            iterator.remove();
+            nodeId = next.getKey();
+            degrees = next.getValue();
+            return true;
+        }
+    }
+
+    private static class FileRun extends Run {
+
+        private final DataInputStream in;
+
+        private FileRun(File file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            try {
+                nodeId = in.readLong();
+            } catch (EOFException e) {
+                return false;
+            }
+
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            degrees = DegreeCodec.decode(bytes);
+            return true;
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                LOG.warn("Unable to close spilled degrees", e);
+            }
+        }
+    }
+}
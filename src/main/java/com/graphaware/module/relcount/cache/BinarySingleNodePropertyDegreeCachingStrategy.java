@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link DegreeCachingStrategy} that caches degrees as a single node property on the node that the degrees are for,
+ * just like {@link SingleNodePropertyDegreeCachingStrategy}. The value of the property, however, is the entire map
+ * of degrees encoded using {@link DegreeCodec}, which is much smaller and faster to decode than general-purpose serialization.
+ * <p/>
+ * Degrees previously written by {@link SingleNodePropertyDegreeCachingStrategy} can still be read, so it is possible
+ * to switch to this strategy without clearing the cached degrees first. Each node is then migrated to the new format
+ * the next time its degrees are written.
+ */
+public class BinarySingleNodePropertyDegreeCachingStrategy implements PartialDegreeCachingStrategy {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeDegrees(Node node, String prefix, Map<DetachedRelationshipDescription, Integer> cachedDegrees, Set<DetachedRelationshipDescription> updatedDegrees, Set<DetachedRelationshipDescription> removedDegrees) {
+        node.setProperty(prefix, DegreeCodec.encode(cachedDegrees));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<DetachedRelationshipDescription, Integer> readDegrees(Node node, String prefix) {
+        if (!node.hasProperty(prefix)) {
+            return new HashMap<>();
+        }
+
+        return DegreeCodec.decode((byte[]) node.getProperty(prefix));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CachedDegrees readCachedDegrees(Node node, String prefix, RelationshipType type, Direction direction) {
+        if (!node.hasProperty(prefix)) {
+            return CachedDegrees.EMPTY;
+        }
+
+        return DegreeCodec.decodeCachedDegrees((byte[]) node.getProperty(prefix), type == null ? null : type.name(), direction);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Immutable, read-only view of cached degrees of a node, backed by a pair of arrays. Intended for the read path
+ * ({@link com.graphaware.module.relcount.count.CachedRelationshipCounter}), where the cached degrees are only iterated
+ * once and the maps and sets held by {@link DegreeCachingNode} would be pure overhead.
+ * <p/>
+ * Entries are accessed by index, from 0 (inclusive) to {@link #size()} (exclusive).
+ */
+public final class CachedDegrees {
+
+    /**
+     * View of no cached degrees.
+     */
+    public static final CachedDegrees EMPTY = new CachedDegrees(new DetachedRelationshipDescription[0], new int[0], 0);
+
+    private final DetachedRelationshipDescription[] descriptions;
+    private final int[] degrees;
+    private final int size;
+
+    /**
+     * Construct a new view. The arrays are not copied and must not be modified after this constructor is called.
+     *
+     * @param descriptions of the cached degrees.
+     * @param degrees      cached degrees, index-aligned with descriptions.
+     * @param size         number of valid entries in the arrays.
+     */
+    CachedDegrees(DetachedRelationshipDescription[] descriptions, int[] degrees, int size) {
+        this.descriptions = descriptions;
+        this.degrees = degrees;
+        this.size = size;
+    }
+
+    /**
+     * Create a view of cached degrees held in a map.
+     *
+     * @param cachedDegrees to create a view of.
+     * @return view.
+     */
+    public static CachedDegrees of(Map<DetachedRelationshipDescription, Integer> cachedDegrees) {
+        if (cachedDegrees.isEmpty()) {
+            return EMPTY;
+        }
+
+        DetachedRelationshipDescription[] descriptions = new DetachedRelationshipDescription[cachedDegrees.size()];
+        int[] degrees = new int[cachedDegrees.size()];
+
+        int i = 0;
+        for (Map.Entry<DetachedRelationshipDescription, Integer> entry : cachedDegrees.entrySet()) {
+            descriptions[i] = entry.getKey();
+            degrees[i] = entry.getValue();
+            i++;
+        }
+
+        return new CachedDegrees(descriptions, degrees, i);
+    }
+
+    /**
+     * @return number of cached degrees in this view.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true iff there are no cached degrees in this view.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get the description of the index-th cached degree.
+     *
+     * @param index of the cached degree.
+     * @return description.
+     */
+    public DetachedRelationshipDescription getDescription(int index) {
+        checkIndex(index);
+        return descriptions[index];
+    }
+
+    /**
+     * Get the index-th cached degree.
+     *
+     * @param index of the cached degree.
+     * @return degree.
+     */
+    public int getDegree(int index) {
+        checkIndex(index);
+        return degrees[index];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for " + size + " cached degrees");
+        }
+    }
+
+    /**
+     * Growable pair of arrays that a {@link CachedDegrees} view is built from.
+     */
+    static class Builder {
+        private DetachedRelationshipDescription[] descriptions;
+        private int[] degrees;
+        private int size = 0;
+
+        Builder(int expectedSize) {
+            descriptions = new DetachedRelationshipDescription[Math.max(expectedSize, 4)];
+            degrees = new int[descriptions.length];
+        }
+
+        void add(DetachedRelationshipDescription description, int degree) {
+            if (size == descriptions.length) {
+                descriptions = Arrays.copyOf(descriptions, size * 2);
+                degrees = Arrays.copyOf(degrees, size * 2);
+            }
+            descriptions[size] = description;
+            degrees[size] = degree;
+            size++;
+        }
+
+        CachedDegrees build() {
+            return size == 0 ? EMPTY : new CachedDegrees(descriptions, degrees, size);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("{");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                result.append(", ");
+            }
+            result.append(descriptions[i]).append("=").append(degrees[i]);
+        }
+        return result.append("}").toString();
+    }
+}
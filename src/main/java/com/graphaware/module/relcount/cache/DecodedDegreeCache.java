@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded, thread-safe, in-memory cache of decoded {@link CachedDegrees}, keyed by node ID, shared by all transactions.
+ * Every {@link com.graphaware.module.relcount.RelationshipCountModule} owns exactly one instance, so entries are
+ * implicitly scoped to the module.
+ * <p/>
+ * The cache is split into segments, each of which is an LRU map guarded by its own lock. Its capacity is expressed
+ * as a total weight rather than a number of entries; the weight of an entry is the number of cached degrees it holds
+ * plus one, so that a few hub nodes with thousands of cached degrees can not push out everything else unnoticed.
+ * <p/>
+ * In order to stay coherent with committed data, readers must obtain a {@link #stamp(long)} for the node <b>before</b>
+ * reading its cached degrees from the database and pass it to {@link #put(long, CachedDegrees, long)}. Writers
+ * {@link #invalidate(java.util.Collection)} the nodes they have written after the transaction has been committed,
+ * which changes the stamp, so degrees read before the commit but put into the cache after the invalidation are
+ * discarded, rather than cached forever. Stamps are striped, so an invalidation can occasionally cause an unrelated
+ * put to be discarded, which is harmless.
+ * <p/>
+ * Cached degrees that are heavier than a whole segment are never cached. Instead, a {@link #TOO_LARGE} marker, weighing
+ * as much as an entry with no cached degrees, is remembered for the node, so that readers know they are better off decoding only the part of its cached
+ * degrees they are interested in, rather than decoding all of them again in vain.
+ */
+public class DecodedDegreeCache {
+
+    /**
+     * Marker returned by {@link #get(long)} for nodes whose cached degrees are too large to be cached.
+     */
+    public static final CachedDegrees TOO_LARGE = new CachedDegrees(new DetachedRelationshipDescription[0], new int[0], 0);
+
+    private static final int NUMBER_OF_SEGMENTS = 16;
+    private static final int NUMBER_OF_STAMPS = 1024;
+
+    private final long capacity;
+    private final Segment[] segments;
+    private final AtomicLongArray stamps = new AtomicLongArray(NUMBER_OF_STAMPS);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Construct a new cache.
+     *
+     * @param capacity maximum total weight of all cached entries. 0 disables caching.
+     */
+    public DecodedDegreeCache(long capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative");
+        }
+
+        this.capacity = capacity;
+        this.segments = new Segment[NUMBER_OF_SEGMENTS];
+        for (int i = 0; i < NUMBER_OF_SEGMENTS; i++) {
+            segments[i] = new Segment(capacity / NUMBER_OF_SEGMENTS + (i < capacity % NUMBER_OF_SEGMENTS ? 1 : 0));
+        }
+    }
+
+    /**
+     * @return true iff this cache actually caches anything, i.e. its capacity is greater than 0.
+     */
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * Get the current stamp of a node. Must be called before the node's cached degrees are read from the database.
+     *
+     * @param nodeId ID of the node.
+     * @return stamp to pass to {@link #put(long, CachedDegrees, long)}.
+     */
+    public long stamp(long nodeId) {
+        return stamps.get(stampIndex(nodeId));
+    }
+
+    /**
+     * Get cached degrees of a node.
+     *
+     * @param nodeId ID of the node.
+     * @return cached degrees, null if not present in this cache, {@link #TOO_LARGE} if they are too large to be cached.
+     */
+    public CachedDegrees get(long nodeId) {
+        CachedDegrees result = segment(nodeId).get(nodeId);
+
+        if (result == null || result == TOO_LARGE) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+
+        return result;
+    }
+
+    /**
+     * Put cached degrees of a node into this cache, unless the node has been invalidated since the stamp was obtained.
+     * If the cached degrees are too large to be cached, the node is marked as {@link #TOO_LARGE} instead.
+     *
+     * @param nodeId        ID of the node.
+     * @param cachedDegrees of the node, read from the database after the stamp was obtained.
+     * @param stamp         obtained by {@link #stamp(long)} before the cached degrees were read.
+     */
+    public void put(long nodeId, CachedDegrees cachedDegrees, long stamp) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        segment(nodeId).put(nodeId, cachedDegrees, stamp, stampIndex(nodeId));
+    }
+
+    /**
+     * Invalidate cached degrees of the given nodes. Must be called after the cached degrees of the nodes have been
+     * written and committed.
+     *
+     * @param nodeIds IDs of nodes to invalidate.
+     */
+    public void invalidate(Collection<Long> nodeIds) {
+        for (Long nodeId : nodeIds) {
+            Segment segment = segment(nodeId);
+            synchronized (segment) {
+                stamps.incrementAndGet(stampIndex(nodeId));
+                segment.remove(nodeId);
+            }
+        }
+    }
+
+    /**
+     * Invalidate all cached degrees, e.g. after the module has been (re-)initialized.
+     */
+    public void invalidateAll() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+
+        for (int i = 0; i < NUMBER_OF_STAMPS; i++) {
+            stamps.incrementAndGet(i);
+        }
+    }
+
+    /**
+     * @return number of times cached degrees have been found in this cache.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of times cached degrees have not been found in this cache.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of entries evicted from this cache in order to stay within its capacity.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return number of entries currently in this cache.
+     */
+    public int size() {
+        int result = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                result += segment.entries.size();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return total weight of entries currently in this cache.
+     */
+    public long weight() {
+        long result = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                result += segment.weight;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return maximum total weight of entries in this cache.
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    private Segment segment(long nodeId) {
+        return segments[(int) (spread(nodeId) & (NUMBER_OF_SEGMENTS - 1))];
+    }
+
+    private int stampIndex(long nodeId) {
+        return (int) ((spread(nodeId) >>> 4) & (NUMBER_OF_STAMPS - 1));
+    }
+
+    private static long spread(long nodeId) {
+        long h = nodeId * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    private static long weigh(CachedDegrees cachedDegrees) {
+        return cachedDegrees.size() + 1;
+    }
+
+    /**
+     * A single LRU segment of the cache. All access must be synchronized on the segment.
+     */
+    private class Segment {
+        private final long capacity;
+        private final LinkedHashMap<Long, CachedDegrees> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long weight = 0;
+
+        private Segment(long capacity) {
+            this.capacity = capacity;
+        }
+
+        private synchronized CachedDegrees get(long nodeId) {
+            return entries.get(nodeId);
+        }
+
+        private synchronized void put(long nodeId, CachedDegrees cachedDegrees, long stamp, int stampIndex) {
+            if (stamps.get(stampIndex) != stamp) {
+                return;
+            }
+
+            CachedDegrees entry = cachedDegrees;
+            long entryWeight = weigh(entry);
+            if (entryWeight > capacity) {
+                entry = TOO_LARGE;
+                entryWeight = weigh(entry);
+                if (entryWeight > capacity) {
+                    return;
+                }
+            }
+
+            remove(nodeId);
+            entries.put(nodeId, entry);
+            weight += entryWeight;
+
+            Iterator<Map.Entry<Long, CachedDegrees>> iterator = entries.entrySet().iterator();
+            while (weight > capacity && iterator.hasNext()) {
+                weight -= weigh(iterator.next().getValue());
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+
+        private void remove(long nodeId) {
+            CachedDegrees removed = entries.remove(nodeId);
+            if (removed != null) {
+                weight -= weigh(removed);
+            }
+        }
+
+        private void clear() {
+            entries.clear();
+            weight = 0;
+        }
+    }
+}
@@ -20,6 +20,8 @@ import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 
+import java.util.Set;
+
 /**
  * Internal component that caches node degrees. Degrees must be cached by {@link org.neo4j.graphdb.RelationshipType},
  * {@link Direction} (only {@link Direction#INCOMING} or {@link Direction#OUTGOING}), and potentially properties.
@@ -40,9 +42,10 @@ public interface DegreeCache {
     /**
      * Tell the component that caching has been finished.
      *
+     * @return IDs of nodes whose cached degrees have been written since {@link #startCaching()} was called.
      * @throws IllegalStateException if {@link #startCaching()} method has not been previously called.
      */
-    void endCaching();
+    Set<Long> endCaching();
 
     /**
      * Handle a created relationship.
@@ -18,7 +18,11 @@ package com.graphaware.module.relcount.cache;
 
 import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
 import com.graphaware.module.relcount.RelationshipCountConfiguration;
+import com.graphaware.module.relcount.compact.CompactionStrategy;
+import com.graphaware.module.relcount.compact.DeferredCompactionStrategy;
+import com.graphaware.module.relcount.compact.GeneralizationStats;
 import com.graphaware.runtime.module.NeedsInitializationException;
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,6 +44,19 @@ public class DegreeCachingNode {
     private final Set<DetachedRelationshipDescription> updatedDegrees = new HashSet<>();
     private final Set<DetachedRelationshipDescription> removedDegrees = new HashSet<>();
 
+    //degrees as they were before they were first changed, null for degrees that were not cached
+    private final Map<DetachedRelationshipDescription, Integer> originalDegrees = new HashMap<>();
+
+    //index of cached descriptions by relationship type and direction, so that matching only considers relevant candidates
+    private final Map<TypeAndDirection, Set<DetachedRelationshipDescription>> cachedDescriptions = new HashMap<>();
+    private boolean deletedDegrees = false;
+
+    //statistics of cached degrees for producing generalizations, maintained once first requested; null until then
+    private GeneralizationStats generalizationStats;
+
+    //compaction to perform before flushing, because new descriptions have been cached since the last flush; null for none
+    private DeferredCompactionStrategy deferredCompaction;
+
     /**
      * Construct a new caching node.
      *
@@ -53,6 +70,10 @@ public class DegreeCachingNode {
         this.configuration = configuration;
 
         cachedDegrees.putAll(configuration.getDegreeCachingStrategy().readDegrees(node, prefix));
+
+        for (DetachedRelationshipDescription description : cachedDegrees.keySet()) {
+            index(description);
+        }
     }
 
     /**
@@ -73,6 +94,39 @@ public class DegreeCachingNode {
         return Collections.unmodifiableMap(cachedDegrees);
     }
 
+    /**
+     * Get statistics of the degrees cached by the node, used by compaction strategies to produce generalizations. The
+     * statistics are built when first requested and from then on maintained incrementally as cached degrees change,
+     * so that repeated compaction of the node does not have to re-build them.
+     *
+     * @return statistics of cached degrees.
+     */
+    public GeneralizationStats getGeneralizationStats() {
+        if (generalizationStats == null) {
+            generalizationStats = GeneralizationStats.of(cachedDegrees);
+        }
+        return generalizationStats;
+    }
+
+    /**
+     * Get descriptions of degrees cached by the node with respect to relationships of the given type and direction.
+     *
+     * @param type      name of the relationship type.
+     * @param direction of the relationships. {@link Direction#BOTH} means descriptions with any direction.
+     * @return cached descriptions.
+     */
+    public Set<DetachedRelationshipDescription> getCachedDescriptions(String type, Direction direction) {
+        if (!Direction.BOTH.equals(direction)) {
+            return Collections.unmodifiableSet(bucket(type, direction));
+        }
+
+        Set<DetachedRelationshipDescription> result = new HashSet<>();
+        for (Direction candidateDirection : Direction.values()) {
+            result.addAll(bucket(type, candidateDirection));
+        }
+        return result;
+    }
+
     /**
      * Increment the degree of this node with respect to a relationship description by a delta.
      *
@@ -91,18 +145,22 @@ public class DegreeCachingNode {
      * @param preventCompaction true for preventing compaction.
      */
     public void incrementDegree(DetachedRelationshipDescription description, int delta, boolean preventCompaction) {
-        for (DetachedRelationshipDescription cachedDescription : cachedDegrees.keySet()) {
-            if (cachedDescription.isMoreGeneralThan(description)) {
-                int newValue = cachedDegrees.get(cachedDescription) + delta;
-                put(cachedDescription, newValue);
-                return;
-            }
+        DetachedRelationshipDescription cachedDescription = findMoreGeneral(description);
+
+        if (cachedDescription != null) {
+            put(cachedDescription, cachedDegrees.get(cachedDescription) + delta);
+            return;
         }
 
         put(description, delta);
 
         if (!preventCompaction) {
-            configuration.getCompactionStrategy().compactRelationshipCounts(this);
+            CompactionStrategy compactionStrategy = configuration.getCompactionStrategy();
+            compactionStrategy.compactRelationshipCounts(this);
+
+            if (compactionStrategy instanceof DeferredCompactionStrategy) {
+                deferredCompaction = (DeferredCompactionStrategy) compactionStrategy;
+            }
         }
     }
 
@@ -115,22 +173,22 @@ public class DegreeCachingNode {
      *          if the total degree of this node with respect to the given relationships becomes negative.
      */
     public void decrementDegree(DetachedRelationshipDescription description, int delta) {
-        for (DetachedRelationshipDescription cachedDescription : cachedDegrees.keySet()) {
-            if (cachedDescription.isMoreGeneralThan(description)) {
-                int newValue = cachedDegrees.get(cachedDescription) - delta;
-                put(cachedDescription, newValue);
+        DetachedRelationshipDescription cachedDescription = findMoreGeneral(description);
 
-                if (newValue <= 0) {
-                    delete(cachedDescription);
-                }
+        if (cachedDescription != null) {
+            int newValue = cachedDegrees.get(cachedDescription) - delta;
+            put(cachedDescription, newValue);
 
-                if (newValue < 0) {
-                    LOG.warn(cachedDescription.toString() + " was out of sync on node " + node.getId());
-                    throw new NeedsInitializationException(cachedDescription.toString() + " was out of sync on node " + node.getId());
-                }
+            if (newValue <= 0) {
+                delete(cachedDescription);
+            }
 
-                return;
+            if (newValue < 0) {
+                LOG.warn(cachedDescription.toString() + " was out of sync on node " + node.getId());
+                throw new NeedsInitializationException(cachedDescription.toString() + " was out of sync on node " + node.getId());
             }
+
+            return;
         }
 
         LOG.warn(description.toString() + " was not present on node " + node.getId());
@@ -138,10 +196,151 @@ public class DegreeCachingNode {
     }
 
     /**
-     * Apply all the changes to cached degrees to persistent storage.
+     * Delete all cached degrees with respect to relationships of the given type, e.g. before they are re-built.
+     *
+     * @param type name of the relationship type.
+     */
+    public void deleteDegrees(String type) {
+        for (Direction direction : Direction.values()) {
+            for (DetachedRelationshipDescription description : new ArrayList<>(bucket(type, direction))) {
+                delete(description);
+            }
+        }
+    }
+
+    /**
+     * Delete all cached degrees, e.g. before they are recounted from scratch.
      */
-    public void flush() {
+    public void deleteAllDegrees() {
+        for (DetachedRelationshipDescription description : new ArrayList<>(cachedDegrees.keySet())) {
+            delete(description);
+        }
+    }
+
+    /**
+     * Find out whether the cached degrees of this node differ from the ones that have been read from persistent storage.
+     * Changes that cancel each other out, e.g. a decrement and an increment of the same cached degree, do not count.
+     *
+     * @return true iff there are changes to flush.
+     */
+    public boolean hasChanges() {
+        for (Map.Entry<DetachedRelationshipDescription, Integer> original : originalDegrees.entrySet()) {
+            Integer current = cachedDegrees.get(original.getKey());
+            if (current == null ? original.getValue() != null : !current.equals(original.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Apply all the changes to cached degrees to persistent storage, unless there are no changes. Only the net changes
+     * are written if the configured strategy is a {@link DeltaDegreeCachingStrategy}. Cached degrees are compacted
+     * first if the configured compaction strategy is a {@link DeferredCompactionStrategy} and new relationship
+     * descriptions have been cached.
+     *
+     * @return true iff the changes have been written, false if there were none.
+     * @see #hasChanges()
+     */
+    public boolean flush() {
+        compactBeforeFlush();
+
+        if (!hasChanges()) {
+            return false;
+        }
+
+        DegreeCachingStrategy strategy = configuration.getDegreeCachingStrategy();
+        if (strategy instanceof DeltaDegreeCachingStrategy) {
+            ((DeltaDegreeCachingStrategy) strategy).writeDegreeDeltas(node, prefix, cachedDegrees, getDeltas());
+        } else {
+            strategy.writeDegrees(node, prefix, cachedDegrees, updatedDegrees, removedDegrees);
+        }
+        return true;
+    }
+
+    /**
+     * Apply all the changes to cached degrees to persistent storage by writing all cached degrees as a whole, even if
+     * the configured strategy is a {@link DeltaDegreeCachingStrategy}, unless there are no changes.
+     *
+     * @return true iff the cached degrees have been written, false if there were no changes.
+     * @see #hasChanges()
+     */
+    public boolean flushWhole() {
+        compactBeforeFlush();
+
+        if (!hasChanges()) {
+            return false;
+        }
+
         configuration.getDegreeCachingStrategy().writeDegrees(node, prefix, cachedDegrees, updatedDegrees, removedDegrees);
+        return true;
+    }
+
+    /**
+     * Get net changes of the cached degrees since they have been read from persistent storage.
+     *
+     * @return changes (key = relationship description, value = signed delta), with no zero deltas.
+     */
+    public Map<DetachedRelationshipDescription, Integer> getDeltas() {
+        Map<DetachedRelationshipDescription, Integer> result = new HashMap<>();
+
+        for (Map.Entry<DetachedRelationshipDescription, Integer> original : originalDegrees.entrySet()) {
+            Integer current = cachedDegrees.get(original.getKey());
+            int delta = (current == null ? 0 : current) - (original.getValue() == null ? 0 : original.getValue());
+            if (delta != 0) {
+                result.put(original.getKey(), delta);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Find out whether any cached degree has been deleted, e.g. because it has dropped to zero, has been compacted into a
+     * more general one, or all degrees are being recounted. Unlike pure increments and decrements of cached degrees,
+     * such changes are only correct if no other transaction changes the node's cached degrees concurrently.
+     *
+     * @return true iff a cached degree has been deleted.
+     */
+    public boolean hasDeletedDegrees() {
+        return deletedDegrees;
+    }
+
+    /**
+     * Compact cached degrees if the configured compaction strategy is a {@link DeferredCompactionStrategy} and new
+     * relationship descriptions have been cached, as happens just before they are flushed.
+     */
+    void compactBeforeFlush() {
+        if (deferredCompaction != null) {
+            deferredCompaction.compactBeforeFlush(this);
+            deferredCompaction = null;
+        }
+    }
+
+    /**
+     * Find a cached description more general than the given one.
+     *
+     * @param description to find a more general cached description for.
+     * @return more general cached description, null if there is none.
+     */
+    private DetachedRelationshipDescription findMoreGeneral(DetachedRelationshipDescription description) {
+        String type = description.getType().name();
+
+        for (DetachedRelationshipDescription cachedDescription : bucket(type, description.getDirection())) {
+            if (cachedDescription.isMoreGeneralThan(description)) {
+                return cachedDescription;
+            }
+        }
+
+        if (!Direction.BOTH.equals(description.getDirection())) {
+            for (DetachedRelationshipDescription cachedDescription : bucket(type, Direction.BOTH)) {
+                if (cachedDescription.isMoreGeneralThan(description)) {
+                    return cachedDescription;
+                }
+            }
+        }
+
+        return null;
     }
 
     /**
@@ -151,7 +350,17 @@ public class DegreeCachingNode {
      * @param value       new value.
      */
     private void put(DetachedRelationshipDescription description, int value) {
-        cachedDegrees.put(description, value);
+        rememberOriginal(description);
+        Integer previous = cachedDegrees.put(description, value);
+        if (previous == null) {
+            index(description);
+        }
+        if (generalizationStats != null) {
+            if (previous != null) {
+                generalizationStats.forget(description, previous);
+            }
+            generalizationStats.acknowledge(description, value);
+        }
         updatedDegrees.add(description);
         removedDegrees.remove(description);
     }
@@ -162,8 +371,42 @@ public class DegreeCachingNode {
      * @param description to delete.
      */
     private void delete(DetachedRelationshipDescription description) {
-        cachedDegrees.remove(description);
+        rememberOriginal(description);
+        Integer previous = cachedDegrees.remove(description);
+        if (previous != null) {
+            deletedDegrees = true;
+            if (generalizationStats != null) {
+                generalizationStats.forget(description, previous);
+            }
+            TypeAndDirection key = new TypeAndDirection(description);
+            Set<DetachedRelationshipDescription> bucket = cachedDescriptions.get(key);
+            bucket.remove(description);
+            if (bucket.isEmpty()) {
+                cachedDescriptions.remove(key);
+            }
+        }
         updatedDegrees.remove(description);
         removedDegrees.add(description);
     }
+
+    private void rememberOriginal(DetachedRelationshipDescription description) {
+        if (!originalDegrees.containsKey(description)) {
+            originalDegrees.put(description, cachedDegrees.get(description));
+        }
+    }
+
+    private void index(DetachedRelationshipDescription description) {
+        TypeAndDirection key = new TypeAndDirection(description);
+        Set<DetachedRelationshipDescription> bucket = cachedDescriptions.get(key);
+        if (bucket == null) {
+            bucket = new HashSet<>();
+            cachedDescriptions.put(key, bucket);
+        }
+        bucket.add(description);
+    }
+
+    private Set<DetachedRelationshipDescription> bucket(String type, Direction direction) {
+        Set<DetachedRelationshipDescription> bucket = cachedDescriptions.get(new TypeAndDirection(type, direction));
+        return bucket == null ? Collections.<DetachedRelationshipDescription>emptySet() : bucket;
+    }
 }
@@ -0,0 +1,903 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.predicate.Predicate;
+import com.graphaware.common.description.property.LiteralPropertiesDescription;
+import com.graphaware.common.description.property.PropertiesDescription;
+import com.graphaware.common.description.property.WildcardPropertiesDescription;
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import org.neo4j.graphdb.Direction;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.graphaware.common.description.predicate.Predicates.any;
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.predicate.Predicates.undefined;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.wildcard;
+import static com.graphaware.common.serialize.Serializer.fromByteArray;
+import static com.graphaware.common.serialize.Serializer.toByteArray;
+
+/**
+ * Compact, versioned binary format for cached degrees, i.e. a map of {@link DetachedRelationshipDescription}s to degrees.
+ * <p/>
+ * Version 3 of the format looks as follows (all numbers are variable-length encoded):
+ * <pre>
+ * MAGIC (2 bytes) | VERSION (1 byte) | string table | predicate table | entries
+ * </pre>
+ * The string table contains all relationship types, property keys and string values of predicates, each of them
+ * exactly once. The predicate table contains all distinct {@link Predicate}s other than
+ * {@link com.graphaware.common.description.predicate.Predicates#any()} and
+ * {@link com.graphaware.common.description.predicate.Predicates#undefined()}, which are represented by tags. Every
+ * predicate is a tag followed by its value. {@link com.graphaware.common.description.predicate.Predicates#equalTo(Object)}
+ * predicates with a string value refer to the string table, those with a primitive value hold the value itself, and
+ * only other predicates are serialized using {@link com.graphaware.common.serialize.Serializer}, one by one. Each entry
+ * then consists of a type reference, a direction tag, a properties description tag, a list of (property key reference,
+ * predicate reference) pairs, and the degree.
+ * <p/>
+ * Version 4 of the format partitions the degrees by relationship type and direction, so that degrees with respect to
+ * a single type and direction can be decoded without decoding the rest:
+ * <pre>
+ * MAGIC (2 bytes) | VERSION (1 byte) | string table | predicate table | header | section 1 | section 2 | ...
+ * </pre>
+ * The tables are shared by all sections and their entries are only decoded when referred to. The header contains the
+ * number of sections followed by (type reference, direction tag, section length) for each section. Every section
+ * consists of the entries with respect to its type and direction, in the same layout as in version 3.
+ * <p/>
+ * Versions 1 and 2 are the same as versions 3 and 4, respectively, except that every section has its own string table,
+ * and the whole predicate table is serialized at once using {@link com.graphaware.common.serialize.Serializer}. They
+ * are no longer written, but still read.
+ * <p/>
+ * Maps that contain descriptions this format can not represent are serialized using {@link com.graphaware.common.serialize.Serializer},
+ * which is also the way degrees were serialized before this format was introduced. {@link #decode(byte[])} reads both.
+ * Serialized values start with a Kryo class reference, which would have to be a registered class ID of 9163 to start
+ * with the magic bytes, and be followed by a known version. Far fewer classes are ever registered.
+ */
+public final class DegreeCodec {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final byte MAGIC_1 = (byte) 0xCD;
+    static final byte MAGIC_2 = (byte) 0x47;
+    static final byte VERSION_1 = 1;
+    static final byte VERSION_2 = 2;
+    static final byte VERSION_3 = 3;
+    static final byte VERSION_4 = 4;
+
+    private static final byte OUTGOING = 0;
+    private static final byte INCOMING = 1;
+    private static final byte BOTH = 2;
+
+    private static final byte LITERAL = 0;
+    private static final byte WILDCARD = 1;
+
+    private static final int ANY = 0;
+    private static final int UNDEFINED = 1;
+    private static final int FIRST_PREDICATE = 2;
+
+    private static final byte EQUAL_TO_STRING = 0;
+    private static final byte EQUAL_TO_LONG = 1;
+    private static final byte EQUAL_TO_INT = 2;
+    private static final byte EQUAL_TO_SHORT = 3;
+    private static final byte EQUAL_TO_BYTE = 4;
+    private static final byte EQUAL_TO_CHAR = 5;
+    private static final byte EQUAL_TO_TRUE = 6;
+    private static final byte EQUAL_TO_FALSE = 7;
+    private static final byte EQUAL_TO_DOUBLE = 8;
+    private static final byte EQUAL_TO_FLOAT = 9;
+    private static final byte SERIALIZED = 10;
+
+    private static final ConcurrentMap<Class<?>, Field[]> VALUE_FIELDS = new ConcurrentHashMap<>();
+
+    private DegreeCodec() {
+    }
+
+    /**
+     * Encode cached degrees.
+     *
+     * @param degrees to encode.
+     * @return encoded degrees.
+     */
+    public static byte[] encode(Map<DetachedRelationshipDescription, Integer> degrees) {
+        if (!canEncode(degrees.keySet())) {
+            return toByteArray(degrees);
+        }
+
+        Tables tables = new Tables(degrees.keySet());
+
+        Writer writer = new Writer();
+        writer.writeByte(MAGIC_1);
+        writer.writeByte(MAGIC_2);
+        writer.writeByte(VERSION_3);
+        tables.write(writer);
+        writeEntries(writer, degrees, tables);
+
+        return writer.toByteArray();
+    }
+
+    /**
+     * Encode cached degrees partitioned by relationship type and direction (version 4 of the format), so that they
+     * can later be partially decoded using {@link #decode(byte[], String, org.neo4j.graphdb.Direction)}.
+     *
+     * @param degrees to encode.
+     * @return encoded degrees.
+     */
+    public static byte[] encodePartitioned(Map<DetachedRelationshipDescription, Integer> degrees) {
+        if (!canEncode(degrees.keySet())) {
+            return toByteArray(degrees);
+        }
+
+        Map<TypeAndDirection, Map<DetachedRelationshipDescription, Integer>> partitions = new LinkedHashMap<>();
+        for (Map.Entry<DetachedRelationshipDescription, Integer> entry : degrees.entrySet()) {
+            TypeAndDirection partition = new TypeAndDirection(entry.getKey());
+            if (!partitions.containsKey(partition)) {
+                partitions.put(partition, new HashMap<DetachedRelationshipDescription, Integer>());
+            }
+            partitions.get(partition).put(entry.getKey(), entry.getValue());
+        }
+
+        Tables tables = new Tables(degrees.keySet());
+
+        Writer header = new Writer();
+        header.writeByte(MAGIC_1);
+        header.writeByte(MAGIC_2);
+        header.writeByte(VERSION_4);
+        tables.write(header);
+        header.writeVarInt(partitions.size());
+
+        Writer sections = new Writer();
+        for (Map.Entry<TypeAndDirection, Map<DetachedRelationshipDescription, Integer>> partition : partitions.entrySet()) {
+            Writer section = new Writer();
+            writeEntries(section, partition.getValue(), tables);
+            byte[] sectionBytes = section.toByteArray();
+
+            header.writeVarInt(tables.strings.get(partition.getKey().getType()));
+            header.writeByte(directionTag(partition.getKey().getDirection()));
+            header.writeVarInt(sectionBytes.length);
+
+            sections.writeBytes(sectionBytes);
+        }
+
+        header.writeBytes(sections.toByteArray());
+        return header.toByteArray();
+    }
+
+    /**
+     * Decode cached degrees, encoded by {@link #encode(java.util.Map)}, {@link #encodePartitioned(java.util.Map)},
+     * or serialized by {@link com.graphaware.common.serialize.Serializer#toByteArray(Object)}.
+     *
+     * @param bytes to decode.
+     * @return decoded degrees.
+     */
+    public static Map<DetachedRelationshipDescription, Integer> decode(byte[] bytes) {
+        return decode(bytes, null, Direction.BOTH);
+    }
+
+    /**
+     * Decode cached degrees with respect to relationships of a given type and direction. Only degrees encoded by
+     * {@link #encodePartitioned(java.util.Map)} are decoded partially, all other formats are decoded fully and filtered.
+     *
+     * @param bytes     to decode.
+     * @param type      name of the relationship type of interest, null for all types.
+     * @param direction of interest, {@link org.neo4j.graphdb.Direction#BOTH} for both directions.
+     * @return decoded degrees with respect to relationships of the given type and direction.
+     */
+    public static Map<DetachedRelationshipDescription, Integer> decode(byte[] bytes, String type, Direction direction) {
+        CachedDegrees cachedDegrees = decodeCachedDegrees(bytes, type, direction);
+
+        Map<DetachedRelationshipDescription, Integer> result = new HashMap<>();
+        for (int i = 0; i < cachedDegrees.size(); i++) {
+            result.put(cachedDegrees.getDescription(i), cachedDegrees.getDegree(i));
+        }
+
+        return result;
+    }
+
+    /**
+     * Decode cached degrees with respect to relationships of a given type and direction straight into a read-only
+     * {@link CachedDegrees} view, without materializing any intermediate maps. Only degrees encoded by
+     * {@link #encodePartitioned(java.util.Map)} are decoded partially, in all other formats the entries with respect to
+     * other relationship types and directions are skipped.
+     *
+     * @param bytes     to decode.
+     * @param type      name of the relationship type of interest, null for all types.
+     * @param direction of interest, {@link org.neo4j.graphdb.Direction#BOTH} for both directions.
+     * @return decoded degrees with respect to relationships of the given type and direction.
+     */
+    public static CachedDegrees decodeCachedDegrees(byte[] bytes, String type, Direction direction) {
+        if (!isEncoded(bytes)) {
+            //noinspection unchecked
+            Map<DetachedRelationshipDescription, Integer> all = (Map<DetachedRelationshipDescription, Integer>) fromByteArray(bytes);
+            CachedDegrees.Builder result = new CachedDegrees.Builder(all.size());
+            for (Map.Entry<DetachedRelationshipDescription, Integer> entry : all.entrySet()) {
+                if (matches(entry.getKey().getType().name(), entry.getKey().getDirection(), type, direction)) {
+                    result.add(entry.getKey(), entry.getValue());
+                }
+            }
+            return result.build();
+        }
+
+        Reader reader = new Reader(bytes, 2);
+        byte version = reader.readByte();
+
+        CachedDegrees.Builder result = new CachedDegrees.Builder(0);
+
+        switch (version) {
+            case VERSION_1:
+                readEntries(reader, LegacyTableReader.read(reader), type, direction, result);
+                return result.build();
+            case VERSION_2:
+                readLegacySections(reader, type, direction, result);
+                return result.build();
+            case VERSION_3:
+                readEntries(reader, SharedTableReader.read(reader), type, direction, result);
+                return result.build();
+            case VERSION_4:
+                readSections(reader, type, direction, result);
+                return result.build();
+            default:
+                throw new IllegalStateException("Unknown cached degrees format version " + version + ". This is a bug.");
+        }
+    }
+
+    /**
+     * Find out whether the given bytes have been produced by this codec, rather than by the legacy serialization.
+     *
+     * @param bytes to check.
+     * @return true iff the bytes are in the format of this codec.
+     */
+    public static boolean isEncoded(byte[] bytes) {
+        return bytes.length >= 3 && bytes[0] == MAGIC_1 && bytes[1] == MAGIC_2 && bytes[2] >= VERSION_1 && bytes[2] <= VERSION_4;
+    }
+
+    private static boolean canEncode(Collection<DetachedRelationshipDescription> descriptions) {
+        for (DetachedRelationshipDescription description : descriptions) {
+            PropertiesDescription properties = description.getPropertiesDescription();
+            if (!(properties instanceof LiteralPropertiesDescription) && !(properties instanceof WildcardPropertiesDescription)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeEntries(Writer writer, Map<DetachedRelationshipDescription, Integer> degrees, Tables tables) {
+        writer.writeVarInt(degrees.size());
+        for (Map.Entry<DetachedRelationshipDescription, Integer> entry : degrees.entrySet()) {
+            DetachedRelationshipDescription description = entry.getKey();
+            PropertiesDescription properties = description.getPropertiesDescription();
+
+            writer.writeVarInt(tables.strings.get(description.getType().name()));
+            writer.writeByte(directionTag(description.getDirection()));
+            writer.writeByte(properties instanceof WildcardPropertiesDescription ? WILDCARD : LITERAL);
+
+            List<String> keys = new ArrayList<>();
+            for (String key : properties.getKeys()) {
+                keys.add(key);
+            }
+
+            writer.writeVarInt(keys.size());
+            for (String key : keys) {
+                writer.writeVarInt(tables.strings.get(key));
+                writer.writeVarInt(predicateReference(properties.get(key), tables.predicates));
+            }
+
+            writer.writeSignedVarInt(entry.getValue());
+        }
+    }
+
+    private static void readEntries(Reader reader, TableReader tables, String type, Direction direction, CachedDegrees.Builder result) {
+        int noEntries = reader.readVarInt();
+        for (int i = 0; i < noEntries; i++) {
+            String candidateType = tables.string(reader.readVarInt());
+            Direction candidateDirection = direction(reader.readByte());
+            byte kind = reader.readByte();
+            int noProperties = reader.readVarInt();
+
+            if (!matches(candidateType, candidateDirection, type, direction)) {
+                for (int j = 0; j < noProperties * 2; j++) {
+                    reader.readVarInt();
+                }
+                reader.readSignedVarInt();
+                continue;
+            }
+
+            DetachedRelationshipDescription description = kind == WILDCARD
+                    ? wildcard(candidateType, candidateDirection)
+                    : literal(candidateType, candidateDirection);
+
+            for (int j = 0; j < noProperties; j++) {
+                String key = tables.string(reader.readVarInt());
+                description = description.with(key, predicate(reader.readVarInt(), tables));
+            }
+
+            result.add(description, reader.readSignedVarInt());
+        }
+    }
+
+    private static void readSections(Reader reader, String type, Direction direction, CachedDegrees.Builder result) {
+        TableReader tables = SharedTableReader.read(reader);
+
+        int noSections = reader.readVarInt();
+
+        String[] types = new String[noSections];
+        Direction[] directions = new Direction[noSections];
+        int[] lengths = new int[noSections];
+
+        for (int i = 0; i < noSections; i++) {
+            types[i] = tables.string(reader.readVarInt());
+            directions[i] = direction(reader.readByte());
+            lengths[i] = reader.readVarInt();
+        }
+
+        for (int i = 0; i < noSections; i++) {
+            if (matches(types[i], directions[i], type, direction)) {
+                readEntries(reader, tables, type, direction, result);
+            } else {
+                reader.skip(lengths[i]);
+            }
+        }
+    }
+
+    private static void readLegacySections(Reader reader, String type, Direction direction, CachedDegrees.Builder result) {
+        int noSections = reader.readVarInt();
+
+        String[] types = new String[noSections];
+        Direction[] directions = new Direction[noSections];
+        int[] lengths = new int[noSections];
+
+        for (int i = 0; i < noSections; i++) {
+            types[i] = reader.readString();
+            directions[i] = direction(reader.readByte());
+            lengths[i] = reader.readVarInt();
+        }
+
+        for (int i = 0; i < noSections; i++) {
+            if (matches(types[i], directions[i], type, direction)) {
+                readEntries(reader, LegacyTableReader.read(reader), type, direction, result);
+            } else {
+                reader.skip(lengths[i]);
+            }
+        }
+    }
+
+    private static boolean matches(String candidateType, Direction candidateDirection, String type, Direction direction) {
+        if (type != null && !type.equals(candidateType)) {
+            return false;
+        }
+
+        return Direction.BOTH.equals(direction) || Direction.BOTH.equals(candidateDirection) || direction.equals(candidateDirection);
+    }
+
+    private static <T> void index(Map<T, Integer> index, T value) {
+        if (!index.containsKey(value)) {
+            index.put(value, index.size());
+        }
+    }
+
+    private static int predicateReference(Predicate predicate, Map<Predicate, Integer> predicates) {
+        if (any().equals(predicate)) {
+            return ANY;
+        }
+        if (undefined().equals(predicate)) {
+            return UNDEFINED;
+        }
+        return FIRST_PREDICATE + predicates.get(predicate);
+    }
+
+    private static Predicate predicate(int reference, TableReader tables) {
+        switch (reference) {
+            case ANY:
+                return any();
+            case UNDEFINED:
+                return undefined();
+            default:
+                return tables.predicate(reference - FIRST_PREDICATE);
+        }
+    }
+
+    private static void writePredicate(Writer writer, Predicate predicate, Object value, Map<String, Integer> strings) {
+        if (value instanceof String) {
+            writer.writeByte(EQUAL_TO_STRING);
+            writer.writeVarInt(strings.get(value));
+        } else if (value instanceof Long) {
+            writer.writeByte(EQUAL_TO_LONG);
+            writer.writeSignedVarLong((Long) value);
+        } else if (value instanceof Integer) {
+            writer.writeByte(EQUAL_TO_INT);
+            writer.writeSignedVarInt((Integer) value);
+        } else if (value instanceof Short) {
+            writer.writeByte(EQUAL_TO_SHORT);
+            writer.writeSignedVarInt((Short) value);
+        } else if (value instanceof Byte) {
+            writer.writeByte(EQUAL_TO_BYTE);
+            writer.writeByte((Byte) value);
+        } else if (value instanceof Character) {
+            writer.writeByte(EQUAL_TO_CHAR);
+            writer.writeVarInt((Character) value);
+        } else if (value instanceof Boolean) {
+            writer.writeByte((Boolean) value ? EQUAL_TO_TRUE : EQUAL_TO_FALSE);
+        } else if (value instanceof Double) {
+            writer.writeByte(EQUAL_TO_DOUBLE);
+            writer.writeFixedLong(Double.doubleToLongBits((Double) value));
+        } else if (value instanceof Float) {
+            writer.writeByte(EQUAL_TO_FLOAT);
+            writer.writeFixedInt(Float.floatToIntBits((Float) value));
+        } else {
+            byte[] serialized = toByteArray(predicate);
+            writer.writeByte(SERIALIZED);
+            writer.writeVarInt(serialized.length);
+            writer.writeBytes(serialized);
+        }
+    }
+
+    private static Predicate readPredicate(Reader reader, TableReader tables) {
+        byte tag = reader.readByte();
+        switch (tag) {
+            case EQUAL_TO_STRING:
+                return equalTo(tables.string(reader.readVarInt()));
+            case EQUAL_TO_LONG:
+                return equalTo(reader.readSignedVarLong());
+            case EQUAL_TO_INT:
+                return equalTo(reader.readSignedVarInt());
+            case EQUAL_TO_SHORT:
+                return equalTo((short) reader.readSignedVarInt());
+            case EQUAL_TO_BYTE:
+                return equalTo(reader.readByte());
+            case EQUAL_TO_CHAR:
+                return equalTo((char) reader.readVarInt());
+            case EQUAL_TO_TRUE:
+                return equalTo(true);
+            case EQUAL_TO_FALSE:
+                return equalTo(false);
+            case EQUAL_TO_DOUBLE:
+                return equalTo(Double.longBitsToDouble(reader.readFixedLong()));
+            case EQUAL_TO_FLOAT:
+                return equalTo(Float.intBitsToFloat(reader.readFixedInt()));
+            case SERIALIZED:
+                int length = reader.readVarInt();
+                return (Predicate) fromByteArray(reader.bytesAt(reader.position(), length));
+            default:
+                throw new IllegalStateException("Unknown predicate tag " + tag + ". This is a bug.");
+        }
+    }
+
+    private static void skipPredicate(Reader reader) {
+        byte tag = reader.readByte();
+        switch (tag) {
+            case EQUAL_TO_STRING:
+            case EQUAL_TO_INT:
+            case EQUAL_TO_SHORT:
+            case EQUAL_TO_CHAR:
+                reader.readVarInt();
+                return;
+            case EQUAL_TO_LONG:
+                reader.readSignedVarLong();
+                return;
+            case EQUAL_TO_BYTE:
+                reader.skip(1);
+                return;
+            case EQUAL_TO_TRUE:
+            case EQUAL_TO_FALSE:
+                return;
+            case EQUAL_TO_DOUBLE:
+                reader.skip(8);
+                return;
+            case EQUAL_TO_FLOAT:
+                reader.skip(4);
+                return;
+            case SERIALIZED:
+                reader.skip(reader.readVarInt());
+                return;
+            default:
+                throw new IllegalStateException("Unknown predicate tag " + tag + ". This is a bug.");
+        }
+    }
+
+    /**
+     * Find the value of a {@link com.graphaware.common.description.predicate.Predicates#equalTo(Object)} predicate,
+     * if it is a string or a primitive wrapper. Predicates do not expose their values, so the value is read
+     * reflectively and only returned if an equalTo predicate created with it equals the given predicate, i.e. if the
+     * predicate would be decoded exactly as it was.
+     *
+     * @param predicate to find the value of.
+     * @return value, null if the predicate is not an equalTo predicate with a string or primitive value.
+     */
+    private static Object equalToValue(Predicate predicate) {
+        for (Field field : valueFields(predicate.getClass())) {
+            Object value;
+            try {
+                value = field.get(predicate);
+            } catch (IllegalAccessException e) {
+                continue;
+            }
+
+            if (isTaggable(value) && equalTo(value).equals(predicate)) {
+                return value;
+            }
+        }
+
+        return null;
+    }
+
+    private static Field[] valueFields(Class<?> predicateClass) {
+        Field[] result = VALUE_FIELDS.get(predicateClass);
+
+        if (result == null) {
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> clazz = predicateClass; clazz != null; clazz = clazz.getSuperclass()) {
+                for (Field field : clazz.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) {
+                        continue;
+                    }
+                    try {
+                        field.setAccessible(true);
+                        fields.add(field);
+                    } catch (SecurityException e) {
+                        //can not be read, predicates of this class will be serialized
+                    }
+                }
+            }
+            result = fields.toArray(new Field[fields.size()]);
+            VALUE_FIELDS.putIfAbsent(predicateClass, result);
+        }
+
+        return result;
+    }
+
+    private static boolean isTaggable(Object value) {
+        return value instanceof String || value instanceof Long || value instanceof Integer || value instanceof Short
+                || value instanceof Byte || value instanceof Character || value instanceof Boolean
+                || value instanceof Double || value instanceof Float;
+    }
+
+    private static byte directionTag(Direction direction) {
+        switch (direction) {
+            case OUTGOING:
+                return OUTGOING;
+            case INCOMING:
+                return INCOMING;
+            default:
+                return BOTH;
+        }
+    }
+
+    private static Direction direction(byte tag) {
+        switch (tag) {
+            case OUTGOING:
+                return Direction.OUTGOING;
+            case INCOMING:
+                return Direction.INCOMING;
+            case BOTH:
+                return Direction.BOTH;
+            default:
+                throw new IllegalStateException("Unknown direction tag " + tag + ". This is a bug.");
+        }
+    }
+
+    /**
+     * String and predicate tables of degrees being encoded.
+     */
+    private static class Tables {
+        private final Map<String, Integer> strings = new LinkedHashMap<>();
+        private final Map<Predicate, Integer> predicates = new LinkedHashMap<>();
+        private final Map<Predicate, Object> values = new HashMap<>();
+
+        private Tables(Collection<DetachedRelationshipDescription> descriptions) {
+            for (DetachedRelationshipDescription description : descriptions) {
+                index(strings, description.getType().name());
+                for (String key : description.getPropertiesDescription().getKeys()) {
+                    index(strings, key);
+                    Predicate predicate = description.getPropertiesDescription().get(key);
+                    if (!any().equals(predicate) && !undefined().equals(predicate) && !predicates.containsKey(predicate)) {
+                        index(predicates, predicate);
+                        Object value = equalToValue(predicate);
+                        values.put(predicate, value);
+                        if (value instanceof String) {
+                            index(strings, (String) value);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void write(Writer writer) {
+            writer.writeVarInt(strings.size());
+            for (String string : strings.keySet()) {
+                writer.writeString(string);
+            }
+
+            writer.writeVarInt(predicates.size());
+            for (Predicate predicate : predicates.keySet()) {
+                writePredicate(writer, predicate, values.get(predicate), strings);
+            }
+        }
+    }
+
+    /**
+     * String and predicate tables of degrees being decoded.
+     */
+    private abstract static class TableReader {
+
+        /**
+         * @param reference to a string.
+         * @return the string.
+         */
+        abstract String string(int reference);
+
+        /**
+         * @param index of a predicate in the predicate table.
+         * @return the predicate.
+         */
+        abstract Predicate predicate(int index);
+    }
+
+    /**
+     * Tables of versions 1 and 2 of the format. Strings are read eagerly, predicates are only deserialized when an
+     * entry that is actually decoded refers to them.
+     */
+    private static class LegacyTableReader extends TableReader {
+        private final Reader reader;
+        private final String[] strings;
+        private final int predicatesPosition;
+        private final int predicatesLength;
+        private Predicate[] predicates;
+
+        private LegacyTableReader(Reader reader, String[] strings, int predicatesPosition, int predicatesLength) {
+            this.reader = reader;
+            this.strings = strings;
+            this.predicatesPosition = predicatesPosition;
+            this.predicatesLength = predicatesLength;
+        }
+
+        private static LegacyTableReader read(Reader reader) {
+            String[] strings = new String[reader.readVarInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = reader.readString();
+            }
+
+            int predicatesLength = reader.readVarInt();
+            int predicatesPosition = reader.position();
+            reader.skip(predicatesLength);
+
+            return new LegacyTableReader(reader, strings, predicatesPosition, predicatesLength);
+        }
+
+        @Override
+        String string(int reference) {
+            return strings[reference];
+        }
+
+        @Override
+        Predicate predicate(int index) {
+            if (predicates == null) {
+                predicates = (Predicate[]) fromByteArray(reader.bytesAt(predicatesPosition, predicatesLength));
+            }
+            return predicates[index];
+        }
+    }
+
+    /**
+     * Tables of versions 3 and 4 of the format. Only positions of strings and predicates are read up front, each of
+     * them is decoded when first referred to.
+     */
+    private static class SharedTableReader extends TableReader {
+        private final Reader reader;
+        private final int[] stringPositions;
+        private final String[] strings;
+        private final int[] predicatePositions;
+        private final Predicate[] predicates;
+
+        private SharedTableReader(Reader reader, int[] stringPositions, int[] predicatePositions) {
+            this.reader = reader;
+            this.stringPositions = stringPositions;
+            this.strings = new String[stringPositions.length];
+            this.predicatePositions = predicatePositions;
+            this.predicates = new Predicate[predicatePositions.length];
+        }
+
+        private static SharedTableReader read(Reader reader) {
+            int[] stringPositions = new int[reader.readVarInt()];
+            for (int i = 0; i < stringPositions.length; i++) {
+                stringPositions[i] = reader.position();
+                reader.skip(reader.readVarInt());
+            }
+
+            int[] predicatePositions = new int[reader.readVarInt()];
+            for (int i = 0; i < predicatePositions.length; i++) {
+                predicatePositions[i] = reader.position();
+                skipPredicate(reader);
+            }
+
+            return new SharedTableReader(reader, stringPositions, predicatePositions);
+        }
+
+        @Override
+        String string(int reference) {
+            if (strings[reference] == null) {
+                strings[reference] = reader.at(stringPositions[reference]).readString();
+            }
+            return strings[reference];
+        }
+
+        @Override
+        Predicate predicate(int index) {
+            if (predicates[index] == null) {
+                predicates[index] = readPredicate(reader.at(predicatePositions[index]), this);
+            }
+            return predicates[index];
+        }
+    }
+
+    /**
+     * Growable byte buffer with variable-length integer encoding.
+     */
+    static class Writer {
+        private byte[] buffer = new byte[64];
+        private int position = 0;
+
+        void writeByte(byte value) {
+            ensureCapacity(1);
+            buffer[position++] = value;
+        }
+
+        void writeBytes(byte[] value) {
+            ensureCapacity(value.length);
+            System.arraycopy(value, 0, buffer, position, value.length);
+            position += value.length;
+        }
+
+        void writeVarInt(int value) {
+            while ((value & ~0x7F) != 0) {
+                writeByte((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((byte) value);
+        }
+
+        void writeSignedVarInt(int value) {
+            writeVarInt((value << 1) ^ (value >> 31));
+        }
+
+        void writeSignedVarLong(long value) {
+            value = (value << 1) ^ (value >> 63);
+            while ((value & ~0x7FL) != 0) {
+                writeByte((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((byte) value);
+        }
+
+        void writeFixedInt(int value) {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                writeByte((byte) (value >>> shift));
+            }
+        }
+
+        void writeFixedLong(long value) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                writeByte((byte) (value >>> shift));
+            }
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(UTF_8);
+            writeVarInt(bytes.length);
+            writeBytes(bytes);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (position + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+            }
+        }
+    }
+
+    /**
+     * Reader of bytes written by {@link Writer}.
+     */
+    static class Reader {
+        private final byte[] buffer;
+        private int position;
+
+        Reader(byte[] buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        byte readByte() {
+            return buffer[position++];
+        }
+
+        int position() {
+            return position;
+        }
+
+        byte[] bytesAt(int from, int length) {
+            return Arrays.copyOfRange(buffer, from, from + length);
+        }
+
+        int readVarInt() {
+            int result = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = readByte();
+                result |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return result;
+        }
+
+        int readSignedVarInt() {
+            int value = readVarInt();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        long readSignedVarLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        int readFixedInt() {
+            int result = 0;
+            for (int i = 0; i < 4; i++) {
+                result = (result << 8) | (readByte() & 0xFF);
+            }
+            return result;
+        }
+
+        long readFixedLong() {
+            long result = 0;
+            for (int i = 0; i < 8; i++) {
+                result = (result << 8) | (readByte() & 0xFF);
+            }
+            return result;
+        }
+
+        Reader at(int position) {
+            return new Reader(buffer, position);
+        }
+
+        void skip(int length) {
+            position += length;
+        }
+
+        String readString() {
+            int length = readVarInt();
+            String result = new String(buffer, position, length, UTF_8);
+            position += length;
+            return result;
+        }
+    }
+}
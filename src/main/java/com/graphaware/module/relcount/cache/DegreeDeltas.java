@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe collection of net degree changes (signed deltas) per node and relationship description, which have not
+ * (yet) been applied to cached degrees. Changes that cancel each other out are removed altogether.
+ * <p/>
+ * Reads are lock-free: the changes of every node are held in an immutable map, which is replaced on every update.
+ */
+public class DegreeDeltas {
+
+    private final Map<Long, Map<DetachedRelationshipDescription, Integer>> deltas = new ConcurrentHashMap<>();
+
+    /**
+     * Add a degree change.
+     *
+     * @param nodeId      ID of the node whose degree has changed.
+     * @param description of the relationships.
+     * @param delta       signed change of the degree.
+     */
+    public void add(long nodeId, DetachedRelationshipDescription description, int delta) {
+        add(nodeId, Collections.singletonMap(description, delta), 1);
+    }
+
+    /**
+     * Add degree changes of a node.
+     *
+     * @param nodeId ID of the node whose degrees have changed.
+     * @param deltas signed changes (key = relationship description, value = delta).
+     */
+    public void add(long nodeId, Map<DetachedRelationshipDescription, Integer> deltas) {
+        add(nodeId, deltas, 1);
+    }
+
+    /**
+     * Add all degree changes of other deltas.
+     *
+     * @param other deltas to add.
+     */
+    public void addAll(DegreeDeltas other) {
+        for (Map.Entry<Long, Map<DetachedRelationshipDescription, Integer>> entry : other.deltas.entrySet()) {
+            add(entry.getKey(), entry.getValue(), 1);
+        }
+    }
+
+    /**
+     * Subtract all degree changes of other deltas, e.g. once they have been applied to cached degrees.
+     *
+     * @param other deltas to subtract.
+     */
+    public void subtractAll(DegreeDeltas other) {
+        for (Map.Entry<Long, Map<DetachedRelationshipDescription, Integer>> entry : other.deltas.entrySet()) {
+            add(entry.getKey(), entry.getValue(), -1);
+        }
+    }
+
+    /**
+     * Get degree changes of a node.
+     *
+     * @param nodeId ID of the node.
+     * @return unmodifiable changes (key = relationship description, value = non-zero delta), empty if there are none.
+     */
+    public Map<DetachedRelationshipDescription, Integer> get(long nodeId) {
+        Map<DetachedRelationshipDescription, Integer> result = deltas.get(nodeId);
+        return result == null ? Collections.<DetachedRelationshipDescription, Integer>emptyMap() : result;
+    }
+
+    /**
+     * @return IDs of nodes with degree changes.
+     */
+    public Set<Long> getNodeIds() {
+        return Collections.unmodifiableSet(deltas.keySet());
+    }
+
+    /**
+     * @return true iff there are no degree changes.
+     */
+    public boolean isEmpty() {
+        return deltas.isEmpty();
+    }
+
+    /**
+     * Apply degree changes of a node to its cached degrees, without writing anything. A change is added to the cached
+     * degree with a description more general than the change's one, if there is such, e.g. because of compaction.
+     *
+     * @param nodeId        ID of the node.
+     * @param cachedDegrees of the node.
+     * @return cached degrees with the changes applied, the given ones if there are no changes.
+     */
+    public CachedDegrees applyTo(long nodeId, CachedDegrees cachedDegrees) {
+        Map<DetachedRelationshipDescription, Integer> changes = deltas.get(nodeId);
+
+        if (changes == null) {
+            return cachedDegrees;
+        }
+
+        Map<DetachedRelationshipDescription, Integer> result = new LinkedHashMap<>();
+        for (int i = 0; i < cachedDegrees.size(); i++) {
+            result.put(cachedDegrees.getDescription(i), cachedDegrees.getDegree(i));
+        }
+
+        for (Map.Entry<DetachedRelationshipDescription, Integer> change : changes.entrySet()) {
+            DetachedRelationshipDescription description = change.getKey();
+
+            for (DetachedRelationshipDescription candidate : result.keySet()) {
+                if (candidate.isMoreGeneralThan(change.getKey())) {
+                    description = candidate;
+                    break;
+                }
+            }
+
+            Integer current = result.get(description);
+            result.put(description, (current == null ? 0 : current) + change.getValue());
+        }
+
+        for (DetachedRelationshipDescription description : new HashSet<>(result.keySet())) {
+            if (result.get(description) <= 0) {
+                result.remove(description);
+            }
+        }
+
+        return CachedDegrees.of(result);
+    }
+
+    private synchronized void add(long nodeId, Map<DetachedRelationshipDescription, Integer> changes, int sign) {
+        Map<DetachedRelationshipDescription, Integer> current = deltas.get(nodeId);
+        Map<DetachedRelationshipDescription, Integer> updated = current == null ? new HashMap<DetachedRelationshipDescription, Integer>() : new HashMap<>(current);
+
+        for (Map.Entry<DetachedRelationshipDescription, Integer> change : changes.entrySet()) {
+            Integer value = updated.get(change.getKey());
+            int newValue = (value == null ? 0 : value) + sign * change.getValue();
+
+            if (newValue == 0) {
+                updated.remove(change.getKey());
+            } else {
+                updated.put(change.getKey(), newValue);
+            }
+        }
+
+        if (updated.isEmpty()) {
+            deltas.remove(nodeId);
+        } else {
+            deltas.put(nodeId, Collections.unmodifiableMap(updated));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import org.neo4j.graphdb.Node;
+
+import java.util.Map;
+
+/**
+ * {@link DegreeCachingStrategy} that can persist changes of node degrees as signed deltas, rather than re-writing all
+ * cached degrees of a node. {@link DegreeCachingNode}s flush their changes using {@link #writeDegreeDeltas(Node, String, Map, Map)}
+ * when the configured strategy implements this interface.
+ */
+public interface DeltaDegreeCachingStrategy extends DegreeCachingStrategy {
+
+    /**
+     * Write changes of node degrees to the database (or another persistent store).
+     *
+     * @param node          for which the degrees are being cached.
+     * @param prefix        for metadata written.
+     * @param cachedDegrees the "full picture" - all cached degrees of the node, after the changes.
+     * @param deltas        net changes of the degrees since they have been read, with no zero deltas.
+     */
+    void writeDegreeDeltas(Node node,
+                           String prefix,
+                           Map<DetachedRelationshipDescription, Integer> cachedDegrees,
+                           Map<DetachedRelationshipDescription, Integer> deltas);
+
+    /**
+     * Find out whether writing degree deltas of a node write-locks the node itself.
+     *
+     * @param node   for which the degrees are being cached.
+     * @param prefix for metadata written.
+     * @return true iff the node is locked when its degree deltas are written.
+     */
+    boolean locksNode(Node node, String prefix);
+}
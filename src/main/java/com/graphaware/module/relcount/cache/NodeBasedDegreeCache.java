@@ -19,43 +19,85 @@ package com.graphaware.module.relcount.cache;
 import com.graphaware.common.description.property.LiteralPropertiesDescription;
 import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
 import com.graphaware.common.description.relationship.DetachedRelationshipDescriptionImpl;
+import com.graphaware.common.policy.RelationshipInclusionPolicy;
 import com.graphaware.common.wrapper.NodeWrapper;
 import com.graphaware.module.relcount.RelationshipCountConfiguration;
+import com.graphaware.module.relcount.view.CountViews;
 import com.graphaware.runtime.RuntimeRegistry;
+import com.graphaware.runtime.module.NeedsInitializationException;
+import com.graphaware.tx.event.improved.propertycontainer.filtered.FilteredNode;
 import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Lock;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static com.graphaware.common.util.DirectionUtils.resolveDirection;
 
 /**
  * {@link DegreeCache} that caches degrees using {@link DegreeCachingNode}s.
  * <p/>
- * It has its own "cache" of {@link DegreeCachingNode}s in order to optimize database reads/writes.
+ * Handled relationships are not applied to {@link DegreeCachingNode}s straight away. Instead, they are folded into
+ * net degree changes per node and relationship description, which are applied once when caching ends. This way,
+ * a transaction creating thousands of relationships around a few nodes only touches each cached degree once, and
+ * changes that cancel each other out (e.g. a relationship whose properties have been changed and changed back) are
+ * not applied at all. Nodes with no net changes are not read or written.
+ * <p/>
+ * When a node's cached degrees turn out to be out of sync with its relationships, i.e. a degree would become negative
+ * or is missing altogether, they are recounted from the node's relationships within the same transaction, rather than
+ * having the entire module re-initialized.
  */
 public class NodeBasedDegreeCache implements DegreeCache {
 
     private static final Logger LOG = LoggerFactory.getLogger(NodeBasedDegreeCache.class);
 
-    private static final ThreadLocal<Map<Long, DegreeCachingNode>> nodeCache = new ThreadLocal<>();
+    private static final ThreadLocal<Map<Long, DegreeChanges>> degreeChanges = new ThreadLocal<>();
 
-    private final String id;
     private final RelationshipCountConfiguration relationshipCountConfiguration;
+    private final PrefixResolver prefixResolver;
 
     /**
-     * Construct a new cache.
+     * Construct a new cache writing cached degrees under the prefix of the module with the given ID.
      *
      * @param id                          of the module this cache belongs to.
      * @param relationshipCountConfiguration strategies for degree caching.
      */
-    public NodeBasedDegreeCache(String id, RelationshipCountConfiguration relationshipCountConfiguration) {
-        this.id = id;
+    public NodeBasedDegreeCache(final String id, RelationshipCountConfiguration relationshipCountConfiguration) {
+        this(relationshipCountConfiguration, new PrefixResolver() {
+            @Override
+            public List<String> resolvePrefixes(Node node) {
+                return Collections.singletonList(RuntimeRegistry.getRuntime(node.getGraphDatabase()).getConfiguration().createPrefix(id));
+            }
+
+            @Override
+            public boolean isLenient() {
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Construct a new cache.
+     *
+     * @param relationshipCountConfiguration strategies for degree caching.
+     * @param prefixResolver                 resolving prefixes under which to write cached degrees.
+     */
+    public NodeBasedDegreeCache(RelationshipCountConfiguration relationshipCountConfiguration, PrefixResolver prefixResolver) {
         this.relationshipCountConfiguration = relationshipCountConfiguration;
+        this.prefixResolver = prefixResolver;
     }
 
     /**
@@ -63,89 +105,409 @@ public class NodeBasedDegreeCache implements DegreeCache {
      */
     @Override
     public void startCaching() {
-        if (nodeCache.get() != null) {
+        if (degreeChanges.get() != null) {
             throw new IllegalStateException("Previous caching hasn't been ended!");
         }
 
-        nodeCache.set(new HashMap<Long, DegreeCachingNode>());
+        degreeChanges.set(new LinkedHashMap<Long, DegreeChanges>());
     }
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * Applies the net degree changes to {@link DegreeCachingNode}s and flushes them. Decrements are applied before
+     * increments, so that a node's cached degrees grow as little as possible on the way, which makes compaction less likely.
+     * <p/>
+     * Nodes with net changes are write-locked up front and flushed in ascending order of their IDs, so that concurrent
+     * transactions touching the same nodes acquire their locks in the same order rather than deadlocking. Nodes whose
+     * degree changes are written elsewhere by a {@link DeltaDegreeCachingStrategy} are only read-locked, as long as
+     * their cached degrees are purely incremented and decremented, so that concurrent transactions do not contend for
+     * them. Should any of their cached degrees be deleted (see {@link DegreeCachingNode#hasDeletedDegrees()}), e.g. by
+     * compaction, they are write-locked and their cached degrees are re-read.
      */
     @Override
-    public void endCaching() {
-        ThreadLocal<Map<Long, DegreeCachingNode>> nodeCache = NodeBasedDegreeCache.nodeCache;
+    public Set<Long> endCaching() {
+        ThreadLocal<Map<Long, DegreeChanges>> degreeChanges = NodeBasedDegreeCache.degreeChanges;
 
-        if (nodeCache.get() == null) {
+        if (degreeChanges.get() == null) {
             throw new IllegalStateException("No caching has been started!");
         }
 
         try {
-            for (DegreeCachingNode node : nodeCache.get().values()) {
-                node.flush();
+            Set<Long> result = new HashSet<>();
+
+            List<DegreeChanges> netChanges = netChangesInNodeIdOrder(degreeChanges.get().values());
+
+            lockAndResolvePrefixes(netChanges);
+
+            for (DegreeChanges changes : netChanges) {
+                List<String> prefixes = changes.prefixes;
+
+                try {
+                    if (apply(changes, prefixes.get(0))) {
+                        result.add(changes.node.getId());
+                    }
+                } catch (NeedsInitializationException e) {
+                    if (!prefixResolver.isLenient()) {
+                        throw e;
+                    }
+                    LOG.warn("Could not write cached degrees of node " + changes.node.getId() + " under prefix " + prefixes.get(0), e);
+                }
+
+                for (String secondaryPrefix : prefixes.subList(1, prefixes.size())) {
+                    try {
+                        apply(changes, secondaryPrefix);
+                    } catch (NeedsInitializationException e) {
+                        LOG.warn("Could not write cached degrees of node " + changes.node.getId() + " under secondary prefix " + secondaryPrefix, e);
+                    }
+                }
             }
+
+            return result;
         } finally {
             //no need to catch, exception will propagate and rollback transaction, but we must indicate end of caching
-            nodeCache.set(null);
+            degreeChanges.set(null);
+        }
+    }
+
+    /**
+     * End caching without applying the net degree changes collected since caching started, e.g. because they are
+     * going to be applied later by a background writer. Nodes with net changes are write-locked in ascending order of
+     * their IDs until the transaction finishes, so that the changes can be queued on the nodes, and so that their cached
+     * degrees can not be recounted in the meantime, i.e. a recount sees either all or none of the transaction's changes.
+     *
+     * @return net degree changes, keyed by node ID.
+     */
+    public DegreeDeltas endCachingDeferred() {
+        Map<Long, DegreeChanges> allChanges = degreeChanges.get();
+
+        if (allChanges == null) {
+            throw new IllegalStateException("No caching has been started!");
         }
 
+        try {
+            DegreeDeltas result = new DegreeDeltas();
+
+            List<DegreeChanges> netChanges = netChangesInNodeIdOrder(allChanges.values());
+
+            if (!netChanges.isEmpty()) {
+                try (Transaction tx = netChanges.get(0).node.getGraphDatabase().beginTx()) {
+                    for (DegreeChanges changes : netChanges) {
+                        tx.acquireWriteLock(changes.node);
+                        result.add(changes.node.getId(), changes.deltas);
+                    }
+                    tx.success();
+                }
+            }
+
+            return result;
+        } finally {
+            degreeChanges.set(null);
+        }
+    }
+
+    /**
+     * Handle a net change of a node's degree that has been collected earlier, e.g. by {@link #endCachingDeferred()}.
+     *
+     * @param node        whose degree has changed, not wrapped.
+     * @param description of the relationships.
+     * @param delta       signed change of the degree.
+     */
+    public void handleDegreeChange(Node node, DetachedRelationshipDescription description, int delta) {
+        degreeChanges(node).add(description, delta);
     }
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * Relationships not included from the point of view of the node (see {@link RelationshipInclusionPolicy#include(Relationship, Node)})
+     * are ignored, just like they are when cached degrees are built from the node's relationships.
      */
     @Override
     public void handleCreatedRelationship(Relationship relationship, Node pointOfView, Direction defaultDirection) {
         throwExceptionIfDirectionIsNullOrBoth(defaultDirection);
 
-        DetachedRelationshipDescription createdRelationship = new DetachedRelationshipDescriptionImpl(
-                relationship.getType(),
-                resolveDirection(relationship, pointOfView, defaultDirection),
-                new LiteralPropertiesDescription(relationship));
+        if (!isIncluded(relationship, pointOfView)) {
+            return;
+        }
+
+        DetachedRelationshipDescription createdRelationship = describe(relationship, pointOfView, defaultDirection);
 
         int relationshipWeight = relationshipCountConfiguration.getWeighingStrategy().getRelationshipWeight(relationship, pointOfView);
 
-        DegreeCachingNode cachingNode = cachingNode(unwrap(pointOfView));
-        cachingNode.incrementDegree(createdRelationship, relationshipWeight);
+        degreeChanges(unwrap(pointOfView)).add(createdRelationship, relationshipWeight);
     }
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * Relationships not included from the point of view of the node are ignored.
      */
     @Override
     public void handleDeletedRelationship(Relationship relationship, Node pointOfView, Direction defaultDirection) {
         throwExceptionIfDirectionIsNullOrBoth(defaultDirection);
 
-        DetachedRelationshipDescription deletedRelationship = new DetachedRelationshipDescriptionImpl(
-                relationship.getType(),
-                resolveDirection(relationship, pointOfView, defaultDirection),
-                new LiteralPropertiesDescription(relationship));
+        if (!isIncluded(relationship, pointOfView)) {
+            return;
+        }
+
+        DetachedRelationshipDescription deletedRelationship = describe(relationship, pointOfView, defaultDirection);
 
         int relationshipWeight = relationshipCountConfiguration.getWeighingStrategy().getRelationshipWeight(relationship, pointOfView);
 
-        DegreeCachingNode cachingNode = cachingNode(unwrap(pointOfView));
-        cachingNode.decrementDegree(deletedRelationship, relationshipWeight);
+        degreeChanges(unwrap(pointOfView)).add(deletedRelationship, -relationshipWeight);
+    }
+
+    private boolean isIncluded(Relationship relationship, Node pointOfView) {
+        return relationshipCountConfiguration.getInclusionPolicies().getRelationshipInclusionPolicy().include(relationship, pointOfView);
     }
 
     /**
-     * Get an instance of caching node from cache, or create a new one and put it in cache.
+     * Get net degree changes of a node collected since caching started, or create new ones.
      *
-     * @param node for which a caching node should be obtained.
-     * @return caching node.
+     * @param node for which degree changes should be obtained.
+     * @return degree changes.
      */
-    private DegreeCachingNode cachingNode(Node node) {
-        Map<Long, DegreeCachingNode> nodeCache = NodeBasedDegreeCache.nodeCache.get();
+    private DegreeChanges degreeChanges(Node node) {
+        Map<Long, DegreeChanges> degreeChanges = NodeBasedDegreeCache.degreeChanges.get();
 
-        if (nodeCache == null) {
+        if (degreeChanges == null) {
             throw new IllegalStateException("No caching has been started!");
         }
 
-        if (!nodeCache.containsKey(node.getId())) {
-            nodeCache.put(node.getId(), newDegreeCachingNode(node, RuntimeRegistry.getRuntime(node.getGraphDatabase()).getConfiguration().createPrefix(id), relationshipCountConfiguration));
+        DegreeChanges result = degreeChanges.get(node.getId());
+
+        if (result == null) {
+            result = new DegreeChanges(node);
+            degreeChanges.put(node.getId(), result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Recount cached degrees of a node from scratch, e.g. because they have been found out of sync with the node's
+     * relationships. When this happens while caching, i.e. before the transaction commits, the node's relationships
+     * already reflect the transaction's changes. The node is write-locked until the transaction finishes. Must be
+     * called within a transaction.
+     *
+     * @param node   to recount cached degrees of.
+     * @param prefix of the cached degrees.
+     * @return true iff anything has been written.
+     */
+    public boolean recount(Node node, String prefix) {
+        try (Transaction tx = node.getGraphDatabase().beginTx()) {
+            tx.acquireWriteLock(node);
+            tx.success();
+        }
+
+        DegreeCachingNode cachingNode = newDegreeCachingNode(node, prefix, relationshipCountConfiguration);
+        cachingNode.deleteAllDegrees();
+
+        Node filteredNode = new FilteredNode(node, relationshipCountConfiguration.getInclusionPolicies());
+
+        for (Relationship relationship : filteredNode.getRelationships()) {
+            int relationshipWeight = relationshipCountConfiguration.getWeighingStrategy().getRelationshipWeight(relationship, filteredNode);
+
+            if (relationshipWeight == 0) {
+                //like in transactions, which only apply net changes
+                continue;
+            }
+
+            cachingNode.incrementDegree(describe(relationship, filteredNode, Direction.OUTGOING), relationshipWeight);
+
+            if (relationship.getStartNode().getId() == relationship.getEndNode().getId()) {
+                cachingNode.incrementDegree(describe(relationship, filteredNode, Direction.INCOMING), relationshipWeight);
+            }
+        }
+
+        return cachingNode.flush();
+    }
+
+    private DetachedRelationshipDescription describe(Relationship relationship, Node pointOfView, Direction defaultDirection) {
+        return CountViews.project(relationshipCountConfiguration, new DetachedRelationshipDescriptionImpl(
+                relationship.getType(),
+                resolveDirection(relationship, pointOfView, defaultDirection),
+                new LiteralPropertiesDescription(relationship)));
+    }
+
+    /**
+     * Apply net degree changes of a node to its degrees cached under the given prefix.
+     *
+     * @param changes to apply.
+     * @param prefix  of the cached degrees.
+     * @return true iff anything has been written.
+     */
+    private boolean apply(DegreeChanges changes, String prefix) {
+        DegreeCachingNode cachingNode = changes.applied.remove(prefix);
+
+        try {
+            if (cachingNode == null) {
+                cachingNode = applyChanges(changes, prefix);
+            }
+
+            if (!changes.writeLocked && deletesDegrees(cachingNode)) {
+                //cached degrees have been read under a read lock, concurrent deltas could have changed them since
+                writeLock(changes);
+                cachingNode = applyChanges(changes, prefix);
+            }
+        } catch (NeedsInitializationException e) {
+            LOG.warn("Cached degrees of node " + changes.node.getId() + " under prefix " + prefix + " have drifted ("
+                    + e.getMessage() + "), recounting them from the node's relationships.");
+            return recount(changes.node, prefix);
+        }
+
+        return cachingNode.flush();
+    }
+
+    /**
+     * Apply net degree changes of a node to its degrees cached under the given prefix, without writing anything.
+     *
+     * @param changes to apply.
+     * @param prefix  of the cached degrees.
+     * @return node with the changes applied.
+     * @throws NeedsInitializationException if the cached degrees turn out to be out of sync with the node's relationships.
+     */
+    private DegreeCachingNode applyChanges(DegreeChanges changes, String prefix) {
+        DegreeCachingNode cachingNode = newDegreeCachingNode(changes.node, prefix, relationshipCountConfiguration);
+
+        for (Map.Entry<DetachedRelationshipDescription, Integer> change : changes.deltas.entrySet()) {
+            if (change.getValue() < 0) {
+                cachingNode.decrementDegree(change.getKey(), -change.getValue());
+            }
+        }
+
+        for (Map.Entry<DetachedRelationshipDescription, Integer> change : changes.deltas.entrySet()) {
+            if (change.getValue() > 0) {
+                cachingNode.incrementDegree(change.getKey(), change.getValue());
+            }
+        }
+
+        return cachingNode;
+    }
+
+    /**
+     * Find out whether applying changes to a node's cached degrees has deleted any, including by compaction that is
+     * otherwise deferred until they are flushed.
+     *
+     * @param cachingNode with the changes applied.
+     * @return true iff any cached degree has been deleted.
+     */
+    private boolean deletesDegrees(DegreeCachingNode cachingNode) {
+        cachingNode.compactBeforeFlush();
+        return cachingNode.hasDeletedDegrees();
+    }
+
+    /**
+     * Find out whether applying changes to a node's cached degrees would delete any, without writing or locking anything.
+     * The nodes with the changes applied are kept in {@link DegreeChanges#applied}, so that they can be flushed later
+     * without applying the changes (and compacting) again.
+     *
+     * @param changes to apply.
+     * @return true iff any cached degree would be deleted under any of the prefixes, or they are out of sync.
+     */
+    private boolean wouldDeleteDegrees(DegreeChanges changes) {
+        try {
+            for (String prefix : changes.prefixes) {
+                DegreeCachingNode cachingNode = applyChanges(changes, prefix);
+                changes.applied.put(prefix, cachingNode);
+
+                if (deletesDegrees(cachingNode)) {
+                    return true;
+                }
+            }
+        } catch (NeedsInitializationException e) {
+            return true;
+        }
+
+        return false;
+    }
+
+    private void writeLock(DegreeChanges changes) {
+        try (Transaction tx = changes.node.getGraphDatabase().beginTx()) {
+            tx.acquireWriteLock(changes.node);
+            tx.success();
+        }
+        changes.writeLocked = true;
+    }
+
+    /**
+     * Select degree changes of nodes with net changes and sort them by node ID.
+     *
+     * @param allChanges degree changes of all touched nodes.
+     * @return changes of nodes with net changes, in ascending order of node IDs.
+     */
+    private List<DegreeChanges> netChangesInNodeIdOrder(Collection<DegreeChanges> allChanges) {
+        List<DegreeChanges> result = new ArrayList<>();
+
+        for (DegreeChanges changes : allChanges) {
+            if (changes.hasNetChanges()) {
+                result.add(changes);
+            }
+        }
+
+        Collections.sort(result, new Comparator<DegreeChanges>() {
+            @Override
+            public int compare(DegreeChanges o1, DegreeChanges o2) {
+                return Long.compare(o1.node.getId(), o2.node.getId());
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Resolve prefixes under which to write cached degrees of nodes and acquire write locks on the nodes, in the given
+     * order. Nodes whose cached degrees are written without locking them, as decided by a {@link DeltaDegreeCachingStrategy},
+     * are only read-locked, unless their cached degrees would be deleted. Whether they would be is found out under the
+     * read lock, by applying the changes once, and the result is kept for flushing. When called within a transaction,
+     * the locks are held until it finishes.
+     *
+     * @param changes degree changes of the nodes.
+     */
+    private void lockAndResolvePrefixes(List<DegreeChanges> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        try (Transaction tx = changes.get(0).node.getGraphDatabase().beginTx()) {
+            for (DegreeChanges nodeChanges : changes) {
+                nodeChanges.prefixes = prefixResolver.resolvePrefixes(nodeChanges.node);
+
+                if (locksNode(nodeChanges)) {
+                    tx.acquireWriteLock(nodeChanges.node);
+                    nodeChanges.writeLocked = true;
+                } else {
+                    Lock readLock = tx.acquireReadLock(nodeChanges.node);
+
+                    //the node's degree deltas could have been folded into its cached degrees while waiting for the lock
+                    if (locksNode(nodeChanges) || wouldDeleteDegrees(nodeChanges)) {
+                        readLock.release();
+                        tx.acquireWriteLock(nodeChanges.node);
+                        nodeChanges.writeLocked = true;
+                        //cached degrees could have changed between releasing the read lock and acquiring the write lock
+                        nodeChanges.applied.clear();
+                    }
+                }
+            }
+            tx.success();
+        }
+    }
+
+    private boolean locksNode(DegreeChanges changes) {
+        DegreeCachingStrategy strategy = relationshipCountConfiguration.getDegreeCachingStrategy();
+
+        if (!(strategy instanceof DeltaDegreeCachingStrategy)) {
+            return true;
         }
 
-        return nodeCache.get(node.getId());
+        for (String prefix : changes.prefixes) {
+            if (((DeltaDegreeCachingStrategy) strategy).locksNode(changes.node, prefix)) {
+                return true;
+            }
+        }
+
+        return false;
     }
 
     /**
@@ -184,4 +546,33 @@ public class NodeBasedDegreeCache implements DegreeCache {
             throw new IllegalArgumentException("Default direction must not be null or BOTH. This is a bug.");
         }
     }
+
+    /**
+     * Net changes of a node's degrees, keyed by relationship description.
+     */
+    private static class DegreeChanges {
+        private final Node node;
+        private List<String> prefixes;
+        private boolean writeLocked;
+        private final Map<DetachedRelationshipDescription, Integer> deltas = new LinkedHashMap<>();
+        private final Map<String, DegreeCachingNode> applied = new HashMap<>();
+
+        private DegreeChanges(Node node) {
+            this.node = node;
+        }
+
+        private void add(DetachedRelationshipDescription description, int delta) {
+            Integer current = deltas.get(description);
+            deltas.put(description, current == null ? delta : current + delta);
+        }
+
+        private boolean hasNetChanges() {
+            for (int delta : deltas.values()) {
+                if (delta != 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
 }
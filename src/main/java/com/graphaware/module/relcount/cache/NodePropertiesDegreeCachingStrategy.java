@@ -18,7 +18,9 @@ package com.graphaware.module.relcount.cache;
 
 import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
 import com.graphaware.common.serialize.Serializer;
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -29,7 +31,7 @@ import java.util.Set;
  * degree with respect to a {@link DetachedRelationshipDescription}, one property is created. The key of the property
  * is the {@link DetachedRelationshipDescription} serialized to string and the value is the actual degree.
  */
-public class NodePropertiesDegreeCachingStrategy implements DegreeCachingStrategy {
+public class NodePropertiesDegreeCachingStrategy implements PartialDegreeCachingStrategy {
 
     /**
      * {@inheritDoc}
@@ -61,4 +63,12 @@ public class NodePropertiesDegreeCachingStrategy implements DegreeCachingStrateg
 
         return cachedCounts;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CachedDegrees readCachedDegrees(Node node, String prefix, RelationshipType type, Direction direction) {
+        return CachedDegrees.of(readDegrees(node, prefix));
+    }
 }
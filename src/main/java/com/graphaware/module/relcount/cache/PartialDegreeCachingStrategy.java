@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.cache;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * {@link DegreeCachingStrategy} that can read cached degrees of a node with respect to relationships of a given type
+ * and direction only, straight into a read-only {@link CachedDegrees} view.
+ * {@link com.graphaware.module.relcount.count.CachedRelationshipCounter} reads cached degrees using
+ * {@link #readCachedDegrees(Node, String, RelationshipType, Direction)} when the configured strategy implements this
+ * interface, and reads all of them using {@link #readDegrees(Node, String)} otherwise.
+ */
+public interface PartialDegreeCachingStrategy extends DegreeCachingStrategy {
+
+    /**
+     * Read the cached degrees for a node with respect to relationships of a given type and direction into a read-only
+     * view. This is the read path used for counting, so implementations should avoid reading degrees that are
+     * irrelevant and allocating intermediate structures. They are, however, allowed to return more degrees than asked
+     * for, e.g. all cached degrees.
+     *
+     * @param node      to read cached degrees for.
+     * @param prefix    for metadata read.
+     * @param type      of the relationships of interest, null for all types.
+     * @param direction of the relationships of interest, {@link Direction#BOTH} for both directions.
+     * @return cached degrees, at least those with respect to relationships of the given type and direction.
+     */
+    CachedDegrees readCachedDegrees(Node node, String prefix, RelationshipType type, Direction direction);
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.cache;
+
+import org.neo4j.graphdb.Node;
+
+import java.util.List;
+
+/**
+ * Resolves prefixes of the metadata under which {@link NodeBasedDegreeCache} writes cached degrees of a node.
+ * Normally, there is a single prefix per module. More prefixes are used, for instance, while counts are being
+ * rebuilt under a shadow prefix, so that they are kept up to date with the graph.
+ */
+public interface PrefixResolver {
+
+    /**
+     * Resolve prefixes for a node whose cached degrees are about to be written.
+     *
+     * @param node whose cached degrees are about to be written.
+     * @return prefixes, never empty. The first one is the primary prefix, the others are secondary. Failures to write
+     *         cached degrees under a secondary prefix are logged, but do not prevent the transaction from committing.
+     */
+    List<String> resolvePrefixes(Node node);
+
+    /**
+     * Find out whether failures to write cached degrees under the primary prefix should be logged rather than
+     * propagated. This is the case, for instance, while counts are being rebuilt, since the counts under the primary
+     * prefix are about to be replaced and can legitimately be out of sync with the current configuration.
+     *
+     * @return true iff failures under the primary prefix should only be logged.
+     */
+    boolean isLenient();
+}
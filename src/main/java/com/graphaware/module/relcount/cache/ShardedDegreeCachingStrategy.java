@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link DeltaDegreeCachingStrategy} for graphs with write-hot supernodes. Degrees of nodes with a total cached degree
+ * below a threshold are cached as a single node property encoded using {@link DegreeCodec}, exactly like
+ * {@link BinarySingleNodePropertyDegreeCachingStrategy} does. Once a node's total cached degree reaches the threshold,
+ * a number of shard nodes is created for it and from then on, changes of its degrees are written as signed deltas to
+ * one of its shards, picked at random by every transaction. The node itself is not written to, and its degrees are
+ * summed up across the node and its shards when they are read.
+ * <p/>
+ * Note that this does NOT reduce contention of transactions creating or deleting relationships of a supernode, because
+ * Neo4j write-locks both nodes of every relationship being created or deleted, regardless of cached degrees. It only
+ * spares such transactions re-writing all cached degrees of the supernode while they hold the lock, and lets
+ * transactions that change cached degrees without creating or deleting relationships, e.g. ones changing relationship
+ * properties, run concurrently. Transactions writing deltas still read-lock the node, and ones whose changes delete any
+ * of its cached degrees (e.g. by compaction) write-lock it, see {@link NodeBasedDegreeCache#endCaching()}.
+ * <p/>
+ * The IDs of the shard nodes are stored in a node property. Shard nodes are labelled with the prefix followed by
+ * "DEGREE_SHARD" and hold no relationships. When cached degrees of a node are written as a whole, e.g. when they are
+ * rebuilt, all deltas are folded into the node property and the shards are deleted, until the node's total degree
+ * reaches the threshold again. Shards are also deleted together with the node's cached degrees, see
+ * {@link #deleteShards(Node, String)}.
+ */
+public class ShardedDegreeCachingStrategy implements DeltaDegreeCachingStrategy, PartialDegreeCachingStrategy {
+
+    private static final String SHARDS = "SHARDS";
+    private static final String DELTAS = "DELTAS";
+    private static final String DEGREE_SHARD = "DEGREE_SHARD";
+
+    private final int numberOfShards;
+    private final int threshold;
+
+    /**
+     * Construct a new strategy. Note that transactions creating or deleting relationships of the same supernode are
+     * still serialized by Neo4j, see the class documentation.
+     *
+     * @param numberOfShards number of shards per sharded node.
+     * @param threshold      total cached degree of a node, at which its degrees start being sharded.
+     */
+    public ShardedDegreeCachingStrategy(int numberOfShards, int threshold) {
+        if (numberOfShards < 1) {
+            throw new IllegalArgumentException("Number of shards must be positive");
+        }
+
+        this.numberOfShards = numberOfShards;
+        this.threshold = threshold;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Folds any deltas held by the node's shards into the node property and deletes the shards.
+     */
+    @Override
+    public void writeDegrees(Node node, String prefix, Map<DetachedRelationshipDescription, Integer> cachedDegrees, Set<DetachedRelationshipDescription> updatedDegrees, Set<DetachedRelationshipDescription> removedDegrees) {
+        node.setProperty(prefix, DegreeCodec.encode(cachedDegrees));
+        deleteShards(node, prefix);
+    }
+
+    /**
+     * Delete shard nodes of a node, if it has any, together with their deltas. Called when the node's cached degrees
+     * are cleared, no matter which strategy is configured at the time, so that no shard nodes are left behind. Must be
+     * called within a transaction that holds a write lock on the node.
+     *
+     * @param node   whose shards to delete.
+     * @param prefix of the cached degrees.
+     */
+    public static void deleteShards(Node node, String prefix) {
+        long[] shardIds = shardIds(node, prefix);
+        if (shardIds == null) {
+            return;
+        }
+
+        for (long shardId : shardIds) {
+            node.getGraphDatabase().getNodeById(shardId).delete();
+        }
+
+        node.removeProperty(prefix + SHARDS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeDegreeDeltas(Node node, String prefix, Map<DetachedRelationshipDescription, Integer> cachedDegrees, Map<DetachedRelationshipDescription, Integer> deltas) {
+        long[] shardIds = shardIds(node, prefix);
+
+        if (shardIds == null) {
+            if (totalDegree(cachedDegrees) >= threshold) {
+                node.setProperty(prefix + SHARDS, createShards(node.getGraphDatabase(), prefix));
+            }
+            node.setProperty(prefix, DegreeCodec.encode(cachedDegrees));
+            return;
+        }
+
+        Node shard = node.getGraphDatabase().getNodeById(shardIds[ThreadLocalRandom.current().nextInt(shardIds.length)]);
+
+        //other threads can be writing to the same shard, its deltas must not change between reading and writing them
+        try (Transaction tx = node.getGraphDatabase().beginTx()) {
+            tx.acquireWriteLock(shard);
+            tx.success();
+        }
+
+        Map<DetachedRelationshipDescription, Integer> shardDeltas = decode(shard, prefix + DELTAS);
+        add(shardDeltas, deltas);
+
+        if (shardDeltas.isEmpty()) {
+            shard.removeProperty(prefix + DELTAS);
+        } else {
+            shard.setProperty(prefix + DELTAS, DegreeCodec.encode(shardDeltas));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean locksNode(Node node, String prefix) {
+        return shardIds(node, prefix) == null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<DetachedRelationshipDescription, Integer> readDegrees(Node node, String prefix) {
+        Map<DetachedRelationshipDescription, Integer> result = decode(node, prefix);
+
+        long[] shardIds = shardIds(node, prefix);
+        if (shardIds == null) {
+            return result;
+        }
+
+        for (long shardId : shardIds) {
+            add(result, decode(node.getGraphDatabase().getNodeById(shardId), prefix + DELTAS));
+        }
+
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CachedDegrees readCachedDegrees(Node node, String prefix, RelationshipType type, Direction direction) {
+        if (!node.hasProperty(prefix + SHARDS)) {
+            if (!node.hasProperty(prefix)) {
+                return CachedDegrees.EMPTY;
+            }
+
+            return DegreeCodec.decodeCachedDegrees((byte[]) node.getProperty(prefix), type == null ? null : type.name(), direction);
+        }
+
+        return CachedDegrees.of(readDegrees(node, prefix));
+    }
+
+    private static long[] shardIds(Node node, String prefix) {
+        return (long[]) node.getProperty(prefix + SHARDS, null);
+    }
+
+    private long[] createShards(GraphDatabaseService database, String prefix) {
+        long[] result = new long[numberOfShards];
+
+        for (int i = 0; i < numberOfShards; i++) {
+            result[i] = database.createNode(DynamicLabel.label(prefix + DEGREE_SHARD)).getId();
+        }
+
+        return result;
+    }
+
+    private Map<DetachedRelationshipDescription, Integer> decode(Node node, String key) {
+        if (!node.hasProperty(key)) {
+            return new HashMap<>();
+        }
+
+        return new HashMap<>(DegreeCodec.decode((byte[]) node.getProperty(key)));
+    }
+
+    /**
+     * Add degrees to other degrees, removing the ones that add up to zero.
+     *
+     * @param degrees to add to.
+     * @param deltas  to add.
+     */
+    private void add(Map<DetachedRelationshipDescription, Integer> degrees, Map<DetachedRelationshipDescription, Integer> deltas) {
+        for (Map.Entry<DetachedRelationshipDescription, Integer> delta : deltas.entrySet()) {
+            Integer current = degrees.get(delta.getKey());
+            degrees.put(delta.getKey(), current == null ? delta.getValue() : current + delta.getValue());
+        }
+
+        for (Iterator<Integer> iterator = degrees.values().iterator(); iterator.hasNext(); ) {
+            if (iterator.next() == 0) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private int totalDegree(Map<DetachedRelationshipDescription, Integer> degrees) {
+        int result = 0;
+        for (int degree : degrees.values()) {
+            result += degree;
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ShardedDegreeCachingStrategy that = (ShardedDegreeCachingStrategy) o;
+
+        if (numberOfShards != that.numberOfShards) return false;
+        if (threshold != that.threshold) return false;
+
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        int result = numberOfShards;
+        result = 31 * result + threshold;
+        return result;
+    }
+}
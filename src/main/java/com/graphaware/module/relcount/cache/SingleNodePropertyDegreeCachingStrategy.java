@@ -17,21 +17,24 @@
 package com.graphaware.module.relcount.cache;
 
 import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
 
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
-import static com.graphaware.common.serialize.Serializer.fromByteArray;
 import static com.graphaware.common.serialize.Serializer.toByteArray;
 
 /**
  * {@link DegreeCachingStrategy} that caches degrees as a single node property on the node that the degrees are for.
  * The key of the property is the prefix (runtime identifier + module prefix) and the value is the entire map of
  * degrees serialized to a byte array.
+ * <p/>
+ * Degrees written by {@link BinarySingleNodePropertyDegreeCachingStrategy} can be read by this strategy as well.
  */
-public class SingleNodePropertyDegreeCachingStrategy implements DegreeCachingStrategy {
+public class SingleNodePropertyDegreeCachingStrategy implements PartialDegreeCachingStrategy {
 
     /**
      * {@inheritDoc}
@@ -50,7 +53,18 @@ public class SingleNodePropertyDegreeCachingStrategy implements DegreeCachingStr
             return new HashMap<>();
         }
 
-        //noinspection unchecked
-        return fromByteArray((byte[]) node.getProperty(prefix));
+        return DegreeCodec.decode((byte[]) node.getProperty(prefix));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CachedDegrees readCachedDegrees(Node node, String prefix, RelationshipType type, Direction direction) {
+        if (!node.hasProperty(prefix)) {
+            return CachedDegrees.EMPTY;
+        }
+
+        return DegreeCodec.decodeCachedDegrees((byte[]) node.getProperty(prefix), type == null ? null : type.name(), direction);
     }
 }
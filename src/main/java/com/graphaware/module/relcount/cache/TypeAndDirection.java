@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.relationship.RelationshipDescription;
+import org.neo4j.graphdb.Direction;
+
+/**
+ * Relationship type (name) and direction, used to partition cached degrees.
+ */
+final class TypeAndDirection {
+
+    private final String type;
+    private final Direction direction;
+
+    TypeAndDirection(String type, Direction direction) {
+        this.type = type;
+        this.direction = direction;
+    }
+
+    TypeAndDirection(RelationshipDescription description) {
+        this(description.getType().name(), description.getDirection());
+    }
+
+    String getType() {
+        return type;
+    }
+
+    Direction getDirection() {
+        return direction;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        TypeAndDirection that = (TypeAndDirection) o;
+
+        return type.equals(that.type) && direction == that.direction;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return 31 * type.hashCode() + direction.hashCode();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.compact;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * Maximum number of distinct cached degrees a node can have with respect to relationships of a specific type and
+ * direction, used by {@link ThresholdBasedCompactionStrategy} to compact such degrees independently of the others.
+ */
+public class CompactionBudget {
+
+    private final String type;
+    private final Direction direction;
+    private final int budget;
+
+    /**
+     * Construct a new budget.
+     *
+     * @param type      of the relationships.
+     * @param direction of the relationships. {@link Direction#BOTH} means a single budget shared by all directions.
+     * @param budget    maximum number of distinct cached degrees, must be positive.
+     */
+    public CompactionBudget(RelationshipType type, Direction direction, int budget) {
+        this(type.name(), direction, budget);
+    }
+
+    /**
+     * Construct a new budget.
+     *
+     * @param type      name of the type of the relationships.
+     * @param direction of the relationships. {@link Direction#BOTH} means a single budget shared by all directions.
+     * @param budget    maximum number of distinct cached degrees, must be positive.
+     */
+    public CompactionBudget(String type, Direction direction, int budget) {
+        if (budget < 1) {
+            throw new IllegalArgumentException("Compaction budget must be positive, was " + budget);
+        }
+
+        this.type = type;
+        this.direction = direction;
+        this.budget = budget;
+    }
+
+    /**
+     * Parse a budget from its string representation, which is the type name, the direction, and the budget, separated
+     * by colons, e.g. "FOLLOWS:INCOMING:50".
+     *
+     * @param string to parse.
+     * @return budget.
+     * @throws IllegalArgumentException if the string is not a valid representation of a budget.
+     */
+    public static CompactionBudget parse(String string) {
+        String[] parts = string.trim().split(":");
+
+        if (parts.length != 3 || parts[0].trim().isEmpty()) {
+            throw new IllegalArgumentException("Invalid compaction budget: " + string);
+        }
+
+        try {
+            return new CompactionBudget(parts[0].trim(), Direction.valueOf(parts[1].trim().toUpperCase()), Integer.valueOf(parts[2].trim()));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid compaction budget: " + string, e);
+        }
+    }
+
+    /**
+     * @return name of the type of the relationships.
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return direction of the relationships.
+     */
+    public Direction getDirection() {
+        return direction;
+    }
+
+    /**
+     * @return maximum number of distinct cached degrees.
+     */
+    public int getBudget() {
+        return budget;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        CompactionBudget that = (CompactionBudget) o;
+
+        return budget == that.budget && type.equals(that.type) && direction == that.direction;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        int result = type.hashCode();
+        result = 31 * result + direction.hashCode();
+        result = 31 * result + budget;
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return type + ":" + direction + ":" + budget;
+    }
+}
@@ -78,32 +78,10 @@ class GeneralizationGenerator {
     }
 
     private DetachedRelationshipDescription generate(String type, List<Set<String>> newPropertySets) {
+        Collection<DetachedRelationshipDescription> descriptionsOfType = descriptionsOfType(type);
+
         for (Set<String> newPropertySet : newPropertySets) {
-            int maxMatches = 1;
-            DetachedRelationshipDescription result = null;
-
-            for (DetachedRelationshipDescription candidate : descriptions) {
-                if (!candidate.getType().name().equals(type)) {
-                    continue;
-                }
-
-                DetachedRelationshipDescription generalizedDescription = candidate;
-                for (String property : newPropertySet) {
-                    generalizedDescription = generalizedDescription.with(property, any());
-                }
-
-                int matches = 0;
-                for (DetachedRelationshipDescription description : descriptions) {
-                    if (description.isMoreSpecificThan(generalizedDescription)) {
-                        matches++;
-                    }
-                }
-
-                if (matches > maxMatches) {
-                    maxMatches = matches;
-                    result = generalizedDescription;
-                }
-            }
+            DetachedRelationshipDescription result = generate(descriptionsOfType, newPropertySet);
 
             if (result != null) {
                 return result;
@@ -113,6 +91,81 @@ class GeneralizationGenerator {
         return null;
     }
 
+    /**
+     * Get descriptions of the given relationship type. Only descriptions of the same type can be generalized together.
+     *
+     * @param type name of the relationship type.
+     * @return descriptions of the type.
+     */
+    protected Collection<DetachedRelationshipDescription> descriptionsOfType(String type) {
+        List<DetachedRelationshipDescription> descriptionsOfType = new ArrayList<>();
+        for (DetachedRelationshipDescription description : descriptions) {
+            if (description.getType().name().equals(type)) {
+                descriptionsOfType.add(description);
+            }
+        }
+        return descriptionsOfType;
+    }
+
+    /**
+     * Find the generalization that, by setting the given properties to {@link com.graphaware.common.description.predicate.Any},
+     * generalizes the maximum number of descriptions. Every candidate description is generalized and matched against
+     * all the other descriptions.
+     *
+     * @param descriptionsOfType descriptions of a single relationship type.
+     * @param propertySet        properties to generalize.
+     * @return generalization of more than one description, null if there is none.
+     */
+    protected DetachedRelationshipDescription generate(Collection<DetachedRelationshipDescription> descriptionsOfType, Set<String> propertySet) {
+        int maxMatches = 1;
+        DetachedRelationshipDescription result = null;
+
+        for (DetachedRelationshipDescription candidate : descriptionsOfType) {
+            DetachedRelationshipDescription generalizedDescription = generalize(candidate, propertySet);
+
+            int matches = countMatches(descriptionsOfType, generalizedDescription);
+
+            if (matches > maxMatches) {
+                maxMatches = matches;
+                result = generalizedDescription;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Generalize a description by setting the given properties to {@link com.graphaware.common.description.predicate.Any}.
+     *
+     * @param description to generalize.
+     * @param propertySet properties to generalize.
+     * @return generalized description.
+     */
+    protected final DetachedRelationshipDescription generalize(DetachedRelationshipDescription description, Set<String> propertySet) {
+        DetachedRelationshipDescription result = description;
+        for (String property : propertySet) {
+            result = result.with(property, any());
+        }
+        return result;
+    }
+
+    /**
+     * Count descriptions that are more specific than a generalization.
+     *
+     * @param descriptionsOfType descriptions to match.
+     * @param generalization     to match the descriptions against.
+     * @return number of matching descriptions.
+     */
+    protected final int countMatches(Collection<DetachedRelationshipDescription> descriptionsOfType, DetachedRelationshipDescription generalization) {
+        int matches = 0;
+        for (DetachedRelationshipDescription description : descriptionsOfType) {
+            if (description.isMoreSpecificThan(generalization)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
     private List<Set<String>> createNewPropertySets(PropertyChangeFrequency frequency) {
         if (!usedPropertySetsByType.containsKey(frequency.getType())) {
             usedPropertySetsByType.put(frequency.getType(), new LinkedList<Set<String>>());
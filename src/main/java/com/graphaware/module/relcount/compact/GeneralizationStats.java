@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.compact;
+
+import com.graphaware.common.description.predicate.Predicate;
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+
+import java.util.*;
+
+import static com.graphaware.common.description.predicate.Predicates.any;
+
+/**
+ * Statistics of cached degrees, from which property change frequencies are produced. They can be maintained
+ * incrementally, i.e. updated every time a cached degree is created, changed, or deleted, so that they do not have to
+ * be re-built from all the cached degrees every time a generalization is produced.
+ * <p/>
+ * For each relationship type, the statistics keep track of the total degree and the cached descriptions. For each
+ * property key of each type, they keep track of the number of cached descriptions with each distinct (non-wildcard)
+ * value, the number of cached descriptions that have the key at all, and the total degree of descriptions with a
+ * wildcard value.
+ * <p/>
+ * This class is not thread-safe.
+ */
+public class GeneralizationStats {
+
+    private final Map<String, TypeStats> statsByType = new HashMap<>();
+
+    /**
+     * Build statistics of the given cached degrees.
+     *
+     * @param cachedDegrees cached degrees (key = relationship description, value = degree).
+     * @return statistics.
+     */
+    public static GeneralizationStats of(Map<DetachedRelationshipDescription, Integer> cachedDegrees) {
+        GeneralizationStats result = new GeneralizationStats();
+
+        for (Map.Entry<DetachedRelationshipDescription, Integer> entry : cachedDegrees.entrySet()) {
+            result.acknowledge(entry.getKey(), entry.getValue());
+        }
+
+        return result;
+    }
+
+    /**
+     * Acknowledge a cached degree. Must not be called for a description that has already been acknowledged and has
+     * not been forgotten since.
+     *
+     * @param description of the cached degree.
+     * @param degree      cached degree.
+     */
+    public void acknowledge(DetachedRelationshipDescription description, int degree) {
+        String type = description.getType().name();
+
+        TypeStats typeStats = statsByType.get(type);
+        if (typeStats == null) {
+            typeStats = new TypeStats();
+            statsByType.put(type, typeStats);
+        }
+
+        typeStats.descriptions.add(description);
+        typeStats.degree += degree;
+
+        for (String key : description.getPropertiesDescription().getKeys()) {
+            KeyStats keyStats = typeStats.statsByKey.get(key);
+            if (keyStats == null) {
+                keyStats = new KeyStats();
+                typeStats.statsByKey.put(key, keyStats);
+            }
+
+            keyStats.descriptions++;
+
+            Predicate value = description.getPropertiesDescription().get(key);
+            if (any().equals(value)) {
+                keyStats.wildcardDegree += degree;
+            } else {
+                Integer count = keyStats.descriptionsByValue.get(value);
+                keyStats.descriptionsByValue.put(value, count == null ? 1 : count + 1);
+            }
+        }
+    }
+
+    /**
+     * Forget a previously acknowledged cached degree.
+     *
+     * @param description of the cached degree.
+     * @param degree      cached degree, as it was acknowledged.
+     */
+    public void forget(DetachedRelationshipDescription description, int degree) {
+        String type = description.getType().name();
+
+        TypeStats typeStats = statsByType.get(type);
+        if (typeStats == null || !typeStats.descriptions.remove(description)) {
+            return;
+        }
+
+        if (typeStats.descriptions.isEmpty()) {
+            statsByType.remove(type);
+            return;
+        }
+
+        typeStats.degree -= degree;
+
+        for (String key : description.getPropertiesDescription().getKeys()) {
+            KeyStats keyStats = typeStats.statsByKey.get(key);
+
+            if (--keyStats.descriptions == 0) {
+                typeStats.statsByKey.remove(key);
+                continue;
+            }
+
+            Predicate value = description.getPropertiesDescription().get(key);
+            if (any().equals(value)) {
+                keyStats.wildcardDegree -= degree;
+            } else {
+                int count = keyStats.descriptionsByValue.get(value);
+                if (count == 1) {
+                    keyStats.descriptionsByValue.remove(value);
+                } else {
+                    keyStats.descriptionsByValue.put(value, count - 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get acknowledged descriptions of relationships with the given type.
+     *
+     * @param type name of the relationship type.
+     * @return descriptions, empty if there are none.
+     */
+    Set<DetachedRelationshipDescription> getDescriptions(String type) {
+        TypeStats typeStats = statsByType.get(type);
+        return typeStats == null ? Collections.<DetachedRelationshipDescription>emptySet() : Collections.unmodifiableSet(typeStats.descriptions);
+    }
+
+    /**
+     * Produce property change frequencies, sorted from the most to the least frequently changing property. The
+     * frequency of a property is the number of its distinct values (a missing property counting as one extra value)
+     * plus the total degree of relationships for which it has already been generalized, divided by the total degree
+     * of relationships of its type plus one.
+     *
+     * @return property change frequencies.
+     */
+    List<PropertyChangeFrequency> produceFrequencies() {
+        Set<PropertyChangeFrequency> propertyChangeFrequencies = new TreeSet<>();
+
+        for (Map.Entry<String, TypeStats> typeEntry : statsByType.entrySet()) {
+            TypeStats typeStats = typeEntry.getValue();
+
+            for (Map.Entry<String, KeyStats> keyEntry : typeStats.statsByKey.entrySet()) {
+                KeyStats keyStats = keyEntry.getValue();
+
+                int values = keyStats.descriptionsByValue.size();
+                if (keyStats.descriptions < typeStats.descriptions.size()) {
+                    //some descriptions do not have the key, which counts as an extra (undefined) value
+                    values++;
+                }
+
+                propertyChangeFrequencies.add(new PropertyChangeFrequency(typeEntry.getKey(), keyEntry.getKey(),
+                        ((double) values + keyStats.wildcardDegree) / ((double) typeStats.degree + 1)));
+            }
+        }
+
+        return new LinkedList<>(propertyChangeFrequencies);
+    }
+
+    private static class TypeStats {
+        private final Set<DetachedRelationshipDescription> descriptions = new HashSet<>();
+        private int degree;
+        private final Map<String, KeyStats> statsByKey = new HashMap<>();
+    }
+
+    private static class KeyStats {
+        private int descriptions;
+        private int wildcardDegree;
+        private final Map<Predicate, Integer> descriptionsByValue = new HashMap<>();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.compact;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import org.neo4j.graphdb.Direction;
+
+import java.util.*;
+
+import static com.graphaware.common.description.predicate.Predicates.any;
+
+/**
+ * {@link GeneralizationGenerator} driven by incrementally maintained {@link GeneralizationStats}, which produces the
+ * same generalizations in near-linear time with respect to the number of descriptions.
+ * <p/>
+ * Instead of matching the generalization of every candidate against all the other descriptions, descriptions are
+ * grouped by their generalizations. A description is more specific than the generalization of its group, and when
+ * the generalization does not have a wildcard outside the generalized properties and its direction is not
+ * {@link Direction#BOTH}, no description outside the group is. Only the (typically few) groups with such "open"
+ * generalizations are matched against all the descriptions.
+ */
+class GroupingGeneralizationGenerator extends GeneralizationGenerator {
+
+    private final GeneralizationStats stats;
+
+    /**
+     * Construct a new generalizer.
+     *
+     * @param stats of the descriptions to create generalizations from.
+     */
+    GroupingGeneralizationGenerator(GeneralizationStats stats) {
+        this(stats, stats.produceFrequencies());
+    }
+
+    /**
+     * Construct a new generalizer that only attempts to generalize the properties with the given frequencies.
+     *
+     * @param stats       of the descriptions to create generalizations from.
+     * @param frequencies of properties to generalize, a subset of those produced by the stats.
+     */
+    GroupingGeneralizationGenerator(GeneralizationStats stats, List<PropertyChangeFrequency> frequencies) {
+        //descriptions are looked up by type in the stats
+        super(Collections.<DetachedRelationshipDescription>emptySet(), frequencies);
+        this.stats = stats;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Collection<DetachedRelationshipDescription> descriptionsOfType(String type) {
+        return stats.getDescriptions(type);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected DetachedRelationshipDescription generate(Collection<DetachedRelationshipDescription> descriptionsOfType, Set<String> propertySet) {
+        if (descriptionsOfType.size() < 2) {
+            return null;
+        }
+
+        Map<DetachedRelationshipDescription, Integer> matchesByGeneralization = new LinkedHashMap<>();
+        for (DetachedRelationshipDescription description : descriptionsOfType) {
+            DetachedRelationshipDescription generalization = generalize(description, propertySet);
+            Integer matches = matchesByGeneralization.get(generalization);
+            matchesByGeneralization.put(generalization, matches == null ? 1 : matches + 1);
+        }
+
+        int maxMatches = 1;
+        DetachedRelationshipDescription result = null;
+
+        for (Map.Entry<DetachedRelationshipDescription, Integer> entry : matchesByGeneralization.entrySet()) {
+            DetachedRelationshipDescription generalization = entry.getKey();
+
+            int matches = entry.getValue();
+            if (isOpen(generalization, propertySet)) {
+                matches = countMatches(descriptionsOfType, generalization);
+            }
+
+            if (matches > maxMatches) {
+                maxMatches = matches;
+                result = generalization;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Find out whether descriptions outside the group of a generalization can be more specific than it.
+     *
+     * @param generalization to check.
+     * @param propertySet    generalized properties.
+     * @return true iff the generalization has direction {@link Direction#BOTH} or a wildcard outside the property set.
+     */
+    private boolean isOpen(DetachedRelationshipDescription generalization, Set<String> propertySet) {
+        if (Direction.BOTH.equals(generalization.getDirection())) {
+            return true;
+        }
+
+        for (String key : generalization.getPropertiesDescription().getKeys()) {
+            if (!propertySet.contains(key) && any().equals(generalization.getPropertiesDescription().get(key))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.compact;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+
+import java.util.Map;
+
+/**
+ * A {@link GeneralizationStrategy} that can produce generalizations from {@link GeneralizationStats} maintained
+ * incrementally alongside the cached degrees, rather than from the cached degrees alone.
+ */
+public interface IncrementalGeneralizationStrategy extends GeneralizationStrategy {
+
+    /**
+     * Produce the best generalizations of the cached degrees that will result in compaction.
+     *
+     * @param cachedDegrees cached degrees that need to be compacted.
+     * @param stats         statistics of exactly the cached degrees above.
+     * @return best generalization.
+     */
+    DetachedRelationshipDescription produceGeneralization(Map<DetachedRelationshipDescription, Integer> cachedDegrees, GeneralizationStats stats);
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.compact;
+
+import com.graphaware.module.relcount.cache.DegreeCachingNode;
+
+/**
+ * {@link CompactionStrategy} that never compacts cached degrees. Only suitable when the number of distinct cached
+ * degrees per node is bounded by other means, e.g. by {@link com.graphaware.module.relcount.view.CountViews}.
+ * <p/>
+ * This is a singleton.
+ */
+public final class NoCompactionStrategy implements CompactionStrategy {
+
+    private static final NoCompactionStrategy INSTANCE = new NoCompactionStrategy();
+
+    /**
+     * Get the singleton instance.
+     *
+     * @return instance.
+     */
+    public static NoCompactionStrategy getInstance() {
+        return INSTANCE;
+    }
+
+    private NoCompactionStrategy() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void compactRelationshipCounts(DegreeCachingNode node) {
+        //no compaction
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        return o != null && getClass() == o.getClass();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.compact;
+
+import com.graphaware.common.description.predicate.Predicate;
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.common.description.relationship.RelationshipDescription;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.graphaware.common.description.predicate.Predicates.any;
+
+/**
+ * A workload-aware {@link GeneralizationStrategy} that avoids generalizing properties which relationships are being
+ * counted by, so that counting them does not have to fall back to inspecting all relationships of compacted nodes.
+ * <p/>
+ * It samples the counted relationship descriptions and remembers, for each relationship type, the property keys that
+ * the counted descriptions constrain (i.e. do not describe as {@link com.graphaware.common.description.predicate.Any}).
+ * Generalizations are produced using the same "property change frequency" heuristic as {@link GeneralizeFrequentlyChanging},
+ * but only properties that have not been counted by are considered at first. Only if no such generalization results in
+ * compaction, all properties are considered, so that the compaction threshold is still honoured. To keep the
+ * granularity needed by the workload, increase the threshold accordingly; that's the price in space for reads that do
+ * not need to fall back.
+ * <p/>
+ * The counted properties are only remembered in memory, i.e. they are sampled afresh after a restart.
+ */
+public class PreserveCountedProperties implements IncrementalGeneralizationStrategy, WorkloadAwareStrategy {
+
+    private final int sampleRate;
+    private transient volatile ConcurrentMap<String, Set<String>> countedKeysByType = new ConcurrentHashMap<>();
+
+    /**
+     * Construct a new strategy that records every counted description.
+     */
+    public PreserveCountedProperties() {
+        this(1);
+    }
+
+    /**
+     * Construct a new strategy.
+     *
+     * @param sampleRate one in how many counted descriptions is recorded on average. Must be positive.
+     */
+    public PreserveCountedProperties(int sampleRate) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("Sample rate must be positive");
+        }
+
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void recordCount(RelationshipDescription description) {
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+
+        String type = description.getType().name();
+        for (String key : description.getPropertiesDescription().getKeys()) {
+            Predicate predicate = description.getPropertiesDescription().get(key);
+            if (!any().equals(predicate)) {
+                countedKeys(type).add(key);
+            }
+        }
+    }
+
+    /**
+     * Find out whether relationships have been counted by the given property.
+     *
+     * @param type name of the relationship type.
+     * @param key  property key.
+     * @return true iff the property has been seen constrained in a sampled counted description.
+     */
+    public boolean isCounted(String type, String key) {
+        Set<String> countedKeys = countedKeysByType().get(type);
+        return countedKeys != null && countedKeys.contains(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DetachedRelationshipDescription produceGeneralization(Map<DetachedRelationshipDescription, Integer> cachedDegrees) {
+        return produceGeneralization(cachedDegrees, GeneralizationStats.of(cachedDegrees));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DetachedRelationshipDescription produceGeneralization(Map<DetachedRelationshipDescription, Integer> cachedDegrees, GeneralizationStats stats) {
+        List<PropertyChangeFrequency> frequencies = stats.produceFrequencies();
+
+        List<PropertyChangeFrequency> uncountedFrequencies = new LinkedList<>();
+        for (PropertyChangeFrequency frequency : frequencies) {
+            if (!isCounted(frequency.getType(), frequency.getProperty())) {
+                uncountedFrequencies.add(frequency);
+            }
+        }
+
+        DetachedRelationshipDescription result = new GroupingGeneralizationGenerator(stats, uncountedFrequencies).generate();
+
+        if (result == null && uncountedFrequencies.size() < frequencies.size()) {
+            result = new GroupingGeneralizationGenerator(stats, frequencies).generate();
+        }
+
+        return result;
+    }
+
+    private Set<String> countedKeys(String type) {
+        ConcurrentMap<String, Set<String>> countedKeysByType = countedKeysByType();
+
+        Set<String> countedKeys = countedKeysByType.get(type);
+        if (countedKeys == null) {
+            countedKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            Set<String> existing = countedKeysByType.putIfAbsent(type, countedKeys);
+            if (existing != null) {
+                countedKeys = existing;
+            }
+        }
+
+        return countedKeys;
+    }
+
+    private ConcurrentMap<String, Set<String>> countedKeysByType() {
+        //transient, thus null in deserialized instances
+        if (countedKeysByType == null) {
+            synchronized (this) {
+                if (countedKeysByType == null) {
+                    countedKeysByType = new ConcurrentHashMap<>();
+                }
+            }
+        }
+        return countedKeysByType;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PreserveCountedProperties that = (PreserveCountedProperties) o;
+
+        return sampleRate == that.sampleRate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return sampleRate;
+    }
+}
@@ -17,13 +17,12 @@
 package com.graphaware.module.relcount.compact;
 
 import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.common.description.relationship.RelationshipDescription;
 import com.graphaware.module.relcount.cache.DegreeCachingNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 
 /**
  * {@link CompactionStrategy} which compacts degrees based the number of cached degrees and a threshold.
@@ -32,12 +31,29 @@ import java.util.Set;
  * respect to distinct relationship descriptions generalizations are created using a {@link GeneralizationStrategy}
  * until the number of cached degrees is below the threshold again. If unable to reach such state, a meaningful message
  * is logged.
+ * <p/>
+ * Optionally, the threshold can be soft, with a higher hard threshold. Then, nodes can temporarily exceed the (soft)
+ * compaction threshold while their degrees are being changed; they are only compacted straight away when they exceed
+ * the hard threshold. Otherwise, they are compacted once, just before their cached degrees are written, which happens
+ * at most once per transaction. Either way, they are compacted down to the compaction threshold, so that compaction
+ * does not occur again until a number of new relationship descriptions have been cached.
+ * <p/>
+ * Additionally, {@link CompactionBudget}s can limit the number of cached degrees with respect to specific relationship
+ * types and directions. Degrees exceeding a budget are compacted on their own, before the whole node is compacted, so
+ * that a single type with many distinct property combinations does not take away granularity from the other types.
+ * The compaction threshold then acts as a global cap on the number of cached degrees per node. Budgets are enforced
+ * when the threshold is, i.e. straight away for a hard threshold and just before cached degrees are written for a soft one.
+ * <p/>
+ * Counted relationship descriptions are passed on to the {@link GeneralizationStrategy} if it is a
+ * {@link WorkloadAwareStrategy}.
  */
-public class ThresholdBasedCompactionStrategy implements CompactionStrategy {
+public class ThresholdBasedCompactionStrategy implements DeferredCompactionStrategy, WorkloadAwareStrategy {
     private static final Logger LOG = LoggerFactory.getLogger(ThresholdBasedCompactionStrategy.class);
 
     private final int compactionThreshold;
+    private final int hardThreshold;
     private final GeneralizationStrategy generalizationStrategy;
+    private final List<CompactionBudget> budgets;
 
     /**
      * Construct a new compaction strategy with default {@link GeneralizationStrategy}, which is
@@ -56,16 +72,132 @@ public class ThresholdBasedCompactionStrategy implements CompactionStrategy {
      * @param generalizationStrategy generalization strategy.
      */
     public ThresholdBasedCompactionStrategy(int compactionThreshold, GeneralizationStrategy generalizationStrategy) {
+        this(compactionThreshold, compactionThreshold, generalizationStrategy);
+    }
+
+    /**
+     * Construct a new compaction strategy with a soft compaction threshold and default {@link GeneralizationStrategy},
+     * which is {@link GeneralizeFrequentlyChanging}.
+     *
+     * @param compactionThreshold soft compaction threshold.
+     * @param hardThreshold       hard threshold, must not be lower than the compaction threshold.
+     */
+    public ThresholdBasedCompactionStrategy(int compactionThreshold, int hardThreshold) {
+        this(compactionThreshold, hardThreshold, new GeneralizeFrequentlyChanging());
+    }
+
+    /**
+     * Construct a new compaction strategy with a soft compaction threshold.
+     *
+     * @param compactionThreshold    soft compaction threshold.
+     * @param hardThreshold          hard threshold, must not be lower than the compaction threshold.
+     * @param generalizationStrategy generalization strategy.
+     */
+    public ThresholdBasedCompactionStrategy(int compactionThreshold, int hardThreshold, GeneralizationStrategy generalizationStrategy) {
+        this(compactionThreshold, hardThreshold, generalizationStrategy, Collections.<CompactionBudget>emptyList());
+    }
+
+    private ThresholdBasedCompactionStrategy(int compactionThreshold, int hardThreshold, GeneralizationStrategy generalizationStrategy, Collection<CompactionBudget> budgets) {
+        if (hardThreshold < compactionThreshold) {
+            throw new IllegalArgumentException("Hard threshold (" + hardThreshold + ") must not be lower than compaction threshold (" + compactionThreshold + ")");
+        }
+
         this.compactionThreshold = compactionThreshold;
+        this.hardThreshold = hardThreshold;
         this.generalizationStrategy = generalizationStrategy;
+        this.budgets = new ArrayList<>(budgets);
+    }
+
+    /**
+     * Create a copy of this strategy with the same thresholds and budgets, but a different {@link GeneralizationStrategy}.
+     *
+     * @param generalizationStrategy generalization strategy.
+     * @return new compaction strategy.
+     */
+    public ThresholdBasedCompactionStrategy with(GeneralizationStrategy generalizationStrategy) {
+        return new ThresholdBasedCompactionStrategy(compactionThreshold, hardThreshold, generalizationStrategy, budgets);
+    }
+
+    /**
+     * Create a copy of this strategy with the same {@link GeneralizationStrategy} and budgets, but different thresholds.
+     *
+     * @param compactionThreshold soft compaction threshold.
+     * @param hardThreshold       hard threshold, must not be lower than the compaction threshold.
+     * @return new compaction strategy.
+     */
+    public ThresholdBasedCompactionStrategy withThresholds(int compactionThreshold, int hardThreshold) {
+        return new ThresholdBasedCompactionStrategy(compactionThreshold, hardThreshold, generalizationStrategy, budgets);
+    }
+
+    /**
+     * Create a copy of this strategy with the same thresholds and {@link GeneralizationStrategy}, but different budgets.
+     *
+     * @param budgets per relationship type and direction. At most one per type-direction pair.
+     * @return new compaction strategy.
+     * @throws IllegalArgumentException if there are multiple budgets for the same type and direction.
+     */
+    public ThresholdBasedCompactionStrategy withBudgets(CompactionBudget... budgets) {
+        Set<String> typesAndDirections = new HashSet<>();
+        for (CompactionBudget budget : budgets) {
+            if (!typesAndDirections.add(budget.getType() + ":" + budget.getDirection())) {
+                throw new IllegalArgumentException("Multiple compaction budgets for " + budget.getType() + " " + budget.getDirection() + " relationships");
+            }
+        }
+
+        return new ThresholdBasedCompactionStrategy(compactionThreshold, hardThreshold, generalizationStrategy, Arrays.asList(budgets));
+    }
+
+    /**
+     * @return budgets per relationship type and direction.
+     */
+    public List<CompactionBudget> getBudgets() {
+        return Collections.unmodifiableList(budgets);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void recordCount(RelationshipDescription description) {
+        if (generalizationStrategy instanceof WorkloadAwareStrategy) {
+            ((WorkloadAwareStrategy) generalizationStrategy).recordCount(description);
+        }
     }
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * Only compacts if the node has more cached degrees than the hard threshold.
      */
     @Override
     public void compactRelationshipCounts(DegreeCachingNode node) {
-        if (!performCompaction(node)) {
+        if (hardThreshold == compactionThreshold) {
+            compactBudgets(node);
+        }
+        compact(node, hardThreshold);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Only compacts if the compaction threshold is soft, otherwise nodes have been compacted as soon as they exceeded it.
+     */
+    @Override
+    public void compactBeforeFlush(DegreeCachingNode node) {
+        if (hardThreshold > compactionThreshold) {
+            compactBudgets(node);
+            compact(node, compactionThreshold);
+        }
+    }
+
+    /**
+     * Compact cached degrees of a node down to the compaction threshold, if it has more of them than the given limit.
+     *
+     * @param node  to compact.
+     * @param limit number of cached degrees the node can have without being compacted.
+     */
+    private void compact(DegreeCachingNode node, int limit) {
+        if (!performCompaction(node, limit)) {
             LOG.warn("The desired threshold (" + compactionThreshold + ") could not be achieved using the current compaction strategy " +
                     "on node " + node.getId() + ". This is potentially due to the fact that there are more than " + compactionThreshold +
                     " distinct relationship type - direction pairs being cached for the node. If that's what's desired," +
@@ -74,23 +206,93 @@ public class ThresholdBasedCompactionStrategy implements CompactionStrategy {
         }
     }
 
-    private boolean performCompaction(DegreeCachingNode node) {
-        Map<DetachedRelationshipDescription, Integer> cachedDegrees = node.getCachedDegrees();
+    /**
+     * Compact cached degrees of a node with respect to each budgeted relationship type and direction down to the budget.
+     *
+     * @param node to compact.
+     */
+    private void compactBudgets(DegreeCachingNode node) {
+        for (CompactionBudget budget : budgets) {
+            if (!performCompaction(node, budget)) {
+                LOG.warn("The compaction budget " + budget + " could not be achieved using the current compaction strategy " +
+                        "on node " + node.getId() + ". If that's what's desired, increase the budget. If not, exclude " +
+                        "the unwanted relationship properties from being cached.");
+            }
+        }
+    }
+
+    private boolean performCompaction(DegreeCachingNode node, CompactionBudget budget) {
+        while (true) {
+            Set<DetachedRelationshipDescription> budgeted = node.getCachedDescriptions(budget.getType(), budget.getDirection());
+
+            //Within budget => no need for (further) compaction
+            if (budgeted.size() <= budget.getBudget()) {
+                return true;
+            }
+
+            Map<DetachedRelationshipDescription, Integer> cachedDegrees = node.getCachedDegrees();
+            Map<DetachedRelationshipDescription, Integer> budgetedDegrees = new HashMap<>();
+            for (DetachedRelationshipDescription description : budgeted) {
+                budgetedDegrees.put(description, cachedDegrees.get(description));
+            }
+
+            //Not suitable generalization => bad luck
+            DetachedRelationshipDescription generalization = generalizationStrategy.produceGeneralization(budgetedDegrees);
+            if (generalization == null) {
+                return false;
+            }
+
+            generalize(node, cachedDegrees, generalization);
+        }
+    }
+
+    private boolean performCompaction(DegreeCachingNode node, int limit) {
+        int currentLimit = limit;
+
+        while (true) {
+            Map<DetachedRelationshipDescription, Integer> cachedDegrees = node.getCachedDegrees();
+
+            //Not above the limit => no need for (further) compaction
+            if (cachedDegrees.size() <= currentLimit) {
+                return true;
+            }
 
-        //Not above the threshold => no need for compaction
-        if (cachedDegrees.size() <= compactionThreshold) {
-            return true;
+            //Not suitable generalization => bad luck
+            DetachedRelationshipDescription generalization = produceGeneralization(node, cachedDegrees);
+            if (generalization == null) {
+                return false;
+            }
+
+            generalize(node, cachedDegrees, generalization);
+
+            //once compacting, go all the way down to the compaction threshold
+            currentLimit = compactionThreshold;
         }
+    }
 
-        //Not suitable generalization => bad luck
-        DetachedRelationshipDescription generalization = generalizationStrategy.produceGeneralization(cachedDegrees);
-        if (generalization == null) {
-            return false;
+    /**
+     * Produce a generalization of the node's cached degrees, using the statistics maintained by the node if the
+     * {@link GeneralizationStrategy} can take advantage of them.
+     *
+     * @param node          to produce a generalization for.
+     * @param cachedDegrees of the node.
+     * @return generalization, null if there is none.
+     */
+    private DetachedRelationshipDescription produceGeneralization(DegreeCachingNode node, Map<DetachedRelationshipDescription, Integer> cachedDegrees) {
+        if (generalizationStrategy instanceof IncrementalGeneralizationStrategy) {
+            GeneralizationStats stats = node.getGeneralizationStats();
+            if (stats != null) {
+                return ((IncrementalGeneralizationStrategy) generalizationStrategy).produceGeneralization(cachedDegrees, stats);
+            }
         }
 
-        //Find all the candidates to be eliminated by the generalization
+        return generalizationStrategy.produceGeneralization(cachedDegrees);
+    }
+
+    private void generalize(DegreeCachingNode node, Map<DetachedRelationshipDescription, Integer> cachedDegrees, DetachedRelationshipDescription generalization) {
+        //Find all the candidates to be eliminated by the generalization, only those with the same type and direction can be
         Set<DetachedRelationshipDescription> candidates = new HashSet<>();
-        for (DetachedRelationshipDescription potentialCandidate : cachedDegrees.keySet()) {
+        for (DetachedRelationshipDescription potentialCandidate : node.getCachedDescriptions(generalization.getType().name(), generalization.getDirection())) {
             if (generalization.isMoreGeneralThan(potentialCandidate)) {
                 candidates.add(potentialCandidate);
             }
@@ -104,9 +306,6 @@ public class ThresholdBasedCompactionStrategy implements CompactionStrategy {
         }
 
         node.incrementDegree(generalization, candidateCachedCount, true);
-
-        //enough? => return, otherwise try again
-        return cachedDegrees.size() <= compactionThreshold || performCompaction(node);
     }
 
     /**
@@ -120,7 +319,9 @@ public class ThresholdBasedCompactionStrategy implements CompactionStrategy {
         ThresholdBasedCompactionStrategy that = (ThresholdBasedCompactionStrategy) o;
 
         if (compactionThreshold != that.compactionThreshold) return false;
+        if (hardThreshold != that.hardThreshold) return false;
         if (!generalizationStrategy.equals(that.generalizationStrategy)) return false;
+        if (!new HashSet<>(budgets).equals(new HashSet<>(that.budgets))) return false;
 
         return true;
     }
@@ -131,7 +332,9 @@ public class ThresholdBasedCompactionStrategy implements CompactionStrategy {
     @Override
     public int hashCode() {
         int result = compactionThreshold;
+        result = 31 * result + hardThreshold;
         result = 31 * result + generalizationStrategy.hashCode();
+        result = 31 * result + new HashSet<>(budgets).hashCode();
         return result;
     }
 }
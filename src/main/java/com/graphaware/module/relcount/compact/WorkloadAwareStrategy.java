@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.compact;
+
+import com.graphaware.common.description.relationship.RelationshipDescription;
+
+/**
+ * A {@link CompactionStrategy} or {@link GeneralizationStrategy} that adapts to the workload, i.e. takes into account
+ * which relationships are actually being counted.
+ */
+public interface WorkloadAwareStrategy {
+
+    /**
+     * Record that relationships with the given description are being counted. Called by
+     * {@link com.graphaware.module.relcount.count.CachedRelationshipCounter} for every count, potentially from many
+     * threads concurrently, so implementations must be thread-safe and should be very cheap, e.g. by only sampling
+     * the counted descriptions.
+     *
+     * @param description of the counted relationships.
+     */
+    void recordCount(RelationshipDescription description);
+}
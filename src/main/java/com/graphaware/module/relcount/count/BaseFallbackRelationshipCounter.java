@@ -21,9 +21,15 @@ import org.neo4j.graphdb.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * {@link com.graphaware.module.relcount.count.RelationshipCounter} that counts matching relationships by first trying to use {@link com.graphaware.module.relcount.count.CachedRelationshipCounter}
- * and if that fails (i.e., throws a {@link com.graphaware.module.relcount.count.UnableToCountException}), resorts to {@link LegacyNaiveRelationshipCounter}.
+ * and if that fails (i.e., is unable to count using cached degrees), resorts to {@link LegacyNaiveRelationshipCounter}.
  * It is designed to be used as a "singleton", i.e., do not create a new instance every time you want to count.
  * <p/>
  * It should be used in conjunction with {@link com.graphaware.module.relcount.RelationshipCountModule}
@@ -36,14 +42,25 @@ import org.slf4j.LoggerFactory;
  * been compacted out. There is a performance penalty to this fallback.
  * To avoid it, make sure the compaction threshold is set correctly. No fallback happens when a {@link com.graphaware.common.policy.RelationshipInclusionPolicy} has been used that explicitly excludes
  * the relationships being counted (0 is returned). If you prefer an exception to fallback, use {@link com.graphaware.module.relcount.count.CachedRelationshipCounter}.
+ * <p/>
+ * Fallbacks are logged at most once every {@link #FALLBACK_LOG_INTERVAL_MS} milliseconds per counter (with the number
+ * of fallbacks since the previous message), and at debug level otherwise.
  */
 public abstract class BaseFallbackRelationshipCounter implements RelationshipCounter {
 
     private static final Logger LOG = LoggerFactory.getLogger(BaseFallbackRelationshipCounter.class);
 
+    /**
+     * Minimum interval between two fallback warnings logged by the same counter.
+     */
+    public static final long FALLBACK_LOG_INTERVAL_MS = TimeUnit.SECONDS.toMillis(10);
+
     private final LegacyNaiveRelationshipCounter naiveRelationshipCounter;
     private final CachedRelationshipCounter cachedRelationshipCounter;
 
+    private final AtomicLong lastFallbackWarning = new AtomicLong();
+    private final AtomicInteger unreportedFallbacks = new AtomicInteger();
+
     protected BaseFallbackRelationshipCounter(LegacyNaiveRelationshipCounter naiveRelationshipCounter, CachedRelationshipCounter cachedRelationshipCounter) {
         this.naiveRelationshipCounter = naiveRelationshipCounter;
         this.cachedRelationshipCounter = cachedRelationshipCounter;
@@ -54,12 +71,128 @@ public abstract class BaseFallbackRelationshipCounter implements RelationshipCou
      */
     @Override
     public int count(Node node, RelationshipDescription description) {
-        try {
-            return cachedRelationshipCounter.count(node, description);
-        } catch (UnableToCountException e) {
-            LOG.warn("Unable to count relationships with description: " + description.toString() +
-                    " for node " + node.toString() + ". Falling back to naive approach");
-            return naiveRelationshipCounter.count(node, description);
+        int result = cachedRelationshipCounter.tryCount(node, description);
+
+        if (result != CachedRelationshipCounter.UNCOUNTABLE) {
+            return result;
+        }
+
+        logFallback(1, description, node);
+
+        return naiveRelationshipCounter.count(node, description);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Only the nodes whose relationships can not be counted using cached degrees are counted naively.
+     */
+    @Override
+    public int[] countAll(Iterable<Node> nodes, RelationshipDescription description) {
+        cachedRelationshipCounter.recordCount(description);
+
+        DescriptionMatcher matcher = new DescriptionMatcher(description);
+        Counts result = new Counts(nodes);
+        int fallbacks = 0;
+
+        for (Node node : nodes) {
+            int count = cachedRelationshipCounter.tryCount(node, description, matcher);
+
+            if (count == CachedRelationshipCounter.UNCOUNTABLE) {
+                count = naiveRelationshipCounter.count(node, description);
+                fallbacks++;
+            }
+
+            result.add(count);
+        }
+
+        if (fallbacks > 0) {
+            logFallback(fallbacks, description, null);
+        }
+
+        return result.toArray();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Only relationships with the descriptions that can not be counted using cached degrees are counted naively.
+     */
+    @Override
+    public int[] count(Node node, List<? extends RelationshipDescription> descriptions) {
+        boolean[] uncountable = new boolean[descriptions.size()];
+        int[] result = cachedRelationshipCounter.count(node, descriptions, uncountable);
+
+        List<RelationshipDescription> fallbacks = new ArrayList<>();
+        for (int i = 0; i < uncountable.length; i++) {
+            if (uncountable[i]) {
+                fallbacks.add(descriptions.get(i));
+            }
+        }
+
+        if (fallbacks.isEmpty()) {
+            return result;
+        }
+
+        logFallback(fallbacks.size(), fallbacks, node);
+
+        int[] naiveResult = naiveRelationshipCounter.count(node, fallbacks);
+        for (int i = 0, j = 0; i < uncountable.length; i++) {
+            if (uncountable[i]) {
+                result[i] = naiveResult[j++];
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Log a fallback to the naive approach. A warning is logged at most once every {@link #FALLBACK_LOG_INTERVAL_MS},
+     * also reporting fallbacks that have only been logged at debug level since the previous warning. The message is
+     * only built when it is actually logged.
+     *
+     * @param fallbacks    number of fallbacks.
+     * @param descriptions description, or list of descriptions, of relationships that could not be counted.
+     * @param node         whose relationships could not be counted, null if they were relationships of multiple nodes.
+     */
+    private void logFallback(int fallbacks, Object descriptions, Node node) {
+        int unreported = unreportedFallbacks.addAndGet(fallbacks);
+
+        long now = System.currentTimeMillis();
+        long last = lastFallbackWarning.get();
+
+        if (now - last < FALLBACK_LOG_INTERVAL_MS || !lastFallbackWarning.compareAndSet(last, now)) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(fallbackMessage(fallbacks, descriptions, node));
+            }
+            return;
+        }
+
+        unreportedFallbacks.addAndGet(-unreported);
+
+        String message = fallbackMessage(fallbacks, descriptions, node);
+        if (unreported > fallbacks) {
+            message += " (" + unreported + " fallbacks in total since the last warning)";
+        }
+
+        warn(message);
+    }
+
+    private String fallbackMessage(int fallbacks, Object descriptions, Node node) {
+        if (node == null) {
+            return "Unable to count relationships with description: " + descriptions + " for " + fallbacks + " nodes. Fell back to naive approach for those";
         }
+
+        return "Unable to count relationships with " + (descriptions instanceof List ? "descriptions: " : "description: ") + descriptions
+                + " for node " + node + ". Falling back to naive approach";
+    }
+
+    /**
+     * Log a warning about fallbacks to the naive approach.
+     *
+     * @param message describing the fallbacks.
+     */
+    void warn(String message) {
+        LOG.warn(message);
     }
 }
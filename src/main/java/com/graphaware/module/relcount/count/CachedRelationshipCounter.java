@@ -20,13 +20,23 @@ import com.graphaware.common.description.relationship.DetachedRelationshipDescri
 import com.graphaware.common.description.relationship.RelationshipDescription;
 import com.graphaware.module.relcount.RelationshipCountConfiguration;
 import com.graphaware.module.relcount.RelationshipCountModule;
-import com.graphaware.module.relcount.cache.DegreeCachingNode;
-import com.graphaware.runtime.config.RuntimeConfiguration;
+import com.graphaware.module.relcount.cache.CachedDegrees;
+import com.graphaware.module.relcount.cache.DecodedDegreeCache;
+import com.graphaware.module.relcount.cache.DegreeCachingStrategy;
+import com.graphaware.module.relcount.cache.PartialDegreeCachingStrategy;
+import com.graphaware.module.relcount.compact.CompactionStrategy;
+import com.graphaware.module.relcount.compact.WorkloadAwareStrategy;
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+
+import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 import static com.graphaware.module.relcount.RelationshipCountModule.FULL_RELCOUNT_DEFAULT_ID;
 import static com.graphaware.runtime.RuntimeRegistry.getStartedRuntime;
+import static org.neo4j.graphdb.Direction.BOTH;
 
 /**
  * {@link RelationshipCounter} that counts matching relationships by looking them up cached in {@link org.neo4j.graphdb.Node}'s properties.
@@ -38,15 +48,26 @@ import static com.graphaware.runtime.RuntimeRegistry.getStartedRuntime;
  * This counter throws {@link UnableToCountException} if it detects it can not
  * reliably answer the question. This means compaction has taken place and this counter can't serve a request for
  * relationship count this specific. If you still want to count the relationship, either use {@link NaiveRelationshipCounter}
- * or consider increasing the compaction threshold.
+ * or consider increasing the compaction threshold. Callers that can deal with such situations themselves should use
+ * {@link #tryCount(Node, RelationshipDescription)}, which returns {@link #UNCOUNTABLE} instead of throwing.
+ * <p/>
+ * Counted relationship descriptions are reported to the configured compaction strategy if it is a
+ * {@link WorkloadAwareStrategy}, so that it can preserve the granularity the counts need.
  *
  * @see com.graphaware.module.relcount.compact.CompactionStrategy
  */
 public class CachedRelationshipCounter implements RelationshipCounter {
 
-    private final String id;
-    private final RuntimeConfiguration config;
+    /**
+     * Result of {@link #tryCount(Node, RelationshipDescription)} indicating relationships can not be counted using
+     * cached degrees.
+     */
+    public static final int UNCOUNTABLE = -1;
+
+    private final RelationshipCountModule module;
     private final RelationshipCountConfiguration relationshipCountConfiguration;
+    private final DecodedDegreeCache decodedDegreeCache;
+    private final WorkloadAwareStrategy workloadAwareStrategy;
 
     /**
      * Construct a new relationship counter. Use this constructor when {@link com.graphaware.runtime.GraphAwareRuntime}
@@ -68,9 +89,12 @@ public class CachedRelationshipCounter implements RelationshipCounter {
      * @param id       of the {@link com.graphaware.module.relcount.RelationshipCountModule} used to cache relationship counts.
      */
     public CachedRelationshipCounter(GraphDatabaseService database, String id) {
-        this.id = id;
-        this.config = getStartedRuntime(database).getConfiguration();
-        this.relationshipCountConfiguration = getStartedRuntime(database).getModule(id, RelationshipCountModule.class).getConfiguration();
+        this.module = getStartedRuntime(database).getModule(id, RelationshipCountModule.class);
+        this.relationshipCountConfiguration = module.getConfiguration();
+        this.decodedDegreeCache = module.getDecodedDegreeCache();
+
+        CompactionStrategy compactionStrategy = relationshipCountConfiguration.getCompactionStrategy();
+        this.workloadAwareStrategy = compactionStrategy instanceof WorkloadAwareStrategy ? (WorkloadAwareStrategy) compactionStrategy : null;
     }
 
     /**
@@ -78,27 +102,240 @@ public class CachedRelationshipCounter implements RelationshipCounter {
      */
     @Override
     public int count(Node node, RelationshipDescription description) {
+        int result = tryCount(node, description);
+
+        if (result == UNCOUNTABLE) {
+            throw unableToCount(description);
+        }
+
+        return result;
+    }
+
+    /**
+     * Count relationships with the given description at the given node, without throwing an exception if they can not
+     * be counted using cached degrees.
+     *
+     * @param node        on which to count relationships.
+     * @param description of the relationships to count.
+     * @return number of relationships, or {@link #UNCOUNTABLE} in case they can not be counted using cached degrees.
+     */
+    public int tryCount(Node node, RelationshipDescription description) {
+        recordCount(description);
+        return tryCount(node, description, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] countAll(Iterable<Node> nodes, RelationshipDescription description) {
+        recordCount(description);
+
+        DescriptionMatcher matcher = new DescriptionMatcher(description);
+        Counts result = new Counts(nodes);
+
+        for (Node node : nodes) {
+            int count = tryCount(node, description, matcher);
+
+            if (count == UNCOUNTABLE) {
+                throw unableToCount(description);
+            }
+
+            result.add(count);
+        }
+
+        return result.toArray();
+    }
+
+    /**
+     * Count relationships with the given description at the given node.
+     *
+     * @param node        on which to count relationships.
+     * @param description of the relationships to count.
+     * @param matcher     for the description, remembering outcomes of previous matches. Null for no remembering.
+     * @return number of relationships, or {@link #UNCOUNTABLE} in case they can not be counted using cached degrees.
+     */
+    int tryCount(Node node, RelationshipDescription description, DescriptionMatcher matcher) {
         int result = 0;
 
-        DegreeCachingNode cachingNode = new DegreeCachingNode(node, config.createPrefix(id), relationshipCountConfiguration);
+        CachedDegrees cachedDegrees = readCachedDegrees(node, description.getType(), description.getDirection());
 
-        for (DetachedRelationshipDescription candidate : cachingNode.getCachedDegrees().keySet()) {
+        for (int i = 0; i < cachedDegrees.size(); i++) {
+            DetachedRelationshipDescription candidate = cachedDegrees.getDescription(i);
 
-            boolean matches = candidate.isMoreSpecificThan(description);
+            int outcome = matcher == null ? DescriptionMatcher.doMatch(description, candidate) : matcher.match(candidate);
 
-            if (!matches && !candidate.isMutuallyExclusive(description)) {
-                throw new UnableToCountException("Unable to count relationships with the following description: "
-                        + description.toString()
-                        + " Since there are potentially compacted out cached matches," +
-                        " it looks like compaction has taken away the granularity you need. Please try to count this kind " +
-                        "of relationship with a naive counter. Alternatively, increase the compaction threshold.");
+            if (outcome == DescriptionMatcher.UNKNOWN) {
+                return UNCOUNTABLE;
             }
 
-            if (matches) {
-                result += cachingNode.getCachedDegrees().get(candidate);
+            if (outcome == DescriptionMatcher.MATCH) {
+                result += cachedDegrees.getDegree(i);
             }
         }
 
         return result;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] count(Node node, List<? extends RelationshipDescription> descriptions) {
+        return count(node, descriptions, null);
+    }
+
+    /**
+     * Let the compaction strategy know relationships with the given description are being counted, if it cares.
+     *
+     * @param description of the counted relationships.
+     */
+    void recordCount(RelationshipDescription description) {
+        if (workloadAwareStrategy != null) {
+            workloadAwareStrategy.recordCount(description);
+        }
+    }
+
+    /**
+     * Count relationships with each of the given descriptions at the given node, reading the node's cached degrees
+     * only once.
+     *
+     * @param node         on which to count relationships.
+     * @param descriptions of the relationships to count.
+     * @param uncountable  flags, index-aligned with descriptions, that are set to true for descriptions which can
+     *                     not be counted using cached degrees. Their counts in the result are meaningless. Null if an
+     *                     exception should be thrown instead.
+     * @return number of relationships for each description.
+     * @throws UnableToCountException in case relationships with one of the descriptions can not be counted using
+     *                                cached degrees and no uncountable flags have been provided.
+     */
+    int[] count(Node node, List<? extends RelationshipDescription> descriptions, boolean[] uncountable) {
+        int[] result = new int[descriptions.size()];
+
+        for (RelationshipDescription description : descriptions) {
+            recordCount(description);
+        }
+
+        if (descriptions.isEmpty()) {
+            return result;
+        }
+
+        RelationshipType type = descriptions.get(0).getType();
+        Direction direction = descriptions.get(0).getDirection();
+        for (RelationshipDescription description : descriptions) {
+            if (type != null && !type.name().equals(description.getType().name())) {
+                type = null;
+            }
+            if (!direction.equals(description.getDirection())) {
+                direction = BOTH;
+            }
+        }
+
+        CachedDegrees cachedDegrees = readCachedDegrees(node, type, direction);
+
+        for (int i = 0; i < cachedDegrees.size(); i++) {
+            DetachedRelationshipDescription candidate = cachedDegrees.getDescription(i);
+
+            for (int j = 0; j < result.length; j++) {
+                if (uncountable != null && uncountable[j]) {
+                    continue;
+                }
+
+                int outcome = DescriptionMatcher.doMatch(descriptions.get(j), candidate);
+
+                if (outcome == DescriptionMatcher.UNKNOWN) {
+                    if (uncountable == null) {
+                        throw unableToCount(descriptions.get(j));
+                    }
+                    uncountable[j] = true;
+                }
+
+                if (outcome == DescriptionMatcher.MATCH) {
+                    result[j] += cachedDegrees.getDegree(i);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private UnableToCountException unableToCount(RelationshipDescription description) {
+        return new UnableToCountException("Unable to count relationships with the following description: "
+                + description.toString()
+                + " Since there are potentially compacted out cached matches," +
+                " it looks like compaction has taken away the granularity you need. Please try to count this kind " +
+                "of relationship with a naive counter. Alternatively, increase the compaction threshold.");
+    }
+
+    /**
+     * Read cached degrees of a node, including committed degree changes that have not been applied to them yet by
+     * the module's background writer. Both are read under the module's {@link RelationshipCountModule#getPendingDegreeDeltasLock()},
+     * so that changes being applied at the same time are not counted twice.
+     *
+     * @param node      to read cached degrees for.
+     * @param type      of the relationships being counted, null for all types.
+     * @param direction of the relationships being counted.
+     * @return cached degrees, at least those with respect to the type and direction.
+     */
+    private CachedDegrees readCachedDegrees(Node node, RelationshipType type, Direction direction) {
+        Lock lock = module.getPendingDegreeDeltasLock();
+
+        lock.lock();
+        try {
+            return module.getPendingDegreeDeltas().applyTo(node.getId(), readPersistedDegrees(node, type, direction));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Read cached degrees of a node, preferably from the shared {@link DecodedDegreeCache}. On a cache miss, all
+     * cached degrees of the node are read, so that the cached entry can serve queries for any relationship type.
+     * Nodes whose cached degrees turn out to be too large for the cache only have the part with respect to the type
+     * and direction read from then on, until they are invalidated.
+     *
+     * @param node      to read cached degrees for.
+     * @param type      of the relationships being counted, null for all types.
+     * @param direction of the relationships being counted.
+     * @return cached degrees, at least those with respect to the type and direction.
+     */
+    private CachedDegrees readPersistedDegrees(Node node, RelationshipType type, Direction direction) {
+        if (!decodedDegreeCache.isEnabled()) {
+            return decodeCachedDegrees(node, module.getActivePrefix(node.getGraphDatabase()), type, direction);
+        }
+
+        long stamp = decodedDegreeCache.stamp(node.getId());
+
+        CachedDegrees result = decodedDegreeCache.get(node.getId());
+
+        //the active prefix must be read after the stamp, switching it invalidates all stamps
+        if (result == DecodedDegreeCache.TOO_LARGE) {
+            result = decodeCachedDegrees(node, module.getActivePrefix(node.getGraphDatabase()), type, direction);
+        } else if (result == null) {
+            result = decodeCachedDegrees(node, module.getActivePrefix(node.getGraphDatabase()), null, BOTH);
+            decodedDegreeCache.put(node.getId(), result, stamp);
+        }
+
+        return result;
+    }
+
+    /**
+     * Read cached degrees of a node from the database, only those with respect to the type and direction if the
+     * configured strategy is a {@link PartialDegreeCachingStrategy}.
+     *
+     * @param node      to read cached degrees for.
+     * @param prefix    of the cached degrees.
+     * @param type      of the relationships being counted, null for all types.
+     * @param direction of the relationships being counted.
+     * @return cached degrees, at least those with respect to the type and direction.
+     */
+    private CachedDegrees decodeCachedDegrees(Node node, String prefix, RelationshipType type, Direction direction) {
+        DegreeCachingStrategy degreeCachingStrategy = relationshipCountConfiguration.getDegreeCachingStrategy();
+
+        if (degreeCachingStrategy instanceof PartialDegreeCachingStrategy) {
+            return ((PartialDegreeCachingStrategy) degreeCachingStrategy).readCachedDegrees(node, prefix, type, direction);
+        }
+
+        return CachedDegrees.of(degreeCachingStrategy.readDegrees(node, prefix));
+    }
 }
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.count;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Growable array of counts, one for each node counted by a bulk counting call.
+ */
+final class Counts {
+
+    private int[] counts;
+    private int size = 0;
+
+    /**
+     * Construct new counts.
+     *
+     * @param nodes that will be counted. Only used to guess the number of counts.
+     */
+    Counts(Iterable<?> nodes) {
+        counts = new int[nodes instanceof Collection ? ((Collection<?>) nodes).size() : 16];
+    }
+
+    /**
+     * Add a count.
+     *
+     * @param count to add.
+     */
+    void add(int count) {
+        if (size == counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(16, size * 2));
+        }
+        counts[size++] = count;
+    }
+
+    /**
+     * @return all added counts, in the order they have been added.
+     */
+    int[] toArray() {
+        return size == counts.length ? counts : Arrays.copyOf(counts, size);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.count;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.common.description.relationship.RelationshipDescription;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link RelationshipDescription} of relationships being counted, prepared for matching against many cached
+ * degrees' descriptions. Different nodes tend to have a lot of the same cached descriptions, so the outcome of
+ * matching each distinct cached description is remembered.
+ * <p/>
+ * Not thread-safe, intended to be used for the duration of a single bulk counting call.
+ */
+class DescriptionMatcher {
+
+    /**
+     * The cached description is more specific than the one being counted, i.e. its degree counts.
+     */
+    static final int MATCH = 0;
+
+    /**
+     * The cached description is mutually exclusive with the one being counted, i.e. its degree does not count.
+     */
+    static final int NO_MATCH = 1;
+
+    /**
+     * Neither of the above, i.e. the cached degree might partially count, but it is impossible to tell how much.
+     */
+    static final int UNKNOWN = 2;
+
+    private final RelationshipDescription description;
+    private final Map<DetachedRelationshipDescription, Integer> outcomes = new HashMap<>();
+
+    /**
+     * Construct a new matcher.
+     *
+     * @param description of the relationships being counted.
+     */
+    DescriptionMatcher(RelationshipDescription description) {
+        this.description = description;
+    }
+
+    /**
+     * @return description of the relationships being counted.
+     */
+    RelationshipDescription getDescription() {
+        return description;
+    }
+
+    /**
+     * Match a cached description against the description of the relationships being counted.
+     *
+     * @param candidate cached description.
+     * @return {@link #MATCH}, {@link #NO_MATCH}, or {@link #UNKNOWN}.
+     */
+    int match(DetachedRelationshipDescription candidate) {
+        Integer outcome = outcomes.get(candidate);
+
+        if (outcome == null) {
+            outcome = doMatch(description, candidate);
+            outcomes.put(candidate, outcome);
+        }
+
+        return outcome;
+    }
+
+    /**
+     * Match a cached description against a description of the relationships being counted, without remembering the outcome.
+     *
+     * @param description of the relationships being counted.
+     * @param candidate   cached description.
+     * @return {@link #MATCH}, {@link #NO_MATCH}, or {@link #UNKNOWN}.
+     */
+    static int doMatch(RelationshipDescription description, DetachedRelationshipDescription candidate) {
+        if (candidate.isMoreSpecificThan(description)) {
+            return MATCH;
+        }
+
+        if (candidate.isMutuallyExclusive(description)) {
+            return NO_MATCH;
+        }
+
+        return UNKNOWN;
+    }
+}
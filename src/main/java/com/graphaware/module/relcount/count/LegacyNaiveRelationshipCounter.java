@@ -22,12 +22,18 @@ import com.graphaware.common.description.relationship.RelationshipDescription;
 import com.graphaware.module.relcount.RelationshipCountConfiguration;
 import com.graphaware.module.relcount.RelationshipCountConfigurationImpl;
 import com.graphaware.module.relcount.RelationshipCountModule;
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import static com.graphaware.runtime.RuntimeRegistry.getStartedRuntime;
-import static org.neo4j.graphdb.Direction.BOTH;
+import static org.neo4j.graphdb.Direction.*;
 
 /**
  * A naive {@link RelationshipCounter} that counts matching relationships by inspecting all {@link org.neo4j.graphdb.Node}'s
@@ -80,6 +86,31 @@ public class LegacyNaiveRelationshipCounter implements RelationshipCounter {
      */
     @Override
     public int count(Node node, RelationshipDescription description) {
+        return countByInspection(node, description);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] countAll(Iterable<Node> nodes, RelationshipDescription description) {
+        Counts result = new Counts(nodes);
+
+        for (Node node : nodes) {
+            result.add(countByInspection(node, description));
+        }
+
+        return result.toArray();
+    }
+
+    /**
+     * Count relationships with the given description at the given node by inspecting all of the node's relationships.
+     *
+     * @param node        on which to count relationships.
+     * @param description of the relationships to count.
+     * @return number of relationships.
+     */
+    protected final int countByInspection(Node node, RelationshipDescription description) {
         int result = 0;
 
         for (Relationship candidateRelationship : node.getRelationships(description.getDirection(), description.getType())) {
@@ -98,4 +129,70 @@ public class LegacyNaiveRelationshipCounter implements RelationshipCounter {
 
         return result;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] count(Node node, List<? extends RelationshipDescription> descriptions) {
+        return countByInspection(node, descriptions);
+    }
+
+    /**
+     * Count relationships with each of the given descriptions at the given node by inspecting the node's relationships
+     * of the types of interest, each of them only once.
+     *
+     * @param node         on which to count relationships.
+     * @param descriptions of the relationships to count.
+     * @return number of relationships for each description.
+     */
+    protected final int[] countByInspection(Node node, List<? extends RelationshipDescription> descriptions) {
+        int[] result = new int[descriptions.size()];
+
+        if (descriptions.isEmpty()) {
+            return result;
+        }
+
+        Map<String, RelationshipType> types = new LinkedHashMap<>();
+        for (RelationshipDescription description : descriptions) {
+            types.put(description.getType().name(), description.getType());
+        }
+
+        for (Relationship candidateRelationship : node.getRelationships(BOTH, types.values().toArray(new RelationshipType[types.size()]))) {
+            boolean loop = candidateRelationship.getStartNode().getId() == candidateRelationship.getEndNode().getId();
+            Direction candidateDirection = candidateRelationship.getStartNode().getId() == node.getId() ? OUTGOING : INCOMING;
+            String candidateType = candidateRelationship.getType().name();
+
+            PropertiesDescription candidate = null;
+            int relationshipWeight = 0;
+
+            for (int i = 0; i < result.length; i++) {
+                RelationshipDescription description = descriptions.get(i);
+
+                if (!candidateType.equals(description.getType().name())) {
+                    continue;
+                }
+
+                if (!loop && !BOTH.equals(description.getDirection()) && !candidateDirection.equals(description.getDirection())) {
+                    continue;
+                }
+
+                if (candidate == null) {
+                    candidate = new LazyPropertiesDescription(candidateRelationship);
+                    relationshipWeight = relationshipCountConfiguration.getWeighingStrategy().getRelationshipWeight(candidateRelationship, node);
+                }
+
+                if (candidate.isMoreSpecificThan(description.getPropertiesDescription())) {
+                    result[i] = result[i] + relationshipWeight;
+
+                    //double count loops if looking for BOTH
+                    if (BOTH.equals(description.getDirection()) && loop) {
+                        result[i] = result[i] + relationshipWeight;
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
 }
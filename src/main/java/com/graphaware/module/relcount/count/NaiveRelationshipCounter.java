@@ -23,6 +23,9 @@ import com.graphaware.runtime.config.RuntimeConfiguration;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static com.graphaware.common.description.predicate.Predicates.any;
 import static org.neo4j.graphdb.Direction.*;
 
@@ -77,16 +80,73 @@ public class NaiveRelationshipCounter extends LegacyNaiveRelationshipCounter {
     @Override
     public int count(Node node, RelationshipDescription description) {
         //performance optimization since 2.1
-        if (doesNotCareAboutProperties(description) && OneForEach.getInstance().equals(relationshipCountConfiguration.getWeighingStrategy())) {
-            if (BOTH.equals(description.getDirection())) {
-                //Neo4j only counts loop as 1
-                return node.getDegree(description.getType(), OUTGOING) + node.getDegree(description.getType(), INCOMING);
+        if (canUseDegrees(description)) {
+            return countUsingDegrees(node, description);
+        }
+
+        return countByInspection(node, description);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] countAll(Iterable<Node> nodes, RelationshipDescription description) {
+        if (!canUseDegrees(description)) {
+            return super.countAll(nodes, description);
+        }
+
+        Counts result = new Counts(nodes);
+
+        for (Node node : nodes) {
+            result.add(countUsingDegrees(node, description));
+        }
+
+        return result.toArray();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] count(Node node, List<? extends RelationshipDescription> descriptions) {
+        int[] result = new int[descriptions.size()];
+
+        List<RelationshipDescription> toInspect = new ArrayList<>();
+        int[] inspectedIndexes = new int[descriptions.size()];
+
+        for (int i = 0; i < descriptions.size(); i++) {
+            RelationshipDescription description = descriptions.get(i);
+
+            if (canUseDegrees(description)) {
+                result[i] = countUsingDegrees(node, description);
+            } else {
+                inspectedIndexes[toInspect.size()] = i;
+                toInspect.add(description);
             }
+        }
+
+        if (!toInspect.isEmpty()) {
+            int[] inspected = countByInspection(node, toInspect);
+            for (int i = 0; i < inspected.length; i++) {
+                result[inspectedIndexes[i]] = inspected[i];
+            }
+        }
+
+        return result;
+    }
+
+    private boolean canUseDegrees(RelationshipDescription description) {
+        return doesNotCareAboutProperties(description) && OneForEach.getInstance().equals(relationshipCountConfiguration.getWeighingStrategy());
+    }
 
-            return node.getDegree(description.getType(), description.getDirection());
+    private int countUsingDegrees(Node node, RelationshipDescription description) {
+        if (BOTH.equals(description.getDirection())) {
+            //Neo4j only counts loop as 1
+            return node.getDegree(description.getType(), OUTGOING) + node.getDegree(description.getType(), INCOMING);
         }
 
-        return super.count(node, description);
+        return node.getDegree(description.getType(), description.getDirection());
     }
 
     private boolean doesNotCareAboutProperties(RelationshipDescription description) {
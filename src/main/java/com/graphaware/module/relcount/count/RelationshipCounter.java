@@ -19,6 +19,8 @@ package com.graphaware.module.relcount.count;
 import com.graphaware.common.description.relationship.RelationshipDescription;
 import org.neo4j.graphdb.Node;
 
+import java.util.List;
+
 /**
  * A node in/out-degree counter.
  */
@@ -35,4 +37,30 @@ public interface RelationshipCounter {
      *                                values are not present (e.g. have been compacted-out).
      */
     int count(Node node, RelationshipDescription description);
+
+    /**
+     * Count relationships with the given description at each of the given nodes. The result is the same as calling
+     * {@link #count(org.neo4j.graphdb.Node, com.graphaware.common.description.relationship.RelationshipDescription)}
+     * for each node, but implementations share as much work as possible between the nodes.
+     *
+     * @param nodes       on which to count relationships.
+     * @param description of the relationships to count.
+     * @return number of relationships for each node, in the iteration order of the nodes.
+     * @throws UnableToCountException indicating that for some reason, relationships could not be counted for at least
+     *                                one of the nodes.
+     */
+    int[] countAll(Iterable<Node> nodes, RelationshipDescription description);
+
+    /**
+     * Count relationships with each of the given descriptions at the given node. The result is the same as calling
+     * {@link #count(org.neo4j.graphdb.Node, com.graphaware.common.description.relationship.RelationshipDescription)}
+     * for each description, but implementations only read the node's cached degrees or relationships once.
+     *
+     * @param node         on which to count relationships.
+     * @param descriptions of the relationships to count.
+     * @return number of relationships for each description, in the order of the descriptions.
+     * @throws UnableToCountException indicating that for some reason, relationships with at least one of the
+     *                                descriptions could not be counted.
+     */
+    int[] count(Node node, List<? extends RelationshipDescription> descriptions);
 }
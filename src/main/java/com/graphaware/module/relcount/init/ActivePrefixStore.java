@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.init;
+
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Persistent record of the prefix under which the currently used cached counts of a module are stored. Cached counts
+ * rebuilt under a shadow prefix in the background become the ones being used by atomically switching the active prefix.
+ * <p/>
+ * The record is a single node labelled with the module's base prefix followed by "ACTIVE_PREFIX". When there is no
+ * such node, the base prefix is active.
+ */
+public class ActivePrefixStore {
+
+    private static final String ACTIVE_PREFIX = "activePrefix";
+
+    private final GraphDatabaseService database;
+    private final String basePrefix;
+    private final Label label;
+
+    /**
+     * Construct a new store.
+     *
+     * @param database   to store the active prefix in.
+     * @param basePrefix prefix of the metadata written by the module, used when no other prefix has been made active.
+     */
+    public ActivePrefixStore(GraphDatabaseService database, String basePrefix) {
+        this.database = database;
+        this.basePrefix = basePrefix;
+        this.label = DynamicLabel.label(basePrefix + "ACTIVE_PREFIX");
+    }
+
+    /**
+     * @return the active prefix.
+     */
+    public String load() {
+        try (Transaction tx = database.beginTx()) {
+            Node node = stateNode();
+            String result = node == null ? basePrefix : (String) node.getProperty(ACTIVE_PREFIX);
+            tx.success();
+            return result;
+        }
+    }
+
+    /**
+     * Make a prefix active.
+     *
+     * @param activePrefix the new active prefix.
+     */
+    public void save(String activePrefix) {
+        try (Transaction tx = database.beginTx()) {
+            Node node = stateNode();
+            if (node == null) {
+                node = database.createNode(label);
+            }
+            node.setProperty(ACTIVE_PREFIX, activePrefix);
+            tx.success();
+        }
+    }
+
+    private Node stateNode() {
+        try (ResourceIterator<Node> nodes = database.findNodes(label)) {
+            return nodes.hasNext() ? nodes.next() : null;
+        }
+    }
+}
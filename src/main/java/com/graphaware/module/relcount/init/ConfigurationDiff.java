@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.init;
+
+import com.graphaware.common.description.property.LiteralPropertiesDescription;
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.common.description.relationship.DetachedRelationshipDescriptionImpl;
+import com.graphaware.common.policy.InclusionPolicies;
+import com.graphaware.common.policy.RelationshipPropertyInclusionPolicy;
+import com.graphaware.module.relcount.RelationshipCountConfiguration;
+import com.graphaware.module.relcount.view.CountViews;
+import com.graphaware.runtime.config.TxDrivenModuleConfiguration;
+import com.graphaware.tx.event.improved.propertycontainer.filtered.FilteredNode;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static com.graphaware.common.util.DirectionUtils.resolveDirection;
+
+/**
+ * Difference between the configuration cached counts have been built with and the current one. When the two only differ
+ * in which relationships and relationship properties are included, cached counts only need updating for relationship types
+ * whose relationships are seen differently by the two configurations, rather than being re-built for the entire graph.
+ * <p/>
+ * Inclusion policies are opaque, so the affected types can only be found out node by node, see {@link #getAffectedTypes(Node)}.
+ * That is a read-only check, though, so nodes whose cached counts are not affected are never written to.
+ */
+public class ConfigurationDiff {
+
+    private final TxDrivenModuleConfiguration previous;
+    private final RelationshipCountConfiguration current;
+
+    /**
+     * Construct a new diff.
+     *
+     * @param previous configuration the cached counts have been built with.
+     * @param current  configuration of the module.
+     */
+    public ConfigurationDiff(TxDrivenModuleConfiguration previous, RelationshipCountConfiguration current) {
+        this.previous = previous;
+        this.current = current;
+    }
+
+    /**
+     * Find out whether the configurations only differ in relationship and relationship property inclusion policies.
+     * Identical configurations do not count, cached counts being re-initialized with an unchanged configuration
+     * can not be trusted, so they must be re-built rather than updated.
+     * <p/>
+     * Relationship (property) inclusion policies that do not override {@link Object#equals(Object)}, such as anonymous
+     * classes, never equal the ones the previous configuration has been deserialized with, even if unchanged. Updating
+     * would then visit every node just to find nothing has changed, so such policies are not considered confined and
+     * cached counts are re-built instead.
+     *
+     * @return true iff cached counts can be updated for affected relationship types only.
+     */
+    public boolean isConfinedToRelationshipPolicies() {
+        if (!(previous instanceof RelationshipCountConfiguration)) {
+            return false;
+        }
+
+        RelationshipCountConfiguration previous = (RelationshipCountConfiguration) this.previous;
+
+        InclusionPolicies previousPolicies = previous.getInclusionPolicies();
+        InclusionPolicies currentPolicies = current.getInclusionPolicies();
+
+        return previous.getDegreeCachingStrategy().equals(current.getDegreeCachingStrategy())
+                && previous.getCompactionStrategy().equals(current.getCompactionStrategy())
+                && previous.getWeighingStrategy().equals(current.getWeighingStrategy())
+                && previousPolicies.getNodeInclusionPolicy().equals(currentPolicies.getNodeInclusionPolicy())
+                && previousPolicies.getNodePropertyInclusionPolicy().equals(currentPolicies.getNodePropertyInclusionPolicy())
+                && hasValueEquality(currentPolicies.getRelationshipInclusionPolicy())
+                && hasValueEquality(currentPolicies.getRelationshipPropertyInclusionPolicy())
+                && (!previousPolicies.getRelationshipInclusionPolicy().equals(currentPolicies.getRelationshipInclusionPolicy())
+                || !previousPolicies.getRelationshipPropertyInclusionPolicy().equals(currentPolicies.getRelationshipPropertyInclusionPolicy()));
+    }
+
+    private boolean hasValueEquality(Object policy) {
+        try {
+            return policy.getClass().getMethod("equals", Object.class).getDeclaringClass() != Object.class;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Every object has an equals method. This is a bug.", e);
+        }
+    }
+
+    /**
+     * Find relationship types whose cached counts on the given node differ between the two configurations, i.e. the
+     * types of the node's relationships that are cached under different descriptions by the two configurations, or
+     * cached by one configuration and not the other. Relationships are described exactly as they are cached, i.e. per
+     * direction from the node's point of view, and projected onto {@link CountViews} if declared.
+     *
+     * @param node to find affected relationship types of.
+     * @return names of affected relationship types, empty if the node's cached counts need not change.
+     */
+    public Set<String> getAffectedTypes(Node node) {
+        Map<Long, List<DetachedRelationshipDescription>> before = describeRelationships(previous, node);
+        Map<Long, List<DetachedRelationshipDescription>> after = describeRelationships(current, node);
+
+        Set<String> result = new HashSet<>();
+
+        for (Relationship relationship : node.getRelationships()) {
+            if (!Objects.equals(before.get(relationship.getId()), after.get(relationship.getId()))) {
+                result.add(relationship.getType().name());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Describe relationships of a node the way they are cached under a configuration, see
+     * {@link com.graphaware.module.relcount.cache.NodeBasedDegreeCache}.
+     *
+     * @param configuration to describe relationships under.
+     * @param node          whose relationships to describe.
+     * @return descriptions keyed by relationship ID, two for self-relationships, which are cached as both outgoing and
+     *         incoming. Relationships not cached under the configuration are missing.
+     */
+    private Map<Long, List<DetachedRelationshipDescription>> describeRelationships(TxDrivenModuleConfiguration configuration, Node node) {
+        Map<Long, List<DetachedRelationshipDescription>> result = new HashMap<>();
+
+        Node filteredNode = new FilteredNode(node, configuration.getInclusionPolicies());
+
+        for (Relationship relationship : filteredNode.getRelationships()) {
+            List<DetachedRelationshipDescription> descriptions = new ArrayList<>();
+            descriptions.add(describe(configuration, relationship, filteredNode, Direction.OUTGOING));
+
+            if (relationship.getStartNode().getId() == relationship.getEndNode().getId()) {
+                descriptions.add(describe(configuration, relationship, filteredNode, Direction.INCOMING));
+            }
+
+            result.put(relationship.getId(), descriptions);
+        }
+
+        return result;
+    }
+
+    private DetachedRelationshipDescription describe(TxDrivenModuleConfiguration configuration, Relationship relationship, Node pointOfView, Direction defaultDirection) {
+        DetachedRelationshipDescription description = new DetachedRelationshipDescriptionImpl(
+                relationship.getType(),
+                resolveDirection(relationship, pointOfView, defaultDirection),
+                new LiteralPropertiesDescription(relationship));
+
+        RelationshipPropertyInclusionPolicy policy = configuration.getInclusionPolicies().getRelationshipPropertyInclusionPolicy();
+
+        return policy instanceof CountViews ? ((CountViews) policy).project(description) : description;
+    }
+}
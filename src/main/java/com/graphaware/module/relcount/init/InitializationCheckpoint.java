@@ -0,0 +1,414 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.init;
+
+import com.graphaware.common.serialize.Serializer;
+import com.graphaware.runtime.config.TxDrivenModuleConfiguration;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.core.NodeManager;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Progress of a (re-)initialization of a module that visits all nodes using a {@link PartitionedNodeProcessor},
+ * persisted in the database, so that an initialization interrupted by a crash or a restart can be resumed rather
+ * than started from scratch.
+ * <p/>
+ * The checkpoint is stored in graph properties rather than in nodes, so that it is neither processed by the
+ * initialization itself, nor visible to queries. It consists of the module configuration the initialization has been
+ * started with, the prefix of the cached counts being (re-)built, its current {@link Phase}, and, for every planned
+ * {@link NodeIdRange}, the ID of the next node to process in the range, held in arrays under a fixed set of keys.
+ * <p/>
+ * Progress is tracked in memory as batches of nodes are processed, but only {@link #saveProgress(NodeIdRange) saved}
+ * every now and then, in the same transaction as a processed batch, because saving locks the graph properties shared
+ * by all ranges until the transaction has committed. The progress saved therefore lags behind the progress committed,
+ * and a resumed initialization processes some nodes again, which the {@link com.graphaware.tx.executor.batch.UnitOfWork}
+ * must tolerate.
+ * <p/>
+ * The runtime's module metadata is only written once (re-)initialization has finished, which is why the checkpoint
+ * is kept separately. It must be {@link #delete()}d once the initialization has finished.
+ */
+public class InitializationCheckpoint {
+
+    /**
+     * Phase of the initialization.
+     */
+    public enum Phase {
+        CLEARING,
+        BUILDING,
+        CLEANING_UP,
+        UPDATING
+    }
+
+    private static final String CHECKPOINT = "INITIALIZATION_CHECKPOINT_";
+
+    private static final String CONFIGURATION = "configuration";
+    private static final String PHASE = "phase";
+    private static final String TARGET_PREFIX = "targetPrefix";
+    private static final String SHADOW = "shadow";
+    private static final String PLANNED_UP_TO = "plannedUpTo";
+    private static final String TO = "to";
+    private static final String NEXT = "next";
+
+    private final GraphDatabaseService database;
+    private final String prefix;
+
+    //indexes of ranges in the stored arrays, keyed by the (exclusive) end of the range, which is unique
+    private final NavigableMap<Long, Integer> rangeIndexes = new ConcurrentSkipListMap<>();
+
+    //ID of the next node to process in each range, keyed by range index, ahead of the saved one
+    private final ConcurrentMap<Integer, Long> progress = new ConcurrentHashMap<>();
+
+    //last known state, so that it can be queried concurrently with processing without hitting the database
+    private volatile Phase phase;
+    private volatile long plannedUpTo;
+
+    /**
+     * Construct a new checkpoint.
+     *
+     * @param database in which the checkpoint is stored.
+     * @param prefix   of the module the checkpoint belongs to.
+     */
+    public InitializationCheckpoint(GraphDatabaseService database, String prefix) {
+        this.database = database;
+        this.prefix = prefix;
+    }
+
+    /**
+     * @return true iff there is a checkpoint of an unfinished initialization in the database.
+     */
+    public boolean exists() {
+        try (Transaction tx = database.beginTx()) {
+            boolean result = graphProperties().hasProperty(key(CONFIGURATION));
+            tx.success();
+            return result;
+        }
+    }
+
+    /**
+     * Find out whether the unfinished initialization can be resumed with the given configuration, i.e. whether it
+     * has been started with an equal configuration.
+     *
+     * @param configuration of the module.
+     * @return true iff there is a checkpoint to resume from.
+     */
+    public boolean isResumableFor(TxDrivenModuleConfiguration configuration) {
+        try (Transaction tx = database.beginTx()) {
+            String stored = (String) graphProperties().getProperty(key(CONFIGURATION), null);
+            boolean result = stored != null
+                    && configuration.equals(Serializer.<TxDrivenModuleConfiguration>fromString(stored, prefix));
+            tx.success();
+            return result;
+        }
+    }
+
+    /**
+     * Start recording a new initialization, discarding any previous checkpoint.
+     *
+     * @param configuration of the module being initialized.
+     * @param phase         to start with.
+     * @param targetPrefix  prefix of the cached counts being (re-)built.
+     * @param shadow        true iff the counts are being built under a shadow prefix, while the ones under the active
+     *                      prefix keep being used.
+     */
+    public void start(TxDrivenModuleConfiguration configuration, Phase phase, String targetPrefix, boolean shadow) {
+        delete();
+
+        try (Transaction tx = database.beginTx()) {
+            PropertyContainer checkpoint = graphProperties();
+            checkpoint.setProperty(key(CONFIGURATION), Serializer.toString(configuration, prefix));
+            checkpoint.setProperty(key(PHASE), phase.name());
+            checkpoint.setProperty(key(TARGET_PREFIX), targetPrefix);
+            checkpoint.setProperty(key(SHADOW), shadow);
+            tx.success();
+        }
+
+        this.phase = phase;
+    }
+
+    /**
+     * @return current phase of the recorded initialization.
+     * @throws IllegalStateException if there is no checkpoint.
+     */
+    public Phase getPhase() {
+        try (Transaction tx = database.beginTx()) {
+            phase = Phase.valueOf((String) existingProperty(PHASE));
+            tx.success();
+            return phase;
+        }
+    }
+
+    /**
+     * @return prefix of the cached counts being (re-)built.
+     * @throws IllegalStateException if there is no checkpoint.
+     */
+    public String getTargetPrefix() {
+        try (Transaction tx = database.beginTx()) {
+            String result = (String) existingProperty(TARGET_PREFIX);
+            tx.success();
+            return result;
+        }
+    }
+
+    /**
+     * @return true iff counts are being built under a shadow prefix, false if there is no checkpoint.
+     */
+    public boolean isShadow() {
+        try (Transaction tx = database.beginTx()) {
+            boolean result = (boolean) graphProperties().getProperty(key(SHADOW), false);
+            tx.success();
+            return result;
+        }
+    }
+
+    /**
+     * Move the recorded initialization to the next phase, discarding all ranges planned for the previous one.
+     *
+     * @param phase to move to.
+     * @throws IllegalStateException if there is no checkpoint.
+     */
+    public void startPhase(Phase phase) {
+        try (Transaction tx = database.beginTx()) {
+            existingProperty(PHASE);
+
+            PropertyContainer checkpoint = graphProperties();
+            checkpoint.setProperty(key(PHASE), phase.name());
+            removeRanges(checkpoint);
+            tx.success();
+        }
+
+        this.phase = phase;
+        this.plannedUpTo = 0;
+    }
+
+    /**
+     * @return node ID (exclusive) up to which ranges have been planned in the current phase, 0 if none have been planned.
+     * @throws IllegalStateException if there is no checkpoint.
+     */
+    public long getPlannedUpTo() {
+        try (Transaction tx = database.beginTx()) {
+            existingProperty(PHASE);
+            plannedUpTo = (long) graphProperties().getProperty(key(PLANNED_UP_TO), 0L);
+            tx.success();
+            return plannedUpTo;
+        }
+    }
+
+    /**
+     * Record ranges of node IDs planned to be processed in the current phase. They must follow all previously planned ranges.
+     *
+     * @param ranges to record.
+     * @throws IllegalStateException if there is no checkpoint.
+     */
+    public void planRanges(List<NodeIdRange> ranges) {
+        if (ranges.isEmpty()) {
+            return;
+        }
+
+        try (Transaction tx = database.beginTx()) {
+            existingProperty(PHASE);
+
+            PropertyContainer checkpoint = graphProperties();
+            tx.acquireWriteLock(checkpoint);
+
+            long[] to = longs(checkpoint, TO);
+            long[] next = longs(checkpoint, NEXT);
+            int planned = to.length;
+
+            to = Arrays.copyOf(to, planned + ranges.size());
+            next = Arrays.copyOf(next, planned + ranges.size());
+
+            for (int i = 0; i < ranges.size(); i++) {
+                NodeIdRange range = ranges.get(i);
+                to[planned + i] = range.getTo();
+                next[planned + i] = range.getFrom();
+                rangeIndexes.put(range.getTo(), planned + i);
+                progress.put(planned + i, range.getFrom());
+            }
+
+            checkpoint.setProperty(key(TO), to);
+            checkpoint.setProperty(key(NEXT), next);
+            checkpoint.setProperty(key(PLANNED_UP_TO), ranges.get(ranges.size() - 1).getTo());
+            tx.success();
+        }
+
+        plannedUpTo = ranges.get(ranges.size() - 1).getTo();
+    }
+
+    /**
+     * @return ranges of node IDs planned in the current phase that have not yet been fully processed, each one
+     * starting at the next node ID to process.
+     */
+    public List<NodeIdRange> getRemainingRanges() {
+        List<NodeIdRange> result = new LinkedList<>();
+
+        try (Transaction tx = database.beginTx()) {
+            PropertyContainer checkpoint = graphProperties();
+            long[] to = longs(checkpoint, TO);
+            long[] next = longs(checkpoint, NEXT);
+
+            for (int i = 0; i < to.length; i++) {
+                rangeIndexes.put(to[i], i);
+                progress.put(i, next[i]);
+                if (next[i] < to[i]) {
+                    result.add(new NodeIdRange(next[i], to[i]));
+                }
+            }
+            tx.success();
+        }
+
+        return result;
+    }
+
+    /**
+     * Record in memory that all nodes in a range before the given node ID have been processed. Must be called in the
+     * transaction that processes the nodes, after all of them have been processed, and called again with the previous
+     * node ID should the transaction fail to commit. The progress is not saved until {@link #saveProgress(NodeIdRange)}
+     * is called.
+     *
+     * @param range      planned or remaining range, as returned by {@link #getRemainingRanges()}.
+     * @param nextNodeId ID of the next node to process.
+     */
+    public void markProcessed(NodeIdRange range, long nextNodeId) {
+        progress.put(index(range), nextNodeId);
+    }
+
+    /**
+     * Save the progress of a range recorded by {@link #markProcessed(NodeIdRange, long)}. Must be called last in the
+     * transaction that processes the nodes, since it locks the checkpoint until the transaction has finished.
+     *
+     * @param range planned or remaining range, as returned by {@link #getRemainingRanges()}.
+     */
+    public void saveProgress(NodeIdRange range) {
+        int index = index(range);
+
+        try (Transaction tx = database.beginTx()) {
+            PropertyContainer checkpoint = graphProperties();
+            //progress of other ranges must be read once they have committed, so that it isn't overwritten
+            tx.acquireWriteLock(checkpoint);
+
+            long[] next = longs(checkpoint, NEXT);
+            next[index] = progress.get(index);
+            checkpoint.setProperty(key(NEXT), next);
+            tx.success();
+        }
+    }
+
+    /**
+     * Find out whether a node has already been processed in the current phase, according to the progress recorded in
+     * memory, including batches that are being committed. Nodes beyond the planned ranges are considered processed, since they have been created after
+     * processing started. So are all nodes when no ranges have been planned yet.
+     * <p/>
+     * This is only reliable if the caller holds a write lock on the node, so that the node can not be
+     * being processed concurrently.
+     *
+     * @param nodeId ID of the node.
+     * @return true iff the node has been processed.
+     */
+    public boolean isProcessed(long nodeId) {
+        if (plannedUpTo == 0 || nodeId >= plannedUpTo) {
+            return true;
+        }
+
+        Map.Entry<Long, Integer> range = rangeIndexes.higherEntry(nodeId);
+        if (range == null) {
+            return true;
+        }
+
+        Long next = progress.get(range.getValue());
+        return next != null && nodeId < next;
+    }
+
+    /**
+     * @return last known phase of the recorded initialization, null if unknown.
+     */
+    public Phase getLastKnownPhase() {
+        return phase;
+    }
+
+    /**
+     * Delete the checkpoint, if there is one.
+     */
+    public void delete() {
+        try (Transaction tx = database.beginTx()) {
+            PropertyContainer checkpoint = graphProperties();
+            for (String name : new String[]{CONFIGURATION, PHASE, TARGET_PREFIX, SHADOW}) {
+                if (checkpoint.hasProperty(key(name))) {
+                    checkpoint.removeProperty(key(name));
+                }
+            }
+            removeRanges(checkpoint);
+            tx.success();
+        }
+
+        phase = null;
+        plannedUpTo = 0;
+    }
+
+    private void removeRanges(PropertyContainer checkpoint) {
+        for (String name : new String[]{PLANNED_UP_TO, TO, NEXT}) {
+            if (checkpoint.hasProperty(key(name))) {
+                checkpoint.removeProperty(key(name));
+            }
+        }
+
+        rangeIndexes.clear();
+        progress.clear();
+    }
+
+    private int index(NodeIdRange range) {
+        Integer index = rangeIndexes.get(range.getTo());
+
+        if (index == null) {
+            throw new IllegalStateException("Range " + range + " has not been planned. This is a bug.");
+        }
+
+        return index;
+    }
+
+    private long[] longs(PropertyContainer checkpoint, String name) {
+        return ((long[]) checkpoint.getProperty(key(name), new long[0])).clone();
+    }
+
+    private Object existingProperty(String name) {
+        Object result = graphProperties().getProperty(key(name), null);
+
+        if (result == null) {
+            throw new IllegalStateException("There is no initialization checkpoint. This is a bug.");
+        }
+
+        return result;
+    }
+
+    private PropertyContainer graphProperties() {
+        return ((GraphDatabaseAPI) database).getDependencyResolver().resolveDependency(NodeManager.class).newGraphProperties();
+    }
+
+    private String key(String name) {
+        return prefix + CHECKPOINT + name;
+    }
+}
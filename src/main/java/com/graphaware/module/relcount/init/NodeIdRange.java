@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.init;
+
+/**
+ * Contiguous range of node IDs, from (inclusive) to (exclusive).
+ */
+public final class NodeIdRange {
+
+    private final long from;
+    private final long to;
+
+    /**
+     * Construct a new range.
+     *
+     * @param from first node ID in the range, inclusive.
+     * @param to   last node ID in the range, exclusive.
+     */
+    public NodeIdRange(long from, long to) {
+        if (from > to) {
+            throw new IllegalArgumentException("Invalid node ID range " + from + " - " + to);
+        }
+
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * @return first node ID in the range, inclusive.
+     */
+    public long getFrom() {
+        return from;
+    }
+
+    /**
+     * @return last node ID in the range, exclusive.
+     */
+    public long getTo() {
+        return to;
+    }
+
+    /**
+     * @return number of node IDs in the range.
+     */
+    public long size() {
+        return to - from;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        NodeIdRange that = (NodeIdRange) o;
+
+        return from == that.from && to == that.to;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        int result = (int) (from ^ (from >>> 32));
+        result = 31 * result + (int) (to ^ (to >>> 32));
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "[" + from + ", " + to + ")";
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.init;
+
+import com.graphaware.tx.executor.batch.UnitOfWork;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.IdGeneratorFactory;
+import org.neo4j.kernel.IdType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Processes all nodes in the database by a number of threads in parallel. The node ID space is partitioned into
+ * contiguous ranges, which are processed concurrently, each one in its own batch transactions.
+ * <p/>
+ * The {@link UnitOfWork} must only write to the node it is given, so that concurrently processed ranges never compete
+ * for the same locks. This is the case for (re-)building and clearing cached degrees, which only ever write the properties
+ * of the node whose degrees are being cached.
+ * <p/>
+ * Progress is logged at INFO level every time a range has been processed. It can also be recorded in an
+ * {@link InitializationCheckpoint}, in which case processing resumes from the checkpoint. Progress of a range is
+ * recorded in memory after every batch, but only saved once the range is finished or at least
+ * {@link #SAVE_PROGRESS_EVERY} node IDs after it was last saved, because saving serializes the commits of all ranges.
+ * Processing resumed from the checkpoint thus repeats up to that many node IDs per range, so the {@link UnitOfWork}
+ * must produce the same result when performed on a node again.
+ */
+public class PartitionedNodeProcessor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PartitionedNodeProcessor.class);
+
+    private static final int RANGES_PER_THREAD = 8;
+
+    /**
+     * Minimum number of node IDs processed in a range between two saves of its progress in an {@link InitializationCheckpoint}.
+     */
+    public static final int SAVE_PROGRESS_EVERY = 10_000;
+
+    private final GraphDatabaseService database;
+    private final int numberOfThreads;
+    private final int batchSize;
+    private final String name;
+
+    /**
+     * Construct a new processor.
+     *
+     * @param database        to process nodes of.
+     * @param numberOfThreads number of threads processing nodes concurrently. Must be positive.
+     * @param batchSize       number of node IDs processed in a single transaction. Must be positive.
+     * @param name            of the processing, used for progress reporting.
+     */
+    public PartitionedNodeProcessor(GraphDatabaseService database, int numberOfThreads, int batchSize, String name) {
+        if (numberOfThreads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive");
+        }
+
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+
+        this.database = database;
+        this.numberOfThreads = numberOfThreads;
+        this.batchSize = batchSize;
+        this.name = name;
+    }
+
+    /**
+     * Process all nodes in the database. Blocks until all nodes have been processed.
+     *
+     * @param unitOfWork to perform on each node. The batch number passed to it is the number of the batch within
+     *                   the range being processed, the step number is the number of the node within the batch.
+     * @throws RuntimeException if processing any of the nodes has failed. Ranges processed by other threads might
+     *                          have been committed by then.
+     */
+    public void process(UnitOfWork<Node> unitOfWork) {
+        process(unitOfWork, null);
+    }
+
+    /**
+     * Process all nodes in the database that have not yet been processed according to a checkpoint, recording progress
+     * in the checkpoint. Blocks until all nodes have been processed.
+     *
+     * @param unitOfWork to perform on each node. The batch number passed to it is the number of the batch within
+     *                   the range being processed, the step number is the number of the node within the batch.
+     * @param checkpoint to resume from and record progress in, null for none.
+     * @throws RuntimeException if processing any of the nodes has failed. Ranges processed by other threads might
+     *                          have been committed by then.
+     */
+    public void process(final UnitOfWork<Node> unitOfWork, final InitializationCheckpoint checkpoint) {
+        long numberOfNodeIds = highestNodeId(database) + 1;
+
+        List<NodeIdRange> ranges;
+        if (checkpoint == null) {
+            ranges = partition(0, numberOfNodeIds);
+        } else {
+            ranges = checkpoint.getRemainingRanges();
+
+            long plannedUpTo = checkpoint.getPlannedUpTo();
+            if (plannedUpTo > 0) {
+                LOG.info(name + ": resuming, " + ranges.size() + " ranges of node IDs below " + plannedUpTo + " remaining.");
+            }
+
+            if (numberOfNodeIds > plannedUpTo) {
+                List<NodeIdRange> newRanges = partition(plannedUpTo, numberOfNodeIds);
+                checkpoint.planRanges(newRanges);
+                ranges.addAll(newRanges);
+            }
+        }
+
+        if (ranges.isEmpty()) {
+            LOG.info(name + ": no nodes to process.");
+            return;
+        }
+
+        LOG.info(name + ": processing " + ranges.size() + " ranges of node IDs using " + numberOfThreads + " threads...");
+
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+
+        try {
+            long remainingNodeIds = 0;
+            for (NodeIdRange range : ranges) {
+                remainingNodeIds += range.size();
+            }
+
+            final long totalNodeIds = remainingNodeIds;
+            final AtomicLong processedNodeIds = new AtomicLong();
+            final AtomicInteger processedRanges = new AtomicInteger();
+            final int totalRanges = ranges.size();
+
+            List<Future<?>> futures = new LinkedList<>();
+            for (final NodeIdRange range : ranges) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        process(range, unitOfWork, checkpoint);
+
+                        long processed = processedNodeIds.addAndGet(range.size());
+                        LOG.info(name + ": " + (100 * processed / totalNodeIds) + "% done (" + processed + " of " + totalNodeIds
+                                + " node IDs, " + processedRanges.incrementAndGet() + " of " + totalRanges + " ranges).");
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                await(future);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        LOG.info(name + ": finished.");
+    }
+
+    /**
+     * Process a single range of node IDs in batch transactions.
+     *
+     * @param range      to process.
+     * @param unitOfWork to perform on each node.
+     * @param checkpoint to record progress in, null for none.
+     */
+    protected void process(NodeIdRange range, UnitOfWork<Node> unitOfWork, InitializationCheckpoint checkpoint) {
+        int batchNumber = 0;
+        long savedUpTo = range.getFrom();
+
+        for (long batchStart = range.getFrom(); batchStart < range.getTo(); batchStart += batchSize) {
+            long batchEnd = Math.min(batchStart + batchSize, range.getTo());
+            batchNumber++;
+            int stepNumber = 0;
+            boolean save = batchEnd == range.getTo() || batchEnd - savedUpTo >= SAVE_PROGRESS_EVERY;
+
+            try (Transaction tx = database.beginTx()) {
+                for (long nodeId = batchStart; nodeId < batchEnd; nodeId++) {
+                    Node node;
+                    try {
+                        node = database.getNodeById(nodeId);
+                    } catch (NotFoundException e) {
+                        continue;
+                    }
+
+                    unitOfWork.execute(database, node, batchNumber, ++stepNumber);
+                }
+
+                if (checkpoint != null) {
+                    checkpoint.markProcessed(range, batchEnd);
+
+                    if (save) {
+                        //last, so that the checkpoint is only locked while the batch is being committed
+                        checkpoint.saveProgress(range);
+                    }
+                }
+
+                tx.success();
+            } catch (RuntimeException e) {
+                if (checkpoint != null) {
+                    checkpoint.markProcessed(range, batchStart);
+                }
+                throw e;
+            }
+
+            if (save) {
+                savedUpTo = batchEnd;
+            }
+        }
+    }
+
+    /**
+     * Split the node ID space into ranges, a few per thread, so that threads which happen to get ranges with
+     * dense nodes do not hold up the rest.
+     *
+     * @param from first node ID, inclusive.
+     * @param to   last node ID, exclusive.
+     * @return ranges, empty if there are no node IDs to split.
+     */
+    protected List<NodeIdRange> partition(long from, long to) {
+        List<NodeIdRange> result = new LinkedList<>();
+
+        long numberOfNodeIds = to - from;
+        if (numberOfNodeIds <= 0) {
+            return result;
+        }
+
+        long numberOfRanges = Math.min((long) numberOfThreads * RANGES_PER_THREAD, (numberOfNodeIds + batchSize - 1) / batchSize);
+        long rangeSize = (numberOfNodeIds + numberOfRanges - 1) / numberOfRanges;
+
+        for (long rangeStart = from; rangeStart < to; rangeStart += rangeSize) {
+            result.add(new NodeIdRange(rangeStart, Math.min(rangeStart + rangeSize, to)));
+        }
+        return result;
+    }
+
+    /**
+     * Find the highest ID a node in the database can have, using the node ID generator rather than scanning all nodes.
+     * Nodes with IDs up to this one might have been deleted, or never created.
+     * <p/>
+     * Note that this relies on Neo4j's internal API ({@link GraphDatabaseAPI} and {@link IdGeneratorFactory}), which
+     * is not guaranteed to be stable across Neo4j versions.
+     *
+     * @param database to find the highest node ID of.
+     * @return highest node ID, -1 if no node has ever been created.
+     */
+    public static long highestNodeId(GraphDatabaseService database) {
+        return ((GraphDatabaseAPI) database).getDependencyResolver().resolveDependency(IdGeneratorFactory.class).get(IdType.NODE).getHighId() - 1;
+    }
+
+    private void await(Future<?> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(name + " has been interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(name + " has failed", e.getCause());
+        }
+    }
+}
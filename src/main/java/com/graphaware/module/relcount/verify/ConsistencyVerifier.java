@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.verify;
+
+import com.graphaware.common.description.property.LiteralPropertiesDescription;
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.common.description.relationship.DetachedRelationshipDescriptionImpl;
+import com.graphaware.module.relcount.RelationshipCountConfiguration;
+import com.graphaware.module.relcount.RelationshipCountModule;
+import com.graphaware.module.relcount.cache.CachedDegrees;
+import com.graphaware.module.relcount.init.NodeIdRange;
+import com.graphaware.module.relcount.init.PartitionedNodeProcessor;
+import com.graphaware.module.relcount.view.CountViews;
+import com.graphaware.tx.event.improved.propertycontainer.filtered.FilteredNode;
+import com.graphaware.tx.executor.batch.UnitOfWork;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+
+import static com.graphaware.common.util.DirectionUtils.resolveDirection;
+import static org.neo4j.graphdb.Direction.BOTH;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Verifies that cached counts maintained by a {@link RelationshipCountModule} match reality, by recounting nodes'
+ * relationships (respecting the module's inclusion policies and weighing strategy) and comparing the result with the
+ * cached degrees, per cached relationship description. Cached degrees are read straight from the database, so that
+ * verification does not disturb the module's {@link com.graphaware.module.relcount.cache.DecodedDegreeCache}.
+ * <p/>
+ * Nodes are verified in read-only transactions. When configured to repair, nodes found drifted are recounted
+ * afterwards, each in its own transaction holding a write lock on the node, after having been verified again. Nodes
+ * being changed concurrently with verification can be reported as drifted spuriously, but are never repaired needlessly.
+ * <p/>
+ * The whole graph can be scanned, or a random sample of nodes verified, both by a number of threads in parallel.
+ * For throttled verification in idle time, see {@link ConsistencyVerifierModule}.
+ */
+public class ConsistencyVerifier {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConsistencyVerifier.class);
+
+    private final GraphDatabaseService database;
+    private final RelationshipCountModule module;
+    private final int numberOfThreads;
+    private final boolean repair;
+
+    /**
+     * Construct a new verifier.
+     *
+     * @param database        to verify cached counts in.
+     * @param module          maintaining the cached counts.
+     * @param numberOfThreads number of threads verifying nodes concurrently. Must be positive.
+     * @param repair          true for recounting cached degrees of nodes found drifted.
+     */
+    public ConsistencyVerifier(GraphDatabaseService database, RelationshipCountModule module, int numberOfThreads, boolean repair) {
+        if (numberOfThreads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive");
+        }
+
+        this.database = database;
+        this.module = module;
+        this.numberOfThreads = numberOfThreads;
+        this.repair = repair;
+    }
+
+    /**
+     * Verify all nodes in the database. NOTE: This is a potentially very expensive operation as it traverses the
+     * entire graph! Use with care.
+     *
+     * @return report.
+     */
+    public VerificationReport verifyAll() {
+        final VerificationReport report = new VerificationReport();
+        final Queue<Long> drifted = new ConcurrentLinkedQueue<>();
+
+        nodeProcessor().process(new UnitOfWork<Node>() {
+            @Override
+            public void execute(GraphDatabaseService database, Node node, int batchNumber, int stepNumber) {
+                verify(node, report, drifted);
+            }
+        });
+
+        repair(drifted, report);
+
+        LOG.info("Verification of all cached counts of " + module.getId() + ": " + report);
+        return report;
+    }
+
+    /**
+     * Verify a random sample of nodes. Distinct node IDs are sampled uniformly, IDs of nodes that do not exist are skipped,
+     * so fewer nodes than requested might get verified.
+     *
+     * @param sampleSize number of node IDs to sample. All nodes are verified if there are no more node IDs than that.
+     * @param random     source of randomness.
+     * @return report.
+     */
+    public VerificationReport verifySample(int sampleSize, Random random) {
+        long numberOfNodeIds = PartitionedNodeProcessor.highestNodeId(database) + 1;
+
+        final VerificationReport report = new VerificationReport();
+        final Queue<Long> drifted = new ConcurrentLinkedQueue<>();
+
+        if (numberOfNodeIds > 0) {
+            List<List<Long>> samples = new ArrayList<>();
+            for (int i = 0; i < numberOfThreads; i++) {
+                samples.add(new ArrayList<Long>());
+            }
+            int i = 0;
+            for (long nodeId : sample(numberOfNodeIds, sampleSize, random)) {
+                samples.get(i++ % numberOfThreads).add(nodeId);
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+            try {
+                List<Future<?>> futures = new LinkedList<>();
+                for (final List<Long> sample : samples) {
+                    futures.add(executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            verify(sample, report, drifted);
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    await(future);
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        repair(drifted, report);
+
+        LOG.info("Verification of a sample of cached counts of " + module.getId() + ": " + report);
+        return report;
+    }
+
+    /**
+     * Sample distinct node IDs uniformly using Floyd's algorithm, which takes as many random draws as there are IDs sampled.
+     *
+     * @param numberOfNodeIds number of node IDs to sample from, starting at 0.
+     * @param sampleSize      number of node IDs to sample.
+     * @param random          source of randomness.
+     * @return sampled node IDs, all of them if there are no more than the sample size.
+     */
+    private Set<Long> sample(long numberOfNodeIds, int sampleSize, Random random) {
+        Set<Long> result = new LinkedHashSet<>();
+
+        for (long nodeId = Math.max(0, numberOfNodeIds - sampleSize); nodeId < numberOfNodeIds; nodeId++) {
+            long candidate = (long) (random.nextDouble() * (nodeId + 1));
+            result.add(result.contains(candidate) ? nodeId : candidate);
+        }
+
+        return result;
+    }
+
+    /**
+     * Verify nodes in a range of node IDs in the calling thread.
+     *
+     * @param range  of node IDs to verify.
+     * @param report to record results in.
+     */
+    public void verify(NodeIdRange range, VerificationReport report) {
+        List<Long> nodeIds = new ArrayList<>();
+        for (long nodeId = range.getFrom(); nodeId < range.getTo(); nodeId++) {
+            nodeIds.add(nodeId);
+        }
+
+        Queue<Long> drifted = new LinkedList<>();
+        verify(nodeIds, report, drifted);
+        repair(drifted, report);
+    }
+
+    private void verify(List<Long> nodeIds, VerificationReport report, Queue<Long> drifted) {
+        int batchSize = module.getConfiguration().getInitializationBatchSize();
+
+        for (int batchStart = 0; batchStart < nodeIds.size(); batchStart += batchSize) {
+            try (Transaction tx = database.beginTx()) {
+                for (Long nodeId : nodeIds.subList(batchStart, Math.min(batchStart + batchSize, nodeIds.size()))) {
+                    try {
+                        verify(database.getNodeById(nodeId), report, drifted);
+                    } catch (NotFoundException e) {
+                        //node does not exist
+                    }
+                }
+                tx.success();
+            }
+        }
+    }
+
+    private void verify(Node node, VerificationReport report, Queue<Long> drifted) {
+        int drift = drift(node);
+
+        report.nodeVerified(node.getId(), drift);
+
+        if (drift > 0) {
+            LOG.warn("Cached degrees of node " + node.getId() + " have drifted by " + drift);
+            drifted.add(node.getId());
+        }
+    }
+
+    private void repair(Queue<Long> drifted, VerificationReport report) {
+        if (!repair) {
+            return;
+        }
+
+        for (Long nodeId : drifted) {
+            boolean repaired = false;
+
+            if (!module.getPendingDegreeDeltas().get(nodeId).isEmpty()) {
+                //recounting now would count the pending changes twice once they have been applied
+                continue;
+            }
+
+            try (Transaction tx = database.beginTx()) {
+                Node node = database.getNodeById(nodeId);
+                tx.acquireWriteLock(node);
+
+                //could have been fixed or changed since verified
+                if (drift(node) > 0) {
+                    module.recount(node);
+                    repaired = true;
+                }
+
+                tx.success();
+            } catch (NotFoundException e) {
+                //node has been deleted since verified
+            }
+
+            if (repaired) {
+                module.getDecodedDegreeCache().invalidate(Collections.singleton(nodeId));
+                report.nodeRepaired();
+            }
+        }
+    }
+
+    /**
+     * Compute how much the cached degrees of a node differ from its actual degrees. Every cached degree is compared with
+     * a naive count of the node's relationships its description covers, so that degrees are verified down to the level
+     * of relationship properties. Relationships covered by no cached description count towards the drift, too.
+     *
+     * @param node to compute drift of.
+     * @return sum of absolute differences, 0 iff cached degrees match the node's relationships.
+     */
+    private int drift(Node node) {
+        RelationshipCountConfiguration configuration = module.getConfiguration();
+
+        Map<DetachedRelationshipDescription, Integer> cached = new HashMap<>();
+        String prefix = module.getActivePrefix(database);
+
+        //pending changes are applied exactly as the counter applies them, and must not be counted twice when being
+        //applied at the same time
+        CachedDegrees cachedDegrees;
+        Lock lock = module.getPendingDegreeDeltasLock();
+        lock.lock();
+        try {
+            cachedDegrees = module.getPendingDegreeDeltas().applyTo(node.getId(), CachedDegrees.of(configuration.getDegreeCachingStrategy().readDegrees(node, prefix)));
+        } finally {
+            lock.unlock();
+        }
+
+        for (int i = 0; i < cachedDegrees.size(); i++) {
+            add(cached, cachedDegrees.getDescription(i), cachedDegrees.getDegree(i));
+        }
+
+        Map<DetachedRelationshipDescription, Integer> actual = new HashMap<>();
+        Node filteredNode = new FilteredNode(node, configuration.getInclusionPolicies());
+        for (Relationship relationship : filteredNode.getRelationships()) {
+            int weight = configuration.getWeighingStrategy().getRelationshipWeight(relationship, filteredNode);
+            add(actual, covering(cached.keySet(), describe(relationship, filteredNode, OUTGOING)), weight);
+
+            if (relationship.getStartNode().getId() == relationship.getEndNode().getId()) {
+                add(actual, covering(cached.keySet(), describe(relationship, filteredNode, INCOMING)), weight);
+            }
+        }
+
+        Set<DetachedRelationshipDescription> descriptions = new HashSet<>(actual.keySet());
+        descriptions.addAll(cached.keySet());
+
+        int result = 0;
+        for (DetachedRelationshipDescription description : descriptions) {
+            result += Math.abs(degree(actual, description) - degree(cached, description));
+        }
+
+        return result;
+    }
+
+    private DetachedRelationshipDescription describe(Relationship relationship, Node pointOfView, Direction defaultDirection) {
+        return CountViews.project(module.getConfiguration(), new DetachedRelationshipDescriptionImpl(
+                relationship.getType(),
+                resolveDirection(relationship, pointOfView, defaultDirection),
+                new LiteralPropertiesDescription(relationship)));
+    }
+
+    /**
+     * Find the cached description a relationship is counted under, the same way {@link com.graphaware.module.relcount.cache.DegreeCachingNode}
+     * does, i.e. the description itself or one more general than it, preferring descriptions with the same direction.
+     *
+     * @param cached      descriptions.
+     * @param description of a relationship.
+     * @return covering description, the given one if none of the cached ones covers it.
+     */
+    private DetachedRelationshipDescription covering(Set<DetachedRelationshipDescription> cached, DetachedRelationshipDescription description) {
+        if (cached.contains(description)) {
+            return description;
+        }
+
+        DetachedRelationshipDescription result = null;
+        for (DetachedRelationshipDescription candidate : cached) {
+            if (candidate.isMoreGeneralThan(description) && (result == null || BOTH.equals(result.getDirection()))) {
+                result = candidate;
+            }
+        }
+
+        return result == null ? description : result;
+    }
+
+    private void add(Map<DetachedRelationshipDescription, Integer> degrees, DetachedRelationshipDescription description, int degree) {
+        degrees.put(description, degree(degrees, description) + degree);
+    }
+
+    private int degree(Map<DetachedRelationshipDescription, Integer> degrees, DetachedRelationshipDescription description) {
+        Integer result = degrees.get(description);
+        return result == null ? 0 : result;
+    }
+
+    private PartitionedNodeProcessor nodeProcessor() {
+        return new PartitionedNodeProcessor(database, numberOfThreads, module.getConfiguration().getInitializationBatchSize(), "Verifying cached counts of " + module.getId());
+    }
+
+    private void await(Future<?> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Verification has been interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Verification has failed", e.getCause());
+        }
+    }
+}
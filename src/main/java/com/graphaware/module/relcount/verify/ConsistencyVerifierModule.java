@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.verify;
+
+import com.graphaware.module.relcount.RelationshipCountModule;
+import com.graphaware.module.relcount.init.NodeIdRange;
+import com.graphaware.module.relcount.init.PartitionedNodeProcessor;
+import com.graphaware.runtime.RuntimeRegistry;
+import com.graphaware.runtime.config.NullTimerDrivenModuleConfiguration;
+import com.graphaware.runtime.config.TimerDrivenModuleConfiguration;
+import com.graphaware.runtime.metadata.TimerDrivenModuleContext;
+import com.graphaware.runtime.module.TimerDrivenModule;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link TimerDrivenModule} that continuously verifies cached counts of a {@link RelationshipCountModule} using a
+ * {@link ConsistencyVerifier}, a few nodes at a time, when the runtime's timing strategy decides the database is idle.
+ * It walks the node ID space in a loop and logs drift statistics each time it has completed a pass over the graph.
+ * <p/>
+ * The load it puts on the database is throttled by the number of nodes verified per call and the minimum delay between calls.
+ */
+public class ConsistencyVerifierModule implements TimerDrivenModule<VerificationContext> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConsistencyVerifierModule.class);
+
+    private final String id;
+    private final String relationshipCountModuleId;
+    private final int nodesPerCall;
+    private final long delay;
+    private final boolean repair;
+
+    /**
+     * Construct a new module.
+     *
+     * @param id                        of this module.
+     * @param relationshipCountModuleId ID of the {@link RelationshipCountModule} whose cached counts should be verified.
+     * @param nodesPerCall              number of node IDs verified each time this module is called. Must be positive.
+     * @param delay                     minimum delay between calls in ms, 0 for as soon as the timing strategy allows.
+     * @param repair                    true for recounting cached degrees of nodes found drifted.
+     */
+    public ConsistencyVerifierModule(String id, String relationshipCountModuleId, int nodesPerCall, long delay, boolean repair) {
+        if (nodesPerCall < 1) {
+            throw new IllegalArgumentException("Number of nodes per call must be positive");
+        }
+
+        this.id = id;
+        this.relationshipCountModuleId = relationshipCountModuleId;
+        this.nodesPerCall = nodesPerCall;
+        this.delay = delay;
+        this.repair = repair;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void start(GraphDatabaseService database) {
+        //do nothing
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void shutdown() {
+        //do nothing
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TimerDrivenModuleConfiguration getConfiguration() {
+        return NullTimerDrivenModuleConfiguration.getInstance();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public VerificationContext createInitialContext(GraphDatabaseService database) {
+        return new VerificationContext(0, -1, TimerDrivenModuleContext.ASAP, 0, 0, 0, 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public VerificationContext doSomeWork(VerificationContext lastContext, GraphDatabaseService database) {
+        RelationshipCountModule module = RuntimeRegistry.getRuntime(database).getModule(relationshipCountModuleId, RelationshipCountModule.class);
+
+        long from = lastContext.getNextNodeId();
+        long passEnd = lastContext.getPassEnd();
+
+        if (from >= passEnd) {
+            if (passEnd > 0) {
+                LOG.info("Finished a pass verifying cached counts of " + relationshipCountModuleId + ": verified " + lastContext.getVerifiedNodes()
+                        + " nodes, " + lastContext.getDriftedNodes() + " drifted (total drift " + lastContext.getTotalDrift() + "), "
+                        + lastContext.getRepairedNodes() + " repaired");
+            }
+
+            //nodes created during the pass will be verified in the next one
+            passEnd = PartitionedNodeProcessor.highestNodeId(database) + 1;
+            return new VerificationContext(0, passEnd, nextCall(), 0, 0, 0, 0);
+        }
+
+        long to = Math.min(from + nodesPerCall, passEnd);
+
+        VerificationReport report = new VerificationReport();
+        new ConsistencyVerifier(database, module, 1, repair).verify(new NodeIdRange(from, to), report);
+
+        return new VerificationContext(
+                to,
+                passEnd,
+                nextCall(),
+                lastContext.getVerifiedNodes() + report.getVerifiedNodes(),
+                lastContext.getDriftedNodes() + report.getDriftedNodes(),
+                lastContext.getTotalDrift() + report.getTotalDrift(),
+                lastContext.getRepairedNodes() + report.getRepairedNodes());
+    }
+
+    private long nextCall() {
+        return delay > 0 ? System.currentTimeMillis() + delay : TimerDrivenModuleContext.ASAP;
+    }
+}
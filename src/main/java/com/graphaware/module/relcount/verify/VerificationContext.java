@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.verify;
+
+import com.graphaware.runtime.metadata.TimerDrivenModuleContext;
+import org.neo4j.graphdb.GraphDatabaseService;
+
+/**
+ * {@link TimerDrivenModuleContext} of {@link ConsistencyVerifierModule}, holding the ID of the next node to verify, where
+ * the current pass over the graph ends, and statistics of the pass.
+ */
+public class VerificationContext implements TimerDrivenModuleContext<Void> {
+
+    private final long nextNodeId;
+    private final long passEnd;
+    private final long earliestNextCall;
+    private final long verifiedNodes;
+    private final long driftedNodes;
+    private final long totalDrift;
+    private final long repairedNodes;
+
+    /**
+     * Construct a new context.
+     *
+     * @param nextNodeId       ID of the next node to verify.
+     * @param passEnd          node ID (exclusive) the current pass ends at, -1 if no pass has been started yet.
+     * @param earliestNextCall earliest time in ms since epoch the verifier should be called again.
+     * @param verifiedNodes    number of nodes verified in the current pass.
+     * @param driftedNodes     number of drifted nodes found in the current pass.
+     * @param totalDrift       total drift found in the current pass.
+     * @param repairedNodes    number of nodes repaired in the current pass.
+     */
+    public VerificationContext(long nextNodeId, long passEnd, long earliestNextCall, long verifiedNodes, long driftedNodes, long totalDrift, long repairedNodes) {
+        this.nextNodeId = nextNodeId;
+        this.passEnd = passEnd;
+        this.earliestNextCall = earliestNextCall;
+        this.verifiedNodes = verifiedNodes;
+        this.driftedNodes = driftedNodes;
+        this.totalDrift = totalDrift;
+        this.repairedNodes = repairedNodes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long earliestNextCall() {
+        return earliestNextCall;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Void find(GraphDatabaseService database) {
+        return null;
+    }
+
+    /**
+     * @return ID of the next node to verify.
+     */
+    public long getNextNodeId() {
+        return nextNodeId;
+    }
+
+    /**
+     * @return node ID (exclusive) the current pass ends at, -1 if no pass has been started yet.
+     */
+    public long getPassEnd() {
+        return passEnd;
+    }
+
+    /**
+     * @return number of nodes verified in the current pass.
+     */
+    public long getVerifiedNodes() {
+        return verifiedNodes;
+    }
+
+    /**
+     * @return number of drifted nodes found in the current pass.
+     */
+    public long getDriftedNodes() {
+        return driftedNodes;
+    }
+
+    /**
+     * @return total drift found in the current pass.
+     */
+    public long getTotalDrift() {
+        return totalDrift;
+    }
+
+    /**
+     * @return number of nodes repaired in the current pass.
+     */
+    public long getRepairedNodes() {
+        return repairedNodes;
+    }
+}
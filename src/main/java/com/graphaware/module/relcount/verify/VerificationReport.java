@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.verify;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of a verification of cached counts by {@link ConsistencyVerifier}. Thread-safe, so that it can be
+ * populated by multiple verifying threads.
+ */
+public class VerificationReport {
+
+    private static final int MAX_REPORTED_NODE_IDS = 100;
+
+    private final AtomicLong verifiedNodes = new AtomicLong();
+    private final AtomicLong driftedNodes = new AtomicLong();
+    private final AtomicLong totalDrift = new AtomicLong();
+    private final AtomicLong repairedNodes = new AtomicLong();
+    private final List<Long> driftedNodeIds = new ArrayList<>();
+
+    /**
+     * Record a verified node.
+     *
+     * @param nodeId ID of the node.
+     * @param drift  sum of absolute differences between cached and actual degrees of the node, 0 if they match.
+     */
+    void nodeVerified(long nodeId, int drift) {
+        verifiedNodes.incrementAndGet();
+
+        if (drift == 0) {
+            return;
+        }
+
+        driftedNodes.incrementAndGet();
+        totalDrift.addAndGet(drift);
+
+        synchronized (driftedNodeIds) {
+            if (driftedNodeIds.size() < MAX_REPORTED_NODE_IDS) {
+                driftedNodeIds.add(nodeId);
+            }
+        }
+    }
+
+    /**
+     * Record a repaired node.
+     */
+    void nodeRepaired() {
+        repairedNodes.incrementAndGet();
+    }
+
+    /**
+     * @return number of verified nodes.
+     */
+    public long getVerifiedNodes() {
+        return verifiedNodes.get();
+    }
+
+    /**
+     * @return number of verified nodes whose cached degrees did not match their relationships.
+     */
+    public long getDriftedNodes() {
+        return driftedNodes.get();
+    }
+
+    /**
+     * @return sum of absolute differences between cached and actual degrees over all verified nodes.
+     */
+    public long getTotalDrift() {
+        return totalDrift.get();
+    }
+
+    /**
+     * @return number of drifted nodes whose cached degrees have been recounted.
+     */
+    public long getRepairedNodes() {
+        return repairedNodes.get();
+    }
+
+    /**
+     * @return IDs of (at most the first 100) nodes whose cached degrees did not match their relationships.
+     */
+    public List<Long> getDriftedNodeIds() {
+        synchronized (driftedNodeIds) {
+            return Collections.unmodifiableList(new ArrayList<>(driftedNodeIds));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "verified " + getVerifiedNodes() + " nodes, " + getDriftedNodes() + " drifted (total drift "
+                + getTotalDrift() + "), " + getRepairedNodes() + " repaired";
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.view;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.RelationshipType;
+
+import java.util.*;
+
+/**
+ * Declaration of relationship counts that are needed, e.g. incoming FOLLOWS relationships grouped by strength, or the
+ * total of outgoing LIKES relationships.
+ *
+ * @see CountViews
+ */
+public class CountView {
+
+    private final String type;
+    private final Direction direction;
+    private final Set<String> groupingKeys;
+
+    /**
+     * Construct a new view.
+     *
+     * @param type         of the counted relationships.
+     * @param direction    of the counted relationships. {@link Direction#BOTH} means relationships of both directions,
+     *                     counted separately for each direction.
+     * @param groupingKeys keys of relationship properties the counts are grouped by, none for total counts.
+     */
+    public CountView(RelationshipType type, Direction direction, String... groupingKeys) {
+        this(type.name(), direction, groupingKeys);
+    }
+
+    /**
+     * Construct a new view.
+     *
+     * @param type         name of the type of the counted relationships.
+     * @param direction    of the counted relationships. {@link Direction#BOTH} means relationships of both directions,
+     *                     counted separately for each direction.
+     * @param groupingKeys keys of relationship properties the counts are grouped by, none for total counts.
+     */
+    public CountView(String type, Direction direction, String... groupingKeys) {
+        this.type = type;
+        this.direction = direction;
+        this.groupingKeys = new TreeSet<>(Arrays.asList(groupingKeys));
+    }
+
+    /**
+     * Parse a view from its string representation, which is the type name, the direction, and optionally the
+     * grouping keys, separated by colons. Grouping keys are separated by commas, e.g. "FOLLOWS:INCOMING:strength,since"
+     * or "LIKES:OUTGOING".
+     *
+     * @param string to parse.
+     * @return view.
+     * @throws IllegalArgumentException if the string is not a valid representation of a view.
+     */
+    public static CountView parse(String string) {
+        String[] parts = string.trim().split(":");
+
+        if (parts.length < 2 || parts.length > 3 || parts[0].trim().isEmpty()) {
+            throw new IllegalArgumentException("Invalid count view: " + string);
+        }
+
+        Direction direction;
+        try {
+            direction = Direction.valueOf(parts[1].trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid direction in count view: " + string);
+        }
+
+        List<String> groupingKeys = new ArrayList<>();
+        if (parts.length == 3) {
+            for (String key : parts[2].split(",")) {
+                if (!key.trim().isEmpty()) {
+                    groupingKeys.add(key.trim());
+                }
+            }
+        }
+
+        return new CountView(parts[0].trim(), direction, groupingKeys.toArray(new String[groupingKeys.size()]));
+    }
+
+    /**
+     * @return name of the type of the counted relationships.
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return direction of the counted relationships.
+     */
+    public Direction getDirection() {
+        return direction;
+    }
+
+    /**
+     * @return keys of relationship properties the counts are grouped by.
+     */
+    public Set<String> getGroupingKeys() {
+        return Collections.unmodifiableSet(groupingKeys);
+    }
+
+    /**
+     * Find out whether this view counts relationships of the given type and direction.
+     *
+     * @param type      name of the relationship type.
+     * @param direction of the relationships, {@link Direction#OUTGOING} or {@link Direction#INCOMING}.
+     * @return true iff the relationships are counted by this view.
+     */
+    public boolean covers(String type, Direction direction) {
+        return this.type.equals(type) && (Direction.BOTH.equals(this.direction) || this.direction.equals(direction));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        CountView countView = (CountView) o;
+
+        if (!type.equals(countView.type)) return false;
+        if (direction != countView.direction) return false;
+        if (!groupingKeys.equals(countView.groupingKeys)) return false;
+
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        int result = type.hashCode();
+        result = 31 * result + direction.hashCode();
+        result = 31 * result + groupingKeys.hashCode();
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder(type).append(":").append(direction);
+
+        String separator = ":";
+        for (String key : groupingKeys) {
+            result.append(separator).append(key);
+            separator = ",";
+        }
+
+        return result.toString();
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.view;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.common.policy.RelationshipInclusionPolicy;
+import com.graphaware.common.policy.RelationshipPropertyInclusionPolicy;
+import com.graphaware.module.relcount.RelationshipCountConfiguration;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+import java.util.*;
+
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+
+/**
+ * A set of declared {@link CountView}s, which restricts cached degrees to exactly the counts the views need.
+ * <p/>
+ * It acts both as a {@link RelationshipInclusionPolicy}, including only relationships that are counted by a view from
+ * the point of view of the node they are cached for, and as a {@link RelationshipPropertyInclusionPolicy}, including
+ * only properties that some view of the relationship's type groups by. Since the latter does not know which node
+ * a relationship is being cached for, descriptions of relationships to be cached are additionally projected onto the
+ * properties grouped by views of their type and direction (see {@link #project(RelationshipCountConfiguration, DetachedRelationshipDescription)}).
+ * <p/>
+ * The number of cached degrees per node is therefore bounded by the number of distinct combinations of grouping
+ * property values, and no compaction is needed. Counting relationships of the declared views never falls back to the
+ * naive approach. Other relationships are not cached at all, just like ones excluded by any other inclusion policy.
+ */
+public class CountViews extends RelationshipInclusionPolicy.Adapter implements RelationshipPropertyInclusionPolicy {
+
+    private final List<CountView> views;
+
+    /**
+     * Construct a new set of views.
+     *
+     * @param views declared views. Must not be empty.
+     */
+    public CountViews(CountView... views) {
+        this(Arrays.asList(views));
+    }
+
+    /**
+     * Construct a new set of views.
+     *
+     * @param views declared views. Must not be empty.
+     */
+    public CountViews(Collection<CountView> views) {
+        if (views.isEmpty()) {
+            throw new IllegalArgumentException("At least one count view must be declared");
+        }
+
+        this.views = new ArrayList<>(new LinkedHashSet<>(views));
+    }
+
+    /**
+     * @return declared views.
+     */
+    public List<CountView> getViews() {
+        return Collections.unmodifiableList(views);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean include(Relationship relationship) {
+        String type = relationship.getType().name();
+
+        for (CountView view : views) {
+            if (view.getType().equals(type)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean include(Relationship relationship, Node pointOfView) {
+        if (relationship.getStartNode().getId() == relationship.getEndNode().getId()) {
+            //self-relationships are cached as both outgoing and incoming
+            return include(relationship);
+        }
+
+        Direction direction = relationship.getStartNode().getId() == pointOfView.getId() ? Direction.OUTGOING : Direction.INCOMING;
+
+        for (CountView view : views) {
+            if (view.covers(relationship.getType().name(), direction)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean include(String key, Relationship relationship) {
+        String type = relationship.getType().name();
+
+        for (CountView view : views) {
+            if (view.getType().equals(type) && view.getGroupingKeys().contains(key)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Project a description of a relationship onto the properties grouped by views of the relationship's type and
+     * direction.
+     *
+     * @param description to project, with {@link Direction#OUTGOING} or {@link Direction#INCOMING} direction.
+     * @return projected description, the same instance if it only has grouped properties.
+     */
+    public DetachedRelationshipDescription project(DetachedRelationshipDescription description) {
+        String type = description.getType().name();
+
+        Set<String> groupingKeys = new HashSet<>();
+        for (CountView view : views) {
+            if (view.covers(type, description.getDirection())) {
+                groupingKeys.addAll(view.getGroupingKeys());
+            }
+        }
+
+        boolean projected = false;
+        DetachedRelationshipDescription result = literal(type, description.getDirection());
+        for (String key : description.getPropertiesDescription().getKeys()) {
+            if (groupingKeys.contains(key)) {
+                result = result.with(key, description.getPropertiesDescription().get(key));
+            } else {
+                projected = true;
+            }
+        }
+
+        return projected ? result : description;
+    }
+
+    /**
+     * Project a description of a relationship to be cached onto the properties grouped by declared views, if the
+     * configuration declares any.
+     *
+     * @param configuration of the module.
+     * @param description   to project.
+     * @return projected description, the same instance if no views are declared or it only has grouped properties.
+     */
+    public static DetachedRelationshipDescription project(RelationshipCountConfiguration configuration, DetachedRelationshipDescription description) {
+        RelationshipPropertyInclusionPolicy policy = configuration.getInclusionPolicies().getRelationshipPropertyInclusionPolicy();
+
+        if (policy instanceof CountViews) {
+            return ((CountViews) policy).project(description);
+        }
+
+        return description;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        return new HashSet<>(views).equals(new HashSet<>(((CountViews) o).views));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return new HashSet<>(views).hashCode();
+    }
+}
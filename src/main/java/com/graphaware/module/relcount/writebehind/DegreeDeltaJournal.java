@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.writebehind;
+
+import com.graphaware.module.relcount.cache.DegreeCodec;
+import com.graphaware.module.relcount.cache.DegreeDeltas;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexHits;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Persistent queue of degree changes that have been committed, but not yet applied to cached degrees.
+ * <p/>
+ * A node's pending degree changes are stored on the node itself, encoded by {@link DegreeCodec} in a single property
+ * whose key is the journal's prefix followed by "PENDING_DEGREES", written by the transaction whose changes they are,
+ * so that they are exactly as durable as the changes themselves. Changes of many transactions are coalesced in the
+ * property. The journal's prefix must differ from the prefix of cached degrees, so that the property is never mistaken
+ * for a cached degree. Nodes with pending changes are found through a legacy node index of the same name, so that
+ * neither the journal nor recovery after a restart ever scan the graph, and the journal never creates any nodes.
+ * <p/>
+ * Writing the property write-locks the node, which the transaction changing its degrees holds anyway, since Neo4j
+ * write-locks both nodes of every relationship that is created or deleted.
+ */
+public class DegreeDeltaJournal {
+
+    private static final String PENDING_DEGREES = "PENDING_DEGREES";
+    private static final String PENDING = "pending";
+    private static final String TRUE = "true";
+
+    private final GraphDatabaseService database;
+    private final String key;
+
+    /**
+     * Construct a new journal.
+     *
+     * @param database in which the journal is stored.
+     * @param prefix   of the journal, must not be the prefix of cached degrees.
+     */
+    public DegreeDeltaJournal(GraphDatabaseService database, String prefix) {
+        this.database = database;
+        this.key = prefix + PENDING_DEGREES;
+    }
+
+    /**
+     * Append degree changes to the journal. Must be called within a transaction, which should hold write locks on the
+     * nodes, acquired in ascending order of their IDs.
+     *
+     * @param deltas to append.
+     */
+    public void append(DegreeDeltas deltas) {
+        for (Long nodeId : deltas.getNodeIds()) {
+            Node node = database.getNodeById(nodeId);
+
+            DegreeDeltas nodeDeltas = new DegreeDeltas();
+            boolean pending = read(node, nodeDeltas);
+            nodeDeltas.add(nodeId, deltas.get(nodeId));
+
+            if (nodeDeltas.get(nodeId).isEmpty()) {
+                //changes have cancelled out
+                if (pending) {
+                    remove(node);
+                }
+            } else {
+                node.setProperty(key, DegreeCodec.encode(nodeDeltas.get(nodeId)));
+                if (!pending) {
+                    index().add(node, PENDING, TRUE);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove deleted nodes from the journal. Must be called within the transaction that deletes them.
+     *
+     * @param deletedNodes nodes deleted by the transaction, with their properties as they were before the deletion.
+     * @param result       to add degree changes the journal has held for the nodes to.
+     */
+    public void forget(Collection<Node> deletedNodes, DegreeDeltas result) {
+        for (Node node : deletedNodes) {
+            if (read(node, result)) {
+                index().remove(node, PENDING);
+            }
+        }
+    }
+
+    /**
+     * Read all degree changes in the journal, e.g. to recover pending degree changes after a restart.
+     *
+     * @return degree changes of all nodes in the journal.
+     */
+    public DegreeDeltas readAll() {
+        DegreeDeltas result = new DegreeDeltas();
+
+        try (Transaction tx = database.beginTx()) {
+            for (Node node : pendingNodes(Integer.MAX_VALUE)) {
+                read(node, result);
+            }
+            tx.success();
+        }
+
+        return result;
+    }
+
+    /**
+     * Remove degree changes of some nodes from the journal. The nodes are write-locked in ascending order of their IDs
+     * first, so that no transaction can append to their changes in the meantime. Must be called within a transaction,
+     * so that the changes are only removed if they are applied within the same transaction.
+     *
+     * @param maxNodes maximum number of nodes whose changes to remove.
+     * @param result   to add the removed degree changes to.
+     * @return number of nodes whose changes have been removed, 0 iff the journal has been empty.
+     */
+    public int drain(int maxNodes, DegreeDeltas result) {
+        List<Node> nodes = pendingNodes(maxNodes);
+
+        try (Transaction tx = database.beginTx()) {
+            for (Node node : nodes) {
+                tx.acquireWriteLock(node);
+            }
+            tx.success();
+        }
+
+        for (Node node : nodes) {
+            if (read(node, result)) {
+                remove(node);
+            } else {
+                //the node has been deleted and its ID reused since it was added to the index
+                index().remove(node, PENDING);
+            }
+        }
+
+        return nodes.size();
+    }
+
+    /**
+     * Find nodes in the journal, skipping ones that have been deleted.
+     *
+     * @param maxNodes maximum number of nodes to find.
+     * @return nodes in ascending order of their IDs.
+     */
+    private List<Node> pendingNodes(int maxNodes) {
+        List<Node> result = new ArrayList<>();
+
+        try (IndexHits<Node> hits = index().get(PENDING, TRUE)) {
+            while (result.size() < maxNodes && hits.hasNext()) {
+                Node node = hits.next();
+                try {
+                    result.add(database.getNodeById(node.getId()));
+                } catch (NotFoundException e) {
+                    //deleted before it was removed from the journal, nothing to apply
+                }
+            }
+        }
+
+        Collections.sort(result, new Comparator<Node>() {
+            @Override
+            public int compare(Node o1, Node o2) {
+                return Long.compare(o1.getId(), o2.getId());
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Read a node's degree changes in the journal.
+     *
+     * @param node   to read changes of.
+     * @param result to add the changes to.
+     * @return true iff the node has had any changes in the journal.
+     */
+    private boolean read(Node node, DegreeDeltas result) {
+        if (!node.hasProperty(key)) {
+            return false;
+        }
+
+        result.add(node.getId(), DegreeCodec.decode((byte[]) node.getProperty(key)));
+        return true;
+    }
+
+    private void remove(Node node) {
+        node.removeProperty(key);
+        index().remove(node, PENDING);
+    }
+
+    private Index<Node> index() {
+        return database.index().forNodes(key);
+    }
+}
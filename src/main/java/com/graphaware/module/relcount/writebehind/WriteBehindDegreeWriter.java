@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.writebehind;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.module.relcount.cache.DecodedDegreeCache;
+import com.graphaware.module.relcount.cache.DegreeDeltas;
+import com.graphaware.module.relcount.cache.NodeBasedDegreeCache;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Background writer applying degree changes queued in a {@link DegreeDeltaJournal} to cached degrees, in batched
+ * transactions. Changes of the same node queued by many transactions are coalesced in the journal, so that every batch
+ * writes the cached degrees of each node at most once.
+ * <p/>
+ * The writer also keeps committed changes that have not been applied yet in memory ({@link #getPendingDeltas()}),
+ * so that they can be taken into account when counting. They are loaded from the journal when the writer is
+ * constructed, e.g. after a crash. A node's changes are removed from the journal in the same transaction that applies
+ * them, so every change is applied exactly once. The transaction holds a write lock on the node from then on, so when
+ * the node's cached degrees are found out of sync with its relationships and recounted, the recount reflects exactly
+ * the changes that have been removed.
+ */
+public class WriteBehindDegreeWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindDegreeWriter.class);
+
+    static final int NODES_PER_TRANSACTION = 1000;
+
+    private final GraphDatabaseService database;
+    private final DegreeDeltaJournal journal;
+    private final NodeBasedDegreeCache cache;
+    private final DecodedDegreeCache decodedDegreeCache;
+    private final Lock lock;
+    private final Lock visibilityLock;
+    private final DegreeDeltas pendingDeltas = new DegreeDeltas();
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * Construct a new writer and load changes that are still in the journal.
+     *
+     * @param database           to write cached degrees to.
+     * @param journal            to read degree changes from.
+     * @param cache              to apply degree changes with.
+     * @param decodedDegreeCache to invalidate nodes whose cached degrees have been written in.
+     * @param lock               held while applying degree changes.
+     * @param visibilityLock     held while committing applied degree changes and removing them from pending ones, so
+     *                           that readers holding its counterpart never see them both applied and pending.
+     */
+    public WriteBehindDegreeWriter(GraphDatabaseService database, DegreeDeltaJournal journal, NodeBasedDegreeCache cache, DecodedDegreeCache decodedDegreeCache, Lock lock, Lock visibilityLock) {
+        this.database = database;
+        this.journal = journal;
+        this.cache = cache;
+        this.decodedDegreeCache = decodedDegreeCache;
+        this.lock = lock;
+        this.visibilityLock = visibilityLock;
+
+        pendingDeltas.addAll(journal.readAll());
+    }
+
+    /**
+     * Queue degree changes of a transaction and remove nodes the transaction deletes from the queue. Must be called
+     * within the transaction.
+     *
+     * @param deltas       to queue.
+     * @param deletedNodes nodes deleted by the transaction.
+     * @return changes to make pending once the transaction has committed, see {@link #committed(DegreeDeltas)}.
+     */
+    public DegreeDeltas enqueue(DegreeDeltas deltas, Collection<Node> deletedNodes) {
+        journal.append(deltas);
+
+        DegreeDeltas forgotten = new DegreeDeltas();
+        journal.forget(deletedNodes, forgotten);
+
+        DegreeDeltas result = new DegreeDeltas();
+        result.addAll(deltas);
+        result.subtractAll(forgotten);
+        return result;
+    }
+
+    /**
+     * Make degree changes visible as pending, once the transaction that has queued them has committed.
+     *
+     * @param deltas returned by {@link #enqueue(DegreeDeltas, Collection)} in the transaction.
+     */
+    public void committed(DegreeDeltas deltas) {
+        pendingDeltas.addAll(deltas);
+    }
+
+    /**
+     * Get degree changes that have been committed, but not yet applied to cached degrees.
+     *
+     * @return pending degree changes.
+     */
+    public DegreeDeltas getPendingDeltas() {
+        return pendingDeltas;
+    }
+
+    /**
+     * Start applying queued degree changes in the background.
+     *
+     * @param interval in ms between the end of a run and the start of the next one.
+     */
+    public synchronized void start(long interval) {
+        if (executor != null) {
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor();
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    //changes stay in the journal
+                    LOG.warn("Could not apply queued degree changes, they will be applied in the next run", e);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop applying queued degree changes in the background. Changes still in the journal are applied after restart.
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Apply all queued degree changes in the calling thread.
+     */
+    public synchronized void flush() {
+        int noNodes = 0;
+
+        for (int applied = applyBatch(); applied > 0; applied = applyBatch()) {
+            noNodes += applied;
+        }
+
+        if (noNodes > 0) {
+            LOG.debug("Applied queued degree changes of " + noNodes + " nodes");
+        }
+    }
+
+    /**
+     * Apply a batch of queued degree changes in a single transaction.
+     *
+     * @return number of nodes whose changes have been applied, 0 iff the journal has been empty.
+     */
+    private int applyBatch() {
+        DegreeDeltas applied = new DegreeDeltas();
+        int noNodes;
+        Set<Long> flushedNodeIds;
+        boolean visibilityLocked = false;
+
+        try {
+            try (Transaction tx = database.beginTx()) {
+                lock.lock();
+                try {
+                    noNodes = journal.drain(NODES_PER_TRANSACTION, applied);
+
+                    cache.startCaching();
+                    try {
+                        for (Long nodeId : applied.getNodeIds()) {
+                            //drained nodes are write-locked, so they can not have been deleted
+                            Node node = database.getNodeById(nodeId);
+
+                            for (Map.Entry<DetachedRelationshipDescription, Integer> delta : applied.get(nodeId).entrySet()) {
+                                cache.handleDegreeChange(node, delta.getKey(), delta.getValue());
+                            }
+                        }
+                    } finally {
+                        flushedNodeIds = cache.endCaching();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                tx.success();
+
+                //the transaction commits under the lock, readers must see the changes either pending or applied
+                visibilityLock.lock();
+                visibilityLocked = true;
+            }
+
+            decodedDegreeCache.invalidate(flushedNodeIds);
+            pendingDeltas.subtractAll(applied);
+        } finally {
+            if (visibilityLocked) {
+                visibilityLock.unlock();
+            }
+        }
+
+        return noNodes;
+    }
+}
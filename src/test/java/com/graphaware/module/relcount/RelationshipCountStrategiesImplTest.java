@@ -17,11 +17,14 @@
 package com.graphaware.module.relcount;
 
 import com.graphaware.common.serialize.Serializer;
+import com.graphaware.module.relcount.compact.CompactionBudget;
+import com.graphaware.module.relcount.compact.PreserveCountedProperties;
 import com.graphaware.module.relcount.compact.ThresholdBasedCompactionStrategy;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
+import static org.neo4j.graphdb.Direction.INCOMING;
 
 /**
  * Unit test for {@link RelationshipCountConfigurationImpl}.
@@ -39,4 +42,16 @@ public class RelationshipCountStrategiesImplTest {
         assertNotSame(Serializer.toString(RelationshipCountConfigurationImpl.defaultConfiguration().with(new ThresholdBasedCompactionStrategy(2)), "test"),
                 Serializer.toString(RelationshipCountConfigurationImpl.defaultConfiguration().with(new ThresholdBasedCompactionStrategy(3)), "test"));
     }
+
+    @Test
+    public void changingThresholdShouldKeepBudgetsAndGeneralizationStrategy() {
+        CompactionBudget budget = new CompactionBudget("FOLLOWS", INCOMING, 5);
+
+        RelationshipCountConfigurationImpl configuration = RelationshipCountConfigurationImpl.defaultConfiguration()
+                .withCompactionBudgets(budget)
+                .withCountedPropertiesPreserved(10)
+                .withThreshold(3, 6);
+
+        assertEquals(new ThresholdBasedCompactionStrategy(3, 6, new PreserveCountedProperties(10)).withBudgets(budget), configuration.getCompactionStrategy());
+    }
 }
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.bulk;
+
+import com.graphaware.common.description.relationship.RelationshipDescription;
+import com.graphaware.module.relcount.RelationshipCountConfigurationImpl;
+import com.graphaware.module.relcount.RelationshipCountModule;
+import com.graphaware.module.relcount.compact.ThresholdBasedCompactionStrategy;
+import com.graphaware.module.relcount.count.CachedRelationshipCounter;
+import com.graphaware.module.relcount.count.NaiveRelationshipCounter;
+import com.graphaware.module.relcount.count.WeighingStrategy;
+import com.graphaware.runtime.GraphAwareRuntime;
+import com.graphaware.runtime.GraphAwareRuntimeFactory;
+import com.graphaware.runtime.config.FluentRuntimeConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.wildcard;
+import static com.graphaware.module.relcount.RelationshipCountConfigurationImpl.defaultConfiguration;
+import static com.graphaware.module.relcount.RelationshipCountModule.FULL_RELCOUNT_DEFAULT_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.neo4j.graphdb.Direction.BOTH;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+
+/**
+ * Test for {@link BulkDegreeBuilder}.
+ */
+public class BulkDegreeBuilderTest {
+
+    private static final int NO_NODES = 5;
+
+    private static final List<RelationshipDescription> DESCRIPTIONS = Arrays.<RelationshipDescription>asList(
+            wildcard("FOLLOWS", OUTGOING),
+            wildcard("FOLLOWS", INCOMING),
+            wildcard("FOLLOWS", OUTGOING).with("strength", equalTo(2)),
+            literal("FOLLOWS", OUTGOING).with("strength", equalTo(1)),
+            wildcard("LIKES", BOTH),
+            wildcard("LIKES", INCOMING)
+    );
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private String prefix;
+    private GraphDatabaseService database;
+
+    @Before
+    public void setUp() {
+        prefix = FluentRuntimeConfiguration.defaultConfiguration().createPrefix(FULL_RELCOUNT_DEFAULT_ID);
+        CountingWeighingStrategy.calls = 0;
+    }
+
+    @After
+    public void tearDown() {
+        if (database != null) {
+            database.shutdown();
+        }
+    }
+
+    @Test
+    public void relationshipsAddedDuringImportShouldBeCountedAcrossSpilledRuns() {
+        BatchInserter inserter = BatchInserters.inserter(temporaryFolder.getRoot().getAbsolutePath());
+        BulkDegreeBuilder builder = new BulkDegreeBuilder(inserter, prefix, configuration(), 2, temporaryFolder.getRoot());
+
+        createNodes(inserter);
+        createRelationship(inserter, builder, 0, 1, "FOLLOWS", 1);
+        createRelationship(inserter, builder, 0, 2, "FOLLOWS", 2);
+        createRelationship(inserter, builder, 1, 0, "FOLLOWS", 1);
+        createRelationship(inserter, builder, 0, 0, "LIKES", 1);
+        createRelationship(inserter, builder, 3, 0, "LIKES", 1);
+        createRelationship(inserter, builder, 2, 3, "FOLLOWS", 2);
+
+        assertEquals(4, builder.build());
+        inserter.shutdown();
+
+        int weighed = CountingWeighingStrategy.calls;
+        startDatabase(configuration());
+
+        assertCountsMatchNaiveCounts();
+        assertEquals(weighed, CountingWeighingStrategy.calls);
+        assertFalse(new BulkBuildMarker(database, prefix).exists());
+    }
+
+    @Test
+    public void relationshipsOfFinishedStoreShouldBeCounted() {
+        BatchInserter inserter = BatchInserters.inserter(temporaryFolder.getRoot().getAbsolutePath());
+        createNodes(inserter);
+        createRelationship(inserter, null, 0, 1, "FOLLOWS", 1);
+        createRelationship(inserter, null, 0, 2, "FOLLOWS", 2);
+        createRelationship(inserter, null, 1, 0, "FOLLOWS", 1);
+        createRelationship(inserter, null, 0, 0, "LIKES", 1);
+        createRelationship(inserter, null, 3, 0, "LIKES", 1);
+
+        BulkDegreeBuilder builder = new BulkDegreeBuilder(inserter, prefix, configuration(), 3, temporaryFolder.getRoot());
+        builder.addAllRelationships(NO_NODES - 1);
+        assertEquals(4, builder.build());
+        inserter.shutdown();
+
+        int weighed = CountingWeighingStrategy.calls;
+        startDatabase(configuration());
+
+        assertCountsMatchNaiveCounts();
+        assertEquals(weighed, CountingWeighingStrategy.calls);
+    }
+
+    @Test
+    public void relationshipsOfNodesAfterGapInNodeIdsShouldBeCounted() {
+        BatchInserter inserter = BatchInserters.inserter(temporaryFolder.getRoot().getAbsolutePath());
+        createNodes(inserter);
+        inserter.createNode(NO_NODES + 2, Collections.<String, Object>emptyMap());
+        createRelationship(inserter, null, 0, 1, "FOLLOWS", 1);
+        createRelationship(inserter, null, NO_NODES + 2, 0, "FOLLOWS", 1);
+
+        BulkDegreeBuilder builder = new BulkDegreeBuilder(inserter, prefix, configuration(), 3, temporaryFolder.getRoot());
+        builder.addAllRelationships(NO_NODES + 2);
+        assertEquals(3, builder.build());
+        inserter.shutdown();
+
+        startDatabase(configuration());
+
+        assertCountsMatchNaiveCounts();
+    }
+
+    @Test
+    public void countsBuiltWithDifferentConfigurationShouldBeRebuilt() {
+        BatchInserter inserter = BatchInserters.inserter(temporaryFolder.getRoot().getAbsolutePath());
+        BulkDegreeBuilder builder = new BulkDegreeBuilder(inserter, prefix, configuration().with(new ThresholdBasedCompactionStrategy(1)), 10, null);
+
+        createNodes(inserter);
+        createRelationship(inserter, builder, 0, 1, "FOLLOWS", 1);
+        createRelationship(inserter, builder, 0, 2, "FOLLOWS", 2);
+        createRelationship(inserter, builder, 0, 0, "LIKES", 1);
+
+        builder.build();
+        inserter.shutdown();
+
+        startDatabase(configuration());
+
+        assertCountsMatchNaiveCounts();
+        assertFalse(new BulkBuildMarker(database, prefix).exists());
+    }
+
+    private RelationshipCountConfigurationImpl configuration() {
+        return defaultConfiguration().with(new CountingWeighingStrategy());
+    }
+
+    private void createNodes(BatchInserter inserter) {
+        for (int i = 0; i < NO_NODES; i++) {
+            inserter.createNode(Collections.<String, Object>emptyMap());
+        }
+    }
+
+    private void createRelationship(BatchInserter inserter, BulkDegreeBuilder builder, long startNodeId, long endNodeId, String type, int strength) {
+        RelationshipType relationshipType = withName(type);
+        Map<String, Object> properties = Collections.<String, Object>singletonMap("strength", strength);
+
+        long id = inserter.createRelationship(startNodeId, endNodeId, relationshipType, properties);
+
+        if (builder != null) {
+            builder.addRelationship(id, startNodeId, endNodeId, relationshipType);
+        }
+    }
+
+    private void startDatabase(RelationshipCountConfigurationImpl configuration) {
+        database = new GraphDatabaseFactory().newEmbeddedDatabase(temporaryFolder.getRoot().getAbsolutePath());
+
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+        runtime.registerModule(new RelationshipCountModule(configuration));
+        runtime.start();
+    }
+
+    private void assertCountsMatchNaiveCounts() {
+        try (Transaction tx = database.beginTx()) {
+            CachedRelationshipCounter cachedCounter = new CachedRelationshipCounter(database);
+            NaiveRelationshipCounter naiveCounter = new NaiveRelationshipCounter();
+
+            for (int i = 0; i < NO_NODES; i++) {
+                Node node = database.getNodeById(i);
+                for (RelationshipDescription description : DESCRIPTIONS) {
+                    assertEquals(naiveCounter.count(node, description), cachedCounter.count(node, description));
+                }
+            }
+
+            tx.success();
+        }
+    }
+
+    /**
+     * Weighs every relationship as 1, counting how many times it has been asked to.
+     */
+    public static class CountingWeighingStrategy implements WeighingStrategy {
+
+        private static volatile int calls;
+
+        @Override
+        public int getRelationshipWeight(Relationship relationship, Node pointOfView) {
+            calls++;
+            return 1;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o != null && getClass() == o.getClass();
+        }
+
+        @Override
+        public int hashCode() {
+            return getClass().hashCode();
+        }
+    }
+}
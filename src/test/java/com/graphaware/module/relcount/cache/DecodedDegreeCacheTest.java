@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static org.junit.Assert.*;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Unit test for {@link DecodedDegreeCache}.
+ */
+public class DecodedDegreeCacheTest {
+
+    @Test
+    public void cachedDegreesShouldBeReturnedAndCounted() {
+        DecodedDegreeCache cache = new DecodedDegreeCache(1000);
+        CachedDegrees degrees = degrees(3);
+
+        assertNull(cache.get(1));
+        cache.put(1, degrees, cache.stamp(1));
+        assertSame(degrees, cache.get(1));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+        assertEquals(4, cache.weight());
+    }
+
+    @Test
+    public void invalidatedDegreesShouldNotBeReturned() {
+        DecodedDegreeCache cache = new DecodedDegreeCache(1000);
+
+        cache.put(1, degrees(3), cache.stamp(1));
+        cache.invalidate(Collections.singleton(1L));
+
+        assertNull(cache.get(1));
+        assertEquals(0, cache.weight());
+    }
+
+    @Test
+    public void degreesReadBeforeInvalidationShouldNotBeCached() {
+        DecodedDegreeCache cache = new DecodedDegreeCache(1000);
+
+        long stamp = cache.stamp(1);
+        cache.invalidate(Collections.singleton(1L));
+        cache.put(1, degrees(3), stamp);
+
+        assertNull(cache.get(1));
+
+        stamp = cache.stamp(1);
+        cache.invalidateAll();
+        cache.put(1, degrees(3), stamp);
+
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    public void leastRecentlyUsedDegreesShouldBeEvictedByWeight() {
+        DecodedDegreeCache cache = new DecodedDegreeCache(16 * 10);
+
+        for (long nodeId = 0; nodeId < 1000; nodeId++) {
+            cache.put(nodeId, degrees(4), cache.stamp(nodeId));
+        }
+
+        assertTrue(cache.weight() <= 16 * 10);
+        assertTrue(cache.getEvictionCount() > 0);
+        assertEquals(cache.weight(), cache.size() * 5);
+    }
+
+    @Test
+    public void degreesHeavierThanCapacityShouldNotBeCached() {
+        DecodedDegreeCache cache = new DecodedDegreeCache(16 * 10);
+
+        cache.put(1, degrees(100), cache.stamp(1));
+
+        assertSame(DecodedDegreeCache.TOO_LARGE, cache.get(1));
+        assertEquals(1, cache.weight());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        cache.invalidate(Collections.singleton(1L));
+
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    public void nothingShouldBeCachedWithZeroCapacity() {
+        DecodedDegreeCache cache = new DecodedDegreeCache(0);
+
+        assertFalse(cache.isEnabled());
+        cache.put(1, degrees(1), cache.stamp(1));
+
+        assertNull(cache.get(1));
+    }
+
+    private CachedDegrees degrees(int size) {
+        Map<DetachedRelationshipDescription, Integer> degrees = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            degrees.put(literal("TEST", OUTGOING).with("k", equalTo(i)), i + 1);
+        }
+        return CachedDegrees.of(degrees);
+    }
+}
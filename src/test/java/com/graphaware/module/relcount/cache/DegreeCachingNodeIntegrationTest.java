@@ -41,7 +41,7 @@ import static com.graphaware.common.description.predicate.Predicates.equalTo;
 import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
 import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.wildcard;
 import static org.junit.Assert.*;
-import static org.neo4j.graphdb.Direction.OUTGOING;
+import static org.neo4j.graphdb.Direction.*;
 
 /**
  * Integration test for {@link com.graphaware.module.relcount.cache.DegreeCachingNode}.
@@ -104,6 +104,29 @@ public abstract class DegreeCachingNodeIntegrationTest {
         assertEquals(6, relationshipCounts.size());
     }
 
+    @Test
+    public void shouldCorrectlyReturnCachedDescriptionsByTypeAndDirection() {
+        setUpRelationshipCounts();
+
+        try (Transaction tx = database.beginTx()) {
+            DegreeCachingNode node = cachingNode();
+
+            assertEquals(5, node.getCachedDescriptions("test", OUTGOING).size());
+            assertEquals(5, node.getCachedDescriptions("test", BOTH).size());
+            assertTrue(node.getCachedDescriptions("test", INCOMING).isEmpty());
+            assertEquals(1, node.getCachedDescriptions("test2", OUTGOING).size());
+            assertTrue(node.getCachedDescriptions("test2", OUTGOING).contains(literal("test2", OUTGOING).with("key3", any())));
+            assertTrue(node.getCachedDescriptions("test3", OUTGOING).isEmpty());
+
+            node.incrementDegree(literal("test", INCOMING).with("key1", equalTo("value1")), 1);
+            node.decrementDegree(literal("test2", OUTGOING).with("key3", equalTo("value1")), 20);
+
+            assertEquals(1, node.getCachedDescriptions("test", INCOMING).size());
+            assertEquals(6, node.getCachedDescriptions("test", BOTH).size());
+            assertTrue(node.getCachedDescriptions("test2", OUTGOING).isEmpty());
+        }
+    }
+
     @Test
     public void incrementingCountOnNonExistingCachedRelationshipShouldMakeItOne() {
         setUpBasicRelationshipCounts();
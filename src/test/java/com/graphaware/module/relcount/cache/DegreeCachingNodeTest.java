@@ -29,6 +29,7 @@ import java.util.*;
 
 import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.mockito.Mockito.*;
 import static org.neo4j.graphdb.Direction.INCOMING;
 import static org.neo4j.graphdb.Direction.OUTGOING;
@@ -167,6 +168,24 @@ public class DegreeCachingNodeTest {
         verifyNoMoreInteractions(mockDegreeCachingStrategy, mockCompactionStrategy, mockNode, mockStrategies);
     }
 
+    @Test
+    public void changesCancellingEachOtherOutShouldNotBeFlushed() {
+        Map<DetachedRelationshipDescription, Integer> cachedCounts = Collections.singletonMap(literal("TEST", OUTGOING).with("k1", Predicates.any()), 2);
+        when(mockDegreeCachingStrategy.readDegrees(mockNode, TEST_PREFIX)).thenReturn(cachedCounts);
+
+        DegreeCachingNode cachingNode = new DegreeCachingNode(mockNode, TEST_PREFIX, mockStrategies);
+
+        cachingNode.decrementDegree(literal("TEST", OUTGOING).with("k1", Predicates.equalTo("v1")), 1);
+        cachingNode.incrementDegree(literal("TEST", OUTGOING).with("k1", Predicates.equalTo("v2")), 1);
+
+        assertEquals(2, (int) cachingNode.getCachedDegrees().get(literal("TEST", OUTGOING).with("k1", Predicates.any())));
+        assertFalse(cachingNode.hasChanges());
+        assertFalse(cachingNode.flush());
+
+        verify(mockDegreeCachingStrategy).readDegrees(mockNode, TEST_PREFIX);
+        verifyNoMoreInteractions(mockDegreeCachingStrategy);
+    }
+
     @Test
     public void incrementingNonExistingCountShouldResultInCorrectDataUponFlush() {
         Map<DetachedRelationshipDescription, Integer> cachedCounts = Collections.singletonMap(literal("TEST", OUTGOING).with("k1", Predicates.any()), 1);
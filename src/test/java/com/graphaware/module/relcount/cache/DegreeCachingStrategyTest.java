@@ -37,6 +37,7 @@ import static com.graphaware.common.description.predicate.Predicates.any;
 import static com.graphaware.common.description.predicate.Predicates.equalTo;
 import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
 import static org.junit.Assert.*;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
 import static org.neo4j.graphdb.Direction.INCOMING;
 import static org.neo4j.graphdb.Direction.OUTGOING;
 
@@ -131,6 +132,43 @@ public abstract class DegreeCachingStrategyTest {
         }
     }
 
+    @Test
+    public void shouldReadEmptyCachedDegreesWhenNoDegreesHaveBeenWritten() {
+        try (Transaction tx = database.beginTx()) {
+            assertTrue(((PartialDegreeCachingStrategy) strategy()).readCachedDegrees(database.getNodeById(0), "TEST", withName("TEST"), OUTGOING).isEmpty());
+        }
+    }
+
+    @Test
+    public void readCachedDegreesShouldContainWrittenOnesOfInterest() {
+        final Map<DetachedRelationshipDescription, Integer> cachedDegrees = new HashMap<>();
+        cachedDegrees.put(literal("TEST", OUTGOING).with("k1", equalTo("v1")), 1);
+        cachedDegrees.put(literal("TEST", OUTGOING).with("k1", equalTo("v2")), 2);
+        cachedDegrees.put(literal("TEST", INCOMING).with("k2", any()), 3);
+        cachedDegrees.put(literal("TEST2", INCOMING), 4);
+
+        txExecutor.executeInTransaction(new VoidReturningCallback() {
+            @Override
+            protected void doInTx(GraphDatabaseService database) {
+                strategy().writeDegrees(database.getNodeById(0), "TEST", cachedDegrees, cachedDegrees.keySet(), new HashSet<DetachedRelationshipDescription>());
+            }
+        });
+
+        try (Transaction tx = database.beginTx()) {
+            CachedDegrees view = ((PartialDegreeCachingStrategy) strategy()).readCachedDegrees(database.getNodeById(0), "TEST", withName("TEST"), INCOMING);
+
+            Map<DetachedRelationshipDescription, Integer> read = new HashMap<>();
+            for (int i = 0; i < view.size(); i++) {
+                read.put(view.getDescription(i), view.getDegree(i));
+            }
+
+            assertEquals(3, (int) read.get(literal("TEST", INCOMING).with("k2", any())));
+            for (Map.Entry<DetachedRelationshipDescription, Integer> entry : read.entrySet()) {
+                assertEquals(cachedDegrees.get(entry.getKey()), entry.getValue());
+            }
+        }
+    }
+
     @Test
     public void strategiesShouldHaveDifferentStringSerializations() {
         assertNotSame(Serializer.toString(new SingleNodePropertyDegreeCachingStrategy(), "test"), Serializer.toString(new NodePropertiesDegreeCachingStrategy(), "test"));
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.graphaware.common.description.predicate.Predicates.*;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.wildcard;
+import static com.graphaware.common.serialize.Serializer.toByteArray;
+import static org.junit.Assert.*;
+import static org.neo4j.graphdb.Direction.*;
+
+/**
+ * Unit test for {@link DegreeCodec}.
+ */
+public class DegreeCodecTest {
+
+    @Test
+    public void emptyDegreesShouldBeEncodedAndDecoded() {
+        byte[] encoded = DegreeCodec.encode(new HashMap<DetachedRelationshipDescription, Integer>());
+
+        assertTrue(DegreeCodec.isEncoded(encoded));
+        assertTrue(DegreeCodec.decode(encoded).isEmpty());
+    }
+
+    @Test
+    public void decodedDegreesShouldEqualEncodedOnes() {
+        Map<DetachedRelationshipDescription, Integer> degrees = testDegrees();
+
+        assertEquals(degrees, DegreeCodec.decode(DegreeCodec.encode(degrees)));
+    }
+
+    @Test
+    public void legacySerializedDegreesShouldBeDecoded() {
+        Map<DetachedRelationshipDescription, Integer> degrees = testDegrees();
+
+        byte[] legacy = toByteArray(degrees);
+
+        assertFalse(DegreeCodec.isEncoded(legacy));
+        assertEquals(degrees, DegreeCodec.decode(legacy));
+    }
+
+    @Test
+    public void decodedPartitionedDegreesShouldEqualEncodedOnes() {
+        Map<DetachedRelationshipDescription, Integer> degrees = testDegrees();
+
+        byte[] encoded = DegreeCodec.encodePartitioned(degrees);
+
+        assertTrue(DegreeCodec.isEncoded(encoded));
+        assertEquals(degrees, DegreeCodec.decode(encoded));
+    }
+
+    @Test
+    public void partitionedDegreesShouldBePartiallyDecoded() {
+        byte[] encoded = DegreeCodec.encodePartitioned(testDegrees());
+
+        Map<DetachedRelationshipDescription, Integer> expected = new HashMap<>();
+        expected.put(literal("TEST", OUTGOING), 1);
+        expected.put(literal("TEST", OUTGOING).with("k1", equalTo("v1")), 2);
+        expected.put(literal("TEST", OUTGOING).with("k1", equalTo("v1")).with("k2", equalTo(3)), 300);
+        assertEquals(expected, DegreeCodec.decode(encoded, "TEST", OUTGOING));
+
+        expected = new HashMap<>();
+        expected.put(literal("TEST2", INCOMING).with("k1", undefined()).with("k3", equalTo(2.5)), 4);
+        expected.put(wildcard("TEST2", OUTGOING).with("k1", equalTo("v1")), 5);
+        assertEquals(expected, DegreeCodec.decode(encoded, "TEST2", BOTH));
+
+        assertTrue(DegreeCodec.decode(encoded, "TEST3", BOTH).isEmpty());
+    }
+
+    @Test
+    public void nonPartitionedDegreesShouldBeFilteredWhenPartiallyDecoded() {
+        Map<DetachedRelationshipDescription, Integer> expected = new HashMap<>();
+        expected.put(literal("TEST", INCOMING).with("k2", any()), 70000);
+
+        assertEquals(expected, DegreeCodec.decode(DegreeCodec.encode(testDegrees()), "TEST", INCOMING));
+        assertEquals(expected, DegreeCodec.decode(toByteArray(testDegrees()), "TEST", INCOMING));
+    }
+
+    @Test
+    public void degreesShouldBeDecodedIntoReadOnlyView() {
+        Map<DetachedRelationshipDescription, Integer> expected = new HashMap<>();
+        expected.put(literal("TEST", INCOMING).with("k2", any()), 70000);
+
+        assertEquals(expected, toMap(DegreeCodec.decodeCachedDegrees(DegreeCodec.encode(testDegrees()), "TEST", INCOMING)));
+        assertEquals(expected, toMap(DegreeCodec.decodeCachedDegrees(DegreeCodec.encodePartitioned(testDegrees()), "TEST", INCOMING)));
+        assertEquals(expected, toMap(DegreeCodec.decodeCachedDegrees(toByteArray(testDegrees()), "TEST", INCOMING)));
+
+        assertEquals(testDegrees(), toMap(DegreeCodec.decodeCachedDegrees(DegreeCodec.encode(testDegrees()), null, BOTH)));
+        assertTrue(DegreeCodec.decodeCachedDegrees(DegreeCodec.encode(testDegrees()), "TEST3", BOTH).isEmpty());
+    }
+
+    @Test
+    public void encodedDegreesShouldBeSmallerThanSerializedOnes() {
+        Map<DetachedRelationshipDescription, Integer> degrees = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            degrees.put(literal("FOLLOWS", i % 2 == 0 ? INCOMING : OUTGOING).with("strength", equalTo(i / 2)).with("timestamp", any()), i);
+        }
+
+        assertTrue(DegreeCodec.encode(degrees).length < toByteArray(degrees).length);
+    }
+
+    @Test
+    public void equalToPredicatesOfAllValueTypesShouldBeEncodedAndDecoded() {
+        Map<DetachedRelationshipDescription, Integer> degrees = new HashMap<>();
+        degrees.put(literal("TEST", OUTGOING).with("string", equalTo("value")), 1);
+        degrees.put(literal("TEST", OUTGOING).with("long", equalTo(Long.MIN_VALUE)), 2);
+        degrees.put(literal("TEST", OUTGOING).with("int", equalTo(-42)), 3);
+        degrees.put(literal("TEST", OUTGOING).with("short", equalTo((short) 7)), 4);
+        degrees.put(literal("TEST", OUTGOING).with("byte", equalTo((byte) -1)), 5);
+        degrees.put(literal("TEST", OUTGOING).with("char", equalTo('c')), 6);
+        degrees.put(literal("TEST", OUTGOING).with("boolean", equalTo(true)), 7);
+        degrees.put(literal("TEST", OUTGOING).with("boolean", equalTo(false)), 8);
+        degrees.put(literal("TEST", OUTGOING).with("double", equalTo(-2.5)), 9);
+        degrees.put(literal("TEST", OUTGOING).with("float", equalTo(1.5f)), 10);
+        degrees.put(literal("TEST", OUTGOING).with("array", equalTo(new int[]{1, 2})), 11);
+
+        assertEquals(degrees, DegreeCodec.decode(DegreeCodec.encode(degrees)));
+        assertEquals(degrees, DegreeCodec.decode(DegreeCodec.encodePartitioned(degrees)));
+    }
+
+    @Test
+    public void partitionedDegreesShouldShareStrings() {
+        Map<DetachedRelationshipDescription, Integer> degrees = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            degrees.put(literal("TYPE" + i, OUTGOING).with("country", equalTo("United Kingdom")), i + 1);
+            degrees.put(literal("TYPE" + i, INCOMING).with("country", equalTo("United Kingdom")), i + 1);
+        }
+
+        byte[] encoded = DegreeCodec.encodePartitioned(degrees);
+
+        assertEquals(1, occurrences(encoded, "United Kingdom"));
+        assertEquals(1, occurrences(encoded, "country"));
+        assertEquals(degrees, DegreeCodec.decode(encoded));
+    }
+
+    @Test
+    public void legacyVersionsShouldBeDecoded() {
+        DegreeCodec.Writer writer = new DegreeCodec.Writer();
+        writer.writeByte(DegreeCodec.MAGIC_1);
+        writer.writeByte(DegreeCodec.MAGIC_2);
+        writer.writeByte(DegreeCodec.VERSION_1);
+        writer.writeVarInt(1);
+        writer.writeString("TEST");
+        writer.writeVarInt(0);
+        writer.writeVarInt(1);
+        writer.writeVarInt(0);
+        writer.writeByte((byte) 0);
+        writer.writeByte((byte) 0);
+        writer.writeVarInt(0);
+        writer.writeSignedVarInt(5);
+
+        Map<DetachedRelationshipDescription, Integer> expected = new HashMap<>();
+        expected.put(literal("TEST", OUTGOING), 5);
+
+        assertEquals(expected, DegreeCodec.decode(writer.toByteArray()));
+    }
+
+    @Test
+    public void bytesWithMagicButUnknownVersionShouldNotBeConsideredEncoded() {
+        assertFalse(DegreeCodec.isEncoded(new byte[]{DegreeCodec.MAGIC_1, DegreeCodec.MAGIC_2, 0}));
+        assertFalse(DegreeCodec.isEncoded(new byte[]{DegreeCodec.MAGIC_1, DegreeCodec.MAGIC_2, 99}));
+    }
+
+    private int occurrences(byte[] bytes, String string) {
+        byte[] pattern = string.getBytes(Charset.forName("UTF-8"));
+        int result = 0;
+        for (int i = 0; i + pattern.length <= bytes.length; i++) {
+            if (Arrays.equals(pattern, Arrays.copyOfRange(bytes, i, i + pattern.length))) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    private Map<DetachedRelationshipDescription, Integer> toMap(CachedDegrees cachedDegrees) {
+        Map<DetachedRelationshipDescription, Integer> result = new HashMap<>();
+        for (int i = 0; i < cachedDegrees.size(); i++) {
+            result.put(cachedDegrees.getDescription(i), cachedDegrees.getDegree(i));
+        }
+        return result;
+    }
+
+    private Map<DetachedRelationshipDescription, Integer> testDegrees() {
+        Map<DetachedRelationshipDescription, Integer> degrees = new HashMap<>();
+        degrees.put(literal("TEST", OUTGOING), 1);
+        degrees.put(literal("TEST", OUTGOING).with("k1", equalTo("v1")), 2);
+        degrees.put(literal("TEST", OUTGOING).with("k1", equalTo("v1")).with("k2", equalTo(3)), 300);
+        degrees.put(literal("TEST", INCOMING).with("k2", any()), 70000);
+        degrees.put(literal("TEST2", INCOMING).with("k1", undefined()).with("k3", equalTo(2.5)), 4);
+        degrees.put(wildcard("TEST2", OUTGOING).with("k1", equalTo("v1")), 5);
+        return degrees;
+    }
+}
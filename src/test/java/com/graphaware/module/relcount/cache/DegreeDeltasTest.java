@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static com.graphaware.common.description.predicate.Predicates.any;
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static org.junit.Assert.*;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Unit test for {@link DegreeDeltas}.
+ */
+public class DegreeDeltasTest {
+
+    private static final DetachedRelationshipDescription ONE = literal("test", OUTGOING).with("key", equalTo("one"));
+    private static final DetachedRelationshipDescription TWO = literal("test", OUTGOING).with("key", equalTo("two"));
+
+    @Test
+    public void deltasShouldBeCoalescedAndCancellingOnesRemoved() {
+        DegreeDeltas deltas = new DegreeDeltas();
+        deltas.add(1, ONE, 2);
+        deltas.add(1, ONE, 3);
+        deltas.add(1, TWO, 1);
+        deltas.add(2, TWO, 1);
+
+        assertEquals(5, (int) deltas.get(1).get(ONE));
+        assertEquals(1, (int) deltas.get(1).get(TWO));
+
+        deltas.add(2, TWO, -1);
+        deltas.add(1, ONE, -5);
+
+        assertEquals(Collections.singleton(1L), deltas.getNodeIds());
+        assertEquals(Collections.singletonMap(TWO, 1), deltas.get(1));
+        assertTrue(deltas.get(2).isEmpty());
+    }
+
+    @Test
+    public void subtractingAllDeltasShouldLeaveNoDeltas() {
+        DegreeDeltas deltas = new DegreeDeltas();
+        deltas.add(1, ONE, 2);
+        deltas.add(2, TWO, -1);
+
+        DegreeDeltas applied = new DegreeDeltas();
+        applied.addAll(deltas);
+
+        deltas.subtractAll(applied);
+
+        assertTrue(deltas.isEmpty());
+    }
+
+    @Test
+    public void deltasShouldBeAppliedToMoreGeneralCachedDegrees() {
+        DegreeDeltas deltas = new DegreeDeltas();
+        deltas.add(1, ONE, 2);
+        deltas.add(1, TWO, -1);
+
+        DetachedRelationshipDescription general = literal("test", OUTGOING).with("key", any());
+        CachedDegrees cachedDegrees = CachedDegrees.of(Collections.singletonMap(general, 3));
+
+        CachedDegrees result = deltas.applyTo(1, cachedDegrees);
+
+        assertEquals(1, result.size());
+        assertEquals(general, result.getDescription(0));
+        assertEquals(4, result.getDegree(0));
+
+        assertSame(cachedDegrees, deltas.applyTo(2, cachedDegrees));
+    }
+
+    @Test
+    public void deltasWithNoCachedDegreeShouldBeAppliedAsNewDegrees() {
+        DegreeDeltas deltas = new DegreeDeltas();
+        deltas.add(1, ONE, 2);
+        deltas.add(1, TWO, -1);
+
+        CachedDegrees result = deltas.applyTo(1, CachedDegrees.EMPTY);
+
+        assertEquals(1, result.size());
+        assertEquals(ONE, result.getDescription(0));
+        assertEquals(2, result.getDegree(0));
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.relationship.RelationshipDescription;
+import com.graphaware.module.relcount.RelationshipCountConfiguration;
+import com.graphaware.module.relcount.RelationshipCountConfigurationImpl;
+import com.graphaware.module.relcount.RelationshipCountModule;
+import com.graphaware.module.relcount.count.CachedRelationshipCounter;
+import com.graphaware.module.relcount.count.NaiveRelationshipCounter;
+import com.graphaware.runtime.GraphAwareRuntime;
+import com.graphaware.runtime.GraphAwareRuntimeFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.DeadlockDetectedException;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.wildcard;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+
+/**
+ * Concurrency stress test for {@link NodeBasedDegreeCache}. Writer threads change properties of their own relationships
+ * to a few shared hub nodes, in random order, so the only node locks they compete for are the ones taken when cached
+ * degrees are flushed. Deadlock rate and throughput are logged.
+ */
+public class NodeBasedDegreeCacheConcurrencyTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NodeBasedDegreeCacheConcurrencyTest.class);
+
+    private static final int NO_HUBS = 4;
+    private static final int NO_THREADS = 8;
+    private static final int NO_TRANSACTIONS = 100;
+    private static final int NO_CHANGES = 3;
+    private static final int NO_VALUES = 3;
+
+    private GraphDatabaseService database;
+    private final List<Long> hubIds = new ArrayList<>();
+    private final List<List<Long>> relationshipIds = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+        runtime.registerModule(new RelationshipCountModule(configuration()));
+        runtime.start();
+
+        try (Transaction tx = database.beginTx()) {
+            List<Node> hubs = new ArrayList<>();
+            for (int i = 0; i < NO_HUBS; i++) {
+                Node hub = database.createNode();
+                hubs.add(hub);
+                hubIds.add(hub.getId());
+            }
+
+            for (int i = 0; i < NO_THREADS; i++) {
+                Node leaf = database.createNode();
+                List<Long> ownRelationshipIds = new ArrayList<>();
+                for (Node hub : hubs) {
+                    Relationship relationship = leaf.createRelationshipTo(hub, withName("LINKS"));
+                    relationship.setProperty("value", 0);
+                    ownRelationshipIds.add(relationship.getId());
+                }
+                relationshipIds.add(ownRelationshipIds);
+            }
+
+            tx.success();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    public void concurrentWritersToSharedHubsShouldNotDeadlockAndKeepCachedCountsConsistent() throws InterruptedException {
+        final AtomicInteger committed = new AtomicInteger();
+        final AtomicInteger deadlocks = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(NO_THREADS);
+        long start = System.currentTimeMillis();
+
+        for (int i = 0; i < NO_THREADS; i++) {
+            final List<Long> ownRelationshipIds = relationshipIds.get(i);
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random();
+                    for (int j = 0; j < NO_TRANSACTIONS; j++) {
+                        while (true) {
+                            try {
+                                changeRelationships(ownRelationshipIds, random);
+                                committed.incrementAndGet();
+                                break;
+                            } catch (RuntimeException e) {
+                                if (!isDeadlock(e)) {
+                                    throw e;
+                                }
+                                deadlocks.incrementAndGet();
+                            }
+                        }
+                    }
+                }
+            });
+        }
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.MINUTES));
+
+        long duration = Math.max(1, System.currentTimeMillis() - start);
+        LOG.info(NO_THREADS + " writers committed " + committed.get() + " transactions in " + duration + " ms ("
+                + (committed.get() * 1000 / duration) + " tx/s), " + deadlocks.get() + " deadlocks ("
+                + (100.0 * deadlocks.get() / (committed.get() + deadlocks.get())) + "%)");
+
+        assertEquals(NO_THREADS * NO_TRANSACTIONS, committed.get());
+        if (!lockUpgradesExpected()) {
+            assertEquals(0, deadlocks.get());
+        }
+        assertCachedCountsMatchNaiveCounts();
+    }
+
+    protected RelationshipCountConfiguration configuration() {
+        return RelationshipCountConfigurationImpl.defaultConfiguration();
+    }
+
+    /**
+     * @return true iff read-locked nodes can be write-locked later in a transaction, which Neo4j may detect as a deadlock.
+     */
+    protected boolean lockUpgradesExpected() {
+        return false;
+    }
+
+    private void changeRelationships(List<Long> ownRelationshipIds, Random random) {
+        List<Long> shuffled = new ArrayList<>(ownRelationshipIds);
+        Collections.shuffle(shuffled, random);
+
+        try (Transaction tx = database.beginTx()) {
+            for (Long relationshipId : shuffled.subList(0, NO_CHANGES)) {
+                Relationship relationship = database.getRelationshipById(relationshipId);
+                relationship.setProperty("value", ((int) relationship.getProperty("value") + 1 + random.nextInt(NO_VALUES - 1)) % NO_VALUES);
+            }
+            tx.success();
+        }
+    }
+
+    private boolean isDeadlock(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DeadlockDetectedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void assertCachedCountsMatchNaiveCounts() {
+        List<RelationshipDescription> descriptions = new ArrayList<>();
+        for (int value = 0; value < NO_VALUES; value++) {
+            descriptions.add(wildcard("LINKS", INCOMING).with("value", equalTo(value)));
+            descriptions.add(wildcard("LINKS", OUTGOING).with("value", equalTo(value)));
+        }
+
+        try (Transaction tx = database.beginTx()) {
+            CachedRelationshipCounter cachedCounter = new CachedRelationshipCounter(database);
+            NaiveRelationshipCounter naiveCounter = new NaiveRelationshipCounter();
+
+            for (Node node : database.getAllNodes()) {
+                for (RelationshipDescription description : descriptions) {
+                    assertEquals(naiveCounter.count(node, description), cachedCounter.count(node, description));
+                }
+            }
+
+            tx.success();
+        }
+    }
+}
@@ -29,14 +29,14 @@ import org.junit.Test;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.test.TestGraphDatabaseFactory;
 
 import java.util.Collections;
 
 import static com.graphaware.common.description.predicate.Predicates.equalTo;
 import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.fail;
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 import static org.neo4j.graphdb.Direction.*;
 import static org.neo4j.graphdb.DynamicRelationshipType.withName;
@@ -141,11 +141,9 @@ public class NodeBasedDegreeCacheTest {
         cache.startCaching();
 
         cache.handleCreatedRelationship(mockRelationship, mockNodeWrapper, OUTGOING);
-        verify(mockDegreeCachingNode).incrementDegree(literal("TEST", OUTGOING).with("k1", equalTo("v1")), 1);
-        verifyNoMoreInteractions(mockDegreeCachingNode);
-
         cache.endCaching();
 
+        verify(mockDegreeCachingNode).incrementDegree(literal("TEST", OUTGOING).with("k1", equalTo("v1")), 1);
         verify(mockDegreeCachingNode).flush();
         verifyNoMoreInteractions(mockDegreeCachingNode);
     }
@@ -183,9 +181,9 @@ public class NodeBasedDegreeCacheTest {
         cache.startCaching();
 
         cache.handleCreatedRelationship(mockRelationship, mockNodeWrapper, OUTGOING);
-        verify(mockDegreeCachingNode).incrementDegree(literal("TEST", OUTGOING).with("k1", equalTo("v1")), 100);
-
         cache.endCaching();
+
+        verify(mockDegreeCachingNode).incrementDegree(literal("TEST", OUTGOING).with("k1", equalTo("v1")), 100);
     }
 
     @Test
@@ -212,11 +210,9 @@ public class NodeBasedDegreeCacheTest {
         cache.startCaching();
 
         cache.handleDeletedRelationship(mockRelationship, mockNodeWrapper, OUTGOING);
-        verify(mockDegreeCachingNode).decrementDegree(literal("TEST", OUTGOING).with("k1", equalTo("v1")), 1);
-        verifyNoMoreInteractions(mockDegreeCachingNode);
-
         cache.endCaching();
 
+        verify(mockDegreeCachingNode).decrementDegree(literal("TEST", OUTGOING).with("k1", equalTo("v1")), 1);
         verify(mockDegreeCachingNode).flush();
         verifyNoMoreInteractions(mockDegreeCachingNode);
     }
@@ -254,9 +250,9 @@ public class NodeBasedDegreeCacheTest {
         cache.startCaching();
 
         cache.handleDeletedRelationship(mockRelationship, mockNodeWrapper, OUTGOING);
-        verify(mockDegreeCachingNode).decrementDegree(literal("TEST", OUTGOING).with("k1", equalTo("v1")), 100);
-
         cache.endCaching();
+
+        verify(mockDegreeCachingNode).decrementDegree(literal("TEST", OUTGOING).with("k1", equalTo("v1")), 100);
     }
 
     @Test
@@ -287,9 +283,112 @@ public class NodeBasedDegreeCacheTest {
         verifyNoMoreInteractions(mockDegreeCachingNode);
     }
 
+    @Test
+    public void changesShouldBeAggregatedIntoNetDegreeChanges() {
+        Node mockStartNode = mock(Node.class);
+        when(mockStartNode.getId()).thenReturn(123L);
+        when(mockStartNode.getGraphDatabase()).thenReturn(database);
+
+        Node mockEndNode = mock(Node.class);
+        when(mockEndNode.getId()).thenReturn(124L);
+        when(mockEndNode.getGraphDatabase()).thenReturn(database);
+
+        NodeWrapper mockNodeWrapper = mock(NodeWrapper.class);
+        when(mockNodeWrapper.getId()).thenReturn(123L);
+        when(mockNodeWrapper.getWrapped()).thenReturn(mockStartNode);
+
+        Relationship mockRelationship = mock(Relationship.class);
+        when(mockRelationship.getType()).thenReturn(withName("TEST"));
+        when(mockRelationship.getStartNode()).thenReturn(mockStartNode);
+        when(mockRelationship.getEndNode()).thenReturn(mockEndNode);
+        when(mockRelationship.getPropertyKeys()).thenReturn(Collections.singleton("k1"));
+        when(mockRelationship.getProperty("k1")).thenReturn("v1");
+
+        cache.startCaching();
+        cache.handleCreatedRelationship(mockRelationship, mockNodeWrapper, OUTGOING);
+        cache.handleCreatedRelationship(mockRelationship, mockNodeWrapper, OUTGOING);
+        cache.handleCreatedRelationship(mockRelationship, mockNodeWrapper, OUTGOING);
+        cache.handleDeletedRelationship(mockRelationship, mockNodeWrapper, OUTGOING);
+        assertEquals(Collections.singleton(123L), cache.endCaching());
+
+        verify(mockDegreeCachingNode).incrementDegree(literal("TEST", OUTGOING).with("k1", equalTo("v1")), 2);
+        verify(mockDegreeCachingNode).flush();
+        verifyNoMoreInteractions(mockDegreeCachingNode);
+    }
+
+    @Test
+    public void changesCancellingEachOtherOutShouldNotTouchTheNode() {
+        Node mockStartNode = mock(Node.class);
+        when(mockStartNode.getId()).thenReturn(123L);
+        when(mockStartNode.getGraphDatabase()).thenReturn(database);
+
+        Node mockEndNode = mock(Node.class);
+        when(mockEndNode.getId()).thenReturn(124L);
+        when(mockEndNode.getGraphDatabase()).thenReturn(database);
+
+        NodeWrapper mockNodeWrapper = mock(NodeWrapper.class);
+        when(mockNodeWrapper.getId()).thenReturn(123L);
+        when(mockNodeWrapper.getWrapped()).thenReturn(mockStartNode);
+
+        Relationship mockRelationship = mock(Relationship.class);
+        when(mockRelationship.getType()).thenReturn(withName("TEST"));
+        when(mockRelationship.getStartNode()).thenReturn(mockStartNode);
+        when(mockRelationship.getEndNode()).thenReturn(mockEndNode);
+        when(mockRelationship.getPropertyKeys()).thenReturn(Collections.singleton("k1"));
+        when(mockRelationship.getProperty("k1")).thenReturn("v1");
+
+        cache.startCaching();
+        cache.handleDeletedRelationship(mockRelationship, mockNodeWrapper, OUTGOING);
+        cache.handleCreatedRelationship(mockRelationship, mockNodeWrapper, OUTGOING);
+        assertTrue(cache.endCaching().isEmpty());
+
+        assertEquals(0, ((TestNodeBasedDegreeCache) cache).createdDegreeCachingNodes);
+        verifyZeroInteractions(mockDegreeCachingNode);
+    }
+
+    @Test
+    public void changesOfShardedNodesShouldBeAppliedOnlyOnce() {
+        final int[] createdDegreeCachingNodes = {0};
+
+        NodeBasedDegreeCache shardingCache = new NodeBasedDegreeCache("TEST_ID", RelationshipCountConfigurationImpl.defaultConfiguration().with(new ShardedDegreeCachingStrategy(4, 1))) {
+            @Override
+            protected DegreeCachingNode newDegreeCachingNode(Node node, String prefix, RelationshipCountConfiguration configuration) {
+                createdDegreeCachingNodes[0]++;
+                return super.newDegreeCachingNode(node, prefix, configuration);
+            }
+        };
+
+        long nodeId;
+        try (Transaction tx = database.beginTx()) {
+            Node node = database.createNode();
+            nodeId = node.getId();
+            Relationship relationship = node.createRelationshipTo(database.createNode(), withName("TEST"));
+
+            shardingCache.startCaching();
+            shardingCache.handleCreatedRelationship(relationship, node, OUTGOING);
+            shardingCache.endCaching();
+            tx.success();
+        }
+
+        createdDegreeCachingNodes[0] = 0;
+
+        try (Transaction tx = database.beginTx()) {
+            Node node = database.getNodeById(nodeId);
+            Relationship relationship = node.createRelationshipTo(database.createNode(), withName("TEST"));
+
+            shardingCache.startCaching();
+            shardingCache.handleCreatedRelationship(relationship, node, OUTGOING);
+            shardingCache.endCaching();
+            tx.success();
+        }
+
+        assertEquals(1, createdDegreeCachingNodes[0]);
+    }
+
     private class TestNodeBasedDegreeCache extends NodeBasedDegreeCache {
 
         private final boolean doNotCheckConfiguration;
+        private int createdDegreeCachingNodes;
 
         private TestNodeBasedDegreeCache(String id, RelationshipCountConfiguration relationshipCountConfiguration) {
             this(id, relationshipCountConfiguration, false);
@@ -302,9 +401,11 @@ public class NodeBasedDegreeCacheTest {
 
         @Override
         protected DegreeCachingNode newDegreeCachingNode(Node node, String prefix, RelationshipCountConfiguration configuration) {
+            createdDegreeCachingNodes++;
             mockDegreeCachingNode = mock(DegreeCachingNode.class);
             long id = node.getId();
             when(mockDegreeCachingNode.getId()).thenReturn(id);
+            when(mockDegreeCachingNode.flush()).thenReturn(true);
 
             assertEquals(prefix, RuntimeConfiguration.GA_PREFIX + "TEST_ID" + "_");
             if (!doNotCheckConfiguration) {
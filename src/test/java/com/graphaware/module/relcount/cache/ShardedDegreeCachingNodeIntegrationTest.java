@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.module.relcount.RelationshipCountConfiguration;
+import com.graphaware.module.relcount.RelationshipCountConfigurationImpl;
+import com.graphaware.module.relcount.RelationshipCountModule;
+import com.graphaware.runtime.config.FluentRuntimeConfiguration;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.Arrays;
+
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static com.graphaware.module.relcount.RelationshipCountModule.FULL_RELCOUNT_DEFAULT_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Integration test for {@link com.graphaware.module.relcount.cache.DegreeCachingNode} with {@link ShardedDegreeCachingStrategy},
+ * sharding degrees of nodes as soon as they have any.
+ */
+public class ShardedDegreeCachingNodeIntegrationTest extends DegreeCachingNodeIntegrationTest {
+
+    private static final String PREFIX = FluentRuntimeConfiguration.defaultConfiguration().createPrefix(FULL_RELCOUNT_DEFAULT_ID);
+
+    @Override
+    protected DegreeCachingNode cachingNode() {
+        return new DegreeCachingNode(database.getNodeById(0), PREFIX, getConfiguration());
+    }
+
+    @Override
+    protected RelationshipCountConfiguration getConfiguration() {
+        return RelationshipCountConfigurationImpl.defaultConfiguration().with(new ShardedDegreeCachingStrategy(4, 1));
+    }
+
+    @Test
+    public void degreeChangesOfShardedNodeShouldBeWrittenToShards() {
+        byte[] written;
+
+        try (Transaction tx = database.beginTx()) {
+            DegreeCachingNode node = cachingNode();
+            node.incrementDegree(literal("test", OUTGOING).with("key1", equalTo("value1")), 2);
+            node.flush();
+
+            written = (byte[]) database.getNodeById(0).getProperty(PREFIX);
+            assertTrue(database.getNodeById(0).hasProperty(PREFIX + "SHARDS"));
+
+            tx.success();
+        }
+
+        try (Transaction tx = database.beginTx()) {
+            DegreeCachingNode node = cachingNode();
+            node.incrementDegree(literal("test", OUTGOING).with("key1", equalTo("value1")), 3);
+            node.decrementDegree(literal("test", OUTGOING).with("key1", equalTo("value1")), 1);
+            node.incrementDegree(literal("test", OUTGOING).with("key1", equalTo("value2")), 1);
+            node.flush();
+            tx.success();
+        }
+
+        try (Transaction tx = database.beginTx()) {
+            assertTrue(Arrays.equals(written, (byte[]) database.getNodeById(0).getProperty(PREFIX)));
+            assertEquals(4, (int) cachingNode().getCachedDegrees().get(literal("test", OUTGOING).with("key1", equalTo("value1"))));
+            assertEquals(1, (int) cachingNode().getCachedDegrees().get(literal("test", OUTGOING).with("key1", equalTo("value2"))));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void shardsShouldBeDeletedWhenDegreesAreWrittenAsWhole() {
+        shardNode();
+
+        try (Transaction tx = database.beginTx()) {
+            DegreeCachingNode node = cachingNode();
+            node.incrementDegree(literal("test", OUTGOING).with("key1", equalTo("value2")), 1);
+            node.flushWhole();
+            tx.success();
+        }
+
+        try (Transaction tx = database.beginTx()) {
+            assertFalse(database.getNodeById(0).hasProperty(PREFIX + "SHARDS"));
+            assertEquals(0, numberOfShards());
+            assertEquals(3, (int) cachingNode().getCachedDegrees().get(literal("test", OUTGOING).with("key1", equalTo("value1"))));
+            assertEquals(1, (int) cachingNode().getCachedDegrees().get(literal("test", OUTGOING).with("key1", equalTo("value2"))));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void shardsShouldBeDeletedWhenCachedDegreesAreCleared() {
+        shardNode();
+
+        new RelationshipCountModule(FULL_RELCOUNT_DEFAULT_ID, getConfiguration()).reinitialize(database, null);
+
+        try (Transaction tx = database.beginTx()) {
+            assertFalse(database.getNodeById(0).hasProperty(PREFIX + "SHARDS"));
+            assertEquals(0, numberOfShards());
+            tx.success();
+        }
+    }
+
+    private void shardNode() {
+        try (Transaction tx = database.beginTx()) {
+            DegreeCachingNode node = cachingNode();
+            node.incrementDegree(literal("test", OUTGOING).with("key1", equalTo("value1")), 2);
+            node.flush();
+            tx.success();
+        }
+
+        try (Transaction tx = database.beginTx()) {
+            DegreeCachingNode node = cachingNode();
+            node.incrementDegree(literal("test", OUTGOING).with("key1", equalTo("value1")), 1);
+            node.flush();
+            tx.success();
+        }
+
+        try (Transaction tx = database.beginTx()) {
+            assertEquals(4, numberOfShards());
+            tx.success();
+        }
+    }
+
+    private int numberOfShards() {
+        int result = 0;
+
+        try (ResourceIterator<Node> shards = database.findNodes(DynamicLabel.label(PREFIX + "DEGREE_SHARD"))) {
+            while (shards.hasNext()) {
+                shards.next();
+                result++;
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.module.relcount.RelationshipCountConfiguration;
+import com.graphaware.module.relcount.RelationshipCountConfigurationImpl;
+
+/**
+ * {@link NodeBasedDegreeCacheConcurrencyTest} with {@link ShardedDegreeCachingStrategy}, sharding degrees of nodes as
+ * soon as they have any. Changing relationship properties does not lock the hubs, so writers only read-lock them,
+ * unless their changes delete cached degrees (e.g. when no relationship has a certain value any more).
+ */
+public class ShardedNodeBasedDegreeCacheConcurrencyTest extends NodeBasedDegreeCacheConcurrencyTest {
+
+    @Override
+    protected RelationshipCountConfiguration configuration() {
+        return RelationshipCountConfigurationImpl.defaultConfiguration().with(new ShardedDegreeCachingStrategy(4, 1));
+    }
+
+    @Override
+    protected boolean lockUpgradesExpected() {
+        return true;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.compact;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.neo4j.graphdb.Direction.BOTH;
+import static org.neo4j.graphdb.Direction.INCOMING;
+
+/**
+ * Unit test for {@link CompactionBudget}.
+ */
+public class CompactionBudgetTest {
+
+    @Test
+    public void shouldParseBudget() {
+        assertEquals(new CompactionBudget("FOLLOWS", INCOMING, 50), CompactionBudget.parse(" FOLLOWS:incoming:50 "));
+    }
+
+    @Test
+    public void toStringShouldBeParseable() {
+        CompactionBudget budget = new CompactionBudget("LIKES", BOTH, 20);
+
+        assertEquals("LIKES:BOTH:20", budget.toString());
+        assertEquals(budget, CompactionBudget.parse(budget.toString()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void budgetWithoutNumberShouldBeRejected() {
+        CompactionBudget.parse("FOLLOWS:INCOMING");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidNumberShouldBeRejected() {
+        CompactionBudget.parse("FOLLOWS:INCOMING:many");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveBudgetShouldBeRejected() {
+        new CompactionBudget("FOLLOWS", INCOMING, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void multipleBudgetsForSameTypeAndDirectionShouldBeRejected() {
+        new ThresholdBasedCompactionStrategy(10).withBudgets(new CompactionBudget("FOLLOWS", INCOMING, 5), new CompactionBudget("FOLLOWS", INCOMING, 10));
+    }
+}
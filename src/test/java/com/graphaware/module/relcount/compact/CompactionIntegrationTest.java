@@ -121,6 +121,71 @@ public class CompactionIntegrationTest {
         assertEquals(24, (int) node.getCachedDegrees().get(literal("test", OUTGOING).with("k1", any())));
     }
 
+    @Test
+    public void onlyTypeExceedingItsBudgetShouldBeCompacted() {
+        final CompactionStrategy compactionStrategy = new ThresholdBasedCompactionStrategy(10)
+                .withBudgets(new CompactionBudget("noisy", OUTGOING, 2));
+
+        DegreeCachingNode node = executor.executeInTransaction(new TransactionCallback<DegreeCachingNode>() {
+            @Override
+            public DegreeCachingNode doInTransaction(GraphDatabaseService database) {
+                DegreeCachingNode node = new DegreeCachingNode(
+                        database.getNodeById(0), "TEST",
+                        RelationshipCountConfigurationImpl.defaultConfiguration().with(compactionStrategy));
+
+                node.incrementDegree(literal("quiet", OUTGOING).with("k1", equalTo("v1")), 1, true);
+                node.incrementDegree(literal("quiet", OUTGOING).with("k1", equalTo("v2")), 2, true);
+                node.incrementDegree(literal("quiet", OUTGOING).with("k1", equalTo("v3")), 3, true);
+                node.incrementDegree(literal("noisy", INCOMING).with("k1", equalTo("v1")), 4, true);
+                node.incrementDegree(literal("noisy", INCOMING).with("k1", equalTo("v2")), 5, true);
+                node.incrementDegree(literal("noisy", INCOMING).with("k1", equalTo("v3")), 6, true);
+                node.incrementDegree(literal("noisy", OUTGOING).with("k1", equalTo("v1")), 7, true);
+                node.incrementDegree(literal("noisy", OUTGOING).with("k1", equalTo("v2")), 8, true);
+                node.incrementDegree(literal("noisy", OUTGOING).with("k1", equalTo("v3")), 9, true);
+
+                compactionStrategy.compactRelationshipCounts(node);
+
+                node.flush();
+
+                return node;
+            }
+        });
+
+        assertEquals(7, node.getCachedDegrees().size());
+        assertEquals(24, (int) node.getCachedDegrees().get(literal("noisy", OUTGOING).with("k1", any())));
+        assertEquals(3, (int) node.getCachedDegrees().get(literal("quiet", OUTGOING).with("k1", equalTo("v3"))));
+        assertEquals(6, (int) node.getCachedDegrees().get(literal("noisy", INCOMING).with("k1", equalTo("v3"))));
+    }
+
+    @Test
+    public void countShouldBeCompactedOnlyBeforeFlushWhenSoftThresholdIsReached() {
+        final CompactionStrategy compactionStrategy = new ThresholdBasedCompactionStrategy(4, 8);
+
+        DegreeCachingNode node = executor.executeInTransaction(new TransactionCallback<DegreeCachingNode>() {
+            @Override
+            public DegreeCachingNode doInTransaction(GraphDatabaseService database) {
+                DegreeCachingNode node = new DegreeCachingNode(
+                        database.getNodeById(0), "TEST",
+                        RelationshipCountConfigurationImpl.defaultConfiguration().with(compactionStrategy));
+
+                node.incrementDegree(literal("test", OUTGOING).with("k1", equalTo("v1")), 14);
+                node.incrementDegree(literal("test", OUTGOING).with("k1", equalTo("v2")), 1);
+                node.incrementDegree(literal("test", OUTGOING).with("k1", equalTo("v3")), 2);
+                node.incrementDegree(literal("test", OUTGOING).with("k1", equalTo("v4")), 3);
+                node.incrementDegree(literal("test", OUTGOING).with("k1", equalTo("v5")), 4);
+
+                assertEquals(5, node.getCachedDegrees().size());
+
+                node.flush();
+
+                return node;
+            }
+        });
+
+        assertEquals(1, node.getCachedDegrees().size());
+        assertEquals(24, (int) node.getCachedDegrees().get(literal("test", OUTGOING).with("k1", any())));
+    }
+
     @Test
     public void verifyMultipleCompactions() {
         final CompactionStrategy compactionStrategy = new ThresholdBasedCompactionStrategy(4);
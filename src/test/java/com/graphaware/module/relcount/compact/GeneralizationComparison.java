@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.compact;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.*;
+
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static com.graphaware.test.util.TestUtils.Timed;
+import static com.graphaware.test.util.TestUtils.time;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Comparison of producing generalizations by {@link GeneralizeFrequentlyChanging} from statistics re-built from all
+ * cached degrees by exhaustive search, and from incrementally maintained {@link GeneralizationStats} by a
+ * {@link GroupingGeneralizationGenerator}, for a node whose number of cached degrees keeps hovering around the
+ * compaction threshold.
+ */
+@Ignore
+public class GeneralizationComparison {
+
+    private static final int NO_RELATIONSHIPS = 20000;
+
+    @Test
+    public void compareRebuiltAndIncrementalGeneralization() {
+        for (final int threshold : new int[]{10, 20, 50, 100, 200}) {
+            long rebuilt = time(new Timed() {
+                @Override
+                public void time() {
+                    simulate(threshold, false);
+                }
+            });
+
+            long incremental = time(new Timed() {
+                @Override
+                public void time() {
+                    simulate(threshold, true);
+                }
+            });
+
+            System.out.println("Threshold " + threshold + ": re-built " + rebuilt + " ms, incremental " + incremental + " ms");
+        }
+    }
+
+    /**
+     * Cache degrees of relationships with random properties, compacting them whenever there are more than the
+     * threshold.
+     *
+     * @param threshold   compaction threshold.
+     * @param incremental true for producing generalizations from incrementally maintained statistics.
+     */
+    private void simulate(int threshold, boolean incremental) {
+        Random random = new Random(42);
+        GeneralizeFrequentlyChanging strategy = new GeneralizeFrequentlyChanging();
+
+        Map<DetachedRelationshipDescription, Integer> cachedDegrees = new HashMap<>();
+        GeneralizationStats stats = new GeneralizationStats();
+
+        for (int i = 0; i < NO_RELATIONSHIPS; i++) {
+            DetachedRelationshipDescription description = literal("TEST" + random.nextInt(2), OUTGOING)
+                    .with("rating", equalTo(random.nextInt(5) + 1))
+                    .with("timestamp", equalTo(random.nextInt(1000)));
+
+            increment(cachedDegrees, stats, description, 1);
+
+            while (cachedDegrees.size() > threshold) {
+                DetachedRelationshipDescription generalization = incremental
+                        ? strategy.produceGeneralization(cachedDegrees, stats)
+                        : strategy.produceGeneralization(cachedDegrees);
+
+                if (generalization == null) {
+                    break;
+                }
+
+                int degree = 0;
+                for (DetachedRelationshipDescription candidate : new ArrayList<>(cachedDegrees.keySet())) {
+                    if (candidate.isMoreSpecificThan(generalization)) {
+                        int candidateDegree = cachedDegrees.remove(candidate);
+                        stats.forget(candidate, candidateDegree);
+                        degree += candidateDegree;
+                    }
+                }
+
+                increment(cachedDegrees, stats, generalization, degree);
+            }
+        }
+    }
+
+    private void increment(Map<DetachedRelationshipDescription, Integer> cachedDegrees, GeneralizationStats stats, DetachedRelationshipDescription description, int delta) {
+        DetachedRelationshipDescription target = description;
+        for (DetachedRelationshipDescription cachedDescription : cachedDegrees.keySet()) {
+            if (cachedDescription.isMoreGeneralThan(description)) {
+                target = cachedDescription;
+                break;
+            }
+        }
+
+        Integer previous = cachedDegrees.get(target);
+        if (previous != null) {
+            stats.forget(target, previous);
+        }
+
+        int degree = previous == null ? delta : previous + delta;
+        cachedDegrees.put(target, degree);
+        stats.acknowledge(target, degree);
+    }
+}
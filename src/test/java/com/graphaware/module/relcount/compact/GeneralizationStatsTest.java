@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.compact;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import static com.graphaware.common.description.predicate.Predicates.any;
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Unit test for {@link GeneralizationStats}.
+ */
+public class GeneralizationStatsTest {
+
+    @Test
+    public void frequenciesShouldBeOrderedByChangeFrequency() {
+        Map<DetachedRelationshipDescription, Integer> cachedCounts = new HashMap<>();
+        cachedCounts.put(literal("T1", OUTGOING).with("k1", equalTo("v1")).with("k2", equalTo("v1")), 1);
+        cachedCounts.put(literal("T1", OUTGOING).with("k1", equalTo("v2")).with("k2", equalTo("v1")), 1);
+        cachedCounts.put(literal("T1", INCOMING).with("k1", equalTo("v3")), 1);
+
+        //k1: 3 values / 4, k2: 1 value + undefined / 4
+        assertEquals(asList("T1.k1", "T1.k2"), describe(GeneralizationStats.of(cachedCounts).produceFrequencies()));
+    }
+
+    @Test
+    public void wildcardsShouldCountTowardsChangeFrequency() {
+        Map<DetachedRelationshipDescription, Integer> cachedCounts = new HashMap<>();
+        cachedCounts.put(literal("T1", OUTGOING).with("k1", equalTo("v1")).with("k2", any()), 5);
+        cachedCounts.put(literal("T1", OUTGOING).with("k1", equalTo("v2")).with("k2", equalTo("v1")), 1);
+
+        //k1: 2 values / 7, k2: 1 value + 5 wildcards / 7
+        assertEquals(asList("T1.k2", "T1.k1"), describe(GeneralizationStats.of(cachedCounts).produceFrequencies()));
+    }
+
+    @Test
+    public void incrementallyMaintainedStatsShouldEqualRebuiltOnes() {
+        DetachedRelationshipDescription d1 = literal("T1", OUTGOING).with("k1", equalTo("v1")).with("k2", equalTo("v1"));
+        DetachedRelationshipDescription d2 = literal("T1", OUTGOING).with("k1", equalTo("v2")).with("k2", equalTo("v1"));
+        DetachedRelationshipDescription d3 = literal("T1", OUTGOING).with("k3", equalTo("v1"));
+        DetachedRelationshipDescription d4 = literal("T2", INCOMING).with("k1", any()).with("k2", equalTo("v2"));
+
+        GeneralizationStats stats = new GeneralizationStats();
+        stats.acknowledge(d1, 1);
+        stats.acknowledge(d2, 1);
+        stats.acknowledge(d3, 1);
+        stats.acknowledge(d4, 1);
+        stats.forget(d4, 1);
+        stats.acknowledge(d4, 10);
+        stats.forget(d3, 1);
+        stats.forget(d2, 1);
+        stats.acknowledge(d2, 3);
+
+        Map<DetachedRelationshipDescription, Integer> cachedCounts = new HashMap<>();
+        cachedCounts.put(d1, 1);
+        cachedCounts.put(d2, 3);
+        cachedCounts.put(d4, 10);
+
+        assertEquals(describe(GeneralizationStats.of(cachedCounts).produceFrequencies()), describe(stats.produceFrequencies()));
+        assertEquals(2, stats.getDescriptions("T1").size());
+        assertTrue(stats.getDescriptions("T1").contains(d2));
+    }
+
+    @Test
+    public void forgettingAllDescriptionsOfTypeShouldRemoveTheType() {
+        DetachedRelationshipDescription d1 = literal("T1", OUTGOING).with("k1", equalTo("v1"));
+        DetachedRelationshipDescription d2 = literal("T1", INCOMING).with("k1", equalTo("v2"));
+
+        GeneralizationStats stats = new GeneralizationStats();
+        stats.acknowledge(d1, 1);
+        stats.acknowledge(d2, 2);
+        stats.forget(d1, 1);
+        stats.forget(d2, 2);
+
+        assertTrue(stats.produceFrequencies().isEmpty());
+        assertTrue(stats.getDescriptions("T1").isEmpty());
+    }
+
+    private List<String> describe(List<PropertyChangeFrequency> frequencies) {
+        List<String> result = new LinkedList<>();
+        for (PropertyChangeFrequency frequency : frequencies) {
+            result.add(frequency.getType() + "." + frequency.getProperty());
+        }
+        return result;
+    }
+}
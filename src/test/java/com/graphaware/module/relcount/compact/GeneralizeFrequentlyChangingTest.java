@@ -106,4 +106,27 @@ public class GeneralizeFrequentlyChangingTest {
         DetachedRelationshipDescription result = new GeneralizeFrequentlyChanging().produceGeneralization(cachedCounts);
         assertTrue(result.equals(literal("T1", INCOMING).with("k1", any()).with("k2", equalTo("v1"))));
     }
+
+    @Test
+    public void shouldProduceSameGeneralizationFromIncrementallyMaintainedStats() {
+        DetachedRelationshipDescription removed = literal("T2", OUTGOING).with("k1", equalTo("v1"));
+
+        Map<DetachedRelationshipDescription, Integer> cachedCounts = new HashMap<>();
+        cachedCounts.put(literal("T1", INCOMING).with("k2", equalTo("v1")), 1);
+        cachedCounts.put(literal("T1", INCOMING).with("k1", equalTo("v2")).with("k2", equalTo("v1")), 1);
+        cachedCounts.put(literal("T1", OUTGOING).with("k1", equalTo("v3")).with("k2", equalTo("v2")).with("k3", equalTo("v3")), 1);
+        cachedCounts.put(literal("T1", OUTGOING).with("k1", equalTo("v4")).with("k2", equalTo("v2")), 1);
+
+        GeneralizationStats stats = new GeneralizationStats();
+        stats.acknowledge(removed, 5);
+        for (Map.Entry<DetachedRelationshipDescription, Integer> entry : cachedCounts.entrySet()) {
+            stats.acknowledge(entry.getKey(), entry.getValue());
+        }
+        stats.forget(removed, 5);
+
+        GeneralizeFrequentlyChanging strategy = new GeneralizeFrequentlyChanging();
+        DetachedRelationshipDescription result = strategy.produceGeneralization(cachedCounts, stats);
+        assertEquals(literal("T1", INCOMING).with("k1", any()).with("k2", equalTo("v1")), result);
+        assertEquals(strategy.produceGeneralization(cachedCounts), result);
+    }
 }
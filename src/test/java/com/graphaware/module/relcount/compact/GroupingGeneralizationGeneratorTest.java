@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.compact;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import org.junit.Test;
+
+import static com.graphaware.common.description.predicate.Predicates.any;
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static org.junit.Assert.*;
+import static org.neo4j.graphdb.Direction.*;
+
+/**
+ * Unit test for {@link GroupingGeneralizationGenerator}.
+ */
+public class GroupingGeneralizationGeneratorTest {
+
+    @Test
+    public void shouldCorrectlyGeneralize() {
+        GeneralizationStats stats = new GeneralizationStats();
+        stats.acknowledge(literal("T1", OUTGOING).with("k1", equalTo("v1")), 1);
+        stats.acknowledge(literal("T1", OUTGOING).with("k1", equalTo("v2")), 1);
+        stats.acknowledge(literal("T2", INCOMING).with("k1", equalTo("v1")).with("k2", equalTo("v2")), 1);
+
+        assertEquals(literal("T1", OUTGOING).with("k1", any()), new GroupingGeneralizationGenerator(stats).generate());
+    }
+
+    @Test
+    public void shouldCorrectlyGeneralizeAlreadyGeneralized() {
+        GeneralizationStats stats = new GeneralizationStats();
+        stats.acknowledge(literal("T1", OUTGOING).with("k1", any()).with("k2", equalTo("v1")), 1);
+        stats.acknowledge(literal("T1", OUTGOING).with("k1", equalTo("v3")).with("k2", equalTo("v2")), 1);
+        stats.acknowledge(literal("T1", OUTGOING).with("k1", equalTo("v4")).with("k2", equalTo("v2")), 1);
+
+        assertEquals(literal("T1", OUTGOING).with("k1", any()).with("k2", equalTo("v2")), new GroupingGeneralizationGenerator(stats).generate());
+    }
+
+    @Test
+    public void shouldNotGeneralizeDescriptionsWithDifferentDirections() {
+        GeneralizationStats stats = new GeneralizationStats();
+        stats.acknowledge(literal("T1", OUTGOING).with("k1", equalTo("v1")).with("k2", equalTo("v1")), 1);
+        stats.acknowledge(literal("T1", INCOMING).with("k1", equalTo("v1")).with("k2", equalTo("v1")), 1);
+
+        assertNull(new GroupingGeneralizationGenerator(stats).generate());
+    }
+
+    @Test
+    public void shouldMatchDescriptionsOutsideGroupForGeneralizationsWithWildcards() {
+        GeneralizationStats stats = new GeneralizationStats();
+        stats.acknowledge(literal("T1", OUTGOING).with("k1", equalTo("v1")).with("k2", any()), 2);
+        stats.acknowledge(literal("T1", OUTGOING).with("k1", equalTo("v2")).with("k2", equalTo("v9")), 1);
+
+        assertEquals(literal("T1", OUTGOING).with("k1", any()).with("k2", any()), new GroupingGeneralizationGenerator(stats).generate());
+    }
+
+    @Test
+    public void shouldMatchDescriptionsOutsideGroupForGeneralizationsWithBothDirections() {
+        GeneralizationStats stats = new GeneralizationStats();
+        stats.acknowledge(literal("T1", BOTH).with("k1", equalTo("v1")), 1);
+        stats.acknowledge(literal("T1", OUTGOING).with("k1", equalTo("v2")), 1);
+
+        assertEquals(literal("T1", BOTH).with("k1", any()), new GroupingGeneralizationGenerator(stats).generate());
+    }
+
+    @Test
+    public void shouldProduceSameGeneralizationAsExhaustiveSearch() {
+        GeneralizationStats stats = new GeneralizationStats();
+        stats.acknowledge(literal("T1", OUTGOING).with("k1", equalTo("v1")), 1);
+        stats.acknowledge(literal("T1", OUTGOING).with("k1", equalTo("v2")), 1);
+        stats.acknowledge(literal("T2", INCOMING).with("k1", equalTo("v1")).with("k2", equalTo("v2")), 1);
+        stats.acknowledge(literal("T2", OUTGOING).with("k1", equalTo("v2")), 1);
+
+        DetachedRelationshipDescription expected = new GeneralizationGenerator(stats.getDescriptions("T1"), stats.produceFrequencies()).generate();
+
+        assertEquals(expected, new GroupingGeneralizationGenerator(stats).generate());
+    }
+}
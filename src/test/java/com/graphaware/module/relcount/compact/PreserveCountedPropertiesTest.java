@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.compact;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.graphaware.common.description.predicate.Predicates.any;
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.wildcard;
+import static org.junit.Assert.*;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Unit test for {@link PreserveCountedProperties}.
+ */
+public class PreserveCountedPropertiesTest {
+
+    @Test
+    public void shouldBehaveLikeFrequencyBasedStrategyWhenNothingHasBeenCounted() {
+        Map<DetachedRelationshipDescription, Integer> cachedCounts = cachedCounts();
+
+        assertEquals(new GeneralizeFrequentlyChanging().produceGeneralization(cachedCounts), new PreserveCountedProperties().produceGeneralization(cachedCounts));
+    }
+
+    @Test
+    public void shouldAvoidGeneralizingCountedProperties() {
+        PreserveCountedProperties strategy = new PreserveCountedProperties();
+        strategy.recordCount(wildcard("T1", OUTGOING).with("k1", equalTo("v1")));
+
+        assertTrue(strategy.isCounted("T1", "k1"));
+        assertFalse(strategy.isCounted("T1", "k2"));
+        assertFalse(strategy.isCounted("T2", "k1"));
+
+        assertEquals(literal("T1", OUTGOING).with("k1", equalTo("v1")).with("k2", any()), strategy.produceGeneralization(cachedCounts()));
+    }
+
+    @Test
+    public void wildcardsShouldNotBeRecordedAsCounted() {
+        PreserveCountedProperties strategy = new PreserveCountedProperties();
+        strategy.recordCount(literal("T1", OUTGOING).with("k1", any()).with("k2", equalTo("v1")));
+
+        assertFalse(strategy.isCounted("T1", "k1"));
+        assertTrue(strategy.isCounted("T1", "k2"));
+    }
+
+    @Test
+    public void shouldGeneralizeCountedPropertiesWhenThereIsNoOtherWay() {
+        Map<DetachedRelationshipDescription, Integer> cachedCounts = new HashMap<>();
+        cachedCounts.put(literal("T1", OUTGOING).with("k1", equalTo("v1")).with("k2", equalTo("v1")), 1);
+        cachedCounts.put(literal("T1", OUTGOING).with("k1", equalTo("v2")).with("k2", equalTo("v1")), 1);
+
+        PreserveCountedProperties strategy = new PreserveCountedProperties();
+        strategy.recordCount(wildcard("T1", OUTGOING).with("k1", equalTo("v1")));
+
+        assertEquals(literal("T1", OUTGOING).with("k1", any()).with("k2", equalTo("v1")), strategy.produceGeneralization(cachedCounts));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveSampleRateShouldBeRejected() {
+        new PreserveCountedProperties(0);
+    }
+
+    @Test
+    public void strategiesWithSameSampleRateShouldBeEqual() {
+        PreserveCountedProperties strategy = new PreserveCountedProperties(10);
+        strategy.recordCount(wildcard("T1", OUTGOING).with("k1", equalTo("v1")));
+
+        assertEquals(new PreserveCountedProperties(10), strategy);
+        assertFalse(new PreserveCountedProperties(5).equals(strategy));
+    }
+
+    /**
+     * @return cached counts in which k1 changes more frequently than k2.
+     */
+    private Map<DetachedRelationshipDescription, Integer> cachedCounts() {
+        Map<DetachedRelationshipDescription, Integer> cachedCounts = new HashMap<>();
+        cachedCounts.put(literal("T1", OUTGOING).with("k1", equalTo("v1")).with("k2", equalTo("v1")), 1);
+        cachedCounts.put(literal("T1", OUTGOING).with("k1", equalTo("v2")).with("k2", equalTo("v1")), 1);
+        cachedCounts.put(literal("T1", OUTGOING).with("k1", equalTo("v3")).with("k2", equalTo("v1")), 1);
+        cachedCounts.put(literal("T1", OUTGOING).with("k1", equalTo("v1")).with("k2", equalTo("v2")), 1);
+        return cachedCounts;
+    }
+}
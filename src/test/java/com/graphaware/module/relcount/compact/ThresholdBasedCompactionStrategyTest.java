@@ -142,4 +142,52 @@ public class ThresholdBasedCompactionStrategyTest {
 
         verifyNoMoreInteractions(mockCachingNode, mockGeneralizationStrategy);
     }
+
+    @Test
+    public void noCompactionShouldOccurWhenOnlySoftThresholdHasBeenSurpassed() {
+        CompactionStrategy strategy = new ThresholdBasedCompactionStrategy(1, 3, mockGeneralizationStrategy);
+
+        strategy.compactRelationshipCounts(mockCachingNode);
+
+        verify(mockCachingNode).getCachedDegrees();
+        verifyNoMoreInteractions(mockCachingNode, mockGeneralizationStrategy);
+    }
+
+    @Test
+    public void compactionToSoftThresholdShouldOccurWhenHardThresholdSurpassed() {
+        CompactionStrategy strategy = new ThresholdBasedCompactionStrategy(1, 2, mockGeneralizationStrategy);
+
+        strategy.compactRelationshipCounts(mockCachingNode);
+
+        verify(mockCachingNode, times(3)).getCachedDegrees();
+        verify(mockGeneralizationStrategy).produceGeneralization(cachedDegrees);
+        verify(mockGeneralizationStrategy).produceGeneralization(generalizedOnce);
+        verifyNoMoreInteractions(mockGeneralizationStrategy);
+    }
+
+    @Test
+    public void compactionToSoftThresholdShouldOccurBeforeFlush() {
+        DeferredCompactionStrategy strategy = new ThresholdBasedCompactionStrategy(1, 3, mockGeneralizationStrategy);
+
+        strategy.compactBeforeFlush(mockCachingNode);
+
+        verify(mockCachingNode, times(3)).getCachedDegrees();
+        verify(mockGeneralizationStrategy).produceGeneralization(cachedDegrees);
+        verify(mockGeneralizationStrategy).produceGeneralization(generalizedOnce);
+        verifyNoMoreInteractions(mockGeneralizationStrategy);
+    }
+
+    @Test
+    public void noCompactionShouldOccurBeforeFlushWhenThresholdIsHard() {
+        DeferredCompactionStrategy strategy = new ThresholdBasedCompactionStrategy(1, mockGeneralizationStrategy);
+
+        strategy.compactBeforeFlush(mockCachingNode);
+
+        verifyNoMoreInteractions(mockCachingNode, mockGeneralizationStrategy);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void hardThresholdLowerThanCompactionThresholdShouldBeRejected() {
+        new ThresholdBasedCompactionStrategy(3, 2);
+    }
 }
@@ -17,10 +17,13 @@
 package com.graphaware.module.relcount.count;
 
 import com.graphaware.common.description.relationship.RelationshipDescription;
+import com.graphaware.common.policy.RelationshipPropertyInclusionPolicy;
 import com.graphaware.common.policy.none.IncludeNoRelationships;
 import com.graphaware.common.serialize.Serializer;
 import com.graphaware.module.relcount.RelationshipCountModule;
+import com.graphaware.module.relcount.cache.DecodedDegreeCache;
 import com.graphaware.module.relcount.compact.ThresholdBasedCompactionStrategy;
+import com.graphaware.module.relcount.view.CountView;
 import com.graphaware.runtime.GraphAwareRuntime;
 import com.graphaware.runtime.GraphAwareRuntimeFactory;
 import com.graphaware.runtime.config.FluentRuntimeConfiguration;
@@ -38,15 +41,21 @@ import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.test.TestGraphDatabaseFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static com.graphaware.common.description.predicate.Predicates.equalTo;
 import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
 import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.wildcard;
 import static com.graphaware.common.util.PropertyContainerUtils.deleteNodeAndRelationships;
 import static com.graphaware.module.relcount.RelationshipCountConfigurationImpl.defaultConfiguration;
+import static com.graphaware.module.relcount.RelationshipCountModule.FULL_RELCOUNT_DEFAULT_ID;
+import static com.graphaware.runtime.RuntimeRegistry.getStartedRuntime;
 import static com.graphaware.runtime.config.RuntimeConfiguration.GA_PREFIX;
 import static java.lang.String.valueOf;
 import static java.lang.System.currentTimeMillis;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 import static org.neo4j.graphdb.Direction.INCOMING;
 import static org.neo4j.graphdb.Direction.OUTGOING;
@@ -174,6 +183,53 @@ public class CachedRelationshipCounterTest {
         assertEquals(1, count(wildcard("test", INCOMING), 0));
     }
 
+    @Test
+    public void relationshipsAboveThresholdShouldBeReportedUncountableWithoutException() {
+        createNodes();
+        createFirstRelationships();
+        createSecondRelationships();
+
+        assertEquals(CachedRelationshipCounter.UNCOUNTABLE, tryCount(wildcard("test", OUTGOING).with("key1", equalTo("value1")), 0));
+        assertEquals(CachedRelationshipCounter.UNCOUNTABLE, tryCount(wildcard("test", OUTGOING).with("key1", equalTo("value3")), 0));
+        assertEquals(8, tryCount(wildcard("test", OUTGOING), 0));
+        assertEquals(1, tryCount(wildcard("test", INCOMING), 0));
+    }
+
+    @Test
+    public void repeatedFallbacksShouldBeWarnedAboutOnlyOncePerInterval() {
+        createNodes();
+        createFirstRelationships();
+        createSecondRelationships();
+
+        final List<String> warnings = new ArrayList<>();
+        RelationshipCounter counter = new FallbackRelationshipCounter(database) {
+            @Override
+            void warn(String message) {
+                warnings.add(message);
+            }
+        };
+
+        try (Transaction tx = database.beginTx()) {
+            for (int i = 0; i < 100; i++) {
+                assertEquals(1, counter.count(database.getNodeById(0), wildcard("test", OUTGOING).with("key1", equalTo("value1"))));
+            }
+            tx.success();
+        }
+
+        assertEquals(1, warnings.size());
+    }
+
+    private int tryCount(RelationshipDescription description, long nodeId) {
+        int count;
+
+        try (Transaction tx = database.beginTx()) {
+            count = new CachedRelationshipCounter(database).tryCount(database.getNodeById(nodeId), description);
+            tx.success();
+        }
+
+        return count;
+    }
+
     @Test
     public void deletingRelationshipsShouldCorrectlyDecrementCounts2() {
         createNodes();
@@ -487,6 +543,84 @@ public class CachedRelationshipCounterTest {
         assertEquals(0, count(wildcard("test", OUTGOING), 0));
     }
 
+    @Test
+    public void countedPropertiesShouldBePreservedByCompaction() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        txExecutor = new SimpleTransactionExecutor(database);
+
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+        runtime.registerModule(new RelationshipCountModule(defaultConfiguration()
+                .with(new ThresholdBasedCompactionStrategy(5))
+                .withCountedPropertiesPreserved(1)));
+
+        runtime.start();
+
+        createNodes();
+
+        assertEquals(0, count(wildcard(withName("FRIEND_OF"), OUTGOING).with("level", equalTo("1")), 9));
+
+        txExecutor.executeInTransaction(new TransactionCallback<Void>() {
+            @Override
+            public Void doInTransaction(GraphDatabaseService database) {
+                for (int i = 0; i < 6; i++) {
+                    Relationship relationship = database.getNodeById(9).createRelationshipTo(database.getNodeById(i), withName("FRIEND_OF"));
+                    relationship.setProperty("level", valueOf(i / 2 + 1));
+                    relationship.setProperty("colour", i % 2 == 0 ? "red" : "blue");
+                }
+                return null;
+            }
+        });
+
+        //level changes more frequently than colour, but relationships are counted by level, so colour is compacted
+        assertEquals(2, count(wildcard(withName("FRIEND_OF"), OUTGOING).with("level", equalTo("1")), 9));
+        assertEquals(2, count(wildcard(withName("FRIEND_OF"), OUTGOING).with("level", equalTo("2")), 9));
+        assertEquals(2, count(wildcard(withName("FRIEND_OF"), OUTGOING).with("level", equalTo("3")), 9));
+        assertEquals(6, count(wildcard(withName("FRIEND_OF"), OUTGOING), 9));
+    }
+
+    @Test
+    public void countViewsShouldBeServedWithoutCompaction() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        txExecutor = new SimpleTransactionExecutor(database);
+
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+        runtime.registerModule(new RelationshipCountModule(defaultConfiguration()
+                .withCountViews(new CountView("FRIEND_OF", OUTGOING, "level"), new CountView("FRIEND_OF", INCOMING), new CountView("LIKES", INCOMING))));
+
+        runtime.start();
+
+        createNodes();
+
+        txExecutor.executeInTransaction(new VoidReturningCallback() {
+            @Override
+            protected void doInTx(GraphDatabaseService database) {
+                for (int i = 0; i < 30; i++) {
+                    Relationship relationship = database.getNodeById(9).createRelationshipTo(database.getNodeById(i % 9), withName("FRIEND_OF"));
+                    relationship.setProperty("level", valueOf(i % 3 + 1));
+                    relationship.setProperty("timestamp", valueOf(i));
+                }
+                database.getNodeById(9).createRelationshipTo(database.getNodeById(0), withName("LIKES"));
+            }
+        });
+
+        assertEquals(10, count(wildcard(withName("FRIEND_OF"), OUTGOING).with("level", equalTo("1")), 9));
+        assertEquals(10, count(wildcard(withName("FRIEND_OF"), OUTGOING).with("level", equalTo("2")), 9));
+        assertEquals(10, count(wildcard(withName("FRIEND_OF"), OUTGOING).with("level", equalTo("3")), 9));
+        assertEquals(30, count(wildcard(withName("FRIEND_OF"), OUTGOING), 9));
+        assertEquals(4, count(wildcard(withName("FRIEND_OF"), INCOMING), 0));
+        assertEquals(0, count(wildcard(withName("LIKES"), OUTGOING), 9));
+        assertEquals(1, count(wildcard(withName("LIKES"), INCOMING), 0));
+
+        String prefix = getStartedRuntime(database).getConfiguration().createPrefix(FULL_RELCOUNT_DEFAULT_ID);
+        try (Transaction tx = database.beginTx()) {
+            //one entry per level, timestamps and outgoing LIKES are not cached at all
+            assertEquals(3, defaultConfiguration().getDegreeCachingStrategy().readDegrees(database.getNodeById(9), prefix).size());
+            //grouping keys of outgoing views are not cached from the other side
+            assertEquals(2, defaultConfiguration().getDegreeCachingStrategy().readDegrees(database.getNodeById(0), prefix).size());
+            tx.success();
+        }
+    }
+
     @Test
     public void scenario() {
         TestDataBuilder builder = new TestDataBuilder(database);
@@ -573,6 +707,145 @@ public class CachedRelationshipCounterTest {
         assertEquals(13, count(wildcard(withName("FRIEND_OF"), OUTGOING), 9));
     }
 
+    @Test
+    public void decodedDegreesShouldBeServedFromMemoryAndInvalidatedOnCommit() {
+        createNodes();
+        createFirstRelationships();
+
+        DecodedDegreeCache cache = getStartedRuntime(database).getModule(FULL_RELCOUNT_DEFAULT_ID, RelationshipCountModule.class).getDecodedDegreeCache();
+        long hits = cache.getHitCount();
+
+        assertEquals(4, count(wildcard("test", OUTGOING), 0));
+        assertEquals(1, count(wildcard("test", INCOMING), 0));
+        assertEquals(hits + 1, cache.getHitCount());
+
+        txExecutor.executeInTransaction(new VoidReturningCallback() {
+            @Override
+            protected void doInTx(GraphDatabaseService database) {
+                database.getNodeById(0).createRelationshipTo(database.getNodeById(6), withName("test"));
+            }
+        });
+
+        assertEquals(5, count(wildcard("test", OUTGOING), 0));
+        assertEquals(1, count(wildcard("test", INCOMING), 6));
+    }
+
+    @Test
+    public void decodedDegreesOfDeletedNodesShouldBeInvalidated() {
+        createNodes();
+        createFirstRelationships();
+
+        DecodedDegreeCache cache = getStartedRuntime(database).getModule(FULL_RELCOUNT_DEFAULT_ID, RelationshipCountModule.class).getDecodedDegreeCache();
+
+        assertEquals(4, count(wildcard("test", OUTGOING), 0));
+
+        txExecutor.executeInTransaction(new VoidReturningCallback() {
+            @Override
+            protected void doInTx(GraphDatabaseService database) {
+                deleteNodeAndRelationships(database.getNodeById(0));
+            }
+        });
+
+        assertNull(cache.get(0));
+    }
+
+    @Test
+    public void changingExcludedPropertiesShouldNotTouchCachedDegrees() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        txExecutor = new SimpleTransactionExecutor(database);
+
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+        runtime.registerModule(new RelationshipCountModule(defaultConfiguration()
+                .with(new ThresholdBasedCompactionStrategy(5))
+                .with(new RelationshipPropertyInclusionPolicy() {
+                    @Override
+                    public boolean include(String key, Relationship relationship) {
+                        return !"lastSeen".equals(key);
+                    }
+                })));
+
+        runtime.start();
+
+        createNodes();
+        createFirstRelationships();
+
+        DecodedDegreeCache cache = getStartedRuntime(database).getModule(FULL_RELCOUNT_DEFAULT_ID, RelationshipCountModule.class).getDecodedDegreeCache();
+
+        assertEquals(2, count(wildcard("test", OUTGOING).with("key1", equalTo("value2")), 0));
+        long hits = cache.getHitCount();
+
+        txExecutor.executeInTransaction(new VoidReturningCallback() {
+            @Override
+            protected void doInTx(GraphDatabaseService database) {
+                for (Relationship relationship : database.getNodeById(0).getRelationships(withName("test"), OUTGOING)) {
+                    relationship.setProperty("lastSeen", currentTimeMillis());
+                }
+            }
+        });
+
+        assertEquals(2, count(wildcard("test", OUTGOING).with("key1", equalTo("value2")), 0));
+        assertEquals(hits + 1, cache.getHitCount());
+
+        txExecutor.executeInTransaction(new VoidReturningCallback() {
+            @Override
+            protected void doInTx(GraphDatabaseService database) {
+                for (Relationship relationship : database.getNodeById(0).getRelationships(withName("test"), OUTGOING)) {
+                    if (relationship.getEndNode().getId() == 1) {
+                        relationship.setProperty("key1", "value2");
+                    }
+                }
+            }
+        });
+
+        assertEquals(3, count(wildcard("test", OUTGOING).with("key1", equalTo("value2")), 0));
+        assertEquals(hits + 1, cache.getHitCount());
+    }
+
+    @Test
+    public void driftedCachedDegreesShouldBeRecountedWhenRelationshipsAreDeleted() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        txExecutor = new SimpleTransactionExecutor(database);
+
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+        runtime.registerModule(new RelationshipCountModule());
+        runtime.start();
+
+        createNodes();
+        createFirstRelationships();
+
+        final String prefix = getStartedRuntime(database).getConfiguration().createPrefix(FULL_RELCOUNT_DEFAULT_ID);
+
+        txExecutor.executeInTransaction(new VoidReturningCallback() {
+            @Override
+            protected void doInTx(GraphDatabaseService database) {
+                Node node = database.getNodeById(0);
+                for (String key : node.getPropertyKeys()) {
+                    if (key.startsWith(prefix)) {
+                        node.removeProperty(key);
+                    }
+                }
+            }
+        });
+
+        assertEquals(0, count(wildcard("test", OUTGOING), 0));
+
+        txExecutor.executeInTransaction(new VoidReturningCallback() {
+            @Override
+            protected void doInTx(GraphDatabaseService database) {
+                for (Relationship relationship : database.getNodeById(0).getRelationships(withName("test"), OUTGOING)) {
+                    if (relationship.getEndNode().getId() == 2) {
+                        relationship.delete();
+                    }
+                }
+            }
+        });
+
+        assertEquals(3, count(wildcard("test", OUTGOING), 0));
+        assertEquals(1, count(wildcard("test", OUTGOING).with("key1", equalTo("value2")), 0));
+        assertEquals(1, count(wildcard("test", INCOMING), 0));
+        assertEquals(0, count(wildcard("test", INCOMING), 2));
+    }
+
     private void createFirstRelationships() {
         txExecutor.executeInTransaction(new TransactionCallback<Void>() {
             @Override
@@ -16,6 +16,7 @@
 
 package com.graphaware.module.relcount.count;
 
+import com.graphaware.common.description.relationship.RelationshipDescription;
 import com.graphaware.common.policy.RelationshipInclusionPolicy;
 import com.graphaware.common.policy.RelationshipPropertyInclusionPolicy;
 import com.graphaware.module.relcount.RelationshipCountModule;
@@ -34,6 +35,7 @@ import org.neo4j.test.TestGraphDatabaseFactory;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Collections;
 
 import static com.graphaware.common.description.predicate.Predicates.equalTo;
 import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
@@ -41,6 +43,8 @@ import static com.graphaware.common.description.relationship.RelationshipDescrip
 import static com.graphaware.module.relcount.RelationshipCountConfigurationImpl.defaultConfiguration;
 import static com.graphaware.module.relcount.count.RelationshipCountIntegrationTest.RelationshipTypes.ONE;
 import static com.graphaware.module.relcount.count.RelationshipCountIntegrationTest.RelationshipTypes.TWO;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 import static org.neo4j.graphdb.Direction.*;
@@ -1011,6 +1015,20 @@ public class RelationshipCountIntegrationTest {
 
 
             tx.success();
+
+            //Bulk
+
+            assertArrayEquals(new int[]{3 * factor, 6 * factor, 3 * factor}, counter.countAll(asList(one, two, one), wildcard(ONE, INCOMING)));
+            assertArrayEquals(new int[]{7 * factor, 2 * factor}, counter.countAll(asList(one, two), wildcard(ONE, OUTGOING)));
+            assertArrayEquals(new int[]{2 * factor, 0}, counter.countAll(asList(one, two), wildcard(ONE, OUTGOING).with(WEIGHT, equalTo(1))));
+            assertArrayEquals(new int[0], counter.countAll(Collections.<Node>emptyList(), wildcard(ONE, OUTGOING)));
+
+            //Multiple descriptions
+
+            assertArrayEquals(new int[]{3 * factor, 7 * factor, 10 * factor, 2 * factor, 1 * factor},
+                    counter.count(one, asList(wildcard(ONE, INCOMING), wildcard(ONE, OUTGOING), wildcard(ONE, BOTH), wildcard(ONE, INCOMING).with(K1, equalTo("V1")), literal(ONE, OUTGOING).with(WEIGHT, equalTo(1)))));
+            assertArrayEquals(new int[]{6 * factor, 2 * factor, 8 * factor}, counter.count(two, asList(wildcard(ONE, INCOMING), wildcard(ONE, OUTGOING), wildcard(ONE, BOTH))));
+            assertArrayEquals(new int[0], counter.count(one, Collections.<RelationshipDescription>emptyList()));
         }
     }
 
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.init;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.common.policy.RelationshipInclusionPolicy;
+import com.graphaware.module.relcount.RelationshipCountConfiguration;
+import com.graphaware.module.relcount.RelationshipCountConfigurationImpl;
+import com.graphaware.module.relcount.RelationshipCountModule;
+import com.graphaware.module.relcount.cache.DegreeCachingNode;
+import com.graphaware.module.relcount.count.WeighingStrategy;
+import com.graphaware.module.relcount.view.CountView;
+import com.graphaware.runtime.GraphAwareRuntimeFactory;
+import com.graphaware.runtime.RuntimeRegistry;
+import com.graphaware.runtime.metadata.TxDrivenModuleMetadata;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static com.graphaware.module.relcount.RelationshipCountConfigurationImpl.defaultConfiguration;
+import static com.graphaware.module.relcount.RelationshipCountModule.FULL_RELCOUNT_DEFAULT_ID;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+
+/**
+ * Test for incremental re-initialization of {@link RelationshipCountModule} when only relationship inclusion policies change.
+ */
+public class IncrementalReinitializationTest {
+
+    private GraphDatabaseService database;
+    private String prefix;
+
+    @Before
+    public void setUp() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        try (Transaction tx = database.beginTx()) {
+            for (int i = 0; i < 4; i++) {
+                database.createNode();
+            }
+            database.getNodeById(0).createRelationshipTo(database.getNodeById(1), withName("A"));
+            database.getNodeById(1).createRelationshipTo(database.getNodeById(2), withName("A"));
+            database.getNodeById(2).createRelationshipTo(database.getNodeById(3), withName("B"));
+            tx.success();
+        }
+
+        GraphAwareRuntimeFactory.createRuntime(database);
+        prefix = RuntimeRegistry.getRuntime(database).getConfiguration().createPrefix(FULL_RELCOUNT_DEFAULT_ID);
+    }
+
+    @After
+    public void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    public void changedRelationshipPolicyShouldOnlyUpdateAffectedTypesOnAffectedNodes() {
+        RelationshipCountConfigurationImpl previous = defaultConfiguration().with(new ExcludeType("B"));
+        new RelationshipCountModule(previous).initialize(database);
+
+        assertEquals(1, totalCachedDegree(2));
+        assertEquals(0, totalCachedDegree(3));
+
+        new RelationshipCountModule(defaultConfiguration()).reinitialize(database, metadata(previous));
+
+        assertFalse(new InitializationCheckpoint(database, prefix).exists());
+        assertEquals(2, totalCachedDegree(2));
+        assertEquals(1, totalCachedDegree(3));
+        assertEquals(2, totalCachedDegree(1));
+        assertEquals(1, totalCachedDegree(0));
+    }
+
+    @Test
+    public void countsNeedingInitializationShouldBeRebuiltEvenIfOnlyRelationshipPolicyChanged() {
+        RelationshipCountConfigurationImpl previous = defaultConfiguration().with(new ExcludeType("B"));
+        new RelationshipCountModule(previous).initialize(database);
+
+        corruptCachedDegree(0);
+
+        new RelationshipCountModule(defaultConfiguration()).reinitialize(database, metadata(previous, true));
+
+        assertEquals(2, totalCachedDegree(2));
+        assertEquals(1, totalCachedDegree(3));
+        assertEquals(1, totalCachedDegree(0));
+    }
+
+    @Test
+    public void unchangedConfigurationShouldRebuildEverything() {
+        new RelationshipCountModule(defaultConfiguration()).initialize(database);
+
+        corruptCachedDegree(0);
+
+        new RelationshipCountModule(defaultConfiguration()).reinitialize(database, metadata(defaultConfiguration(), true));
+
+        assertEquals(1, totalCachedDegree(0));
+        assertEquals(2, totalCachedDegree(2));
+    }
+
+    @Test
+    public void changedWeighingStrategyShouldRebuildEverything() {
+        RelationshipCountConfigurationImpl previous = defaultConfiguration().with(new ExcludeType("B"));
+        new RelationshipCountModule(previous).initialize(database);
+
+        corruptCachedDegree(0);
+
+        new RelationshipCountModule(defaultConfiguration().with(new DoubleWeight())).reinitialize(database, metadata(previous));
+
+        assertEquals(4, totalCachedDegree(2));
+        assertEquals(2, totalCachedDegree(3));
+        assertEquals(2, totalCachedDegree(0));
+    }
+
+    @Test
+    public void relationshipPolicyWithoutValueEqualityShouldRebuildEverything() {
+        RelationshipCountConfigurationImpl previous = defaultConfiguration().with(new ExcludeType("B"));
+        new RelationshipCountModule(previous).initialize(database);
+
+        corruptCachedDegree(0);
+
+        RelationshipCountConfigurationImpl current = defaultConfiguration().with(new RelationshipInclusionPolicy.Adapter() {
+            @Override
+            public boolean include(Relationship relationship) {
+                return true;
+            }
+        });
+        new RelationshipCountModule(current).reinitialize(database, metadata(previous));
+
+        assertEquals(2, totalCachedDegree(2));
+        assertEquals(1, totalCachedDegree(3));
+        assertEquals(1, totalCachedDegree(0));
+    }
+
+    @Test
+    public void countViewsSwappingDirectionsShouldUpdateAffectedTypes() {
+        try (Transaction tx = database.beginTx()) {
+            for (Relationship relationship : GlobalGraphOperations.at(database).getAllRelationships()) {
+                relationship.setProperty("strength", 1);
+            }
+            tx.success();
+        }
+
+        RelationshipCountConfigurationImpl previous = defaultConfiguration().withCountViews(new CountView("A", INCOMING, "strength"), new CountView("A", OUTGOING));
+        new RelationshipCountModule(previous).initialize(database);
+
+        assertEquals(new HashSet<>(Arrays.asList(literal("A", INCOMING).with("strength", equalTo(1)), literal("A", OUTGOING))), cachedDescriptions(1));
+
+        RelationshipCountConfigurationImpl current = defaultConfiguration().withCountViews(new CountView("A", INCOMING), new CountView("A", OUTGOING, "strength"));
+        new RelationshipCountModule(current).reinitialize(database, metadata(previous));
+
+        assertFalse(new InitializationCheckpoint(database, prefix).exists());
+        assertEquals(new HashSet<>(Arrays.asList(literal("A", INCOMING), literal("A", OUTGOING).with("strength", equalTo(1)))), cachedDescriptions(1));
+        assertEquals(Collections.singleton(literal("A", OUTGOING).with("strength", equalTo(1))), cachedDescriptions(0));
+    }
+
+    private Set<DetachedRelationshipDescription> cachedDescriptions(long nodeId) {
+        try (Transaction tx = database.beginTx()) {
+            Set<DetachedRelationshipDescription> result = new HashSet<>(defaultConfiguration().getDegreeCachingStrategy().readDegrees(database.getNodeById(nodeId), prefix).keySet());
+            tx.success();
+            return result;
+        }
+    }
+
+    private TxDrivenModuleMetadata metadata(RelationshipCountConfiguration configuration) {
+        return metadata(configuration, false);
+    }
+
+    private TxDrivenModuleMetadata metadata(RelationshipCountConfiguration configuration, boolean needsInitialization) {
+        TxDrivenModuleMetadata metadata = mock(TxDrivenModuleMetadata.class);
+        when(metadata.getConfig()).thenReturn(configuration);
+        when(metadata.needsInitialization()).thenReturn(needsInitialization);
+        return metadata;
+    }
+
+    private void corruptCachedDegree(long nodeId) {
+        try (Transaction tx = database.beginTx()) {
+            DegreeCachingNode cachingNode = new DegreeCachingNode(database.getNodeById(nodeId), prefix, defaultConfiguration());
+            for (DetachedRelationshipDescription description : cachingNode.getCachedDegrees().keySet()) {
+                cachingNode.incrementDegree(description, 5, true);
+            }
+            cachingNode.flush();
+            tx.success();
+        }
+    }
+
+    private int totalCachedDegree(long nodeId) {
+        int result = 0;
+
+        try (Transaction tx = database.beginTx()) {
+            for (int degree : defaultConfiguration().getDegreeCachingStrategy().readDegrees(database.getNodeById(nodeId), prefix).values()) {
+                result += degree;
+            }
+            tx.success();
+        }
+
+        return result;
+    }
+
+    private static class ExcludeType extends RelationshipInclusionPolicy.Adapter {
+
+        private final String type;
+
+        private ExcludeType(String type) {
+            this.type = type;
+        }
+
+        @Override
+        public boolean include(Relationship relationship) {
+            return !relationship.isType(withName(type));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o != null && getClass() == o.getClass() && type.equals(((ExcludeType) o).type);
+        }
+
+        @Override
+        public int hashCode() {
+            return type.hashCode();
+        }
+    }
+
+    private static class DoubleWeight implements WeighingStrategy {
+
+        @Override
+        public int getRelationshipWeight(Relationship relationship, Node pointOfView) {
+            return 2;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o != null && getClass() == o.getClass();
+        }
+
+        @Override
+        public int hashCode() {
+            return getClass().hashCode();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.init;
+
+import com.graphaware.tx.executor.batch.UnitOfWork;
+import com.graphaware.tx.executor.single.SimpleTransactionExecutor;
+import com.graphaware.tx.executor.single.VoidReturningCallback;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test for {@link PartitionedNodeProcessor}.
+ */
+public class PartitionedNodeProcessorTest {
+
+    private GraphDatabaseService database;
+
+    @Before
+    public void setUp() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    public void rangesShouldCoverAllNodeIdsWithoutOverlaps() {
+        List<NodeIdRange> ranges = new PartitionedNodeProcessor(database, 3, 10, "test").partition(0, 1005);
+
+        assertEquals(24, ranges.size());
+
+        long expectedFrom = 0;
+        for (NodeIdRange range : ranges) {
+            assertEquals(expectedFrom, range.getFrom());
+            assertTrue(range.size() > 0);
+            expectedFrom = range.getTo();
+        }
+        assertEquals(1005, expectedFrom);
+    }
+
+    @Test
+    public void fewNodeIdsShouldNotBeSplitIntoRangesSmallerThanBatch() {
+        List<NodeIdRange> ranges = new PartitionedNodeProcessor(database, 8, 100, "test").partition(0, 150);
+
+        assertEquals(2, ranges.size());
+        assertEquals(new NodeIdRange(0, 75), ranges.get(0));
+        assertEquals(new NodeIdRange(75, 150), ranges.get(1));
+    }
+
+    @Test
+    public void allExistingNodesShouldBeProcessedExactlyOnce() {
+        new SimpleTransactionExecutor(database).executeInTransaction(new VoidReturningCallback() {
+            @Override
+            protected void doInTx(GraphDatabaseService database) {
+                for (int i = 0; i < 1000; i++) {
+                    database.createNode();
+                }
+                for (int i = 0; i < 1000; i += 7) {
+                    database.getNodeById(i).delete();
+                }
+            }
+        });
+
+        final Set<Long> processed = Collections.synchronizedSet(new HashSet<Long>());
+
+        new PartitionedNodeProcessor(database, 4, 13, "test").process(new UnitOfWork<Node>() {
+            @Override
+            public void execute(GraphDatabaseService database, Node node, int batchNumber, int stepNumber) {
+                assertTrue(processed.add(node.getId()));
+                node.setProperty("processed", true);
+            }
+        });
+
+        assertEquals(1000 - 143, processed.size());
+        for (long i = 0; i < 1000; i++) {
+            assertEquals(i % 7 != 0, processed.contains(i));
+        }
+    }
+
+    @Test
+    public void emptyDatabaseShouldBeProcessedWithoutFailing() {
+        new PartitionedNodeProcessor(database, 4, 100, "test").process(new UnitOfWork<Node>() {
+            @Override
+            public void execute(GraphDatabaseService database, Node node, int batchNumber, int stepNumber) {
+                fail();
+            }
+        });
+    }
+
+    @Test
+    public void highestNodeIdShouldCoverDeletedNodes() {
+        assertEquals(-1, PartitionedNodeProcessor.highestNodeId(database));
+
+        new SimpleTransactionExecutor(database).executeInTransaction(new VoidReturningCallback() {
+            @Override
+            protected void doInTx(GraphDatabaseService database) {
+                for (int i = 0; i < 10; i++) {
+                    database.createNode();
+                }
+                database.getNodeById(9).delete();
+            }
+        });
+
+        assertEquals(9, PartitionedNodeProcessor.highestNodeId(database));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failuresShouldBePropagated() {
+        new SimpleTransactionExecutor(database).executeInTransaction(new VoidReturningCallback() {
+            @Override
+            protected void doInTx(GraphDatabaseService database) {
+                database.createNode();
+            }
+        });
+
+        new PartitionedNodeProcessor(database, 2, 100, "test").process(new UnitOfWork<Node>() {
+            @Override
+            public void execute(GraphDatabaseService database, Node node, int batchNumber, int stepNumber) {
+                throw new IllegalStateException();
+            }
+        });
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.init;
+
+import com.graphaware.module.relcount.RelationshipCountConfigurationImpl;
+import com.graphaware.module.relcount.RelationshipCountModule;
+import com.graphaware.module.relcount.count.WeighingStrategy;
+import com.graphaware.runtime.GraphAwareRuntimeFactory;
+import com.graphaware.runtime.RuntimeRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import static com.graphaware.module.relcount.RelationshipCountConfigurationImpl.defaultConfiguration;
+import static com.graphaware.module.relcount.RelationshipCountModule.FULL_RELCOUNT_DEFAULT_ID;
+import static org.junit.Assert.*;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+
+/**
+ * Test for resuming interrupted initialization of {@link RelationshipCountModule} from an {@link InitializationCheckpoint}.
+ */
+public class ResumableInitializationTest {
+
+    private static final int NO_NODES = 10;
+
+    private GraphDatabaseService database;
+    private String prefix;
+
+    @Before
+    public void setUp() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        try (Transaction tx = database.beginTx()) {
+            for (int i = 0; i < NO_NODES; i++) {
+                database.createNode();
+            }
+            for (int i = 0; i < NO_NODES; i++) {
+                database.getNodeById(i).createRelationshipTo(database.getNodeById((i + 1) % NO_NODES), withName("TEST"));
+            }
+            tx.success();
+        }
+
+        GraphAwareRuntimeFactory.createRuntime(database);
+        prefix = RuntimeRegistry.getRuntime(database).getConfiguration().createPrefix(FULL_RELCOUNT_DEFAULT_ID);
+        FailingWeighingStrategy.failFromNodeId = Long.MAX_VALUE;
+    }
+
+    @After
+    public void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    public void interruptedInitializationShouldBeResumedWithoutCountingTwice() {
+        RelationshipCountModule module = new RelationshipCountModule(configuration());
+
+        FailingWeighingStrategy.failFromNodeId = 6;
+        try {
+            module.initialize(database);
+            fail();
+        } catch (IllegalStateException e) {
+            //OK
+        }
+
+        assertTrue(new InitializationCheckpoint(database, prefix).exists());
+        assertEquals(NO_NODES, countNodes());
+        assertEquals(2, totalCachedDegree(0));
+        assertEquals(0, totalCachedDegree(7));
+
+        FailingWeighingStrategy.failFromNodeId = Long.MAX_VALUE;
+        new RelationshipCountModule(configuration()).initialize(database);
+
+        assertFalse(new InitializationCheckpoint(database, prefix).exists());
+        for (int i = 0; i < NO_NODES; i++) {
+            assertEquals(2, totalCachedDegree(i));
+        }
+    }
+
+    @Test
+    public void nodesProcessedAfterLastSavedProgressShouldNotBeCountedTwice() {
+        //ranges of 2 node IDs, processed one node per batch, so that the first node of each range is committed before progress is saved
+        FailingWeighingStrategy.failFromNodeId = 7;
+        try {
+            new RelationshipCountModule(configuration().withInitializationBatchSize(1)).initialize(database);
+            fail();
+        } catch (IllegalStateException e) {
+            //OK
+        }
+
+        assertEquals(2, totalCachedDegree(6));
+
+        FailingWeighingStrategy.failFromNodeId = Long.MAX_VALUE;
+        new RelationshipCountModule(configuration().withInitializationBatchSize(1)).initialize(database);
+
+        assertFalse(new InitializationCheckpoint(database, prefix).exists());
+        for (int i = 0; i < NO_NODES; i++) {
+            assertEquals(2, totalCachedDegree(i));
+        }
+    }
+
+    @Test
+    public void interruptedInitializationWithDifferentConfigurationShouldBeStartedFromScratch() {
+        FailingWeighingStrategy.failFromNodeId = 6;
+        try {
+            new RelationshipCountModule(configuration()).initialize(database);
+            fail();
+        } catch (IllegalStateException e) {
+            //OK
+        }
+
+        new RelationshipCountModule(defaultConfiguration().withInitializationThreads(1).withInitializationBatchSize(2)).initialize(database);
+
+        assertFalse(new InitializationCheckpoint(database, prefix).exists());
+        for (int i = 0; i < NO_NODES; i++) {
+            assertEquals(2, totalCachedDegree(i));
+        }
+    }
+
+    private RelationshipCountConfigurationImpl configuration() {
+        return defaultConfiguration()
+                .with(new FailingWeighingStrategy())
+                .withInitializationThreads(1)
+                .withInitializationBatchSize(2);
+    }
+
+    private int countNodes() {
+        int result = 0;
+
+        try (Transaction tx = database.beginTx()) {
+            for (Node ignored : GlobalGraphOperations.at(database).getAllNodes()) {
+                result++;
+            }
+            tx.success();
+        }
+
+        return result;
+    }
+
+    private int totalCachedDegree(long nodeId) {
+        int result = 0;
+
+        try (Transaction tx = database.beginTx()) {
+            for (int degree : defaultConfiguration().getDegreeCachingStrategy().readDegrees(database.getNodeById(nodeId), prefix).values()) {
+                result += degree;
+            }
+            tx.success();
+        }
+
+        return result;
+    }
+
+    /**
+     * Weighs every relationship as 1, but fails for nodes with high IDs, simulating a crash.
+     */
+    public static class FailingWeighingStrategy implements WeighingStrategy {
+
+        private static volatile long failFromNodeId = Long.MAX_VALUE;
+
+        @Override
+        public int getRelationshipWeight(Relationship relationship, Node pointOfView) {
+            if (pointOfView.getId() >= failFromNodeId) {
+                throw new IllegalStateException("Simulated crash");
+            }
+            return 1;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o != null && getClass() == o.getClass();
+        }
+
+        @Override
+        public int hashCode() {
+            return getClass().hashCode();
+        }
+    }
+}
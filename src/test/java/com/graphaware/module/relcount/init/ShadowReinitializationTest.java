@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.init;
+
+import com.graphaware.module.relcount.RelationshipCountConfigurationImpl;
+import com.graphaware.module.relcount.RelationshipCountModule;
+import com.graphaware.module.relcount.count.WeighingStrategy;
+import com.graphaware.runtime.GraphAwareRuntime;
+import com.graphaware.runtime.GraphAwareRuntimeFactory;
+import com.graphaware.runtime.RuntimeRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.graphaware.module.relcount.RelationshipCountConfigurationImpl.defaultConfiguration;
+import static com.graphaware.module.relcount.RelationshipCountModule.FULL_RELCOUNT_DEFAULT_ID;
+import static org.junit.Assert.*;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+
+/**
+ * Test for re-initialization of {@link RelationshipCountModule} under a shadow prefix in the background.
+ */
+public class ShadowReinitializationTest {
+
+    private static final int NO_NODES = 10;
+
+    private GraphDatabaseService database;
+    private RelationshipCountModule module;
+    private String prefix;
+
+    @Before
+    public void setUp() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        try (Transaction tx = database.beginTx()) {
+            for (int i = 0; i < NO_NODES; i++) {
+                database.createNode();
+            }
+            for (int i = 0; i < NO_NODES; i++) {
+                database.getNodeById(i).createRelationshipTo(database.getNodeById((i + 1) % NO_NODES), withName("TEST"));
+            }
+            tx.success();
+        }
+
+        BlockingWeighingStrategy.release = null;
+        BlockingWeighingStrategy.failing = false;
+
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+        module = new RelationshipCountModule(configuration());
+        runtime.registerModule(module);
+        runtime.start();
+
+        prefix = RuntimeRegistry.getRuntime(database).getConfiguration().createPrefix(FULL_RELCOUNT_DEFAULT_ID);
+    }
+
+    @After
+    public void tearDown() {
+        BlockingWeighingStrategy.release = null;
+        BlockingWeighingStrategy.failing = false;
+        database.shutdown();
+    }
+
+    @Test
+    public void reinitializationShouldSwitchToRebuiltCountsAndCleanUpPreviousOnes() throws InterruptedException {
+        assertEquals(prefix, module.getActivePrefix(database));
+
+        module.reinitialize(database, null);
+        awaitReinitialization();
+
+        String activePrefix = module.getActivePrefix(database);
+        assertFalse(prefix.equals(activePrefix));
+
+        for (int i = 0; i < NO_NODES; i++) {
+            assertEquals(4, totalCachedDegree(i, activePrefix));
+            assertEquals(0, totalCachedDegree(i, prefix));
+        }
+
+        assertEquals(activePrefix, new ActivePrefixStore(database, prefix).load());
+    }
+
+    @Test
+    public void changesDuringReinitializationShouldBeReflectedInRebuiltCounts() throws InterruptedException {
+        BlockingWeighingStrategy.release = new CountDownLatch(1);
+        BlockingWeighingStrategy.blocked = new CountDownLatch(1);
+
+        module.reinitialize(database, null);
+        assertTrue(BlockingWeighingStrategy.blocked.await(10, TimeUnit.SECONDS));
+
+        //node 0 has already been re-built, node 8 hasn't
+        try (Transaction tx = database.beginTx()) {
+            database.getNodeById(0).createRelationshipTo(database.getNodeById(8), withName("TEST"));
+            tx.success();
+        }
+
+        assertEquals(prefix, module.getActivePrefix(database));
+        assertEquals(6, totalCachedDegree(0, prefix));
+        assertEquals(6, totalCachedDegree(8, prefix));
+
+        BlockingWeighingStrategy.release.countDown();
+        awaitReinitialization();
+
+        String activePrefix = module.getActivePrefix(database);
+        assertFalse(prefix.equals(activePrefix));
+
+        assertEquals(6, totalCachedDegree(0, activePrefix));
+        assertEquals(6, totalCachedDegree(8, activePrefix));
+        assertEquals(4, totalCachedDegree(5, activePrefix));
+    }
+
+    @Test
+    public void failedReinitializationShouldBeResumedWithoutMissingChanges() throws InterruptedException {
+        BlockingWeighingStrategy.failing = true;
+
+        module.reinitialize(database, null);
+        awaitFailure();
+
+        assertTrue(new InitializationCheckpoint(database, prefix).exists());
+        assertEquals(prefix, module.getActivePrefix(database));
+
+        //node 0 has already been re-built before the failure, node 8 hasn't
+        try (Transaction tx = database.beginTx()) {
+            database.getNodeById(0).createRelationshipTo(database.getNodeById(8), withName("TEST"));
+            tx.success();
+        }
+
+        BlockingWeighingStrategy.failing = false;
+
+        module.start(database);
+        awaitReinitialization();
+
+        String activePrefix = module.getActivePrefix(database);
+        assertFalse(prefix.equals(activePrefix));
+
+        assertEquals(6, totalCachedDegree(0, activePrefix));
+        assertEquals(6, totalCachedDegree(8, activePrefix));
+        assertEquals(4, totalCachedDegree(5, activePrefix));
+    }
+
+    @Test
+    public void transactionsLockingNodesOutOfOrderShouldNotDeadlockWithReinitialization() throws InterruptedException {
+        int noNodes = 1000;
+
+        try (Transaction tx = database.beginTx()) {
+            for (int i = NO_NODES; i < noNodes; i++) {
+                database.createNode();
+            }
+            tx.success();
+        }
+
+        module.reinitialize(database, null);
+
+        //every transaction locks a node with a higher ID before one with a lower ID, while the re-build runs
+        Random random = new Random(42);
+        while (new InitializationCheckpoint(database, prefix).exists()) {
+            long nodeId = 1 + random.nextInt(noNodes - 1);
+            try (Transaction tx = database.beginTx()) {
+                database.getNodeById(nodeId).createRelationshipTo(database.getNodeById(random.nextInt(noNodes)), withName("TEST"));
+                database.getNodeById(nodeId - 1).createRelationshipTo(database.getNodeById(random.nextInt(noNodes)), withName("TEST"));
+                tx.success();
+            }
+        }
+
+        String activePrefix = module.getActivePrefix(database);
+        assertFalse(prefix.equals(activePrefix));
+
+        try (Transaction tx = database.beginTx()) {
+            for (int i = 0; i < noNodes; i++) {
+                int expected = 0;
+                for (Relationship relationship : database.getNodeById(i).getRelationships()) {
+                    //self-relationships are cached as both outgoing and incoming
+                    expected += relationship.getStartNode().equals(relationship.getEndNode()) ? 4 : 2;
+                }
+                assertEquals(expected, totalCachedDegree(i, activePrefix));
+            }
+            tx.success();
+        }
+    }
+
+    private void awaitFailure() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (module.isShadowReinitializationRunning()) {
+            assertTrue("Re-initialization has not failed in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+    }
+
+    private void awaitReinitialization() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (new InitializationCheckpoint(database, prefix).exists()) {
+            assertTrue("Re-initialization has not finished in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+    }
+
+    private RelationshipCountConfigurationImpl configuration() {
+        return defaultConfiguration()
+                .with(new BlockingWeighingStrategy())
+                .withInitializationThreads(1)
+                .withInitializationBatchSize(2)
+                .withShadowReinitialization(true);
+    }
+
+    private int totalCachedDegree(long nodeId, String prefix) {
+        int result = 0;
+
+        try (Transaction tx = database.beginTx()) {
+            for (int degree : defaultConfiguration().getDegreeCachingStrategy().readDegrees(database.getNodeById(nodeId), prefix).values()) {
+                result += degree;
+            }
+            tx.success();
+        }
+
+        return result;
+    }
+
+    /**
+     * Weighs every relationship as 2, but blocks when weighing relationships of node 5 until released, so that the
+     * graph can be changed while re-initialization is in progress, or fails on them while failing is set.
+     */
+    public static class BlockingWeighingStrategy implements WeighingStrategy {
+
+        private static volatile CountDownLatch release;
+        private static volatile CountDownLatch blocked;
+        private static volatile boolean failing;
+
+        @Override
+        public int getRelationshipWeight(Relationship relationship, Node pointOfView) {
+            if (failing && pointOfView.getId() == 5) {
+                throw new IllegalStateException("Failing on purpose");
+            }
+            CountDownLatch latch = release;
+            if (latch != null && pointOfView.getId() == 5) {
+                blocked.countDown();
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return 2;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o != null && getClass() == o.getClass();
+        }
+
+        @Override
+        public int hashCode() {
+            return getClass().hashCode();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.perf;
+
+import com.graphaware.module.relcount.RelationshipCountConfigurationImpl;
+import com.graphaware.module.relcount.RelationshipCountModule;
+import com.graphaware.runtime.GraphAwareRuntime;
+import com.graphaware.runtime.GraphAwareRuntimeFactory;
+import com.graphaware.test.performance.ExponentialParameter;
+import com.graphaware.test.performance.Parameter;
+import com.graphaware.tx.executor.NullItem;
+import com.graphaware.tx.executor.batch.BatchTransactionExecutor;
+import com.graphaware.tx.executor.batch.NoInputBatchTransactionExecutor;
+import com.graphaware.tx.executor.batch.UnitOfWork;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import static com.graphaware.test.util.TestUtils.Timed;
+import static com.graphaware.test.util.TestUtils.time;
+
+/**
+ * Performance test for creating relationships around a single hub node with many distinct cached degrees, which
+ * stresses matching of relationship descriptions against the hub's cached degrees and compaction.
+ */
+public class CreateHubRelationships extends RelcountPerformanceTest {
+
+    private static final String THRESHOLD = "threshold";
+
+    private static final int NO_NODES = 100;
+    private static final int NO_RELATIONSHIPS = 5000;
+    private static final int BATCH_SIZE = 1000;
+
+    @Override
+    public String shortName() {
+        return "createHubRelationships";
+    }
+
+    @Override
+    public String longName() {
+        return "Create 5,000 Relationships With Distinct Properties Around a Hub Node";
+    }
+
+    @Override
+    public List<Parameter> parameters() {
+        List<Parameter> result = new LinkedList<>();
+
+        result.add(new ExponentialParameter(THRESHOLD, 10, 1, 2.5, 0.5));
+
+        return result;
+    }
+
+    @Override
+    public int dryRuns(Map<String, Object> stringObjectMap) {
+        return 1;
+    }
+
+    @Override
+    public int measuredRuns() {
+        return 10;
+    }
+
+    @Override
+    public Map<String, String> databaseParameters(Map<String, Object> params) {
+        return null;
+    }
+
+    @Override
+    public void prepare(GraphDatabaseService database, Map<String, Object> params) {
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+        runtime.registerModule(new RelationshipCountModule(RelationshipCountConfigurationImpl.defaultConfiguration()
+                .withThreshold((int) params.get(THRESHOLD))));
+        runtime.start();
+
+        new NoInputBatchTransactionExecutor(database, 1000, NO_NODES, new UnitOfWork<NullItem>() {
+            @Override
+            public void execute(GraphDatabaseService database, NullItem input, int batchNumber, int stepNumber) {
+                database.createNode();
+            }
+        }).execute();
+    }
+
+    @Override
+    public long run(GraphDatabaseService database, Map<String, Object> params) {
+        final BatchTransactionExecutor executor = new NoInputBatchTransactionExecutor(database, BATCH_SIZE, NO_RELATIONSHIPS, new UnitOfWork<NullItem>() {
+            @Override
+            public void execute(GraphDatabaseService database, NullItem input, int batchNumber, int stepNumber) {
+                Node hub = database.getNodeById(0);
+                Node other = randomNode(database, NO_NODES);
+
+                Relationship relationship = RANDOM.nextBoolean()
+                        ? hub.createRelationshipTo(other, randomType())
+                        : other.createRelationshipTo(hub, randomType());
+
+                relationship.setProperty("rating", RANDOM.nextInt(5) + 1);
+                relationship.setProperty("value", RANDOM.nextInt(1000));
+            }
+        });
+
+        return time(new Timed() {
+            @Override
+            public void time() {
+                executor.execute();
+            }
+        });
+    }
+
+    @Override
+    public RebuildDatabase rebuildDatabase() {
+        return RebuildDatabase.AFTER_EVERY_RUN;
+    }
+
+    @Override
+    public boolean rebuildDatabase(Map<String, Object> stringObjectMap) {
+        return false;
+    }
+}
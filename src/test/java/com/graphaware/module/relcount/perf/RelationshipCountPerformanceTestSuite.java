@@ -30,7 +30,8 @@ public class RelationshipCountPerformanceTestSuite extends PerformanceTestSuite
     protected PerformanceTest[] getPerfTests() {
         return new PerformanceTest[]{
                 new CreateRelationships(),
-                new CountRelationships()
+                new CountRelationships(),
+                new CreateHubRelationships()
         };
     }
 }
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.verify;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.module.relcount.RelationshipCountModule;
+import com.graphaware.module.relcount.cache.DegreeCachingStrategy;
+import com.graphaware.module.relcount.compact.ThresholdBasedCompactionStrategy;
+import com.graphaware.runtime.GraphAwareRuntime;
+import com.graphaware.runtime.GraphAwareRuntimeFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static com.graphaware.module.relcount.RelationshipCountConfigurationImpl.defaultConfiguration;
+import static com.graphaware.module.relcount.RelationshipCountModule.FULL_RELCOUNT_DEFAULT_ID;
+import static com.graphaware.runtime.RuntimeRegistry.getStartedRuntime;
+import static org.junit.Assert.assertEquals;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+
+/**
+ * Test for {@link ConsistencyVerifier}.
+ */
+public class ConsistencyVerifierTest {
+
+    private static final int NO_NODES = 10;
+
+    private GraphDatabaseService database;
+    private RelationshipCountModule module;
+
+    @Before
+    public void setUp() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+        runtime.registerModule(new RelationshipCountModule());
+        runtime.start();
+
+        try (Transaction tx = database.beginTx()) {
+            for (int i = 0; i < NO_NODES; i++) {
+                database.createNode();
+            }
+            for (int i = 0; i < NO_NODES; i++) {
+                database.getNodeById(i).createRelationshipTo(database.getNodeById((i + 1) % NO_NODES), withName("TEST"));
+            }
+            tx.success();
+        }
+
+        module = getStartedRuntime(database).getModule(FULL_RELCOUNT_DEFAULT_ID, RelationshipCountModule.class);
+    }
+
+    @After
+    public void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    public void consistentCountsShouldNotBeReportedAsDrifted() {
+        VerificationReport report = new ConsistencyVerifier(database, module, 2, false).verifyAll();
+
+        assertEquals(NO_NODES, report.getVerifiedNodes());
+        assertEquals(0, report.getDriftedNodes());
+        assertEquals(0, report.getTotalDrift());
+    }
+
+    @Test
+    public void driftedCountsShouldBeReported() {
+        removeCachedCounts(3);
+
+        VerificationReport report = new ConsistencyVerifier(database, module, 2, false).verifyAll();
+
+        assertEquals(NO_NODES, report.getVerifiedNodes());
+        assertEquals(1, report.getDriftedNodes());
+        assertEquals(2, report.getTotalDrift());
+        assertEquals(0, report.getRepairedNodes());
+        assertEquals(3L, (long) report.getDriftedNodeIds().get(0));
+
+        assertEquals(1, new ConsistencyVerifier(database, module, 2, false).verifyAll().getDriftedNodes());
+    }
+
+    @Test
+    public void driftedCountsShouldBeRepairedWhenConfiguredToDoSo() {
+        removeCachedCounts(3);
+        removeCachedCounts(7);
+
+        VerificationReport report = new ConsistencyVerifier(database, module, 2, true).verifySample(1000, new Random(42));
+
+        assertEquals(NO_NODES, report.getVerifiedNodes());
+        assertEquals(2, report.getDriftedNodes());
+        assertEquals(2, report.getRepairedNodes());
+
+        assertEquals(0, new ConsistencyVerifier(database, module, 2, false).verifyAll().getDriftedNodes());
+    }
+
+    @Test
+    public void sampledNodesShouldBeVerifiedOnlyOnce() {
+        for (int i = 0; i < NO_NODES; i++) {
+            removeCachedCounts(i);
+        }
+
+        VerificationReport report = new ConsistencyVerifier(database, module, 2, false).verifySample(NO_NODES / 2, new Random(42));
+
+        assertEquals(NO_NODES / 2, report.getVerifiedNodes());
+        assertEquals(NO_NODES / 2, new HashSet<>(report.getDriftedNodeIds()).size());
+    }
+
+    @Test
+    public void driftedPropertyLevelCountsShouldBeReportedAndRepaired() {
+        try (Transaction tx = database.beginTx()) {
+            for (int i = 0; i < 5; i++) {
+                database.getNodeById(0).createRelationshipTo(database.getNodeById(5), withName("RATED")).setProperty("stars", i < 3 ? 1 : 2);
+            }
+            tx.success();
+        }
+
+        //5 ratings with 1 star and none with 2 stars add up to the same total for the type and direction
+        String prefix = module.getActivePrefix(database);
+        DegreeCachingStrategy strategy = module.getConfiguration().getDegreeCachingStrategy();
+        try (Transaction tx = database.beginTx()) {
+            Node node = database.getNodeById(0);
+            Map<DetachedRelationshipDescription, Integer> degrees = new HashMap<>(strategy.readDegrees(node, prefix));
+            Set<DetachedRelationshipDescription> removed = new HashSet<>();
+            for (Map.Entry<DetachedRelationshipDescription, Integer> degree : degrees.entrySet()) {
+                if (degree.getKey().getType().name().equals("RATED")) {
+                    if (degree.getValue() == 3) {
+                        degree.setValue(5);
+                    } else {
+                        removed.add(degree.getKey());
+                    }
+                }
+            }
+            degrees.keySet().removeAll(removed);
+            strategy.writeDegrees(node, prefix, degrees, degrees.keySet(), removed);
+            tx.success();
+        }
+
+        VerificationReport report = new ConsistencyVerifier(database, module, 2, true).verifyAll();
+
+        assertEquals(1, report.getDriftedNodes());
+        assertEquals(4, report.getTotalDrift());
+        assertEquals(1, report.getRepairedNodes());
+
+        assertEquals(0, new ConsistencyVerifier(database, module, 2, false).verifyAll().getDriftedNodes());
+    }
+
+    @Test
+    public void pendingDeltasOfCompactedNodesShouldNotBeReportedAsDrift() {
+        database.shutdown();
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+        runtime.registerModule(new RelationshipCountModule(defaultConfiguration()
+                .with(new ThresholdBasedCompactionStrategy(2))
+                .withWriteBehindInterval(3_600_000)));
+        runtime.start();
+
+        module = getStartedRuntime(database).getModule(FULL_RELCOUNT_DEFAULT_ID, RelationshipCountModule.class);
+
+        try (Transaction tx = database.beginTx()) {
+            Node node = database.createNode();
+            for (int i = 0; i < 5; i++) {
+                node.createRelationshipTo(database.createNode(), withName("RATED")).setProperty("stars", i);
+            }
+            tx.success();
+        }
+
+        module.flushPendingDegreeDeltas(database);
+
+        try (Transaction tx = database.beginTx()) {
+            database.getNodeById(0).getRelationships().iterator().next().delete();
+            tx.success();
+        }
+
+        VerificationReport report = new ConsistencyVerifier(database, module, 2, false).verifyAll();
+
+        assertEquals(0, report.getDriftedNodes());
+        assertEquals(0, report.getTotalDrift());
+    }
+
+    private void removeCachedCounts(long nodeId) {
+        String prefix = module.getActivePrefix(database);
+
+        try (Transaction tx = database.beginTx()) {
+            Node node = database.getNodeById(nodeId);
+            for (String key : node.getPropertyKeys()) {
+                if (key.startsWith(prefix)) {
+                    node.removeProperty(key);
+                }
+            }
+            tx.success();
+        }
+    }
+}
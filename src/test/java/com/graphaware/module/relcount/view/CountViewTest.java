@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.view;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+import static org.neo4j.graphdb.Direction.*;
+
+/**
+ * Unit test for {@link CountView}.
+ */
+public class CountViewTest {
+
+    @Test
+    public void shouldParseViewWithGroupingKeys() {
+        CountView view = CountView.parse(" FOLLOWS:incoming:strength, since ");
+
+        assertEquals("FOLLOWS", view.getType());
+        assertEquals(INCOMING, view.getDirection());
+        assertEquals(new HashSet<>(asList("strength", "since")), view.getGroupingKeys());
+        assertEquals(new CountView("FOLLOWS", INCOMING, "since", "strength"), view);
+    }
+
+    @Test
+    public void shouldParseViewWithoutGroupingKeys() {
+        assertEquals(new CountView("LIKES", OUTGOING), CountView.parse("LIKES:OUTGOING"));
+    }
+
+    @Test
+    public void toStringShouldBeParseable() {
+        CountView view = new CountView("FOLLOWS", BOTH, "strength", "since");
+
+        assertEquals("FOLLOWS:BOTH:since,strength", view.toString());
+        assertEquals(view, CountView.parse(view.toString()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void viewWithoutDirectionShouldBeRejected() {
+        CountView.parse("FOLLOWS");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void viewWithInvalidDirectionShouldBeRejected() {
+        CountView.parse("FOLLOWS:SIDEWAYS:strength");
+    }
+
+    @Test
+    public void viewShouldCoverMatchingTypeAndDirection() {
+        assertTrue(new CountView("FOLLOWS", INCOMING).covers("FOLLOWS", INCOMING));
+        assertFalse(new CountView("FOLLOWS", INCOMING).covers("FOLLOWS", OUTGOING));
+        assertFalse(new CountView("FOLLOWS", INCOMING).covers("LIKES", INCOMING));
+        assertTrue(new CountView("FOLLOWS", BOTH).covers("FOLLOWS", OUTGOING));
+        assertTrue(new CountView("FOLLOWS", BOTH).covers("FOLLOWS", INCOMING));
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2013-2016 GraphAware
+ *
+ * This file is part of the GraphAware Framework.
+ *
+ * GraphAware Framework is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.graphaware.module.relcount.writebehind;
+
+import com.graphaware.module.relcount.RelationshipCountConfigurationImpl;
+import com.graphaware.module.relcount.RelationshipCountModule;
+import com.graphaware.module.relcount.cache.DegreeCachingNode;
+import com.graphaware.module.relcount.count.CachedRelationshipCounter;
+import com.graphaware.runtime.GraphAwareRuntime;
+import com.graphaware.runtime.GraphAwareRuntimeFactory;
+import com.graphaware.runtime.RuntimeRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.wildcard;
+import static com.graphaware.module.relcount.RelationshipCountConfigurationImpl.defaultConfiguration;
+import static com.graphaware.module.relcount.RelationshipCountModule.FULL_RELCOUNT_DEFAULT_ID;
+import static org.junit.Assert.*;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+
+/**
+ * Integration test for {@link RelationshipCountModule} maintaining cached counts by a {@link WriteBehindDegreeWriter}.
+ * The writer is configured not to run in the background during the test, so queued degree changes are only applied
+ * when flushed explicitly.
+ */
+public class WriteBehindIntegrationTest {
+
+    private static final int NO_NODES = 10;
+
+    private GraphDatabaseService database;
+    private RelationshipCountModule module;
+    private String prefix;
+    private String journalPrefix;
+
+    @Before
+    public void setUp() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        try (Transaction tx = database.beginTx()) {
+            for (int i = 0; i < NO_NODES; i++) {
+                database.createNode();
+            }
+            for (int i = 0; i < NO_NODES; i++) {
+                database.getNodeById(i).createRelationshipTo(database.getNodeById((i + 1) % NO_NODES), withName("TEST"));
+            }
+            tx.success();
+        }
+
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+        module = new RelationshipCountModule(configuration());
+        runtime.registerModule(module);
+        runtime.start();
+
+        prefix = RuntimeRegistry.getRuntime(database).getConfiguration().createPrefix(FULL_RELCOUNT_DEFAULT_ID);
+        journalPrefix = RuntimeRegistry.getRuntime(database).getConfiguration().createPrefix("PENDING_" + FULL_RELCOUNT_DEFAULT_ID);
+    }
+
+    @After
+    public void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    public void queuedChangesShouldBeCountedBeforeAndAfterTheyHaveBeenApplied() {
+        createRelationships(0, 1, 2);
+
+        assertEquals(2, totalCachedDegree(0));
+        assertEquals(2, totalCachedDegree(1));
+        assertEquals(3, count(0, OUTGOING));
+        assertEquals(3, count(1, INCOMING));
+
+        module.flushPendingDegreeDeltas(database);
+
+        assertTrue(module.getPendingDegreeDeltas().isEmpty());
+        assertTrue(new DegreeDeltaJournal(database, journalPrefix).readAll().isEmpty());
+        assertEquals(4, totalCachedDegree(0));
+        assertEquals(4, totalCachedDegree(1));
+        assertEquals(3, count(0, OUTGOING));
+        assertEquals(3, count(1, INCOMING));
+    }
+
+    @Test
+    public void queuedChangesShouldBeRecoveredFromJournal() {
+        createRelationships(0, 1, 2);
+        createRelationships(0, 2, 1);
+
+        RelationshipCountModule restarted = new RelationshipCountModule(configuration());
+        restarted.start(database);
+
+        try {
+            assertEquals(module.getPendingDegreeDeltas().get(0), restarted.getPendingDegreeDeltas().get(0));
+            assertEquals(module.getPendingDegreeDeltas().get(1), restarted.getPendingDegreeDeltas().get(1));
+            assertEquals(module.getPendingDegreeDeltas().get(2), restarted.getPendingDegreeDeltas().get(2));
+            assertEquals(3, restarted.getPendingDegreeDeltas().get(0).values().iterator().next().intValue());
+        } finally {
+            restarted.shutdown();
+        }
+    }
+
+    @Test
+    public void changesOfDeletedNodesShouldBeSkippedAndCancellingChangesCoalesced() {
+        long nodeId;
+        try (Transaction tx = database.beginTx()) {
+            nodeId = database.createNode().getId();
+            database.getNodeById(nodeId).createRelationshipTo(database.getNodeById(0), withName("TEST"));
+            tx.success();
+        }
+
+        try (Transaction tx = database.beginTx()) {
+            Node node = database.getNodeById(nodeId);
+            for (Relationship relationship : node.getRelationships()) {
+                relationship.delete();
+            }
+            node.delete();
+            tx.success();
+        }
+
+        assertTrue(module.getPendingDegreeDeltas().get(0).isEmpty());
+        assertTrue(module.getPendingDegreeDeltas().get(nodeId).isEmpty());
+        assertTrue(new DegreeDeltaJournal(database, journalPrefix).readAll().get(nodeId).isEmpty());
+
+        module.flushPendingDegreeDeltas(database);
+
+        assertTrue(module.getPendingDegreeDeltas().isEmpty());
+        assertEquals(2, totalCachedDegree(0));
+        assertEquals(1, count(0, INCOMING));
+    }
+
+    @Test
+    public void changesOfRecountedNodesShouldNotBeCountedTwice() {
+        try (Transaction tx = database.beginTx()) {
+            for (Relationship relationship : database.getNodeById(0).getRelationships(OUTGOING)) {
+                relationship.delete();
+            }
+            tx.success();
+        }
+
+        for (int i = 0; i < 100; i++) {
+            createRelationships(0, 1, 1);
+        }
+
+        try (Transaction tx = database.beginTx()) {
+            DegreeCachingNode cachingNode = new DegreeCachingNode(database.getNodeById(0), prefix, configuration());
+            cachingNode.deleteAllDegrees();
+            cachingNode.flush();
+            tx.success();
+        }
+
+        //applying the coalesced changes finds the degree missing and recounts the node
+        module.flushPendingDegreeDeltas(database);
+
+        assertTrue(module.getPendingDegreeDeltas().isEmpty());
+        assertTrue(new DegreeDeltaJournal(database, journalPrefix).readAll().isEmpty());
+        assertEquals(101, totalCachedDegree(0));
+        assertEquals(100, count(0, OUTGOING));
+    }
+
+    @Test
+    public void journalShouldNotCreateNodes() {
+        for (int i = 0; i < NO_NODES; i++) {
+            createRelationships(i, (i + 3) % NO_NODES, 2);
+        }
+
+        assertEquals(NO_NODES, numberOfNodes());
+        assertEquals(NO_NODES, new DegreeDeltaJournal(database, journalPrefix).readAll().getNodeIds().size());
+
+        module.flushPendingDegreeDeltas(database);
+
+        assertEquals(NO_NODES, numberOfNodes());
+        assertTrue(new DegreeDeltaJournal(database, journalPrefix).readAll().isEmpty());
+    }
+
+    @Test
+    public void journalShouldNotCreatePropertyKeysPerNode() {
+        createRelationships(0, 1, 1);
+
+        int propertyKeys = numberOfPropertyKeys();
+
+        for (int i = 2; i < NO_NODES; i++) {
+            createRelationships(i, (i + 3) % NO_NODES, 1);
+        }
+
+        assertEquals(propertyKeys, numberOfPropertyKeys());
+
+        module.flushPendingDegreeDeltas(database);
+
+        assertEquals(4, totalCachedDegree(0));
+        assertEquals(4, totalCachedDegree(2));
+    }
+
+    private int numberOfNodes() {
+        int result = 0;
+
+        try (Transaction tx = database.beginTx()) {
+            for (Node ignored : GlobalGraphOperations.at(database).getAllNodes()) {
+                result++;
+            }
+            tx.success();
+        }
+
+        return result;
+    }
+
+    private int numberOfPropertyKeys() {
+        int result = 0;
+
+        try (Transaction tx = database.beginTx()) {
+            for (String ignored : GlobalGraphOperations.at(database).getAllPropertyKeys()) {
+                result++;
+            }
+            tx.success();
+        }
+
+        return result;
+    }
+
+    private RelationshipCountConfigurationImpl configuration() {
+        return defaultConfiguration().withWriteBehindInterval(3_600_000);
+    }
+
+    private void createRelationships(long from, long to, int number) {
+        try (Transaction tx = database.beginTx()) {
+            for (int i = 0; i < number; i++) {
+                database.getNodeById(from).createRelationshipTo(database.getNodeById(to), withName("TEST"));
+            }
+            tx.success();
+        }
+    }
+
+    private int count(long nodeId, Direction direction) {
+        try (Transaction tx = database.beginTx()) {
+            int result = new CachedRelationshipCounter(database).count(database.getNodeById(nodeId), wildcard("TEST", direction));
+            tx.success();
+            return result;
+        }
+    }
+
+    private int totalCachedDegree(long nodeId) {
+        int result = 0;
+
+        try (Transaction tx = database.beginTx()) {
+            for (int degree : defaultConfiguration().getDegreeCachingStrategy().readDegrees(database.getNodeById(nodeId), prefix).values()) {
+                result += degree;
+            }
+            tx.success();
+        }
+
+        return result;
+    }
+}